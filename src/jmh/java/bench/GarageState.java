@@ -0,0 +1,137 @@
+package bench;
+
+import domain.Car;
+import domain.Garage;
+import domain.Owner;
+import impl.ColumnarGarage;
+import impl.ConcurrentGarage;
+import impl.GarageImpl;
+import impl.InstrumentedGarage;
+import impl.ShardedGarage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Garage of {@code cars} generated cars spread over {@code brands} brands and {@code owners} owners.
+ *
+ * Cars get ids [0, cars), power in [0, 1000) and max velocity in [0, 400), so range queries select a
+ * predictable share of the garage whatever its size.
+ *
+ * The default matrix keeps a full run short. Larger garages and other spreads are picked on the command line,
+ * e.g. {@code -p cars=10000000 -p brands=10,1000 -p owners=1000,1000000}.
+ */
+@State(Scope.Benchmark)
+public class GarageState {
+
+    static final int MAX_POWER = 1_000;
+    static final int MAX_VELOCITY = 400;
+
+    @Param({"GarageImpl", "ConcurrentGarage", "ShardedGarage", "ColumnarGarage"})
+    public String impl;
+
+    @Param({"10000", "1000000"})
+    public int cars;
+
+    @Param({"100"})
+    public int brands;
+
+    @Param({"10000"})
+    public int owners;
+
+    Garage garage;
+    String[] brandNames;
+    Owner[] ownerList;
+
+    // owner id of every car added by fill
+    int[] ownerIds;
+
+    private final SplittableRandom random = new SplittableRandom(42);
+
+    void fill() {
+        garage = newGarage();
+        generateOwners();
+
+        ownerIds = new int[cars];
+        for (int carId = 0; carId < cars; carId++) {
+            Car car = newCar(carId);
+            ownerIds[carId] = car.getOwnerId();
+            garage.addCar(car, ownerOf(car));
+        }
+    }
+
+    void generateOwners() {
+        brandNames = new String[brands];
+        for (int i = 0; i < brands; i++) {
+            brandNames[i] = "brand-" + i;
+        }
+
+        ownerList = new Owner[owners];
+        for (int i = 0; i < owners; i++) {
+            ownerList[i] = new Owner(i, "name", "last-name", 18 + random.nextInt(70));
+        }
+    }
+
+    void addCar(long carId) {
+        Car car = newCar(carId);
+        garage.addCar(car, ownerOf(car));
+    }
+
+    Car newCar(long carId) {
+        return new Car(carId, brandNames[random.nextInt(brands)], "model", random.nextInt(MAX_VELOCITY),
+            random.nextInt(MAX_POWER), random.nextInt(owners));
+    }
+
+    Owner ownerOf(Car car) {
+        return ownerList[car.getOwnerId()];
+    }
+
+    Garage newGarage() {
+        switch (impl) {
+            case "GarageImpl":
+                return new GarageImpl();
+            case "InstrumentedGarage":
+                // -p impl=GarageImpl,InstrumentedGarage measures the cost of the metrics
+                return new InstrumentedGarage(new GarageImpl());
+            case "ConcurrentGarage":
+                return new ConcurrentGarage();
+            case "ShardedGarage":
+                return new ShardedGarage();
+            case "ColumnarGarage":
+                return newColumnarGarage();
+            default:
+                throw new IllegalArgumentException("Unknown garage implementation: " + impl);
+        }
+    }
+
+    String randomBrand() {
+        return brandNames[random.nextInt(brands)];
+    }
+
+    Owner randomOwner() {
+        return ownerList[random.nextInt(owners)];
+    }
+
+    int randomInt(int bound) {
+        return random.nextInt(bound);
+    }
+
+    double randomDouble() {
+        return random.nextDouble();
+    }
+
+    private static Garage newColumnarGarage() {
+        try {
+            Path file = Files.createTempFile("garage-bench", ".columns");
+            file.toFile().deleteOnExit();
+            return ColumnarGarage.open(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
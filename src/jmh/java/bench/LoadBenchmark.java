@@ -0,0 +1,59 @@
+package bench;
+
+import domain.Car;
+import domain.Garage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Warm load of {@code cars} cars into an empty garage: one {@code addCar} per car against a single
+ * {@code addCars} batch. The cars are generated once per trial, each invocation loads them into a new garage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+public class LoadBenchmark extends GarageState {
+
+    private List<Car> batch;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        generateOwners();
+
+        batch = new ArrayList<>(cars);
+        for (int carId = 0; carId < cars; carId++) {
+            batch.add(newCar(carId));
+        }
+    }
+
+    @Benchmark
+    public Garage addCarLoop() {
+        Garage garage = newGarage();
+        for (Car car : batch) {
+            garage.addCar(car, ownerOf(car));
+        }
+        return garage;
+    }
+
+    @Benchmark
+    public Garage addCars() {
+        Garage garage = newGarage();
+        garage.addCars(batch, this::ownerOf);
+        return garage;
+    }
+}
@@ -0,0 +1,239 @@
+package bench;
+
+import domain.Car;
+import domain.CarPage;
+import domain.CarQuery;
+import domain.Garage;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Every query of {@link domain.Garage} against a garage that does not change during the trial.
+ *
+ * Collection results are sized, so a lazy view pays for what a caller would observe - an O(n) size() of
+ * a view shows up here even if creating the view is O(1).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+public class ReadBenchmark extends GarageState {
+
+    private static final int PAGE_SIZE = 100;
+
+    // ten buckets over the whole range of each attribute
+    private static final int[] POWER_BOUNDS = {0, 100, 200, 300, 400, 500, 600, 700, 800, 900};
+    private static final int[] VELOCITY_BOUNDS = {0, 40, 80, 120, 160, 200, 240, 280, 320, 360};
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fill();
+    }
+
+    @Benchmark
+    public int allCarsUniqueOwners() {
+        return garage.allCarsUniqueOwners().size();
+    }
+
+    @Benchmark
+    public Collection<Car> topThreeCarsByMaxVelocity() {
+        return garage.topThreeCarsByMaxVelocity();
+    }
+
+    @Benchmark
+    public Collection<Car> topTenCarsByMaxVelocity() {
+        return garage.topCarsByMaxVelocity(10);
+    }
+
+    @Benchmark
+    public Collection<Car> topTenCarsByPower() {
+        return garage.topCarsByPower(10);
+    }
+
+    @Benchmark
+    public int allCarsOfBrand() {
+        return garage.allCarsOfBrand(randomBrand()).size();
+    }
+
+    @Benchmark
+    public int allCarsOfOwner() {
+        return garage.allCarsOfOwner(randomOwner()).size();
+    }
+
+    @Benchmark
+    public int carsWithPowerMoreThan() {
+        return garage.carsWithPowerMoreThan(randomInt(MAX_POWER)).size();
+    }
+
+    @Benchmark
+    public int carsWithVelocityBetween() {
+        int from = randomInt(MAX_VELOCITY);
+        return garage.carsWithVelocityBetween(from, from + 20).size();
+    }
+
+    @Benchmark
+    public int carsWithPowerBetween() {
+        int from = randomInt(MAX_POWER);
+        return garage.carsWithPowerBetween(from, from + 50).size();
+    }
+
+    @Benchmark
+    public int countCarsWithPowerBetween() {
+        int from = randomInt(MAX_POWER);
+        return garage.countCarsWithPowerBetween(from, from + 50);
+    }
+
+    @Benchmark
+    public int countCarsWithVelocityBetween() {
+        int from = randomInt(MAX_VELOCITY);
+        return garage.countCarsWithVelocityBetween(from, from + 20);
+    }
+
+    @Benchmark
+    public double powerPercentileRank() {
+        return garage.powerPercentileRank(randomInt(MAX_POWER));
+    }
+
+    @Benchmark
+    public double velocityPercentileRank() {
+        return garage.velocityPercentileRank(randomInt(MAX_VELOCITY));
+    }
+
+    @Benchmark
+    public Car carAtPowerPercentile() {
+        return garage.carAtPowerPercentile(randomDouble());
+    }
+
+    @Benchmark
+    public Car carAtVelocityPercentile() {
+        return garage.carAtVelocityPercentile(randomDouble());
+    }
+
+    @Benchmark
+    public Car carOfBrandAtPowerPercentile() {
+        return garage.carOfBrandAtPowerPercentile(randomBrand(), randomDouble());
+    }
+
+    @Benchmark
+    public Car carOfBrandAtVelocityPercentile() {
+        return garage.carOfBrandAtVelocityPercentile(randomBrand(), randomDouble());
+    }
+
+    @Benchmark
+    public int[] powerHistogram() {
+        return garage.powerHistogram(POWER_BOUNDS);
+    }
+
+    @Benchmark
+    public int[] velocityHistogram() {
+        return garage.velocityHistogram(VELOCITY_BOUNDS);
+    }
+
+    @Benchmark
+    public int[] powerHistogramOfBrand() {
+        return garage.powerHistogramOfBrand(randomBrand(), POWER_BOUNDS);
+    }
+
+    @Benchmark
+    public int[] velocityHistogramOfBrand() {
+        return garage.velocityHistogramOfBrand(randomBrand(), VELOCITY_BOUNDS);
+    }
+
+    @Benchmark
+    public int carsOfBrandWithPowerBetween() {
+        int from = randomInt(MAX_POWER);
+        return garage.carsOfBrandWithPowerBetween(randomBrand(), from, from + 50).size();
+    }
+
+    @Benchmark
+    public int countCarsOfBrandWithPowerBetween() {
+        int from = randomInt(MAX_POWER);
+        return garage.countCarsOfBrandWithPowerBetween(randomBrand(), from, from + 50);
+    }
+
+    @Benchmark
+    public int carsOfOwnerAndBrand() {
+        return garage.carsOfOwnerAndBrand(randomOwner(), randomBrand()).size();
+    }
+
+    @Benchmark
+    public int countCarsOfOwnerAndBrand() {
+        return garage.countCarsOfOwnerAndBrand(randomOwner(), randomBrand());
+    }
+
+    @Benchmark
+    public int carsWithPowerAndVelocityBetween() {
+        int power = randomInt(MAX_POWER);
+        int velocity = randomInt(MAX_VELOCITY);
+        return garage.carsWithPowerAndVelocityBetween(power, power + 100, velocity, velocity + 40).size();
+    }
+
+    @Benchmark
+    public int countCarsWithPowerAndVelocityBetween() {
+        int power = randomInt(MAX_POWER);
+        int velocity = randomInt(MAX_VELOCITY);
+        return garage.countCarsWithPowerAndVelocityBetween(power, power + 100, velocity, velocity + 40);
+    }
+
+    @Benchmark
+    public int carsWithPowerAndVelocityAtLeast() {
+        return garage.carsWithPowerAndVelocityAtLeast(MAX_POWER - 1 - randomInt(50),
+            MAX_VELOCITY - 1 - randomInt(20)).size();
+    }
+
+    @Benchmark
+    public int skylineOfBrand() {
+        return garage.skylineOfBrand(randomBrand()).size();
+    }
+
+    @Benchmark
+    public int query() {
+        int from = randomInt(MAX_POWER);
+        return garage.query(CarQuery.builder().brand(randomBrand()).minPower(from).maxPower(from + 50).build())
+            .size();
+    }
+
+    @Benchmark
+    public CarPage queryPage() {
+        int from = randomInt(MAX_POWER);
+        CarQuery query = CarQuery.builder().minPower(from).maxPower(from + 50).build();
+        // the second page, so resuming from a token is measured too
+        CarPage page = garage.queryPage(query, null, PAGE_SIZE);
+        return page.hasNext() ? garage.queryPage(query, page.getNextPageToken(), PAGE_SIZE) : page;
+    }
+
+    @Benchmark
+    public long stream() {
+        int from = randomInt(MAX_VELOCITY);
+        return garage.stream(CarQuery.builder().minVelocity(from).maxVelocity(from + 20).limit(PAGE_SIZE).build())
+            .count();
+    }
+
+    @Benchmark
+    public Garage snapshot() {
+        return garage.snapshot();
+    }
+
+    @Benchmark
+    public int meanOwnersAgeOfCarBrand() {
+        return garage.meanOwnersAgeOfCarBrand(randomBrand());
+    }
+
+    @Benchmark
+    public int meanCarNumberForEachOwner() {
+        return garage.meanCarNumberForEachOwner();
+    }
+}
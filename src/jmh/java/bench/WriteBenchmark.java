@@ -0,0 +1,89 @@
+package bench;
+
+import domain.Car;
+import domain.Garage;
+import domain.Owner;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Every write of {@link Garage} against a garage rebuilt before every iteration.
+ *
+ * Removed ids can never be added again, so there is no steady-state benchmark of removeCar alone:
+ * {@code addCar} inserts fresh ids (the garage grows by the iteration's operation count), and {@code churn}
+ * removes the oldest live car and adds a fresh one, keeping the size constant. The cost of a removal is
+ * roughly {@code churn - addCar}. {@code snapshotAndAddCar} adds the copy a write pays after a snapshot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+public class WriteBenchmark extends GarageState {
+
+    private long nextId;
+    private int oldestId;
+    private long nextOwnerId;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        fill();
+        nextId = cars;
+        oldestId = 0;
+        nextOwnerId = owners;
+    }
+
+    @Benchmark
+    public void addCar() {
+        addCar(nextId++);
+    }
+
+    @Benchmark
+    public Car churn() {
+        addCar(nextId++);
+        return garage.removeCar(oldestId++);
+    }
+
+    @Benchmark
+    public Car updateCar() {
+        int carId = randomInt(cars);
+        return garage.updateCar(new Car(carId, randomBrand(), "model", randomInt(MAX_VELOCITY), randomInt(MAX_POWER),
+            ownerIds[carId]));
+    }
+
+    @Benchmark
+    public Car transferOwnership() {
+        return garage.transferOwnership(randomInt(cars), randomOwner());
+    }
+
+    @Benchmark
+    public boolean addOwner() {
+        return garage.addOwner(new Owner(nextOwnerId++, "name", "last-name", 18 + randomInt(70)));
+    }
+
+    @Benchmark
+    public boolean updateOwner() {
+        // an owner with cars, so the aggregates of the cars follow the new age
+        Owner owner = ownerList[ownerIds[randomInt(cars)]];
+        return garage.updateOwner(new Owner(owner.getOwnerId(), owner.getName(), owner.getLastName(),
+            18 + randomInt(70)));
+    }
+
+    @Benchmark
+    public Garage snapshotAndAddCar() {
+        Garage snapshot = garage.snapshot();
+        addCar(nextId++);
+        return snapshot;
+    }
+}
@@ -21,12 +21,22 @@ public class Car {
         this.ownerId = ownerId;
     }
 
+    /**
+     * For views that read their attributes from elsewhere, they override every getter
+     */
+    protected Car() {
+        this(DEFAULT_INT, null, null, DEFAULT_INT, DEFAULT_INT, DEFAULT_INT);
+    }
+
     public static Car proxy(long carId) {
         return new Car(carId, null, null,  DEFAULT_INT, DEFAULT_INT, DEFAULT_INT);
     }
 
+    /**
+     * @return car ordered before every real car with the given power
+     */
     public static Car proxyByPower(int power) {
-        return new Car(DEFAULT_INT, null, null,  DEFAULT_INT, power, DEFAULT_INT);
+        return new Car(Long.MIN_VALUE, null, null,  DEFAULT_INT, power, DEFAULT_INT);
     }
 
     public long getCarId() {
@@ -55,7 +65,7 @@ public class Car {
 
     @Override
     public int hashCode() {
-        return Objects.hash(carId);
+        return Objects.hash(getCarId());
     }
 
     @Override
@@ -63,9 +73,9 @@ public class Car {
         if (this == o) {
             return true;
         }
-        if (o == null || getClass() != o.getClass()) {
+        if (!(o instanceof Car)) {
             return false;
         }
-        return carId == ((Car) o).carId;
+        return getCarId() == ((Car) o).getCarId();
     }
 }
\ No newline at end of file
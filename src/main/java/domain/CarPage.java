@@ -0,0 +1,34 @@
+package domain;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of {@link Garage#queryPage(CarQuery, String, int)}: a copy of at most page size cars and the
+ * token of the next page.
+ */
+public final class CarPage {
+
+    private final List<Car> cars;
+    private final String nextPageToken;
+
+    public CarPage(List<Car> cars, String nextPageToken) {
+        this.cars = Collections.unmodifiableList(cars);
+        this.nextPageToken = nextPageToken;
+    }
+
+    public List<Car> getCars() {
+        return cars;
+    }
+
+    /**
+     * @return opaque token of the next page, null for the last page
+     */
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+
+    public boolean hasNext() {
+        return nextPageToken != null;
+    }
+}
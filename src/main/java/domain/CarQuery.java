@@ -0,0 +1,176 @@
+package domain;
+
+import java.util.Objects;
+
+/**
+ * Conjunction of car criteria for {@link Garage#query(CarQuery)}, built with {@link #builder()}.
+ *
+ * Every criterion is optional, bounds are inclusive. Immutable.
+ */
+public final class CarQuery {
+
+    private final String brand;
+    private final Owner owner;
+    private final int minPower;
+    private final int maxPower;
+    private final int minVelocity;
+    private final int maxVelocity;
+    private final int limit;
+
+    private CarQuery(Builder builder) {
+        this.brand = builder.brand;
+        this.owner = builder.owner;
+        this.minPower = builder.minPower;
+        this.maxPower = builder.maxPower;
+        this.minVelocity = builder.minVelocity;
+        this.maxVelocity = builder.maxVelocity;
+        this.limit = builder.limit;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return brand the cars must have, null for any brand
+     */
+    public String getBrand() {
+        return brand;
+    }
+
+    /**
+     * @return owner the cars must belong to, null for any owner
+     */
+    public Owner getOwner() {
+        return owner;
+    }
+
+    public int getMinPower() {
+        return minPower;
+    }
+
+    public int getMaxPower() {
+        return maxPower;
+    }
+
+    public int getMinVelocity() {
+        return minVelocity;
+    }
+
+    public int getMaxVelocity() {
+        return maxVelocity;
+    }
+
+    /**
+     * @return largest number of cars to return
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    public boolean hasPowerRange() {
+        return minPower != Integer.MIN_VALUE || maxPower != Integer.MAX_VALUE;
+    }
+
+    public boolean hasVelocityRange() {
+        return minVelocity != Integer.MIN_VALUE || maxVelocity != Integer.MAX_VALUE;
+    }
+
+    public boolean matches(Car car) {
+        return (brand == null || brand.equals(car.getBrand()))
+            && (owner == null || owner.getOwnerId() == car.getOwnerId())
+            && car.getPower() >= minPower && car.getPower() <= maxPower
+            && car.getMaxVelocity() >= minVelocity && car.getMaxVelocity() <= maxVelocity;
+    }
+
+    /**
+     * Queries with the same criteria are equal, owners are compared by id
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        CarQuery query = (CarQuery) o;
+        return minPower == query.minPower && maxPower == query.maxPower
+            && minVelocity == query.minVelocity && maxVelocity == query.maxVelocity
+            && limit == query.limit
+            && Objects.equals(brand, query.brand) && Objects.equals(owner, query.owner);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(brand, owner, minPower, maxPower, minVelocity, maxVelocity, limit);
+    }
+
+    @Override
+    public String toString() {
+        return "CarQuery{"
+            + "brand=" + brand
+            + ", owner=" + (owner == null ? null : owner.getOwnerId())
+            + ", power=[" + minPower + ", " + maxPower + "]"
+            + ", velocity=[" + minVelocity + ", " + maxVelocity + "]"
+            + ", limit=" + limit
+            + '}';
+    }
+
+    public static final class Builder {
+
+        private String brand;
+        private Owner owner;
+        private int minPower = Integer.MIN_VALUE;
+        private int maxPower = Integer.MAX_VALUE;
+        private int minVelocity = Integer.MIN_VALUE;
+        private int maxVelocity = Integer.MAX_VALUE;
+        private int limit = Integer.MAX_VALUE;
+
+        private Builder() {
+        }
+
+        public Builder brand(String brand) {
+            this.brand = Objects.requireNonNull(brand);
+            return this;
+        }
+
+        public Builder owner(Owner owner) {
+            this.owner = Objects.requireNonNull(owner);
+            return this;
+        }
+
+        public Builder minPower(int minPower) {
+            this.minPower = minPower;
+            return this;
+        }
+
+        public Builder maxPower(int maxPower) {
+            this.maxPower = maxPower;
+            return this;
+        }
+
+        public Builder minVelocity(int minVelocity) {
+            this.minVelocity = minVelocity;
+            return this;
+        }
+
+        public Builder maxVelocity(int maxVelocity) {
+            this.maxVelocity = maxVelocity;
+            return this;
+        }
+
+        public Builder limit(int limit) {
+            if (limit < 0) {
+                throw new IllegalArgumentException("limit must not be negative: " + limit);
+            }
+            this.limit = limit;
+            return this;
+        }
+
+        public CarQuery build() {
+            return new CarQuery(this);
+        }
+    }
+}
@@ -1,6 +1,17 @@
 package domain;
 
 import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.IntBinaryOperator;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public interface Garage {
 
@@ -11,6 +22,18 @@ public interface Garage {
      */
     Collection<Car> topThreeCarsByMaxVelocity();
 
+    /**
+     * Complexity should be O(k)
+     * @return at most k cars with the highest max velocity, fastest first
+     */
+    Collection<Car> topCarsByMaxVelocity(int k);
+
+    /**
+     * Complexity should be O(k)
+     * @return at most k cars with the highest power, most powerful first
+     */
+    Collection<Car> topCarsByPower(int k);
+
     /**
      * Complexity should be O(1)
      */
@@ -21,18 +44,284 @@ public interface Garage {
      */
     Collection<Car> carsWithPowerMoreThan(int power);
 
+    /**
+     * Complexity should be less than O(n)
+     * @return cars with power in [from, to]
+     */
+    Collection<Car> carsWithPowerBetween(int from, int to);
+
+    /**
+     * Complexity should be less than O(n)
+     * @return cars with max velocity in [from, to]
+     */
+    Collection<Car> carsWithVelocityBetween(int from, int to);
+
+    /**
+     * Complexity should be O(log n)
+     * @return number of cars with power in [from, to]
+     */
+    int countCarsWithPowerBetween(int from, int to);
+
+    /**
+     * Complexity should be O(log n)
+     * @return number of cars with max velocity in [from, to]
+     */
+    int countCarsWithVelocityBetween(int from, int to);
+
+    /**
+     * Complexity should be O(log n)
+     * @return share of cars in [0, 1] with power less than the given one
+     */
+    double powerPercentileRank(int power);
+
+    /**
+     * Complexity should be O(log n)
+     * @return share of cars in [0, 1] with max velocity less than the given one
+     */
+    double velocityPercentileRank(int velocity);
+
+    /**
+     * Complexity should be O(log n)
+     * @param percentile in [0, 1]
+     * @return nearest-rank car of the power distribution, null if there are no cars
+     */
+    Car carAtPowerPercentile(double percentile);
+
+    /**
+     * Complexity should be O(log n)
+     * @param percentile in [0, 1]
+     * @return nearest-rank car of the max velocity distribution, null if there are no cars
+     */
+    Car carAtVelocityPercentile(double percentile);
+
+    /**
+     * Complexity should be O(log n)
+     * The default is a linear fallback that sorts a copy of the brand - O(b log b) for b cars of the brand,
+     * implementations with per-brand order statistics override it
+     * @param percentile in [0, 1]
+     * @return nearest-rank car of the power distribution of the brand, null if the brand has no cars
+     */
+    default Car carOfBrandAtPowerPercentile(String brand, double percentile) {
+        return atPercentile(allCarsOfBrand(brand), Car::getPower, percentile);
+    }
+
+    /**
+     * Complexity should be O(log n)
+     * The default is a linear fallback that sorts a copy of the brand - O(b log b) for b cars of the brand,
+     * implementations with per-brand order statistics override it
+     * @param percentile in [0, 1]
+     * @return nearest-rank car of the max velocity distribution of the brand, null if the brand has no cars
+     */
+    default Car carOfBrandAtVelocityPercentile(String brand, double percentile) {
+        return atPercentile(allCarsOfBrand(brand), Car::getMaxVelocity, percentile);
+    }
+
+    /**
+     * Complexity should be O(bounds * log n)
+     * The default asks {@link #countCarsWithPowerBetween} once per bucket, so it is O(bounds) times that count
+     * @param bounds strictly ascending lower bounds of the buckets
+     * @return number of cars with power in [bounds[i], bounds[i + 1]) for every bucket, the last bucket has no
+     *     upper bound and cars below bounds[0] are not counted
+     */
+    default int[] powerHistogram(int[] bounds) {
+        return histogram(bounds, this::countCarsWithPowerBetween);
+    }
+
+    /**
+     * Complexity should be O(bounds * log n)
+     * The default asks {@link #countCarsWithVelocityBetween} once per bucket, so it is O(bounds) times that count
+     * @param bounds strictly ascending lower bounds of the buckets
+     * @return number of cars with max velocity in [bounds[i], bounds[i + 1]) for every bucket, the last bucket
+     *     has no upper bound and cars below bounds[0] are not counted
+     */
+    default int[] velocityHistogram(int[] bounds) {
+        return histogram(bounds, this::countCarsWithVelocityBetween);
+    }
+
+    /**
+     * Complexity should be O(bounds * log n)
+     * The default is a linear fallback that walks the brand - O(b log bounds) for b cars of the brand,
+     * implementations with per-brand order statistics override it
+     * @param bounds strictly ascending lower bounds of the buckets
+     * @return {@link #powerHistogram} of the cars of the brand
+     */
+    default int[] powerHistogramOfBrand(String brand, int[] bounds) {
+        return histogram(allCarsOfBrand(brand), Car::getPower, bounds);
+    }
+
+    /**
+     * Complexity should be O(bounds * log n)
+     * The default is a linear fallback that walks the brand - O(b log bounds) for b cars of the brand,
+     * implementations with per-brand order statistics override it
+     * @param bounds strictly ascending lower bounds of the buckets
+     * @return {@link #velocityHistogram} of the cars of the brand
+     */
+    default int[] velocityHistogramOfBrand(String brand, int[] bounds) {
+        return histogram(allCarsOfBrand(brand), Car::getMaxVelocity, bounds);
+    }
+
     /**
      * Complexity should be O(1)
      */
     Collection<Car> allCarsOfOwner(Owner owner);
 
     /**
-     * @return mean value of owner age that has cars with given brand
+     * Complexity should be less than O(n)
+     * @return cars of the brand with power in [from, to]
+     */
+    default Collection<Car> carsOfBrandWithPowerBetween(String brand, int from, int to) {
+        Collection<Car> cars = allCarsOfBrand(brand);
+        if (cars == null) {
+            return Collections.emptyList();
+        }
+        return cars.stream()
+            .filter(car -> car.getPower() >= from && car.getPower() <= to)
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Complexity should be less than O(n)
+     * @return number of cars of the brand with power in [from, to]
+     */
+    default int countCarsOfBrandWithPowerBetween(String brand, int from, int to) {
+        return carsOfBrandWithPowerBetween(brand, from, to).size();
+    }
+
+    /**
+     * Complexity should be less than O(n)
+     * @return cars of the owner with the brand
+     */
+    default Collection<Car> carsOfOwnerAndBrand(Owner owner, String brand) {
+        Collection<Car> cars = allCarsOfOwner(owner);
+        if (cars == null) {
+            return Collections.emptyList();
+        }
+        return cars.stream()
+            .filter(car -> Objects.equals(car.getBrand(), brand))
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Complexity should be less than O(n)
+     * @return number of cars of the owner with the brand
+     */
+    default int countCarsOfOwnerAndBrand(Owner owner, String brand) {
+        return carsOfOwnerAndBrand(owner, brand).size();
+    }
+
+    /**
+     * Complexity should be O(sqrt n + k) for k cars found
+     * @return cars with power in [fromPower, toPower] and max velocity in [fromVelocity, toVelocity], in no
+     *     particular order
+     */
+    default Collection<Car> carsWithPowerAndVelocityBetween(int fromPower, int toPower, int fromVelocity,
+        int toVelocity) {
+        return carsWithPowerBetween(fromPower, toPower).stream()
+            .filter(car -> car.getMaxVelocity() >= fromVelocity && car.getMaxVelocity() <= toVelocity)
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Complexity should be O(sqrt n)
+     * @return number of cars with power in [fromPower, toPower] and max velocity in [fromVelocity, toVelocity]
+     */
+    default int countCarsWithPowerAndVelocityBetween(int fromPower, int toPower, int fromVelocity, int toVelocity) {
+        return carsWithPowerAndVelocityBetween(fromPower, toPower, fromVelocity, toVelocity).size();
+    }
+
+    /**
+     * Complexity should be O(sqrt n + k) for k cars found
+     * @return cars with at least the power and at least the max velocity, in no particular order
+     */
+    default Collection<Car> carsWithPowerAndVelocityAtLeast(int power, int velocity) {
+        return carsWithPowerAndVelocityBetween(power, Integer.MAX_VALUE, velocity, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Complexity should be less than O(b) for b cars of the brand
+     * @return cars of the brand no other car of the brand beats on power or max velocity without losing on the
+     *     other, most powerful first; cars with equal power and max velocity are all kept
+     */
+    default Collection<Car> skylineOfBrand(String brand) {
+        return skyline(allCarsOfBrand(brand));
+    }
+
+    /**
+     * Complexity should be less than O(n) when one criterion is selective
+     * @return at most limit cars matching every criterion, in the order of the collection they were filtered from
+     */
+    default Collection<Car> query(CarQuery query) {
+        Collection<Car> candidates;
+        if (query.getOwner() != null) {
+            candidates = allCarsOfOwner(query.getOwner());
+        } else if (query.getBrand() != null) {
+            candidates = allCarsOfBrand(query.getBrand());
+        } else if (query.hasVelocityRange() && !query.hasPowerRange()) {
+            candidates = carsWithVelocityBetween(query.getMinVelocity(), query.getMaxVelocity());
+        } else {
+            candidates = carsWithPowerBetween(query.getMinPower(), query.getMaxPower());
+        }
+
+        if (candidates == null) {
+            return Collections.emptyList();
+        }
+        return candidates.stream()
+            .filter(query::matches)
+            .limit(query.getLimit())
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Complexity should be O(page size) when one criterion is selective
+     * Keyset pagination: a page resumes after the last car of the previous one, so cars added or removed between
+     * pages never make a page repeat a car or skip a car that stayed in the garage. The limit of the query caps
+     * all pages together.
+     * @param pageToken null for the first page, then {@link CarPage#getNextPageToken()} of the same query
+     * @param pageSize largest number of cars in the page
+     * @throws IllegalArgumentException for a token this garage did not issue
+     */
+    default CarPage queryPage(CarQuery query, String pageToken, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+
+        final long after;
+        try {
+            after = pageToken == null ? Long.MIN_VALUE : Long.parseLong(pageToken);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("malformed page token: " + pageToken, e);
+        }
+
+        List<Car> cars = query(query).stream()
+            .filter(car -> car.getCarId() > after)
+            .sorted(Comparator.comparingLong(Car::getCarId))
+            .limit(pageSize + 1L)
+            .collect(Collectors.toList());
+        if (cars.size() <= pageSize) {
+            return new CarPage(cars, null);
+        }
+
+        List<Car> page = new ArrayList<>(cars.subList(0, pageSize));
+        return new CarPage(page, Long.toString(page.get(pageSize - 1).getCarId()));
+    }
+
+    /**
+     * Complexity should be O(1) to start, cars are produced as the stream is consumed
+     * @return cars matching every criterion of the query, at most limit of them
+     */
+    default Stream<Car> stream(CarQuery query) {
+        return query(query).stream();
+    }
+
+    /**
+     * Complexity should be O(1)
+     * @return mean value of owner age that has cars with given brand, 0 if there is no such car
      */
     int meanOwnersAgeOfCarBrand(String brand);
 
     /**
-     * @return mean value of cars for all owners
+     * Complexity should be O(1)
+     * @return mean value of cars for all owners, 0 if there are no owners
      */
     int meanCarNumberForEachOwner();
 
@@ -46,4 +335,142 @@ public interface Garage {
      * Complexity should be less than O(n)
      */
     void addCar(Car car, Owner owner);
+
+    /**
+     * Complexity should be O(log n) for every index whose key changed
+     * Replaces the attributes of the live car with the same id, the car stays in place in the indexes whose key
+     * did not change
+     * @return the car before the update, null if there is no live car with the id
+     * @throws IllegalArgumentException if the owner id of the car changed, see {@link #transferOwnership}
+     */
+    Car updateCar(Car car);
+
+    /**
+     * Complexity should be O(1)
+     * Moves the live car to the owner, an owner that is not registered yet is registered as by {@link #addCar}
+     * @return the car before the transfer, null if there is no live car with the id
+     * @throws IllegalArgumentException if the owner id is outside the int range of the owner id of a car, nothing
+     *     is changed then
+     */
+    Car transferOwnership(int carId, Owner owner);
+
+    /**
+     * Complexity should be less than O(n log n) for the whole batch
+     * Same result as {@link #addCar} for every car in iteration order, cars without an owner are skipped
+     * @param owners owner of each car
+     */
+    default void addCars(Collection<Car> cars, Function<Car, Owner> owners) {
+        for (Car car : cars) {
+            if (car != null) {
+                addCar(car, owners.apply(car));
+            }
+        }
+    }
+
+    /**
+     * Complexity should be O(1)
+     * Registers the owner without cars, later cars of the owner id share its attributes
+     * @return false if an owner with the id is registered already, it is left unchanged
+     */
+    boolean addOwner(Owner owner);
+
+    /**
+     * Complexity should be less than O(n)
+     * Replaces the attributes of the registered owner with the same id, the aggregates of the owner's cars such as
+     * {@link #meanOwnersAgeOfCarBrand} follow the new age
+     * @return false if no owner with the id is registered
+     */
+    boolean updateOwner(Owner owner);
+
+    /**
+     * Complexity should be O(1)
+     * Queries of the snapshot keep answering from the cars present at the call, whatever is written afterwards,
+     * so several queries give one consistent report. Writes to the snapshot throw UnsupportedOperationException
+     * @return read-only point-in-time view of the garage
+     */
+    Garage snapshot();
+
+    /**
+     * Complexity should be O(1) per change for the writer, a slow listener never makes it wait
+     * Every later write that changes the cars of the garage is delivered to the listener in sequence order, in
+     * batches, on a thread of the subscription. Only the most recent changes are buffered: a listener that falls
+     * further behind is closed, and can start over from a snapshot
+     * @param afterSequence sequence of the last change already handled, negative to start with the next change
+     * @throws IllegalArgumentException if the changes after afterSequence are no longer or not yet buffered
+     * @throws UnsupportedOperationException if the garage does not publish its changes
+     */
+    default Subscription subscribe(GarageListener listener, long afterSequence) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not publish its changes");
+    }
+
+    private static Car atPercentile(Collection<Car> cars, ToIntFunction<Car> attribute, double percentile) {
+        if (!(percentile >= 0 && percentile <= 1)) {
+            throw new IllegalArgumentException("percentile must be in [0, 1]: " + percentile);
+        }
+        if (cars == null || cars.isEmpty()) {
+            return null;
+        }
+
+        List<Car> sorted = new ArrayList<>(cars);
+        sorted.sort(Comparator.comparingInt(attribute));
+        return sorted.get(Math.max((int) Math.ceil(percentile * sorted.size()) - 1, 0));
+    }
+
+    private static int[] histogram(int[] bounds, IntBinaryOperator countBetween) {
+        checkBounds(bounds);
+        int[] counts = new int[bounds.length];
+        for (int i = 0; i < bounds.length; i++) {
+            int to = i + 1 < bounds.length ? bounds[i + 1] - 1 : Integer.MAX_VALUE;
+            counts[i] = countBetween.applyAsInt(bounds[i], to);
+        }
+        return counts;
+    }
+
+    private static int[] histogram(Collection<Car> cars, ToIntFunction<Car> attribute, int[] bounds) {
+        checkBounds(bounds);
+        int[] counts = new int[bounds.length];
+        if (cars == null) {
+            return counts;
+        }
+        for (Car car : cars) {
+            int i = Arrays.binarySearch(bounds, attribute.applyAsInt(car));
+            int bucket = i >= 0 ? i : -i - 2;
+            if (bucket >= 0) {
+                counts[bucket]++;
+            }
+        }
+        return counts;
+    }
+
+    private static List<Car> skyline(Collection<Car> cars) {
+        List<Car> skyline = new ArrayList<>();
+        if (cars == null) {
+            return skyline;
+        }
+
+        List<Car> sorted = new ArrayList<>(cars);
+        sorted.sort(Comparator.comparingInt(Car::getPower).thenComparingInt(Car::getMaxVelocity).reversed());
+        // highest max velocity of the more powerful cars, a car has to beat it to stay
+        long fastest = Long.MIN_VALUE;
+        int i = 0;
+        while (i < sorted.size()) {
+            int power = sorted.get(i).getPower();
+            int velocity = sorted.get(i).getMaxVelocity();
+            for (; i < sorted.size() && sorted.get(i).getPower() == power; i++) {
+                if (velocity > fastest && sorted.get(i).getMaxVelocity() == velocity) {
+                    skyline.add(sorted.get(i));
+                }
+            }
+            fastest = Math.max(fastest, velocity);
+        }
+        return skyline;
+    }
+
+    private static void checkBounds(int[] bounds) {
+        for (int i = 1; i < bounds.length; i++) {
+            if (bounds[i - 1] >= bounds[i]) {
+                throw new IllegalArgumentException("bounds must be strictly ascending: " + Arrays.toString(bounds));
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,55 @@
+package domain;
+
+/**
+ * One change of a garage delivered to a {@link GarageListener}: a car that was added, removed or updated, with its
+ * owner. An update carries the car and owner after the change, from updateCar and transferOwnership.
+ *
+ * Sequence numbers start at 1 and grow by one per change, so a listener sees gaps and duplicates by comparing
+ * them, and resumes with {@link Garage#subscribe(GarageListener, long)} after the last one it handled.
+ */
+public final class GarageEvent {
+
+    public enum Type {
+        ADDED,
+        REMOVED,
+        UPDATED
+    }
+
+    private final long sequence;
+    private final Type type;
+    private final Car car;
+    private final Owner owner;
+
+    public GarageEvent(long sequence, Type type, Car car, Owner owner) {
+        this.sequence = sequence;
+        this.type = type;
+        this.car = car;
+        this.owner = owner;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Car getCar() {
+        return car;
+    }
+
+    public Owner getOwner() {
+        return owner;
+    }
+
+    @Override
+    public String toString() {
+        return "GarageEvent{"
+            + "sequence=" + sequence
+            + ", type=" + type
+            + ", carId=" + car.getCarId()
+            + ", ownerId=" + owner.getOwnerId()
+            + '}';
+    }
+}
@@ -0,0 +1,26 @@
+package domain;
+
+import java.util.List;
+
+/**
+ * Receiver of the changes of a garage, see {@link Garage#subscribe(GarageListener, long)}.
+ *
+ * Both methods are called from the delivery thread of the subscription, never from the thread that writes the
+ * garage.
+ */
+public interface GarageListener {
+
+    /**
+     * @param events consecutive changes in sequence order, the batch grows while the listener falls behind
+     */
+    void onEvents(List<GarageEvent> events);
+
+    /**
+     * Called once when the subscription ends, no batch follows.
+     *
+     * @param cause null after {@link Subscription#close()}, the exception of {@link #onEvents} that ended the
+     *     subscription, or an {@link IllegalStateException} when the listener fell too far behind the writer
+     */
+    default void onClose(Throwable cause) {
+    }
+}
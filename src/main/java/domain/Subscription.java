@@ -0,0 +1,20 @@
+package domain;
+
+/**
+ * Handle of a {@link GarageListener} registered with {@link Garage#subscribe(GarageListener, long)}.
+ */
+public interface Subscription extends AutoCloseable {
+
+    /**
+     * @return sequence of the last event handed to the listener, or the sequence the subscription started after
+     */
+    long getSequence();
+
+    boolean isClosed();
+
+    /**
+     * Stops the delivery, the batch in progress completes first. Does nothing if already closed
+     */
+    @Override
+    void close();
+}
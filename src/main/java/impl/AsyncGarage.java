@@ -0,0 +1,475 @@
+package impl;
+
+import domain.Car;
+import domain.CarPage;
+import domain.CarQuery;
+import domain.Garage;
+import domain.Owner;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Asynchronous facade of a {@link Garage}: every method returns a {@link CompletableFuture} right away and the
+ * garage is called by one drain task at a time on an executor, so any implementation can be wrapped, including
+ * the ones that are not thread-safe.
+ *
+ * Calls are applied in the order they were made. Identical reads queued with no write between them are
+ * coalesced: the garage answers once and every caller gets that answer. Consecutive {@code addCar} calls are
+ * applied as one {@link Garage#addCars} batch, one sort and bulk build of the indexes instead of a descent per
+ * car. A drain task applies at most 4096 calls before it gives the executor thread back.
+ *
+ * Collections in the results are unmodifiable copies taken when the read runs, they do not follow later writes.
+ * Dependent stages attached without an executor may run on the drain task and hold up the queue, so they must
+ * be short and must not wait for another call of this facade.
+ *
+ * The default executor starts a virtual thread per drain task on a runtime that has them, and uses the common
+ * fork-join pool otherwise.
+ *
+ * Thread-safe.
+ */
+public final class AsyncGarage implements Closeable {
+
+    private static final int MAX_DRAIN = 4096;
+
+    private final Garage garage;
+    private final Executor executor;
+
+    // created by this facade, shut down on close
+    private final ExecutorService ownedExecutor;
+
+    private final Queue<Call<?>> calls = new ConcurrentLinkedQueue<>();
+
+    // set while a drain task is submitted or running
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    // reads queued since the last write, a read equal to one of them joins it
+    private final ConcurrentMap<ReadKey, Task<?>> pendingReads = new ConcurrentHashMap<>();
+
+    private volatile boolean closed;
+
+    /**
+     * Virtual threads where the runtime has them, the common fork-join pool otherwise
+     */
+    public AsyncGarage(Garage garage) {
+        this.garage = Objects.requireNonNull(garage, "garage");
+        this.ownedExecutor = virtualThreadExecutor();
+        this.executor = Objects.nonNull(ownedExecutor) ? ownedExecutor : ForkJoinPool.commonPool();
+    }
+
+    /**
+     * @param executor runs the drain tasks, it is not shut down by {@link #close()}
+     */
+    public AsyncGarage(Garage garage, Executor executor) {
+        this.garage = Objects.requireNonNull(garage, "garage");
+        this.executor = Objects.requireNonNull(executor, "executor");
+        this.ownedExecutor = null;
+    }
+
+    public CompletableFuture<Collection<Owner>> allCarsUniqueOwners() {
+        return read("allCarsUniqueOwners", garage -> copy(garage.allCarsUniqueOwners()));
+    }
+
+    public CompletableFuture<Collection<Car>> topThreeCarsByMaxVelocity() {
+        return read("topThreeCarsByMaxVelocity", garage -> copy(garage.topThreeCarsByMaxVelocity()));
+    }
+
+    public CompletableFuture<Collection<Car>> topCarsByMaxVelocity(int k) {
+        return read("topCarsByMaxVelocity", garage -> copy(garage.topCarsByMaxVelocity(k)), k);
+    }
+
+    public CompletableFuture<Collection<Car>> topCarsByPower(int k) {
+        return read("topCarsByPower", garage -> copy(garage.topCarsByPower(k)), k);
+    }
+
+    public CompletableFuture<Collection<Car>> allCarsOfBrand(String brand) {
+        return read("allCarsOfBrand", garage -> copy(garage.allCarsOfBrand(brand)), brand);
+    }
+
+    public CompletableFuture<Collection<Car>> carsWithPowerMoreThan(int power) {
+        return read("carsWithPowerMoreThan", garage -> copy(garage.carsWithPowerMoreThan(power)), power);
+    }
+
+    public CompletableFuture<Collection<Car>> carsWithPowerBetween(int from, int to) {
+        return read("carsWithPowerBetween", garage -> copy(garage.carsWithPowerBetween(from, to)), from, to);
+    }
+
+    public CompletableFuture<Collection<Car>> carsWithVelocityBetween(int from, int to) {
+        return read("carsWithVelocityBetween", garage -> copy(garage.carsWithVelocityBetween(from, to)), from, to);
+    }
+
+    public CompletableFuture<Integer> countCarsWithPowerBetween(int from, int to) {
+        return read("countCarsWithPowerBetween", garage -> garage.countCarsWithPowerBetween(from, to), from, to);
+    }
+
+    public CompletableFuture<Integer> countCarsWithVelocityBetween(int from, int to) {
+        return read("countCarsWithVelocityBetween", garage -> garage.countCarsWithVelocityBetween(from, to),
+            from, to);
+    }
+
+    public CompletableFuture<Double> powerPercentileRank(int power) {
+        return read("powerPercentileRank", garage -> garage.powerPercentileRank(power), power);
+    }
+
+    public CompletableFuture<Double> velocityPercentileRank(int velocity) {
+        return read("velocityPercentileRank", garage -> garage.velocityPercentileRank(velocity), velocity);
+    }
+
+    public CompletableFuture<Car> carAtPowerPercentile(double percentile) {
+        return read("carAtPowerPercentile", garage -> garage.carAtPowerPercentile(percentile), percentile);
+    }
+
+    public CompletableFuture<Car> carAtVelocityPercentile(double percentile) {
+        return read("carAtVelocityPercentile", garage -> garage.carAtVelocityPercentile(percentile), percentile);
+    }
+
+    public CompletableFuture<Car> carOfBrandAtPowerPercentile(String brand, double percentile) {
+        return read("carOfBrandAtPowerPercentile", garage -> garage.carOfBrandAtPowerPercentile(brand, percentile),
+            brand, percentile);
+    }
+
+    public CompletableFuture<Car> carOfBrandAtVelocityPercentile(String brand, double percentile) {
+        return read("carOfBrandAtVelocityPercentile",
+            garage -> garage.carOfBrandAtVelocityPercentile(brand, percentile), brand, percentile);
+    }
+
+    /*
+        Coalesced callers share one answer, every caller gets its own copy of the counts
+     */
+
+    public CompletableFuture<int[]> powerHistogram(int[] bounds) {
+        final int[] key = bounds.clone();
+        return read("powerHistogram", garage -> garage.powerHistogram(key), key).thenApply(int[]::clone);
+    }
+
+    public CompletableFuture<int[]> velocityHistogram(int[] bounds) {
+        final int[] key = bounds.clone();
+        return read("velocityHistogram", garage -> garage.velocityHistogram(key), key).thenApply(int[]::clone);
+    }
+
+    public CompletableFuture<int[]> powerHistogramOfBrand(String brand, int[] bounds) {
+        final int[] key = bounds.clone();
+        return read("powerHistogramOfBrand", garage -> garage.powerHistogramOfBrand(brand, key), brand, key)
+            .thenApply(int[]::clone);
+    }
+
+    public CompletableFuture<int[]> velocityHistogramOfBrand(String brand, int[] bounds) {
+        final int[] key = bounds.clone();
+        return read("velocityHistogramOfBrand", garage -> garage.velocityHistogramOfBrand(brand, key), brand, key)
+            .thenApply(int[]::clone);
+    }
+
+    public CompletableFuture<Collection<Car>> allCarsOfOwner(Owner owner) {
+        return read("allCarsOfOwner", garage -> copy(garage.allCarsOfOwner(owner)), owner);
+    }
+
+    public CompletableFuture<Collection<Car>> carsOfBrandWithPowerBetween(String brand, int from, int to) {
+        return read("carsOfBrandWithPowerBetween",
+            garage -> copy(garage.carsOfBrandWithPowerBetween(brand, from, to)), brand, from, to);
+    }
+
+    public CompletableFuture<Integer> countCarsOfBrandWithPowerBetween(String brand, int from, int to) {
+        return read("countCarsOfBrandWithPowerBetween",
+            garage -> garage.countCarsOfBrandWithPowerBetween(brand, from, to), brand, from, to);
+    }
+
+    public CompletableFuture<Collection<Car>> carsOfOwnerAndBrand(Owner owner, String brand) {
+        return read("carsOfOwnerAndBrand", garage -> copy(garage.carsOfOwnerAndBrand(owner, brand)), owner, brand);
+    }
+
+    public CompletableFuture<Integer> countCarsOfOwnerAndBrand(Owner owner, String brand) {
+        return read("countCarsOfOwnerAndBrand", garage -> garage.countCarsOfOwnerAndBrand(owner, brand),
+            owner, brand);
+    }
+
+    public CompletableFuture<Collection<Car>> carsWithPowerAndVelocityBetween(int fromPower, int toPower,
+        int fromVelocity, int toVelocity) {
+        return read("carsWithPowerAndVelocityBetween",
+            garage -> copy(garage.carsWithPowerAndVelocityBetween(fromPower, toPower, fromVelocity, toVelocity)),
+            fromPower, toPower, fromVelocity, toVelocity);
+    }
+
+    public CompletableFuture<Integer> countCarsWithPowerAndVelocityBetween(int fromPower, int toPower,
+        int fromVelocity, int toVelocity) {
+        return read("countCarsWithPowerAndVelocityBetween",
+            garage -> garage.countCarsWithPowerAndVelocityBetween(fromPower, toPower, fromVelocity, toVelocity),
+            fromPower, toPower, fromVelocity, toVelocity);
+    }
+
+    public CompletableFuture<Collection<Car>> carsWithPowerAndVelocityAtLeast(int power, int velocity) {
+        return read("carsWithPowerAndVelocityAtLeast",
+            garage -> copy(garage.carsWithPowerAndVelocityAtLeast(power, velocity)), power, velocity);
+    }
+
+    public CompletableFuture<Collection<Car>> skylineOfBrand(String brand) {
+        return read("skylineOfBrand", garage -> copy(garage.skylineOfBrand(brand)), brand);
+    }
+
+    public CompletableFuture<Collection<Car>> query(CarQuery query) {
+        return read("query", garage -> copy(garage.query(query)), query);
+    }
+
+    public CompletableFuture<CarPage> queryPage(CarQuery query, String pageToken, int pageSize) {
+        return read("queryPage", garage -> garage.queryPage(query, pageToken, pageSize), query, pageToken,
+            pageSize);
+    }
+
+    public CompletableFuture<Integer> meanOwnersAgeOfCarBrand(String brand) {
+        return read("meanOwnersAgeOfCarBrand", garage -> garage.meanOwnersAgeOfCarBrand(brand), brand);
+    }
+
+    public CompletableFuture<Integer> meanCarNumberForEachOwner() {
+        return read("meanCarNumberForEachOwner", Garage::meanCarNumberForEachOwner);
+    }
+
+    /**
+     * Applied with the addCar calls queued next to it as one {@link Garage#addCars} batch
+     */
+    public CompletableFuture<Void> addCar(Car car, Owner owner) {
+        return write(new AddCar(car, owner));
+    }
+
+    public CompletableFuture<Void> addCars(Collection<Car> cars, Function<Car, Owner> owners) {
+        return write(new Task<>(null, garage -> {
+            garage.addCars(cars, owners);
+            return null;
+        }));
+    }
+
+    public CompletableFuture<Car> removeCar(int carId) {
+        return write(new Task<>(null, garage -> garage.removeCar(carId)));
+    }
+
+    public CompletableFuture<Car> updateCar(Car car) {
+        return write(new Task<>(null, garage -> garage.updateCar(car)));
+    }
+
+    public CompletableFuture<Car> transferOwnership(int carId, Owner owner) {
+        return write(new Task<>(null, garage -> garage.transferOwnership(carId, owner)));
+    }
+
+    public CompletableFuture<Boolean> addOwner(Owner owner) {
+        return write(new Task<>(null, garage -> garage.addOwner(owner)));
+    }
+
+    public CompletableFuture<Boolean> updateOwner(Owner owner) {
+        return write(new Task<>(null, garage -> garage.updateOwner(owner)));
+    }
+
+    /**
+     * @return snapshot taken after every call made before this one, it can be read directly from any thread if
+     *     the wrapped garage documents so
+     */
+    public CompletableFuture<Garage> snapshot() {
+        return submit(new Task<>(null, Garage::snapshot));
+    }
+
+    /**
+     * Rejects new calls, waits for the queued ones and shuts the default executor down
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        CompletableFuture<Object> drained = submit(new Task<>(null, garage -> null));
+        closed = true;
+        drained.join();
+        if (Objects.nonNull(ownedExecutor)) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    private <T> CompletableFuture<T> read(String method, Function<Garage, T> action, Object... arguments) {
+        checkOpen();
+
+        //ConcurrentHashMap computeIfAbsent is atomic per key, one queued task per distinct read
+        @SuppressWarnings("unchecked")
+        Task<T> task = (Task<T>) pendingReads.computeIfAbsent(new ReadKey(method, arguments), read -> {
+            Task<T> created = new Task<>(read, action);
+            calls.add(created);
+            return created;
+        });
+        schedule();
+        return task.future.copy();
+    }
+
+    private <T> CompletableFuture<T> write(Call<T> call) {
+        checkOpen();
+        calls.add(call);
+
+        // reads queued before the write must not answer reads made after it
+        pendingReads.clear();
+        schedule();
+        return call.future.copy();
+    }
+
+    private <T> CompletableFuture<T> submit(Call<T> call) {
+        checkOpen();
+        calls.add(call);
+        schedule();
+        return call.future.copy();
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("AsyncGarage is closed");
+        }
+    }
+
+    private void schedule() {
+        if (!scheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            scheduled.set(false);
+            for (Call<?> call = calls.poll(); Objects.nonNull(call); call = calls.poll()) {
+                call.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void drain() {
+        final List<AddCar> adds = new ArrayList<>();
+        for (int drained = 0; drained < MAX_DRAIN; drained++) {
+            final Call<?> call = calls.poll();
+            if (Objects.isNull(call)) {
+                break;
+            }
+
+            if (call instanceof AddCar) {
+                adds.add((AddCar) call);
+            } else {
+                addAll(adds);
+                run((Task<?>) call);
+            }
+        }
+        addAll(adds);
+
+        // a call queued after the last poll but before the flag is cleared found the task still scheduled
+        scheduled.set(false);
+        if (!calls.isEmpty()) {
+            schedule();
+        }
+    }
+
+    private <T> void run(Task<T> task) {
+        if (Objects.nonNull(task.read)) {
+            // later equal reads queue a new task, this one may already miss their writes
+            pendingReads.remove(task.read, task);
+        }
+
+        try {
+            task.future.complete(task.action.apply(garage));
+        } catch (RuntimeException e) {
+            task.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * One addCars call for the whole run of addCar calls
+     */
+    private void addAll(List<AddCar> adds) {
+        if (adds.isEmpty()) {
+            return;
+        }
+
+        final List<Car> cars = new ArrayList<>(adds.size());
+        final Map<Car, Owner> owners = new IdentityHashMap<>(adds.size());
+        int applied = 0;
+        try {
+            for (AddCar add : adds) {
+                if (owners.containsKey(add.car)) {
+                    // the same car instance again, it may come with another owner
+                    garage.addCars(cars, owners::get);
+                    complete(adds, applied, cars.size());
+                    applied += cars.size();
+                    cars.clear();
+                    owners.clear();
+                }
+                cars.add(add.car);
+                owners.put(add.car, add.owner);
+            }
+
+            if (cars.size() == 1) {
+                garage.addCar(cars.get(0), owners.get(cars.get(0)));
+            } else {
+                garage.addCars(cars, owners::get);
+            }
+            complete(adds, applied, cars.size());
+        } catch (RuntimeException e) {
+            for (int i = applied; i < adds.size(); i++) {
+                adds.get(i).future.completeExceptionally(e);
+            }
+        }
+        adds.clear();
+    }
+
+    private static void complete(List<AddCar> adds, int from, int count) {
+        for (int i = from; i < from + count; i++) {
+            adds.get(i).future.complete(null);
+        }
+    }
+
+    private static <T> Collection<T> copy(Collection<T> values) {
+        return Objects.isNull(values) ? null : Collections.unmodifiableList(new ArrayList<>(values));
+    }
+
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            // before Java 21
+            return null;
+        }
+    }
+
+    private abstract static class Call<T> {
+
+        final CompletableFuture<T> future = new CompletableFuture<>();
+    }
+
+    private static final class Task<T> extends Call<T> {
+
+        // key of a read that can be joined, null for other calls
+        private final ReadKey read;
+        private final Function<Garage, T> action;
+
+        private Task(ReadKey read, Function<Garage, T> action) {
+            this.read = read;
+            this.action = action;
+        }
+    }
+
+    private static final class AddCar extends Call<Void> {
+
+        private final Car car;
+        private final Owner owner;
+
+        private AddCar(Car car, Owner owner) {
+            this.car = car;
+            this.owner = owner;
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package impl;
+
+import domain.Car;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.ToIntFunction;
+
+/**
+ * Cars ordered by one int attribute.
+ *
+ * Every car is a single packed {@code long} key in a {@link LongBTree}: the attribute in the high 32 bits and
+ * the car's {@link CarStore} ref in the low 32 bits. Signed long order is attribute order with ties broken
+ * by ref, so keys are unique and comparing two cars is one primitive comparison.
+ *
+ * Not thread-safe.
+ */
+final class AttributeIndex {
+
+    // below this many keys a single-threaded sort is faster than splitting the work
+    private static final int PARALLEL_SORT_THRESHOLD = 1 << 16;
+
+    private final ToIntFunction<Car> attribute;
+    private final CarStore registry;
+    private final LongBTree keys;
+
+    AttributeIndex(ToIntFunction<Car> attribute, CarStore registry) {
+        this(attribute, registry, new LongBTree());
+    }
+
+    /**
+     * @param keys packed keys of the cars, made by {@link #key(int, int)}
+     */
+    AttributeIndex(ToIntFunction<Car> attribute, CarStore registry, LongBTree keys) {
+        this.attribute = attribute;
+        this.registry = registry;
+        this.keys = keys;
+    }
+
+    /**
+     * @param registry snapshot of the registry the refs are resolved through
+     * @return read-only index of the current keys - O(1), see {@link LongBTree#snapshot()}
+     */
+    AttributeIndex snapshot(CarStore registry) {
+        return new AttributeIndex(attribute, registry, keys.snapshot());
+    }
+
+    static long key(int value, int ref) {
+        return (long) value << 32 | ref;
+    }
+
+    /**
+     * @return key greater than the key of every car with the given value
+     */
+    static long upperKey(int value) {
+        return (long) value << 32 | 0xFFFFFFFFL;
+    }
+
+    static int value(long key) {
+        return (int) (key >> 32);
+    }
+
+    static int ref(long key) {
+        return (int) key;
+    }
+
+    long key(Car car, int ref) {
+        return key(attribute.applyAsInt(car), ref);
+    }
+
+    /**
+     * @return packed key of the car
+     */
+    long add(Car car, int ref) {
+        long key = key(car, ref);
+        keys.add(key);
+        return key;
+    }
+
+    /**
+     * Adds a batch of keys of cars that are not in the index yet.
+     *
+     * The batch is sorted once. A batch small next to the index is inserted key by key - O(m logN),
+     * otherwise it is merged with the existing keys and the tree is rebuilt bottom-up - O(n + m log m).
+     *
+     * @param added keys made by {@link #key(Car, int)}, sorted in place
+     * @param count number of keys to take from the array
+     */
+    void addAll(long[] added, int count) {
+        if (count >= PARALLEL_SORT_THRESHOLD) {
+            Arrays.parallelSort(added, 0, count);
+        } else {
+            Arrays.sort(added, 0, count);
+        }
+
+        int existing = keys.size();
+        if (count < existing >> 3) {
+            for (int i = 0; i < count; i++) {
+                keys.add(added[i]);
+            }
+            return;
+        }
+
+        long[] merged = new long[existing + count];
+        PrimitiveIterator.OfLong iterator = keys.iterator(Long.MIN_VALUE);
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        long next = iterator.hasNext() ? iterator.nextLong() : 0;
+        while (i < existing && j < count) {
+            if (next < added[j]) {
+                merged[k++] = next;
+                next = ++i < existing ? iterator.nextLong() : 0;
+            } else {
+                merged[k++] = added[j++];
+            }
+        }
+        while (i < existing) {
+            merged[k++] = next;
+            next = ++i < existing ? iterator.nextLong() : 0;
+        }
+        System.arraycopy(added, j, merged, k, count - j);
+
+        keys.build(merged, merged.length);
+    }
+
+    /**
+     * @return packed key of the car
+     */
+    long remove(Car car, int ref) {
+        long key = key(car, ref);
+        keys.remove(key);
+        return key;
+    }
+
+    Car car(long key) {
+        return registry.car(ref(key));
+    }
+
+    Car first() {
+        return car(keys.first());
+    }
+
+    /**
+     * @return number of cars with the attribute in [from, to] - O(logN)
+     */
+    int count(int from, int to) {
+        return from > to ? 0 : keys.rank(upperKey(to)) - keys.rank(key(from, 0));
+    }
+
+    /**
+     * @param bounds strictly ascending lower bounds of the buckets
+     * @return number of cars in [bounds[i], bounds[i + 1]) for every bucket, the last bucket has no upper
+     *     bound - O(bounds * logN)
+     */
+    int[] histogram(int[] bounds) {
+        final int[] counts = new int[bounds.length];
+        for (int i = 0; i < bounds.length; i++) {
+            if (i > 0 && bounds[i - 1] >= bounds[i]) {
+                throw new IllegalArgumentException("bounds must be strictly ascending: " + Arrays.toString(bounds));
+            }
+            // cars below the next bound minus cars below this one
+            int end = i + 1 < bounds.length ? rank(bounds[i + 1]) : keys.size();
+            counts[i] = end - rank(bounds[i]);
+        }
+        return counts;
+    }
+
+    /**
+     * @return number of cars with the attribute less than the value - O(logN)
+     */
+    int rank(int value) {
+        return keys.rank(key(value, 0));
+    }
+
+    /**
+     * @return share of cars with the attribute less than the value, 0 for an empty index - O(logN)
+     */
+    double percentileRank(int value) {
+        return keys.isEmpty() ? 0 : (double) rank(value) / keys.size();
+    }
+
+    /**
+     * Nearest-rank percentile: the smallest car that is not below {@code percentile} of all cars.
+     *
+     * @param percentile in [0, 1]
+     * @return car at the percentile or null for an empty index - O(logN)
+     */
+    Car atPercentile(double percentile) {
+        if (!(percentile >= 0 && percentile <= 1)) {
+            throw new IllegalArgumentException("percentile must be in [0, 1]: " + percentile);
+        }
+        if (keys.isEmpty()) {
+            return null;
+        }
+
+        int rank = (int) Math.ceil(percentile * keys.size()) - 1;
+        return atRank(Math.max(rank, 0));
+    }
+
+    /**
+     * @param rank in [0, size)
+     * @return car with rank cars before it - O(logN)
+     */
+    Car atRank(int rank) {
+        return car(keys.select(rank));
+    }
+
+    /**
+     * @return refs of the cars with the attribute in [from, to] in attribute order, the cars are not read
+     */
+    PrimitiveIterator.OfInt refs(int from, int to) {
+        final PrimitiveIterator.OfLong range = keys.iterator(key(from, 0));
+        final int count = count(from, to);
+
+        return new PrimitiveIterator.OfInt() {
+
+            private int remaining = count;
+
+            @Override
+            public boolean hasNext() {
+                return remaining > 0;
+            }
+
+            @Override
+            public int nextInt() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                remaining--;
+                return ref(range.nextLong());
+            }
+        };
+    }
+
+    int size() {
+        return keys.size();
+    }
+
+    boolean isEmpty() {
+        return keys.isEmpty();
+    }
+
+    PrimitiveIterator.OfLong descendingKeys() {
+        return keys.descendingIterator();
+    }
+
+    Iterator<Car> descendingIterator() {
+        return new Cars(keys.descendingIterator(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return live view of the cars with the attribute greater or equal to {@code value}
+     */
+    Collection<Car> from(int value) {
+        return new Range(key(value, 0), Long.MAX_VALUE);
+    }
+
+    /**
+     * @return live view of the cars with the attribute in [from, to]
+     */
+    Collection<Car> between(int from, int to) {
+        return new Range(key(from, 0), upperKey(to));
+    }
+
+    /**
+     * @return the index as an access path positioned by packed keys, cars with the attribute in [from, to] are
+     *     at [{@code key(from, 0)}, {@code upperKey(to)})
+     */
+    OrderedCars ordered() {
+        return new Positions();
+    }
+
+    private final class Positions implements OrderedCars {
+
+        @Override
+        public int positions(long from, long to, long[] out) {
+            PrimitiveIterator.OfLong iterator = keys.iterator(from);
+            int count = 0;
+            while (count < out.length && iterator.hasNext()) {
+                long key = iterator.nextLong();
+                if (key >= to) {
+                    break;
+                }
+                out[count++] = key;
+            }
+            return count;
+        }
+
+        @Override
+        public long count(long from, long to) {
+            //two order-statistic descents - O(logN)
+            return from >= to ? 0 : keys.rank(to) - keys.rank(from);
+        }
+
+        @Override
+        public long middle(long from, long to) {
+            int count = (int) count(from, to);
+            return count < 2 ? from : keys.select(keys.rank(from) + count / 2);
+        }
+
+        @Override
+        public Car car(long position) {
+            return AttributeIndex.this.car(position);
+        }
+    }
+
+    private final class Range extends AbstractCollection<Car> {
+
+        // keys in [from, to)
+        private final long from;
+        private final long to;
+
+        private Range(long from, long to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public Iterator<Car> iterator() {
+            return new Cars(keys.iterator(from), size());
+        }
+
+        @Override
+        public int size() {
+            //two order-statistic descents - O(logN)
+            return from >= to ? 0 : keys.rank(to) - keys.rank(from);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return size() == 0;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Car)) {
+                return false;
+            }
+
+            int ref = registry.ref(((Car) o).getCarId());
+            if (ref < 0 || !registry.isLive(ref)) {
+                return false;
+            }
+
+            long key = key(registry.car(ref), ref);
+            return key >= from && key < to && keys.contains(key);
+        }
+    }
+
+    private final class Cars implements Iterator<Car> {
+
+        private final PrimitiveIterator.OfLong keys;
+        private int remaining;
+
+        private Cars(PrimitiveIterator.OfLong keys, int limit) {
+            this.keys = keys;
+            this.remaining = limit;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0 && keys.hasNext();
+        }
+
+        @Override
+        public Car next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            remaining--;
+            return car(keys.nextLong());
+        }
+    }
+}
@@ -0,0 +1,551 @@
+package impl;
+
+import domain.Car;
+import domain.CarPage;
+import domain.CarQuery;
+import domain.Garage;
+import domain.GarageListener;
+import domain.Owner;
+import domain.Subscription;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * {@link Garage} decorator remembering the answers of reads until a write changes them, so repeated reads of an
+ * unchanged garage cost a hash lookup instead of a range walk or a full copy.
+ *
+ * Every answer is kept under the method name and arguments of the read together with the version counters of
+ * the scopes it depends on: the whole garage, one brand, one owner, the set of owners or their ages. A write
+ * bumps the counters of the scopes it changed after the decorated garage applied it, and an answer is served
+ * only while all of its counters still have the values read before the answer was computed. An addCar or
+ * removeCar of a brand-X car thus keeps the answers for brand Y, but invalidates every range, top and
+ * percentile answer. A single-car write that changed nothing, such as the removal of an unknown id, keeps all
+ * answers. So does the add of a live or removed id to a {@link GarageImpl} or a {@link ShardedGarage}, which
+ * tell a rejected add apart; over other garages every addCar of a car and an owner invalidates their scopes.
+ * addCars invalidates the scopes of every car of the batch.
+ *
+ * The brand and owner counters are hashed into a fixed number of stripes, so owner churn does not grow the
+ * cache beyond its answers. Two brands or owners of one stripe invalidate each other's answers.
+ *
+ * At most maxEntries answers are kept, the least recently read is evicted first. Collections in the answers are
+ * unmodifiable copies, they do not follow later writes. {@code queryPage}, {@code stream}, {@code snapshot} and
+ * {@code subscribe} are not cached.
+ *
+ * As thread-safe as the decorated garage, the cache itself is thread-safe. Two threads missing the same read
+ * may both compute it.
+ */
+public final class CachingGarage implements Garage {
+
+    // counters of the brand and owner scopes, a power of 2
+    private static final int SCOPE_STRIPES = 1024;
+
+    private final Garage garage;
+    private final int maxEntries;
+
+    // access order, guarded by itself
+    private final Map<ReadKey, Entry> entries;
+
+    // any car added or removed
+    private final AtomicLong cars = new AtomicLong();
+    // any owner registered, changed, or gaining or losing a car
+    private final AtomicLong owners = new AtomicLong();
+    // any owner age changed
+    private final AtomicLong ages = new AtomicLong();
+    // cars of a brand added or removed, by stripe of the brand
+    private final AtomicLong[] brands = stripes();
+    // an owner changed or its cars added or removed, by stripe of the owner id
+    private final AtomicLong[] ownerIds = stripes();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxEntries largest number of answers kept
+     */
+    public CachingGarage(Garage garage, int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        this.garage = Objects.requireNonNull(garage, "garage");
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ReadKey, Entry> eldest) {
+                if (size() > CachingGarage.this.maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return reads answered from the cache
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return reads passed to the decorated garage, including the ones whose answer was invalidated
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return answers dropped to stay within maxEntries
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return share of reads answered from the cache, 0 before the first read
+     */
+    public double getHitRate() {
+        long hit = hits.sum();
+        long total = hit + misses.sum();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    /**
+     * @return number of answers kept, some of them may be invalidated already
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Drops every answer and resets the metrics
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+
+    @Override
+    public Collection<Owner> allCarsUniqueOwners() {
+        return cached(new ReadKey("allCarsUniqueOwners"), () -> copy(garage.allCarsUniqueOwners()), owners);
+    }
+
+    @Override
+    public Collection<Car> topThreeCarsByMaxVelocity() {
+        return cached(new ReadKey("topThreeCarsByMaxVelocity"), () -> copy(garage.topThreeCarsByMaxVelocity()), cars);
+    }
+
+    @Override
+    public Collection<Car> topCarsByMaxVelocity(int k) {
+        return cached(new ReadKey("topCarsByMaxVelocity", k), () -> copy(garage.topCarsByMaxVelocity(k)), cars);
+    }
+
+    @Override
+    public Collection<Car> topCarsByPower(int k) {
+        return cached(new ReadKey("topCarsByPower", k), () -> copy(garage.topCarsByPower(k)), cars);
+    }
+
+    @Override
+    public Collection<Car> allCarsOfBrand(String brand) {
+        return cached(new ReadKey("allCarsOfBrand", brand), () -> copy(garage.allCarsOfBrand(brand)),
+            brand(brand));
+    }
+
+    @Override
+    public Collection<Car> carsWithPowerMoreThan(int power) {
+        return cached(new ReadKey("carsWithPowerMoreThan", power), () -> copy(garage.carsWithPowerMoreThan(power)),
+            cars);
+    }
+
+    @Override
+    public Collection<Car> carsWithPowerBetween(int from, int to) {
+        return cached(new ReadKey("carsWithPowerBetween", from, to),
+            () -> copy(garage.carsWithPowerBetween(from, to)), cars);
+    }
+
+    @Override
+    public Collection<Car> carsWithVelocityBetween(int from, int to) {
+        return cached(new ReadKey("carsWithVelocityBetween", from, to),
+            () -> copy(garage.carsWithVelocityBetween(from, to)), cars);
+    }
+
+    @Override
+    public int countCarsWithPowerBetween(int from, int to) {
+        return cached(new ReadKey("countCarsWithPowerBetween", from, to),
+            () -> garage.countCarsWithPowerBetween(from, to), cars);
+    }
+
+    @Override
+    public int countCarsWithVelocityBetween(int from, int to) {
+        return cached(new ReadKey("countCarsWithVelocityBetween", from, to),
+            () -> garage.countCarsWithVelocityBetween(from, to), cars);
+    }
+
+    @Override
+    public double powerPercentileRank(int power) {
+        return cached(new ReadKey("powerPercentileRank", power), () -> garage.powerPercentileRank(power), cars);
+    }
+
+    @Override
+    public double velocityPercentileRank(int velocity) {
+        return cached(new ReadKey("velocityPercentileRank", velocity), () -> garage.velocityPercentileRank(velocity),
+            cars);
+    }
+
+    @Override
+    public Car carAtPowerPercentile(double percentile) {
+        return cached(new ReadKey("carAtPowerPercentile", percentile), () -> garage.carAtPowerPercentile(percentile),
+            cars);
+    }
+
+    @Override
+    public Car carAtVelocityPercentile(double percentile) {
+        return cached(new ReadKey("carAtVelocityPercentile", percentile),
+            () -> garage.carAtVelocityPercentile(percentile), cars);
+    }
+
+    @Override
+    public Car carOfBrandAtPowerPercentile(String brand, double percentile) {
+        return cached(new ReadKey("carOfBrandAtPowerPercentile", brand, percentile),
+            () -> garage.carOfBrandAtPowerPercentile(brand, percentile), brand(brand));
+    }
+
+    @Override
+    public Car carOfBrandAtVelocityPercentile(String brand, double percentile) {
+        return cached(new ReadKey("carOfBrandAtVelocityPercentile", brand, percentile),
+            () -> garage.carOfBrandAtVelocityPercentile(brand, percentile), brand(brand));
+    }
+
+    /*
+        The bounds are copied into the key and the counts out of the cache, the caller may change either array
+     */
+
+    @Override
+    public int[] powerHistogram(int[] bounds) {
+        final int[] key = bounds.clone();
+        return cached(new ReadKey("powerHistogram", key), () -> garage.powerHistogram(key), cars).clone();
+    }
+
+    @Override
+    public int[] velocityHistogram(int[] bounds) {
+        final int[] key = bounds.clone();
+        return cached(new ReadKey("velocityHistogram", key), () -> garage.velocityHistogram(key), cars).clone();
+    }
+
+    @Override
+    public int[] powerHistogramOfBrand(String brand, int[] bounds) {
+        final int[] key = bounds.clone();
+        return cached(new ReadKey("powerHistogramOfBrand", brand, key),
+            () -> garage.powerHistogramOfBrand(brand, key), brand(brand)).clone();
+    }
+
+    @Override
+    public int[] velocityHistogramOfBrand(String brand, int[] bounds) {
+        final int[] key = bounds.clone();
+        return cached(new ReadKey("velocityHistogramOfBrand", brand, key),
+            () -> garage.velocityHistogramOfBrand(brand, key), brand(brand)).clone();
+    }
+
+    @Override
+    public Collection<Car> allCarsOfOwner(Owner owner) {
+        return cached(new ReadKey("allCarsOfOwner", owner), () -> copy(garage.allCarsOfOwner(owner)), owner(owner));
+    }
+
+    @Override
+    public Collection<Car> carsOfBrandWithPowerBetween(String brand, int from, int to) {
+        return cached(new ReadKey("carsOfBrandWithPowerBetween", brand, from, to),
+            () -> copy(garage.carsOfBrandWithPowerBetween(brand, from, to)), brand(brand));
+    }
+
+    @Override
+    public int countCarsOfBrandWithPowerBetween(String brand, int from, int to) {
+        return cached(new ReadKey("countCarsOfBrandWithPowerBetween", brand, from, to),
+            () -> garage.countCarsOfBrandWithPowerBetween(brand, from, to), brand(brand));
+    }
+
+    @Override
+    public Collection<Car> carsOfOwnerAndBrand(Owner owner, String brand) {
+        return cached(new ReadKey("carsOfOwnerAndBrand", owner, brand),
+            () -> copy(garage.carsOfOwnerAndBrand(owner, brand)), owner(owner));
+    }
+
+    @Override
+    public int countCarsOfOwnerAndBrand(Owner owner, String brand) {
+        return cached(new ReadKey("countCarsOfOwnerAndBrand", owner, brand),
+            () -> garage.countCarsOfOwnerAndBrand(owner, brand), owner(owner));
+    }
+
+    @Override
+    public Collection<Car> carsWithPowerAndVelocityBetween(int fromPower, int toPower, int fromVelocity,
+        int toVelocity) {
+        return cached(new ReadKey("carsWithPowerAndVelocityBetween", fromPower, toPower, fromVelocity, toVelocity),
+            () -> copy(garage.carsWithPowerAndVelocityBetween(fromPower, toPower, fromVelocity, toVelocity)), cars);
+    }
+
+    @Override
+    public int countCarsWithPowerAndVelocityBetween(int fromPower, int toPower, int fromVelocity, int toVelocity) {
+        return cached(new ReadKey("countCarsWithPowerAndVelocityBetween", fromPower, toPower, fromVelocity,
+            toVelocity), () -> garage.countCarsWithPowerAndVelocityBetween(fromPower, toPower, fromVelocity,
+            toVelocity), cars);
+    }
+
+    @Override
+    public Collection<Car> carsWithPowerAndVelocityAtLeast(int power, int velocity) {
+        return cached(new ReadKey("carsWithPowerAndVelocityAtLeast", power, velocity),
+            () -> copy(garage.carsWithPowerAndVelocityAtLeast(power, velocity)), cars);
+    }
+
+    @Override
+    public Collection<Car> skylineOfBrand(String brand) {
+        return cached(new ReadKey("skylineOfBrand", brand), () -> copy(garage.skylineOfBrand(brand)), brand(brand));
+    }
+
+    @Override
+    public Collection<Car> query(CarQuery query) {
+        // the most selective criterion bounds the cars the answer can contain
+        final AtomicLong scope;
+        if (query.getOwner() != null) {
+            scope = owner(query.getOwner());
+        } else if (query.getBrand() != null) {
+            scope = brand(query.getBrand());
+        } else {
+            scope = cars;
+        }
+        return cached(new ReadKey("query", query), () -> copy(garage.query(query)), scope);
+    }
+
+    @Override
+    public CarPage queryPage(CarQuery query, String pageToken, int pageSize) {
+        return garage.queryPage(query, pageToken, pageSize);
+    }
+
+    @Override
+    public Stream<Car> stream(CarQuery query) {
+        return garage.stream(query);
+    }
+
+    @Override
+    public int meanOwnersAgeOfCarBrand(String brand) {
+        return cached(new ReadKey("meanOwnersAgeOfCarBrand", brand), () -> garage.meanOwnersAgeOfCarBrand(brand),
+            brand(brand), ages);
+    }
+
+    @Override
+    public int meanCarNumberForEachOwner() {
+        return cached(new ReadKey("meanCarNumberForEachOwner"), garage::meanCarNumberForEachOwner, cars, owners);
+    }
+
+    @Override
+    public Car removeCar(int carId) {
+        final Car removed = garage.removeCar(carId);
+        if (removed != null) {
+            carsChanged(removed.getBrand(), removed.getOwnerId());
+        }
+        return removed;
+    }
+
+    @Override
+    public Car updateCar(Car car) {
+        final Car old = garage.updateCar(car);
+        if (old != null) {
+            carsChanged(old.getBrand(), old.getOwnerId());
+            brand(car.getBrand()).incrementAndGet();
+        }
+        return old;
+    }
+
+    @Override
+    public Car transferOwnership(int carId, Owner owner) {
+        final Car old = garage.transferOwnership(carId, owner);
+        if (old != null && old.getOwnerId() != owner.getOwnerId()) {
+            carsChanged(old.getBrand(), old.getOwnerId());
+            owner(owner).incrementAndGet();
+        }
+        return old;
+    }
+
+    @Override
+    public void addCar(Car car, Owner owner) {
+        final boolean added;
+        if (garage instanceof GarageImpl) {
+            added = ((GarageImpl) garage).add(car, owner);
+        } else if (garage instanceof ShardedGarage) {
+            added = ((ShardedGarage) garage).add(car, owner);
+        } else {
+            // addCar rejects a live or removed id without telling, the scopes are invalidated anyway
+            garage.addCar(car, owner);
+            added = car != null && owner != null;
+        }
+
+        if (added) {
+            carsChanged(car.getBrand(), owner.getOwnerId());
+        }
+    }
+
+    @Override
+    public void addCars(Collection<Car> cars, Function<Car, Owner> owners) {
+        // the owner of every car is looked up once, by this decorator
+        final List<Car> batch = new ArrayList<>(cars.size());
+        final Map<Car, Owner> ownerOf = new IdentityHashMap<>(cars.size());
+        for (Car car : cars) {
+            if (car != null) {
+                batch.add(car);
+                ownerOf.put(car, owners.apply(car));
+            }
+        }
+        garage.addCars(batch, ownerOf::get);
+
+        // a stripe is bumped once however many cars of the batch hash to it
+        final Set<AtomicLong> changedScopes = new HashSet<>();
+        for (Map.Entry<Car, Owner> entry : ownerOf.entrySet()) {
+            if (entry.getValue() != null) {
+                changedScopes.add(brand(entry.getKey().getBrand()));
+                changedScopes.add(owner(entry.getValue().getOwnerId()));
+            }
+        }
+        if (changedScopes.isEmpty()) {
+            return;
+        }
+        changedScopes.forEach(AtomicLong::incrementAndGet);
+        this.owners.incrementAndGet();
+        this.cars.incrementAndGet();
+    }
+
+    @Override
+    public boolean addOwner(Owner owner) {
+        final boolean added = garage.addOwner(owner);
+        if (added) {
+            owner(owner).incrementAndGet();
+            owners.incrementAndGet();
+        }
+        return added;
+    }
+
+    @Override
+    public boolean updateOwner(Owner owner) {
+        final boolean updated = garage.updateOwner(owner);
+        if (updated) {
+            owner(owner).incrementAndGet();
+            ages.incrementAndGet();
+            owners.incrementAndGet();
+        }
+        return updated;
+    }
+
+    @Override
+    public Garage snapshot() {
+        return garage.snapshot();
+    }
+
+    @Override
+    public Subscription subscribe(GarageListener listener, long afterSequence) {
+        return garage.subscribe(listener, afterSequence);
+    }
+
+    private void carsChanged(String brand, long ownerId) {
+        brand(brand).incrementAndGet();
+        owner(ownerId).incrementAndGet();
+        owners.incrementAndGet();
+        cars.incrementAndGet();
+    }
+
+    private <T> T cached(ReadKey key, Supplier<T> read, AtomicLong... scopes) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry != null && entry.isValid()) {
+            hits.increment();
+            @SuppressWarnings("unchecked")
+            T value = (T) entry.value;
+            return value;
+        }
+        misses.increment();
+
+        // versions read before the garage answers: a write racing with the read leaves the answer invalid
+        final long[] versions = new long[scopes.length];
+        for (int i = 0; i < scopes.length; i++) {
+            versions[i] = scopes[i].get();
+        }
+        final T value = read.get();
+        synchronized (entries) {
+            entries.put(key, new Entry(value, scopes, versions));
+        }
+        return value;
+    }
+
+    private AtomicLong brand(String brand) {
+        return brands[stripe(Objects.hashCode(brand))];
+    }
+
+    private AtomicLong owner(Owner owner) {
+        // answers for a null owner only change with the set of owners
+        if (owner == null) {
+            return owners;
+        }
+        return owner(owner.getOwnerId());
+    }
+
+    private AtomicLong owner(long ownerId) {
+        return ownerIds[stripe(Long.hashCode(ownerId))];
+    }
+
+    private static int stripe(int hash) {
+        return (hash ^ hash >>> 16) & (SCOPE_STRIPES - 1);
+    }
+
+    private static AtomicLong[] stripes() {
+        AtomicLong[] stripes = new AtomicLong[SCOPE_STRIPES];
+        for (int i = 0; i < SCOPE_STRIPES; i++) {
+            stripes[i] = new AtomicLong();
+        }
+        return stripes;
+    }
+
+    private static <T> Collection<T> copy(Collection<T> values) {
+        return values == null ? null : Collections.unmodifiableList(new ArrayList<>(values));
+    }
+
+    private static final class Entry {
+
+        private final Object value;
+        private final AtomicLong[] scopes;
+        private final long[] versions;
+
+        private Entry(Object value, AtomicLong[] scopes, long[] versions) {
+            this.value = value;
+            this.scopes = scopes;
+            this.versions = versions;
+        }
+
+        boolean isValid() {
+            for (int i = 0; i < scopes.length; i++) {
+                if (scopes[i].get() != versions[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package impl;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import domain.Car;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Car attributes stored column by column outside the Java heap, in a memory-mapped file.
+ *
+ * Refs are dense ints handed out in insertion order, like {@link CarRegistry}. The file is a sequence of pages
+ * of {@code 2^16} cars; inside a page every attribute is a contiguous array, so a scan of one attribute touches
+ * only that attribute's bytes. Brand and model names are dictionary-encoded to int codes. The heap only holds
+ * the {@link IdTable} and the dictionaries - primitive arrays and one String per distinct name - so the garbage
+ * collector has nothing per car to trace, and cold pages can be evicted by the operating system.
+ *
+ * {@link #car(int)} returns a {@link ColumnarCar} flyweight, a short-lived view of the columns.
+ *
+ * The file is working storage, truncated on open and meaningless without the in-memory id table.
+ *
+ * Not thread-safe.
+ */
+final class CarColumns implements CarStore, Closeable {
+
+    static final byte LIVE = 1;
+    static final byte REMOVED = 2;
+
+    private static final int NO_REF = IdTable.NO_REF;
+    private static final int NO_CODE = -1;
+
+    private static final int PAGE_SHIFT = 16;
+    private static final int PAGE_CARS = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_CARS - 1;
+
+    // column offsets inside a page
+    private static final int CAR_ID = 0;
+    private static final int MAX_VELOCITY = CAR_ID + Long.BYTES * PAGE_CARS;
+    private static final int POWER = MAX_VELOCITY + Integer.BYTES * PAGE_CARS;
+    private static final int OWNER_ID = POWER + Integer.BYTES * PAGE_CARS;
+    private static final int BRAND = OWNER_ID + Integer.BYTES * PAGE_CARS;
+    private static final int MODEL = BRAND + Integer.BYTES * PAGE_CARS;
+
+    // positions of the car in its owner and brand buckets, for O(1) removal
+    private static final int OWNER_SLOT = MODEL + Integer.BYTES * PAGE_CARS;
+    private static final int BRAND_SLOT = OWNER_SLOT + Integer.BYTES * PAGE_CARS;
+
+    private static final int STATE = BRAND_SLOT + Integer.BYTES * PAGE_CARS;
+    private static final long PAGE_BYTES = STATE + PAGE_CARS;
+
+    private final FileChannel channel;
+    private MappedByteBuffer[] pages = new MappedByteBuffer[4];
+    private int mapped;
+
+    private final IdTable ids = new IdTable(PAGE_CARS);
+    private final Dictionary brands = new Dictionary();
+    private final Dictionary models = new Dictionary();
+
+    private int size;
+    private int live;
+
+    CarColumns(Path file) throws IOException {
+        channel = FileChannel.open(file, CREATE, TRUNCATE_EXISTING, READ, WRITE);
+    }
+
+    /**
+     * @return ref of the newly stored car or -1 if a car with the same id is stored, live or removed
+     * @throws UncheckedIOException if a new page can not be mapped
+     */
+    int add(Car car) {
+        final int ref = size;
+        if (ref == Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many cars");
+        }
+
+        // map first, a failure leaves nothing registered
+        final MappedByteBuffer page = page(ref);
+
+        // HashMap.containsKey + put in one probe sequence - O(1)
+        if (ids.putIfAbsent(car.getCarId(), ref) != NO_REF) {
+            return NO_REF;
+        }
+
+        final int i = ref & PAGE_MASK;
+        page.putLong(CAR_ID + i * Long.BYTES, car.getCarId());
+        page.putInt(MAX_VELOCITY + i * Integer.BYTES, car.getMaxVelocity());
+        page.putInt(POWER + i * Integer.BYTES, car.getPower());
+        page.putInt(OWNER_ID + i * Integer.BYTES, car.getOwnerId());
+        page.putInt(BRAND + i * Integer.BYTES, brands.encode(car.getBrand()));
+        page.putInt(MODEL + i * Integer.BYTES, models.encode(car.getModelName()));
+        page.put(STATE + i, LIVE);
+
+        size++;
+        live++;
+
+        return ref;
+    }
+
+    /**
+     * Marks the car as removed, its attributes stay readable and the id can not be added again.
+     *
+     * @return ref of the removed car or -1 if there is no live car with the given id
+     */
+    int remove(long carId) {
+        int ref = ids.get(carId);
+        if (ref == NO_REF || !isLive(ref)) {
+            return NO_REF;
+        }
+
+        pages[ref >>> PAGE_SHIFT].put(STATE + (ref & PAGE_MASK), REMOVED);
+        live--;
+
+        return ref;
+    }
+
+    /**
+     * Overwrites the attributes of the live car with the given ref, all but the id and the owner id.
+     */
+    void update(int ref, Car car) {
+        putInt(MAX_VELOCITY, ref, car.getMaxVelocity());
+        putInt(POWER, ref, car.getPower());
+        putInt(BRAND, ref, brands.encode(car.getBrand()));
+        putInt(MODEL, ref, models.encode(car.getModelName()));
+    }
+
+    /**
+     * Grows the id table once for the next {@code additionalCars} adds.
+     */
+    void ensureCapacity(int additionalCars) {
+        ids.ensureCapacity(additionalCars);
+    }
+
+    @Override
+    public Car car(int ref) {
+        return new ColumnarCar(this, ref);
+    }
+
+    /**
+     * @return live car with the given id or null
+     */
+    Car get(long carId) {
+        int ref = ids.get(carId);
+        return ref != NO_REF && isLive(ref) ? car(ref) : null;
+    }
+
+    /**
+     * @return true if the id was ever stored, whether the car is live or removed
+     */
+    boolean contains(long carId) {
+        return ids.get(carId) != NO_REF;
+    }
+
+    @Override
+    public int ref(long carId) {
+        return ids.get(carId);
+    }
+
+    @Override
+    public boolean isLive(int ref) {
+        return pages[ref >>> PAGE_SHIFT].get(STATE + (ref & PAGE_MASK)) == LIVE;
+    }
+
+    long carId(int ref) {
+        return pages[ref >>> PAGE_SHIFT].getLong(CAR_ID + (ref & PAGE_MASK) * Long.BYTES);
+    }
+
+    int maxVelocity(int ref) {
+        return getInt(MAX_VELOCITY, ref);
+    }
+
+    int power(int ref) {
+        return getInt(POWER, ref);
+    }
+
+    int ownerId(int ref) {
+        return getInt(OWNER_ID, ref);
+    }
+
+    void ownerId(int ref, int ownerId) {
+        putInt(OWNER_ID, ref, ownerId);
+    }
+
+    /**
+     * @return dictionary code of the brand, -1 for a car without brand
+     */
+    int brandCode(int ref) {
+        return getInt(BRAND, ref);
+    }
+
+    /**
+     * @return dictionary code of the brand, -1 for null or a brand no car ever had
+     */
+    int brandCode(String brand) {
+        return brands.code(brand);
+    }
+
+    String brand(int ref) {
+        return brands.decode(brandCode(ref));
+    }
+
+    String modelName(int ref) {
+        return models.decode(getInt(MODEL, ref));
+    }
+
+    int ownerSlot(int ref) {
+        return getInt(OWNER_SLOT, ref);
+    }
+
+    void ownerSlot(int ref, int slot) {
+        putInt(OWNER_SLOT, ref, slot);
+    }
+
+    int brandSlot(int ref) {
+        return getInt(BRAND_SLOT, ref);
+    }
+
+    void brandSlot(int ref, int slot) {
+        putInt(BRAND_SLOT, ref, slot);
+    }
+
+    /**
+     * @return number of live cars
+     */
+    int size() {
+        return live;
+    }
+
+    /**
+     * @return number of refs handed out, refs are [0, registered) in insertion order
+     */
+    int registered() {
+        return size;
+    }
+
+    /**
+     * Closes the file, mapped pages are released when they are garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int getInt(int column, int ref) {
+        return pages[ref >>> PAGE_SHIFT].getInt(column + (ref & PAGE_MASK) * Integer.BYTES);
+    }
+
+    private void putInt(int column, int ref, int value) {
+        pages[ref >>> PAGE_SHIFT].putInt(column + (ref & PAGE_MASK) * Integer.BYTES, value);
+    }
+
+    private MappedByteBuffer page(int ref) {
+        final int page = ref >>> PAGE_SHIFT;
+        if (page < mapped) {
+            return pages[page];
+        }
+
+        if (page == pages.length) {
+            pages = Arrays.copyOf(pages, page << 1);
+        }
+
+        try {
+            // mapping past the end grows the file
+            pages[page] = channel.map(FileChannel.MapMode.READ_WRITE, page * PAGE_BYTES, PAGE_BYTES);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        pages[page].order(ByteOrder.nativeOrder());
+        mapped++;
+
+        return pages[page];
+    }
+
+    private static final class Dictionary {
+
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        private int encode(String value) {
+            if (value == null) {
+                return NO_CODE;
+            }
+
+            // HashMap get complexity - O(1), one put per distinct value
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = values.size();
+                values.add(value);
+                codes.put(value, code);
+            }
+            return code;
+        }
+
+        private int code(String value) {
+            Integer code = value == null ? null : codes.get(value);
+            return code == null ? NO_CODE : code;
+        }
+
+        private String decode(int code) {
+            return code == NO_CODE ? null : values.get(code);
+        }
+    }
+}
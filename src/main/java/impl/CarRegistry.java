@@ -0,0 +1,371 @@
+package impl;
+
+import domain.Car;
+import java.util.Arrays;
+
+/**
+ * Registry of every car of a garage, keyed by the primitive {@code long} car id.
+ *
+ * The {@link IdTable} only stores {@code carId -> ref}, where {@code ref} is a dense int. The car itself and its
+ * live/removed state live in parallel arrays indexed by ref, so there is no boxed key, no entry object and no
+ * wrapper per car, and removing a car is a single probe.
+ *
+ * What a removed car leaves behind depends on the {@link RetentionPolicy}. Under {@link RetentionPolicy#forever()}
+ * the car and its ref stay, refs are handed out in insertion order and never reused. Under any other policy the
+ * car is dropped and its ref is reused at once; the id stays in the table as a {@link #TOMBSTONE} and in a FIFO
+ * queue until the policy expires it, a few tombstones per write.
+ *
+ * A {@link #snapshot()} shares the arrays. Adding a new ref only writes past the end the snapshot sees, so the
+ * registry copies its car and state arrays before the first removal or ref reuse after a snapshot, and the
+ * id table before the first id it removes or replaces.
+ *
+ * Not thread-safe.
+ */
+final class CarRegistry implements CarStore {
+
+    static final byte LIVE = 1;
+    static final byte REMOVED = 2;
+
+    // ref mapped to the id of a removed car whose ref was already reused
+    static final int TOMBSTONE = -2;
+
+    private static final byte FREE = 0;
+    private static final int NO_REF = IdTable.NO_REF;
+    private static final int MIN_CAPACITY = 16;
+
+    // expired tombstones dropped per write, more than one so the queue drains faster than removals fill it
+    private static final int COMPACT_BATCH = 4;
+
+    private final RetentionPolicy policy;
+    private final IdTable ids;
+
+    // read-only registry from snapshot(), its id table may also hold ids registered later
+    private final boolean frozen;
+
+    // the car and state arrays are shared with a snapshot
+    private boolean shared;
+
+    // dense storage by ref
+    private Car[] cars;
+    private byte[] states;
+
+    // refs released by removed cars, reused last in first out
+    private int[] freeRefs = new int[0];
+    private int freeCount;
+
+    // tombstones in removal order, a ring buffer, times only with a ttl
+    private long[] tombstoneIds = new long[0];
+    private long[] tombstoneTimes = new long[0];
+    private int tombstoneHead;
+    private int tombstones;
+
+    private int size;
+    private int live;
+
+    CarRegistry() {
+        this(MIN_CAPACITY);
+    }
+
+    CarRegistry(int expectedCars) {
+        this(expectedCars, RetentionPolicy.forever());
+    }
+
+    CarRegistry(int expectedCars, RetentionPolicy policy) {
+        this.policy = policy;
+        ids = new IdTable(expectedCars);
+        frozen = false;
+        cars = new Car[Math.max(MIN_CAPACITY, expectedCars)];
+        states = new byte[cars.length];
+    }
+
+    private CarRegistry(CarRegistry registry) {
+        policy = registry.policy;
+        ids = registry.ids.snapshot();
+        frozen = true;
+        cars = registry.cars;
+        states = registry.states;
+        freeRefs = registry.freeRefs;
+        freeCount = registry.freeCount;
+        tombstoneIds = registry.tombstoneIds;
+        tombstones = registry.tombstones;
+        size = registry.size;
+        live = registry.live;
+    }
+
+    /**
+     * @return read-only registry of the cars registered now - O(1), never written to
+     */
+    CarRegistry snapshot() {
+        shared = true;
+        return new CarRegistry(this);
+    }
+
+    /**
+     * @return ref of the newly registered car or -1 if the id is live or still has a tombstone
+     */
+    int add(Car car) {
+        compact();
+
+        final boolean reuse = freeCount > 0;
+        final int ref = reuse ? freeRefs[freeCount - 1] : size;
+
+        // HashMap.containsKey + put in one probe sequence - O(1)
+        if (ids.putIfAbsent(car.getCarId(), ref) != NO_REF) {
+            return NO_REF;
+        }
+
+        if (reuse) {
+            unshare();
+            freeCount--;
+        } else {
+            if (ref == cars.length) {
+                cars = Arrays.copyOf(cars, ref << 1);
+                states = Arrays.copyOf(states, ref << 1);
+                shared = false;
+            }
+            size++;
+        }
+
+        cars[ref] = car;
+        states[ref] = LIVE;
+        live++;
+
+        return ref;
+    }
+
+    /**
+     * Grows the table and the dense arrays once, so the next {@code additionalCars} adds never rehash or copy.
+     */
+    void ensureCapacity(int additionalCars) {
+        int expected = size + additionalCars;
+
+        ids.ensureCapacity(additionalCars);
+        if (expected > cars.length) {
+            cars = Arrays.copyOf(cars, expected);
+            states = Arrays.copyOf(states, expected);
+            shared = false;
+        }
+    }
+
+    /**
+     * Removes the live car with the given id, see {@link #removeAt(int)}.
+     *
+     * @return ref of the removed car or -1 if there is no live car with the given id
+     */
+    int remove(long carId) {
+        int ref = ids.get(carId);
+        if (ref < 0 || states[ref] != LIVE) {
+            return NO_REF;
+        }
+
+        removeAt(ref);
+        return ref;
+    }
+
+    /**
+     * Removes the live car with the given ref. Under {@link RetentionPolicy#forever()} the car stays readable
+     * by ref, otherwise the ref is free for the next car right away.
+     */
+    void removeAt(int ref) {
+        unshare();
+        live--;
+
+        if (policy.isForever()) {
+            states[ref] = REMOVED;
+            tombstones++;
+            return;
+        }
+
+        final long carId = cars[ref].getCarId();
+        cars[ref] = null;
+        states[ref] = FREE;
+        pushFree(ref);
+
+        if (policy.maxTombstones() == 0) {
+            ids.remove(carId);
+        } else {
+            ids.replace(carId, TOMBSTONE);
+            enqueue(carId);
+            if (tombstones > policy.maxTombstones()) {
+                expireOldest();
+            }
+        }
+
+        compact();
+    }
+
+    /**
+     * Puts a new version of the live car with the given ref, with the same id - O(1)
+     */
+    void replaceAt(int ref, Car car) {
+        unshare();
+        cars[ref] = car;
+    }
+
+    /**
+     * @return live car with the given id or null
+     */
+    Car get(long carId) {
+        int ref = lookup(carId);
+        return ref >= 0 && states[ref] == LIVE ? cars[ref] : null;
+    }
+
+    /**
+     * @return true if the id is live or still has a tombstone
+     */
+    boolean contains(long carId) {
+        return lookup(carId) != NO_REF;
+    }
+
+    /**
+     * @return {@link #LIVE}, {@link #REMOVED} or 0 for an unknown or expired id
+     */
+    byte state(long carId) {
+        int ref = lookup(carId);
+        if (ref == NO_REF) {
+            return 0;
+        }
+        return ref == TOMBSTONE ? REMOVED : states[ref];
+    }
+
+    /**
+     * @return ref of the id, {@link #TOMBSTONE} for a removed car whose ref was released, -1 for an unknown id
+     */
+    @Override
+    public int ref(long carId) {
+        return lookup(carId);
+    }
+
+    /**
+     * @return car with the given ref, null for a released ref
+     */
+    @Override
+    public Car car(int ref) {
+        return cars[ref];
+    }
+
+    @Override
+    public boolean isLive(int ref) {
+        return states[ref] == LIVE;
+    }
+
+    /**
+     * @return number of live cars
+     */
+    int size() {
+        return live;
+    }
+
+    /**
+     * @return number of removed cars whose ids are still rejected
+     */
+    int removed() {
+        return tombstones;
+    }
+
+    boolean isEmpty() {
+        return live == 0;
+    }
+
+    /**
+     * @return number of refs handed out, refs are [0, registered), released refs among them are null
+     */
+    int registered() {
+        return size;
+    }
+
+    /**
+     * @return number of released refs waiting for reuse
+     */
+    int freeRefs() {
+        return freeCount;
+    }
+
+    int idCapacity() {
+        return ids.capacity();
+    }
+
+    int refCapacity() {
+        return cars.length;
+    }
+
+    int tombstoneCapacity() {
+        return tombstoneIds.length;
+    }
+
+    private int lookup(long carId) {
+        int ref = ids.get(carId);
+        if (frozen && ref >= 0 && (ref >= size || cars[ref] == null || cars[ref].getCarId() != carId)) {
+            // registered after the snapshot
+            return NO_REF;
+        }
+        return ref;
+    }
+
+    private void unshare() {
+        if (shared) {
+            cars = cars.clone();
+            states = states.clone();
+            shared = false;
+        }
+    }
+
+    private void compact() {
+        if (tombstones == 0 || !policy.hasTtl()) {
+            return;
+        }
+
+        final long expiredBefore = policy.now() - policy.ttlMillis();
+        for (int i = 0; i < COMPACT_BATCH && tombstones > 0; i++) {
+            if (tombstoneTimes[tombstoneHead] > expiredBefore) {
+                return;
+            }
+            expireOldest();
+        }
+    }
+
+    private void pushFree(int ref) {
+        if (freeCount == freeRefs.length) {
+            freeRefs = Arrays.copyOf(freeRefs, Math.max(MIN_CAPACITY, freeCount << 1));
+        }
+        freeRefs[freeCount++] = ref;
+    }
+
+    private void enqueue(long carId) {
+        if (tombstones == tombstoneIds.length) {
+            growTombstones();
+        }
+
+        int tail = (tombstoneHead + tombstones) & (tombstoneIds.length - 1);
+        tombstoneIds[tail] = carId;
+        if (policy.hasTtl()) {
+            tombstoneTimes[tail] = policy.now();
+        }
+        tombstones++;
+    }
+
+    private void expireOldest() {
+        // HashMap remove complexity - O(1), the id can be added again
+        ids.remove(tombstoneIds[tombstoneHead]);
+        tombstoneHead = (tombstoneHead + 1) & (tombstoneIds.length - 1);
+        tombstones--;
+    }
+
+    private void growTombstones() {
+        int capacity = Math.max(MIN_CAPACITY, tombstoneIds.length << 1);
+        long[] newIds = new long[capacity];
+        long[] newTimes = policy.hasTtl() ? new long[capacity] : tombstoneTimes;
+
+        for (int i = 0; i < tombstones; i++) {
+            int from = (tombstoneHead + i) & (tombstoneIds.length - 1);
+            newIds[i] = tombstoneIds[from];
+            if (policy.hasTtl()) {
+                newTimes[i] = tombstoneTimes[from];
+            }
+        }
+
+        tombstoneIds = newIds;
+        tombstoneTimes = newTimes;
+        tombstoneHead = 0;
+    }
+}
@@ -0,0 +1,81 @@
+package impl;
+
+import domain.Car;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Splittable walk over the positions [from, to) of an {@link OrderedCars}.
+ *
+ * Positions are fetched a chunk at a time and the walk resumes after the last one fetched, so the garage may
+ * change between chunks: nothing is copied beyond one chunk, no position is returned twice and no
+ * {@link java.util.ConcurrentModificationException} is thrown. A car that moves to a later position meanwhile is
+ * met again, the caller filters it out, see {@link OrderedCars}. Splits halve the remaining positions by count.
+ * Splitting and walking may run on different threads as long as nothing writes to the garage meanwhile.
+ */
+final class CarSpliterator implements Spliterator<Car> {
+
+    private static final int CHUNK = 256;
+
+    private final OrderedCars cars;
+    private final long[] chunk = new long[CHUNK];
+    private int next;
+    private int size;
+
+    // positions not fetched yet
+    private long from;
+    private final long to;
+
+    CarSpliterator(OrderedCars cars, long from, long to) {
+        this.cars = cars;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Car> action) {
+        if (next == size) {
+            if (from >= to) {
+                return false;
+            }
+
+            size = cars.positions(from, to, chunk);
+            next = 0;
+            if (size == 0) {
+                from = to;
+                return false;
+            }
+            from = chunk[size - 1] + 1;
+        }
+
+        action.accept(cars.car(chunk[next++]));
+        return true;
+    }
+
+    @Override
+    public Spliterator<Car> trySplit() {
+        // only unfetched positions are split
+        if (next < size || cars.count(from, to) < CHUNK << 1) {
+            return null;
+        }
+
+        long middle = cars.middle(from, to);
+        if (middle <= from || middle >= to) {
+            return null;
+        }
+
+        CarSpliterator prefix = new CarSpliterator(cars, from, middle);
+        from = middle;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return size - next + (from >= to ? 0 : cars.count(from, to));
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | DISTINCT | NONNULL;
+    }
+}
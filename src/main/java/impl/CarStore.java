@@ -0,0 +1,21 @@
+package impl;
+
+import domain.Car;
+
+/**
+ * Cars addressed by dense int refs, what the ordered indexes resolve their packed keys through.
+ */
+interface CarStore {
+
+    /**
+     * @return car with the given ref, live or removed
+     */
+    Car car(int ref);
+
+    /**
+     * @return ref of the car id, live or removed, negative for an unknown id or a car without ref
+     */
+    int ref(long carId);
+
+    boolean isLive(int ref);
+}
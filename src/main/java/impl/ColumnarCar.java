@@ -0,0 +1,50 @@
+package impl;
+
+import domain.Car;
+
+/**
+ * Flyweight {@link Car} reading its attributes from {@link CarColumns} by ref, the fields inherited from
+ * {@link Car} are unused defaults. Created per query result and dropped young, never referenced by an index.
+ *
+ * Stays readable after the car is removed, refs are never reused.
+ */
+final class ColumnarCar extends Car {
+
+    private final CarColumns columns;
+    private final int ref;
+
+    ColumnarCar(CarColumns columns, int ref) {
+        this.columns = columns;
+        this.ref = ref;
+    }
+
+    @Override
+    public long getCarId() {
+        return columns.carId(ref);
+    }
+
+    @Override
+    public String getBrand() {
+        return columns.brand(ref);
+    }
+
+    @Override
+    public String getModelName() {
+        return columns.modelName(ref);
+    }
+
+    @Override
+    public int getMaxVelocity() {
+        return columns.maxVelocity(ref);
+    }
+
+    @Override
+    public int getPower() {
+        return columns.power(ref);
+    }
+
+    @Override
+    public int getOwnerId() {
+        return columns.ownerId(ref);
+    }
+}
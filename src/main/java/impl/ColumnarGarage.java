@@ -0,0 +1,541 @@
+package impl;
+
+import domain.Car;
+import domain.Garage;
+import domain.Owner;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * {@link Garage} whose cars live off-heap in the columns of a memory-mapped file, see {@link CarColumns}.
+ *
+ * No index references a {@link Car} object: the ordered indexes are B+trees of packed primitive keys, owner and
+ * brand buckets are int arrays of refs. Cars handed out by queries are {@link ColumnarCar} flyweights built on
+ * demand. Only owners and distinct brand/model names are objects on the heap, so the heap stays small and
+ * stable however many cars there are, and garbage collection has nothing per car to trace.
+ *
+ * Views returned by {@code allCarsOfBrand}/{@code allCarsOfOwner} are live and unmodifiable, an unknown brand
+ * or owner gives an empty view.
+ *
+ * Brand buckets keep no order, so the per-brand percentiles and histograms are the linear defaults of
+ * {@link Garage} - O(b log b) and O(b log bounds) for b cars of the brand.
+ *
+ * Not thread-safe.
+ */
+public final class ColumnarGarage implements Garage, Closeable {
+
+    // leaderboard size kept up to date on every write, bigger top-k requests walk the ordered index
+    private static final int TOP_CARS_CAPACITY = 32;
+
+    private final CarColumns columns;
+
+    // owner buckets by the primitive owner id, a ref finds its owner from the owner id column
+    private final OwnerRegistry<OwnerRefs> carOwner = new OwnerRegistry<>();
+
+    // indexed by brand dictionary code
+    private final List<BrandRefs> carBrand = new ArrayList<>();
+
+    private final AttributeIndex carsByVelocity;
+    private final AttributeIndex carsByPower;
+    private final TopCars topByVelocity;
+    private final TopCars topByPower;
+
+    private ColumnarGarage(CarColumns columns) {
+        this.columns = columns;
+        this.carsByVelocity = new AttributeIndex(Car::getMaxVelocity, columns);
+        this.carsByPower = new AttributeIndex(Car::getPower, columns);
+        this.topByVelocity = new TopCars(carsByVelocity, TOP_CARS_CAPACITY);
+        this.topByPower = new TopCars(carsByPower, TOP_CARS_CAPACITY);
+    }
+
+    /**
+     * @param file backing file of the columns, truncated
+     */
+    public static ColumnarGarage open(Path file) throws IOException {
+        return new ColumnarGarage(new CarColumns(file));
+    }
+
+    @Override
+    public Collection<Owner> allCarsUniqueOwners() {
+        final List<Owner> owners = new ArrayList<>(carOwner.size());
+        for (int i = 0; i < carOwner.size(); i++) {
+            owners.add(carOwner.entry(i).owner);
+        }
+        return owners;
+    }
+
+    @Override
+    public Collection<Car> topThreeCarsByMaxVelocity() {
+        return topCarsByMaxVelocity(3);
+    }
+
+    @Override
+    public Collection<Car> topCarsByMaxVelocity(int k) {
+        return topByVelocity.top(k);
+    }
+
+    @Override
+    public Collection<Car> topCarsByPower(int k) {
+        return topByPower.top(k);
+    }
+
+    @Override
+    public Collection<Car> allCarsOfBrand(String brand) {
+        //dictionary lookup, then the bucket by code - O(1)
+        BrandRefs refs = brandRefs(columns.brandCode(brand));
+        return refs == null ? Collections.emptySet() : new RefView(refs, false);
+    }
+
+    @Override
+    public Collection<Car> carsWithPowerMoreThan(int power) {
+        return carsByPower.from(power);
+    }
+
+    @Override
+    public Collection<Car> carsWithPowerBetween(int from, int to) {
+        return carsByPower.between(from, to);
+    }
+
+    @Override
+    public Collection<Car> carsWithVelocityBetween(int from, int to) {
+        return carsByVelocity.between(from, to);
+    }
+
+    @Override
+    public int countCarsWithPowerBetween(int from, int to) {
+        return carsByPower.count(from, to);
+    }
+
+    @Override
+    public int countCarsWithVelocityBetween(int from, int to) {
+        return carsByVelocity.count(from, to);
+    }
+
+    @Override
+    public double powerPercentileRank(int power) {
+        return carsByPower.percentileRank(power);
+    }
+
+    @Override
+    public double velocityPercentileRank(int velocity) {
+        return carsByVelocity.percentileRank(velocity);
+    }
+
+    @Override
+    public Car carAtPowerPercentile(double percentile) {
+        return carsByPower.atPercentile(percentile);
+    }
+
+    @Override
+    public Car carAtVelocityPercentile(double percentile) {
+        return carsByVelocity.atPercentile(percentile);
+    }
+
+    @Override
+    public int[] powerHistogram(int[] bounds) {
+        return carsByPower.histogram(bounds);
+    }
+
+    @Override
+    public int[] velocityHistogram(int[] bounds) {
+        return carsByVelocity.histogram(bounds);
+    }
+
+    @Override
+    public Collection<Car> allCarsOfOwner(Owner owner) {
+        OwnerRefs refs = Objects.isNull(owner) ? null : carOwner.get(owner.getOwnerId());
+        return refs == null ? Collections.emptySet() : new RefView(refs, true);
+    }
+
+    @Override
+    public int meanOwnersAgeOfCarBrand(String brand) {
+        BrandRefs refs = brandRefs(columns.brandCode(brand));
+        return refs == null || refs.size == 0 ? 0 : (int) (refs.ownersAgeSum / refs.size);
+    }
+
+    @Override
+    public int meanCarNumberForEachOwner() {
+        return carOwner.isEmpty() ? 0 : columns.size() / carOwner.size();
+    }
+
+    @Override
+    public void addCar(Car car, Owner owner) {
+        if (Objects.isNull(car) || Objects.isNull(owner)) {
+            return;
+        }
+
+        final int ref = columns.add(car);
+        if (ref < 0) {
+            return;
+        }
+
+        //keys are computed from the given car, the columns are not read back
+        topByVelocity.add(carsByVelocity.add(car, ref));
+        topByPower.add(carsByPower.add(car, ref));
+
+        addToBuckets(ref, owner);
+    }
+
+    @Override
+    public void addCars(Collection<Car> cars, Function<Car, Owner> owners) {
+        columns.ensureCapacity(cars.size());
+
+        final long[] velocityKeys = new long[cars.size()];
+        final long[] powerKeys = new long[cars.size()];
+        int added = 0;
+
+        for (Car car : cars) {
+            final Owner owner = Objects.isNull(car) ? null : owners.apply(car);
+            if (Objects.isNull(owner)) {
+                continue;
+            }
+
+            final int ref = columns.add(car);
+            if (ref < 0) {
+                continue;
+            }
+
+            addToBuckets(ref, owner);
+
+            velocityKeys[added] = carsByVelocity.key(car, ref);
+            powerKeys[added] = carsByPower.key(car, ref);
+            added++;
+        }
+
+        //one sort per index and a bottom-up B+tree build
+        carsByVelocity.addAll(velocityKeys, added);
+        carsByPower.addAll(powerKeys, added);
+
+        topByVelocity.reset();
+        topByPower.reset();
+    }
+
+    @Override
+    public boolean addOwner(Owner owner) {
+        return Objects.nonNull(owner) && carOwner.add(owner.getOwnerId(), new OwnerRefs(owner));
+    }
+
+    @Override
+    public boolean updateOwner(Owner owner) {
+        OwnerRefs ownerRefs = Objects.isNull(owner) ? null : carOwner.get(owner.getOwnerId());
+        if (Objects.isNull(ownerRefs)) {
+            return false;
+        }
+
+        final long delta = (long) owner.getAge() - ownerRefs.owner.getAge();
+        ownerRefs.owner = owner;
+
+        //brand code column read per car of the owner - O(cars of the owner)
+        for (int i = 0; delta != 0 && i < ownerRefs.size; i++) {
+            BrandRefs brandRefs = brandRefs(columns.brandCode(ownerRefs.refs[i]));
+            if (Objects.nonNull(brandRefs)) {
+                brandRefs.ownersAgeSum += delta;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The returned car is a copy on the heap, a flyweight would die with the mapping on close
+     */
+    @Override
+    public Car removeCar(int carId) {
+        final int ref = columns.remove(carId);
+        if (ref < 0) {
+            return null;
+        }
+
+        final Car car = materialize(ref);
+
+        //OwnerRegistry get by the owner id column & swap-remove by the slot column - O(1)
+        OwnerRefs ownerRefs = carOwner.get(columns.ownerId(ref));
+        int moved = ownerRefs.removeAt(columns.ownerSlot(ref));
+        if (moved >= 0) {
+            columns.ownerSlot(moved, columns.ownerSlot(ref));
+        }
+
+        removeFromBrand(ref, columns.brandCode(ref), ownerRefs.owner.getAge());
+
+        //B+tree remove complexity - O(logN)
+        topByPower.remove(carsByPower.remove(car, ref));
+        topByVelocity.remove(carsByVelocity.remove(car, ref));
+
+        return car;
+    }
+
+    /**
+     * The returned car is a copy on the heap, a flyweight would read the new attributes
+     */
+    @Override
+    public Car updateCar(Car car) {
+        if (Objects.isNull(car)) {
+            return null;
+        }
+
+        final int ref = columns.ref(car.getCarId());
+        if (ref < 0 || !columns.isLive(ref)) {
+            return null;
+        }
+        if (columns.ownerId(ref) != car.getOwnerId()) {
+            throw new IllegalArgumentException("owner of car " + car.getCarId() + " changes with transferOwnership");
+        }
+
+        final Car old = materialize(ref);
+        final int oldBrand = columns.brandCode(ref);
+        columns.update(ref, car);
+
+        //B+tree remove and add complexity - O(logN), only for an attribute that changed
+        if (old.getMaxVelocity() != car.getMaxVelocity()) {
+            topByVelocity.remove(carsByVelocity.remove(old, ref));
+            topByVelocity.add(carsByVelocity.add(car, ref));
+        }
+        if (old.getPower() != car.getPower()) {
+            topByPower.remove(carsByPower.remove(old, ref));
+            topByPower.add(carsByPower.add(car, ref));
+        }
+
+        if (oldBrand != columns.brandCode(ref)) {
+            final int age = carOwner.get(car.getOwnerId()).owner.getAge();
+            removeFromBrand(ref, oldBrand, age);
+            addToBrand(ref, age);
+        }
+        return old;
+    }
+
+    /**
+     * The returned car is a copy on the heap, a flyweight would read the new owner id
+     */
+    @Override
+    public Car transferOwnership(int carId, Owner owner) {
+        final int ref = columns.ref(carId);
+        if (Objects.isNull(owner) || ref < 0 || !columns.isLive(ref)) {
+            return null;
+        }
+        final int ownerId = GarageImpl.carOwnerId(owner);
+
+        final Car old = materialize(ref);
+        if (old.getOwnerId() == ownerId) {
+            return old;
+        }
+
+        //OwnerRegistry get by the owner id column & swap-remove by the slot column - O(1)
+        OwnerRefs from = carOwner.get(old.getOwnerId());
+        int moved = from.removeAt(columns.ownerSlot(ref));
+        if (moved >= 0) {
+            columns.ownerSlot(moved, columns.ownerSlot(ref));
+        }
+
+        columns.ownerId(ref, ownerId);
+        OwnerRefs to = ownerRefs(owner);
+        columns.ownerSlot(ref, to.add(ref));
+
+        BrandRefs brandRefs = brandRefs(columns.brandCode(ref));
+        if (Objects.nonNull(brandRefs)) {
+            brandRefs.ownersAgeSum += to.owner.getAge() - from.owner.getAge();
+        }
+        return old;
+    }
+
+    /**
+     * Flyweights die with the mapping on close, so the live cars are materialized on the heap and loaded into a
+     * read-only {@link GarageImpl} - O(n logN).
+     */
+    @Override
+    public Garage snapshot() {
+        final List<Car> cars = new ArrayList<>(columns.size());
+        // every registered owner, the ones without cars included
+        final List<Owner> owners = new ArrayList<>(carOwner.size());
+        final Map<Long, Owner> ownerOf = new HashMap<>();
+        for (int o = 0; o < carOwner.size(); o++) {
+            final OwnerRefs ownerRefs = carOwner.entry(o);
+            owners.add(ownerRefs.owner);
+            for (int i = 0; i < ownerRefs.size; i++) {
+                Car car = materialize(ownerRefs.refs[i]);
+                cars.add(car);
+                ownerOf.put(car.getCarId(), ownerRefs.owner);
+            }
+        }
+        return GarageImpl.snapshotOf(owners, cars, car -> ownerOf.get(car.getCarId()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        columns.close();
+    }
+
+    private void addToBuckets(int ref, Owner owner) {
+        OwnerRefs ownerRefs = ownerRefs(owner);
+        columns.ownerSlot(ref, ownerRefs.add(ref));
+        addToBrand(ref, ownerRefs.owner.getAge());
+    }
+
+    /**
+     * @return bucket of the owner, registered with these attributes if it is new
+     */
+    private OwnerRefs ownerRefs(Owner owner) {
+        // OwnerRegistry get complexity - O(1)
+        OwnerRefs ownerRefs = carOwner.get(owner.getOwnerId());
+        if (Objects.isNull(ownerRefs)) {
+            ownerRefs = new OwnerRefs(owner);
+            carOwner.add(owner.getOwnerId(), ownerRefs);
+        }
+        return ownerRefs;
+    }
+
+    private void addToBrand(int ref, int ownerAge) {
+        final int brand = columns.brandCode(ref);
+        if (brand >= 0) {
+            while (carBrand.size() <= brand) {
+                carBrand.add(null);
+            }
+
+            BrandRefs brandRefs = carBrand.get(brand);
+            if (Objects.isNull(brandRefs)) {
+                brandRefs = new BrandRefs();
+                carBrand.set(brand, brandRefs);
+            }
+            columns.brandSlot(ref, brandRefs.add(ref));
+            brandRefs.ownersAgeSum += ownerAge;
+        }
+    }
+
+    private void removeFromBrand(int ref, int brand, int ownerAge) {
+        BrandRefs brandRefs = brandRefs(brand);
+        if (Objects.nonNull(brandRefs)) {
+            //swap-remove by the slot column - O(1)
+            int moved = brandRefs.removeAt(columns.brandSlot(ref));
+            if (moved >= 0) {
+                columns.brandSlot(moved, columns.brandSlot(ref));
+            }
+            brandRefs.ownersAgeSum -= ownerAge;
+        }
+    }
+
+    private Car materialize(int ref) {
+        return new Car(columns.carId(ref), columns.brand(ref), columns.modelName(ref), columns.maxVelocity(ref),
+            columns.power(ref), columns.ownerId(ref));
+    }
+
+    private BrandRefs brandRefs(int code) {
+        return code < 0 || code >= carBrand.size() ? null : carBrand.get(code);
+    }
+
+    //for testing
+
+    CarColumns getColumns() {
+        return columns;
+    }
+
+    /*
+        Buckets are growable int arrays of refs, each car knows its position through a slot column,
+        so removal moves the last ref into the hole instead of shifting
+     */
+
+    private static class Refs {
+
+        int[] refs = new int[4];
+        int size;
+
+        /**
+         * @return slot of the ref
+         */
+        int add(int ref) {
+            if (size == refs.length) {
+                refs = Arrays.copyOf(refs, size << 1);
+            }
+            refs[size] = ref;
+            return size++;
+        }
+
+        /**
+         * @return ref moved into the slot, or -1 if the slot was the last one
+         */
+        int removeAt(int slot) {
+            int last = refs[--size];
+            refs[slot] = last;
+            return slot == size ? -1 : last;
+        }
+    }
+
+    private static final class OwnerRefs extends Refs {
+
+        // the first Owner instance added for this id or the last one passed to updateOwner, its age is what the
+        // brand sums are made of
+        private Owner owner;
+
+        private OwnerRefs(Owner owner) {
+            this.owner = owner;
+        }
+    }
+
+    private static final class BrandRefs extends Refs {
+
+        private long ownersAgeSum;
+    }
+
+    private final class RefView extends AbstractCollection<Car> {
+
+        private final Refs refs;
+        private final boolean byOwner;
+
+        private RefView(Refs refs, boolean byOwner) {
+            this.refs = refs;
+            this.byOwner = byOwner;
+        }
+
+        @Override
+        public Iterator<Car> iterator() {
+            return new Iterator<>() {
+
+                private int next;
+
+                @Override
+                public boolean hasNext() {
+                    return next < refs.size;
+                }
+
+                @Override
+                public Car next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return columns.car(refs.refs[next++]);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return refs.size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Car)) {
+                return false;
+            }
+
+            //the slot column points straight into the bucket - O(1)
+            int ref = columns.ref(((Car) o).getCarId());
+            if (ref < 0 || !columns.isLive(ref)) {
+                return false;
+            }
+
+            int slot = byOwner ? columns.ownerSlot(ref) : columns.brandSlot(ref);
+            return slot < refs.size && refs.refs[slot] == ref;
+        }
+    }
+}
@@ -0,0 +1,497 @@
+package impl;
+
+import static java.lang.Boolean.FALSE;
+import static java.lang.Boolean.TRUE;
+
+import domain.Car;
+import domain.Garage;
+import domain.Owner;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * Thread-safe {@link Garage}.
+ *
+ * Reads never block: every index is a concurrent collection and queries return weakly consistent
+ * views that do not throw {@link java.util.ConcurrentModificationException}. Writes are striped by
+ * car id, so {@code addCar}/{@code removeCar} of different cars (and therefore of different owners
+ * and brands) never wait for each other; only writes of the same car id are serialized, which keeps
+ * the live/removed state in {@code carTrack} and the secondary indexes in step.
+ *
+ * A reader may observe a car that is already in one index but not yet in another - each index is
+ * consistent on its own, but there is no atomic cross-index view.
+ *
+ * Skip lists keep no subtree sizes, so range counts, percentile ranks, cars at a percentile and the histograms
+ * built on them walk the index - O(n), not the O(log n) of {@link Garage}. The per-brand percentiles and
+ * histograms are the linear defaults of {@link Garage} - O(b log b) and O(b log bounds). No running sums are kept
+ * either, as an owner update would have to reach every brand of the owner's cars under other stripes, so the mean
+ * owner age of a brand walks the brand - O(b), and the mean car number walks the owners - O(owners), not O(1).
+ */
+public class ConcurrentGarage implements Garage {
+
+    private static final int DEFAULT_STRIPES = 64;
+
+    /*
+        Total order - attribute first, car id for equal attributes, so cars with the same power/velocity
+        never collide and no key object is allocated per comparison
+     */
+
+    private static final Comparator<Car> BY_VELOCITY =
+        Comparator.comparingInt(Car::getMaxVelocity).thenComparingLong(Car::getCarId);
+
+    private static final Comparator<Car> BY_POWER =
+        Comparator.comparingInt(Car::getPower).thenComparingLong(Car::getCarId);
+
+    private final ConcurrentMap<Long, Pair<Car, Boolean>> carTrack = new ConcurrentHashMap<>();
+
+    // owner attributes and owner buckets by owner id, an owner is registered before its bucket is created
+    private final ConcurrentMap<Long, Owner> owners = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, Set<Car>> carOwner = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<Car>> carBrand = new ConcurrentHashMap<>();
+
+    private final NavigableSet<Car> carsByVelocity = new ConcurrentSkipListSet<>(BY_VELOCITY);
+    private final NavigableSet<Car> carsByPower = new ConcurrentSkipListSet<>(BY_POWER);
+
+    private final ReentrantLock[] stripes;
+
+    public ConcurrentGarage() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param concurrencyLevel expected number of concurrently writing threads, rounded up to a power of two
+     */
+    public ConcurrentGarage(int concurrencyLevel) {
+        if (concurrencyLevel <= 0) {
+            throw new IllegalArgumentException("concurrencyLevel must be positive: " + concurrencyLevel);
+        }
+
+        int size = Integer.highestOneBit(concurrencyLevel);
+        stripes = new ReentrantLock[size < concurrencyLevel ? size << 1 : size];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    @Override
+    public Collection<Owner> allCarsUniqueOwners() {
+        return new ArrayList<>(owners.values());
+    }
+
+    @Override
+    public Collection<Car> topThreeCarsByMaxVelocity() {
+        return topCarsByMaxVelocity(3);
+    }
+
+    @Override
+    public Collection<Car> topCarsByMaxVelocity(int k) {
+        return top(carsByVelocity, k);
+    }
+
+    @Override
+    public Collection<Car> topCarsByPower(int k) {
+        return top(carsByPower, k);
+    }
+
+    @Override
+    public Collection<Car> allCarsOfBrand(String brand) {
+        return view(carBrand.get(brand));
+    }
+
+    @Override
+    public Collection<Car> carsWithPowerMoreThan(int power) {
+        //ConcurrentSkipListSet tailSet complexity - O(logN)
+        return Collections.unmodifiableNavigableSet(carsByPower.tailSet(Car.proxyByPower(power), true));
+    }
+
+    @Override
+    public Collection<Car> carsWithPowerBetween(int from, int to) {
+        return between(carsByPower, probe(from, 0, Long.MIN_VALUE), probe(to, 0, Long.MAX_VALUE));
+    }
+
+    @Override
+    public Collection<Car> carsWithVelocityBetween(int from, int to) {
+        return between(carsByVelocity, probe(0, from, Long.MIN_VALUE), probe(0, to, Long.MAX_VALUE));
+    }
+
+    /**
+     * Complexity is O(k) for k cars in the range, the skip list view counts them one by one
+     */
+    @Override
+    public int countCarsWithPowerBetween(int from, int to) {
+        return carsWithPowerBetween(from, to).size();
+    }
+
+    /**
+     * Complexity is O(k) for k cars in the range, the skip list view counts them one by one
+     */
+    @Override
+    public int countCarsWithVelocityBetween(int from, int to) {
+        return carsWithVelocityBetween(from, to).size();
+    }
+
+    /**
+     * Complexity is O(n), the skip list and its head view are counted one by one
+     */
+    @Override
+    public double powerPercentileRank(int power) {
+        return percentileRank(carsByPower, probe(power, 0, Long.MIN_VALUE));
+    }
+
+    /**
+     * Complexity is O(n), the skip list and its head view are counted one by one
+     */
+    @Override
+    public double velocityPercentileRank(int velocity) {
+        return percentileRank(carsByVelocity, probe(0, velocity, Long.MIN_VALUE));
+    }
+
+    /**
+     * Complexity is O(n), the skip list is counted and then walked up to the rank
+     */
+    @Override
+    public Car carAtPowerPercentile(double percentile) {
+        return atPercentile(carsByPower, percentile);
+    }
+
+    /**
+     * Complexity is O(n), the skip list is counted and then walked up to the rank
+     */
+    @Override
+    public Car carAtVelocityPercentile(double percentile) {
+        return atPercentile(carsByVelocity, percentile);
+    }
+
+    @Override
+    public Collection<Car> allCarsOfOwner(Owner owner) {
+        return Objects.isNull(owner) ? Collections.emptySet() : view(carOwner.get(owner.getOwnerId()));
+    }
+
+    /**
+     * Complexity is O(b) for b cars of the brand, each car looks up the current age of its owner
+     */
+    @Override
+    public int meanOwnersAgeOfCarBrand(String brand) {
+        long sum = 0;
+        int count = 0;
+        for (Car car : allCarsOfBrand(brand)) {
+            //ConcurrentHashMap get complexity - O(1), the current attributes of the owner
+            Owner owner = owners.get((long) car.getOwnerId());
+            sum += Objects.isNull(owner) ? 0 : owner.getAge();
+            count++;
+        }
+
+        return count == 0 ? 0 : (int) (sum / count);
+    }
+
+    /**
+     * Complexity is O(owners), the size of every owner bucket is summed
+     */
+    @Override
+    public int meanCarNumberForEachOwner() {
+        long sum = 0;
+        int count = 0;
+        for (Set<Car> cars : carOwner.values()) {
+            sum += cars.size();
+            count++;
+        }
+
+        return count == 0 ? 0 : (int) (sum / count);
+    }
+
+    @Override
+    public Car removeCar(int carId) {
+        final Long key = (long) carId;
+
+        final ReentrantLock stripe = stripeOf(key);
+        stripe.lock();
+        try {
+                Pair<Car, Boolean> entry = carTrack.get(key);
+                if (entry == null || !entry.getValue()) {
+                    return null;
+                }
+
+                Car car = entry.getKey();
+                carTrack.put(key, new Pair<>(car, FALSE));
+
+                removeFrom(carOwner, (long) car.getOwnerId(), car);
+                if (Objects.nonNull(car.getBrand())) {
+                    removeFrom(carBrand, car.getBrand(), car);
+                }
+
+                //ConcurrentSkipListSet remove complexity - O(logN)
+                carsByPower.remove(car);
+                carsByVelocity.remove(car);
+
+                return car;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    @Override
+    public void addCar(Car car, Owner owner) {
+        if (Objects.isNull(car) || Objects.isNull(owner)) {
+            return;
+        }
+
+        final Long key = car.getCarId();
+
+        final ReentrantLock stripe = stripeOf(key);
+        stripe.lock();
+        try {
+                if (carTrack.putIfAbsent(key, new Pair<>(car, TRUE)) != null) {
+                    return;
+                }
+
+                // ConcurrentHashMap computeIfAbsent is atomic per key, no extra lock for the owner bucket
+                owners.putIfAbsent(owner.getOwnerId(), owner);
+                carOwner.computeIfAbsent(owner.getOwnerId(), it -> ConcurrentHashMap.newKeySet()).add(car);
+
+                final String brand = car.getBrand();
+                if (Objects.nonNull(brand)) {
+                    carBrand.computeIfAbsent(brand, it -> ConcurrentHashMap.newKeySet()).add(car);
+                }
+
+                //ConcurrentSkipListSet add complexity - O(logN)
+                carsByVelocity.add(car);
+                carsByPower.add(car);
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * The skip lists and sets hold the car objects, so the new version replaces the old one in every index, the
+     * ordered ones included - O(logN). Readers may see the car in no index or in both versions meanwhile.
+     */
+    @Override
+    public Car updateCar(Car car) {
+        if (Objects.isNull(car)) {
+            return null;
+        }
+
+        final Long key = car.getCarId();
+
+        final ReentrantLock stripe = stripeOf(key);
+        stripe.lock();
+        try {
+                Pair<Car, Boolean> entry = carTrack.get(key);
+                if (entry == null || !entry.getValue()) {
+                    return null;
+                }
+
+                Car old = entry.getKey();
+                if (old.getOwnerId() != car.getOwnerId()) {
+                    throw new IllegalArgumentException("owner of car " + key + " changes with transferOwnership");
+                }
+                carTrack.put(key, new Pair<>(car, TRUE));
+                replace(old, car, (long) car.getOwnerId());
+                return old;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    @Override
+    public Car transferOwnership(int carId, Owner owner) {
+        if (Objects.isNull(owner)) {
+            return null;
+        }
+        final int ownerId = GarageImpl.carOwnerId(owner);
+
+        final Long key = (long) carId;
+
+        final ReentrantLock stripe = stripeOf(key);
+        stripe.lock();
+        try {
+                Pair<Car, Boolean> entry = carTrack.get(key);
+                if (entry == null || !entry.getValue()) {
+                    return null;
+                }
+
+                Car old = entry.getKey();
+                if (old.getOwnerId() == ownerId) {
+                    return old;
+                }
+
+                Car car = new Car(old.getCarId(), old.getBrand(), old.getModelName(), old.getMaxVelocity(),
+                    old.getPower(), ownerId);
+                carTrack.put(key, new Pair<>(car, TRUE));
+                owners.putIfAbsent(owner.getOwnerId(), owner);
+                removeFrom(carOwner, (long) old.getOwnerId(), old);
+                replace(old, car, owner.getOwnerId());
+                return old;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    private void replace(Car old, Car car, long ownerId) {
+        // equal by id and by the ordered comparators while the attribute is the same, add alone keeps the old one
+        removeFrom(carOwner, ownerId, old);
+        carOwner.computeIfAbsent(ownerId, it -> ConcurrentHashMap.newKeySet()).add(car);
+
+        if (Objects.nonNull(old.getBrand())) {
+            removeFrom(carBrand, old.getBrand(), old);
+        }
+        if (Objects.nonNull(car.getBrand())) {
+            carBrand.computeIfAbsent(car.getBrand(), it -> ConcurrentHashMap.newKeySet()).add(car);
+        }
+
+        //ConcurrentSkipListSet remove and add complexity - O(logN)
+        carsByVelocity.remove(old);
+        carsByVelocity.add(car);
+        carsByPower.remove(old);
+        carsByPower.add(car);
+    }
+
+    @Override
+    public boolean addOwner(Owner owner) {
+        if (Objects.isNull(owner) || owners.putIfAbsent(owner.getOwnerId(), owner) != null) {
+            return false;
+        }
+
+        carOwner.computeIfAbsent(owner.getOwnerId(), it -> ConcurrentHashMap.newKeySet());
+        return true;
+    }
+
+    /**
+     * The mean age of a brand reads the owners on every call, it follows the new attributes without any update
+     */
+    @Override
+    public boolean updateOwner(Owner owner) {
+        return Objects.nonNull(owner) && owners.replace(owner.getOwnerId(), owner) != null;
+    }
+
+    /**
+     * Skip lists have no point-in-time view: writers wait on every stripe while the live cars and the owners are
+     * copied - O(n), then the copy is loaded into a read-only {@link GarageImpl} without the locks - O(n logN).
+     * Reads go on meanwhile.
+     */
+    @Override
+    public Garage snapshot() {
+        final List<Car> cars = new ArrayList<>(carTrack.size());
+        final Map<Long, Owner> ownersById = new LinkedHashMap<>();
+
+        int locked = 0;
+        try {
+            for (; locked < stripes.length; locked++) {
+                stripes[locked].lock();
+            }
+
+            for (Pair<Car, Boolean> entry : carTrack.values()) {
+                if (entry.getValue()) {
+                    cars.add(entry.getKey());
+                }
+            }
+            // owners without cars too, they count for allCarsUniqueOwners and meanCarNumberForEachOwner
+            ownersById.putAll(owners);
+        } finally {
+            while (locked > 0) {
+                stripes[--locked].unlock();
+            }
+        }
+
+        return GarageImpl.snapshotOf(ownersById.values(), cars, car -> ownersById.get((long) car.getOwnerId()));
+    }
+
+    private ReentrantLock stripeOf(Long carId) {
+        int h = carId.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+    }
+
+    private static List<Car> top(NavigableSet<Car> cars, int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k must not be negative: " + k);
+        }
+
+        List<Car> result = new ArrayList<>(Math.min(k, 16));
+
+        //ConcurrentSkipListSet descending iteration - O(logN + k)
+        Iterator<Car> iterator = cars.descendingIterator();
+        while (iterator.hasNext() && result.size() < k) {
+            result.add(iterator.next());
+        }
+
+        return result;
+    }
+
+    private static Collection<Car> between(NavigableSet<Car> cars, Car from, Car to) {
+        if (cars.comparator().compare(from, to) > 0) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableNavigableSet(cars.subSet(from, true, to, true));
+    }
+
+    private static double percentileRank(NavigableSet<Car> cars, Car value) {
+        int total = cars.size();
+        return total == 0 ? 0 : (double) cars.headSet(value, false).size() / total;
+    }
+
+    private static Car atPercentile(NavigableSet<Car> cars, double percentile) {
+        if (!(percentile >= 0 && percentile <= 1)) {
+            throw new IllegalArgumentException("percentile must be in [0, 1]: " + percentile);
+        }
+
+        int rank = Math.max((int) Math.ceil(percentile * cars.size()) - 1, 0);
+
+        Car result = null;
+        Iterator<Car> iterator = cars.iterator();
+        for (int i = 0; i <= rank && iterator.hasNext(); i++) {
+            result = iterator.next();
+        }
+        return result;
+    }
+
+    private static Car probe(int power, int velocity, long carId) {
+        return new Car(carId, null, null, velocity, power, -1);
+    }
+
+    private static <K> void removeFrom(Map<K, Set<Car>> index, K key, Car car) {
+        Set<Car> cars = index.get(key);
+        if (cars != null) {
+            cars.remove(car);
+        }
+    }
+
+    private static Collection<Car> view(Set<Car> cars) {
+        return cars == null ? Collections.emptySet() : Collections.unmodifiableSet(cars);
+    }
+
+    //for testing
+
+    Map<Long, Pair<Car, Boolean>> getCarTrack() {
+        return carTrack;
+    }
+
+    Map<Owner, Set<Car>> getCarOwner() {
+        return carOwner.entrySet().stream().collect(Collectors.toMap(e -> owners.get(e.getKey()), Map.Entry::getValue));
+    }
+
+    Map<String, Set<Car>> getCarBrand() {
+        return carBrand;
+    }
+
+    NavigableSet<Car> getCarsByVelocity() {
+        return carsByVelocity;
+    }
+
+    NavigableSet<Car> getCarsByPower() {
+        return carsByPower;
+    }
+}
@@ -0,0 +1,183 @@
+package impl;
+
+import domain.Car;
+import domain.GarageEvent;
+import domain.GarageEvent.Type;
+import domain.GarageListener;
+import domain.Owner;
+import domain.Subscription;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Change events of one garage: a single-producer ring buffer read by one delivery thread per subscription.
+ *
+ * The writing thread fills the next slot and publishes it with one volatile write - no lock, no wait, and no
+ * work per subscriber beyond waking the delivery threads that sleep on an empty ring. Every subscription keeps its
+ * own cursor and takes everything published since its last batch at once, up to {@link #MAX_BATCH} events, so a
+ * slow listener gets bigger batches rather than slowing the writer down. The ring keeps the last capacity events;
+ * a subscription that falls further behind finds its next slot overwritten by a later sequence and is closed.
+ *
+ * Nothing is recorded before the first subscription, which allocates the ring. Sequences start at 1.
+ */
+final class EventFeed {
+
+    private static final int MAX_BATCH = 1024;
+
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    private final int capacity;
+
+    private GarageEvent[] slots;
+
+    // sequence of the last event, the volatile write publishes the slot written before it
+    private volatile long published;
+
+    // set once the ring is allocated, until then the writer skips the events
+    private volatile boolean active;
+
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param capacity number of buffered events, a power of two
+     */
+    EventFeed(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /*
+        Producer side, called by the writing thread only
+     */
+
+    void added(Car car, Owner owner) {
+        publish(Type.ADDED, car, owner);
+    }
+
+    void removed(Car car, Owner owner) {
+        publish(Type.REMOVED, car, owner);
+    }
+
+    void updated(Car car, Owner owner) {
+        publish(Type.UPDATED, car, owner);
+    }
+
+    private void publish(Type type, Car car, Owner owner) {
+        if (!active) {
+            return;
+        }
+
+        final long sequence = published + 1;
+        slots[(int) sequence & (capacity - 1)] = new GarageEvent(sequence, type, car, owner);
+        published = sequence;
+
+        // a subscriber announces its sleep before it checks published again, one of the two sees the other
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.sleeping) {
+                LockSupport.unpark(subscriber.thread);
+            }
+        }
+    }
+
+    /**
+     * @param afterSequence last sequence the listener handled, negative for the last published one
+     */
+    synchronized Subscription subscribe(GarageListener listener, long afterSequence) {
+        if (!active) {
+            slots = new GarageEvent[capacity];
+            active = true;
+        }
+
+        final long last = published;
+        final long start = afterSequence < 0 ? last : afterSequence;
+        if (start > last || start < last - capacity) {
+            throw new IllegalArgumentException("events after sequence " + afterSequence + " are not buffered, "
+                + "buffered: " + Math.max(last - capacity, 0) + " to " + last);
+        }
+
+        Subscriber subscriber = new Subscriber(listener, start);
+        subscribers.add(subscriber);
+        subscriber.thread.start();
+        return subscriber;
+    }
+
+    private final class Subscriber implements Subscription, Runnable {
+
+        private final GarageListener listener;
+        private final Thread thread;
+
+        // last sequence handed to the listener
+        private volatile long cursor;
+
+        private volatile boolean sleeping;
+        private volatile boolean closed;
+
+        Subscriber(GarageListener listener, long cursor) {
+            this.listener = listener;
+            this.cursor = cursor;
+            thread = new Thread(this, "garage-events-" + THREADS.incrementAndGet());
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            Throwable cause = null;
+            try {
+                while (!closed) {
+                    final long from = cursor;
+                    final long available = published;
+                    if (available == from) {
+                        sleeping = true;
+                        if (published == from && !closed) {
+                            LockSupport.park(this);
+                        }
+                        sleeping = false;
+                        continue;
+                    }
+
+                    final long to = Math.min(available, from + MAX_BATCH);
+                    final List<GarageEvent> batch = new ArrayList<>((int) (to - from));
+                    for (long sequence = from + 1; sequence <= to; sequence++) {
+                        GarageEvent event = slots[(int) sequence & (capacity - 1)];
+                        if (event.getSequence() != sequence) {
+                            throw new IllegalStateException("events after sequence " + from
+                                + " were overwritten, the listener fell more than " + capacity + " events behind");
+                        }
+                        batch.add(event);
+                    }
+
+                    listener.onEvents(Collections.unmodifiableList(batch));
+                    cursor = to;
+                }
+            } catch (RuntimeException e) {
+                cause = e;
+            } finally {
+                closed = true;
+                subscribers.remove(this);
+            }
+            listener.onClose(cause);
+        }
+
+        @Override
+        public long getSequence() {
+            return cursor;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            LockSupport.unpark(thread);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package impl;
+
+/**
+ * Memory counters of a {@link GarageImpl}, a point-in-time copy.
+ *
+ * Capacities are the lengths of the arrays behind the registry, they follow the peak and never shrink.
+ * {@link #estimatedIndexBytes()} sums the primitive and reference arrays of the registry and the keys of the
+ * ordered indexes, assuming 4-byte compressed references. The cars, owners and the HashMap/HashSet buckets
+ * themselves are not included.
+ */
+public final class GarageFootprint {
+
+    private final int liveCars;
+    private final int tombstones;
+    private final int freeRefs;
+    private final int refCapacity;
+    private final int idTableCapacity;
+    private final int tombstoneCapacity;
+    private final int ownerBuckets;
+    private final int brandBuckets;
+    private final int velocityIndexKeys;
+    private final int powerIndexKeys;
+
+    GarageFootprint(int liveCars, int tombstones, int freeRefs, int refCapacity, int idTableCapacity,
+        int tombstoneCapacity, int ownerBuckets, int brandBuckets, int velocityIndexKeys, int powerIndexKeys) {
+        this.liveCars = liveCars;
+        this.tombstones = tombstones;
+        this.freeRefs = freeRefs;
+        this.refCapacity = refCapacity;
+        this.idTableCapacity = idTableCapacity;
+        this.tombstoneCapacity = tombstoneCapacity;
+        this.ownerBuckets = ownerBuckets;
+        this.brandBuckets = brandBuckets;
+        this.velocityIndexKeys = velocityIndexKeys;
+        this.powerIndexKeys = powerIndexKeys;
+    }
+
+    public int getLiveCars() {
+        return liveCars;
+    }
+
+    /**
+     * @return removed car ids that are still rejected
+     */
+    public int getTombstones() {
+        return tombstones;
+    }
+
+    /**
+     * @return refs released by removed cars and not reused yet
+     */
+    public int getFreeRefs() {
+        return freeRefs;
+    }
+
+    public int getRefCapacity() {
+        return refCapacity;
+    }
+
+    public int getIdTableCapacity() {
+        return idTableCapacity;
+    }
+
+    public int getTombstoneCapacity() {
+        return tombstoneCapacity;
+    }
+
+    public int getOwnerBuckets() {
+        return ownerBuckets;
+    }
+
+    public int getBrandBuckets() {
+        return brandBuckets;
+    }
+
+    public int getVelocityIndexKeys() {
+        return velocityIndexKeys;
+    }
+
+    public int getPowerIndexKeys() {
+        return powerIndexKeys;
+    }
+
+    /**
+     * @return keys in the velocity and power indexes together
+     */
+    public long getIndexKeys() {
+        return (long) velocityIndexKeys + powerIndexKeys;
+    }
+
+    public long estimatedIndexBytes() {
+        return (long) idTableCapacity * (Long.BYTES + Integer.BYTES)
+            + (long) refCapacity * (Integer.BYTES + Byte.BYTES)
+            + (long) freeRefs * Integer.BYTES
+            + (long) tombstoneCapacity * Long.BYTES * 2
+            + getIndexKeys() * Long.BYTES;
+    }
+
+    @Override
+    public String toString() {
+        return "GarageFootprint{"
+            + "liveCars=" + liveCars
+            + ", tombstones=" + tombstones
+            + ", freeRefs=" + freeRefs
+            + ", refCapacity=" + refCapacity
+            + ", idTableCapacity=" + idTableCapacity
+            + ", tombstoneCapacity=" + tombstoneCapacity
+            + ", ownerBuckets=" + ownerBuckets
+            + ", brandBuckets=" + brandBuckets
+            + ", velocityIndexKeys=" + velocityIndexKeys
+            + ", powerIndexKeys=" + powerIndexKeys
+            + ", estimatedIndexBytes=" + estimatedIndexBytes()
+            + '}';
+    }
+}
@@ -1,28 +1,50 @@
 package impl;
 
-import static java.lang.Boolean.FALSE;
-import static java.lang.Boolean.TRUE;
-
 import domain.Car;
+import domain.CarPage;
+import domain.CarQuery;
 import domain.Garage;
+import domain.GarageListener;
 import domain.Owner;
+import domain.Subscription;
+import impl.QueryPlan.Access;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.NavigableSet;
 import java.util.Objects;
-import java.util.Optional;
-import java.util.TreeSet;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.util.stream.Collectors;
 
 public class GarageImpl implements Garage {
 
+    // leaderboard size kept up to date on every write, bigger top-k requests walk the ordered index
+    private static final int TOP_CARS_CAPACITY = 32;
+
+    // batches at least this big build the velocity and power indexes on two threads
+    private static final int PARALLEL_LOAD_THRESHOLD = 1 << 16;
+
+    // changes buffered for subscribers, a subscriber further behind is closed
+    private static final int EVENT_CAPACITY = 1 << 14;
+
+    // brand index of an unknown brand, never written
+    private static final LongBTree NO_KEYS = new LongBTree();
+
     /*
         HashMap.get :
           MIN - 0(1),
@@ -31,154 +53,1503 @@ public class GarageImpl implements Garage {
         But hashCode implementation is based on unique columns (ownerId and brand) - well-distributed across buckets, no collisions, MIN complexity
      */
 
-    private final Map<Integer, Pair<Car, Boolean>> carTrack = new HashMap<>();
+    // open addressing on primitive long ids, live/removed state is kept inline - see CarRegistry
+    private final CarRegistry carTrack;
+
+    // owner and brand buckets that become empty are deleted, with every retention policy but the legacy one
+    private final boolean pruneEmptyBuckets;
+
+    // buckets hold a RefBitmap of refs instead of a HashSet of cars, see IndexMode
+    private final boolean bitmapBuckets;
+
+    // owner buckets by primitive owner id, a car finds its owner without an Owner key - see OwnerRegistry
+    private final OwnerRegistry<OwnerCars> carOwner;
+    private Map<String, BrandCars> carBrand = new HashMap<>();
+
+    // a snapshot rejects writes
+    private final boolean readOnly;
+
+    /*
+        Every snapshot starts a new version of the garage. The brand map and the buckets of an older version are
+        shared with a snapshot, the first write to them copies them
+     */
+
+    private int version;
+    private int mapsVersion;
+
+    /*
+        B+tree of packed (attribute << 32 | ref) longs - one primitive comparison per step,
+        no key object, no boxing, no comparator
+     */
 
-    private final Map<Owner, Collection<Car>> carOwner = new HashMap<>();
-    private final Map<String, Collection<Car>> carBrand = new HashMap<>();
+    private final AttributeIndex carsByVelocity;
 
-    private final Comparator<Pair<Long, Integer>> comparator =  (a, b) -> a.getKey().equals(b.getKey()) ? 0
-        : (a.getValue().equals(b.getValue()) ? 1 : Integer.compare(a.getValue(), b.getValue()));
+    private final AttributeIndex carsByPower;
 
-    private final NavigableSet<Car> carsByVelocity = new TreeSet<>(
-        Comparator.comparing(it -> new Pair<>(it.getCarId(), it.getMaxVelocity()), comparator)
-    );
+    private final TopCars topByVelocity;
 
-    private final NavigableSet<Car> carsByPower = new TreeSet<>(
-        Comparator.comparing(it -> new Pair<>(it.getCarId(), it.getPower()), comparator)
-    );
+    private final TopCars topByPower;
+
+    /*
+        An update that changes the power or max velocity of a car moves its packed key, so a cursor over that
+        range could meet the car again. Every such move takes the next epoch and stamps it at the ref of the car;
+        cursors remember the epoch they started at and skip a car stamped after it. The arrays are shared with a
+        snapshot, which only reads the stamps up to its own epoch.
+     */
+    private int moves;
+    private int[] velocityMoves = new int[0];
+    private int[] powerMoves = new int[0];
+
+    /*
+        (power, max velocity) point of every car, for ranges on both attributes at once. Built by the first such
+        query and kept current by the writes from then on, so a garage that never asks pays nothing for it.
+        Volatile as readers of a snapshot may build it concurrently, each then builds the same tree.
+     */
+    private volatile KdTree carsByPowerAndVelocity;
+
+    // change events of addCar/removeCar, null for a snapshot
+    private final EventFeed events;
+
+    public GarageImpl() {
+        this(RetentionPolicy.forever());
+    }
+
+    /**
+     * @param retention how long removed car ids are rejected, see {@link RetentionPolicy}
+     */
+    public GarageImpl(RetentionPolicy retention) {
+        this(retention, IndexMode.HASH_SETS);
+    }
+
+    /**
+     * @param retention how long removed car ids are rejected, see {@link RetentionPolicy}
+     * @param indexMode how the cars of each owner and brand are kept, see {@link IndexMode}
+     */
+    public GarageImpl(RetentionPolicy retention, IndexMode indexMode) {
+        carTrack = new CarRegistry(16, retention);
+        pruneEmptyBuckets = !retention.isForever();
+        bitmapBuckets = indexMode == IndexMode.BITMAPS;
+        readOnly = false;
+        carOwner = new OwnerRegistry<>();
+
+        carsByVelocity = new AttributeIndex(Car::getMaxVelocity, carTrack);
+        carsByPower = new AttributeIndex(Car::getPower, carTrack);
+        topByVelocity = new TopCars(carsByVelocity, TOP_CARS_CAPACITY);
+        topByPower = new TopCars(carsByPower, TOP_CARS_CAPACITY);
+        events = new EventFeed(EVENT_CAPACITY);
+    }
+
+    private GarageImpl(GarageImpl garage) {
+        carTrack = garage.carTrack.snapshot();
+        pruneEmptyBuckets = garage.pruneEmptyBuckets;
+        bitmapBuckets = garage.bitmapBuckets;
+        readOnly = true;
+        carOwner = garage.carOwner.snapshot();
+        carBrand = garage.carBrand;
+
+        carsByVelocity = garage.carsByVelocity.snapshot(carTrack);
+        carsByPower = garage.carsByPower.snapshot(carTrack);
+        topByVelocity = garage.topByVelocity.snapshot(carsByVelocity);
+        topByPower = garage.topByPower.snapshot(carsByPower);
+        moves = garage.moves;
+        velocityMoves = garage.velocityMoves;
+        powerMoves = garage.powerMoves;
+        KdTree points = garage.carsByPowerAndVelocity;
+        carsByPowerAndVelocity = Objects.isNull(points) ? null : points.snapshot();
+        events = null;
+    }
+
+    /**
+     * @return id of the owner as a car keeps it
+     * @throws IllegalArgumentException if the id is outside the int range of the owner id of a car
+     */
+    static int carOwnerId(Owner owner) {
+        if ((int) owner.getOwnerId() != owner.getOwnerId()) {
+            throw new IllegalArgumentException("owner id does not fit the owner id of a car: " + owner.getOwnerId());
+        }
+        return (int) owner.getOwnerId();
+    }
+
+    /**
+     * Snapshot for garages without persistent indexes: the owners are registered, those without cars included,
+     * and the given cars are bulk loaded into a new garage - O(n logN)
+     *
+     * @return read-only garage of the given owners and cars
+     */
+    static GarageImpl snapshotOf(Collection<Owner> owners, Collection<Car> cars, Function<Car, Owner> ownerOf) {
+        GarageImpl garage = new GarageImpl();
+        owners.forEach(garage::addOwner);
+        garage.addCars(cars, ownerOf);
+        return garage.snapshot();
+    }
+
+    /**
+     * The snapshot starts out sharing everything with this garage - O(1). Writes copy what they change: the
+     * B+tree nodes on their path, the bucket maps and the touched buckets once per snapshot (a HashSet bucket in
+     * full, a bitmap bucket by container), and the registry arrays on the first removal. A snapshot is not
+     * thread-safe to build but can be read by any number of threads while this garage is written.
+     */
+    @Override
+    public GarageImpl snapshot() {
+        if (readOnly) {
+            return this;
+        }
+
+        GarageImpl snapshot = new GarageImpl(this);
+        version++;
+        return snapshot;
+    }
 
     @Override
     public Collection<Owner> allCarsUniqueOwners() {
-        return carOwner.keySet().stream().distinct().collect(Collectors.toList());
+        final List<Owner> owners = new ArrayList<>(carOwner.size());
+        for (int i = 0; i < carOwner.size(); i++) {
+            owners.add(carOwner.entry(i).owner);
+        }
+        return owners;
     }
 
     @Override
     public Collection<Car> topThreeCarsByMaxVelocity() {
-        List<Car> result = new ArrayList<>();
+        return topCarsByMaxVelocity(3);
+    }
 
-        Iterator<Car> iterator = carsByVelocity.descendingIterator();
-        int c = 0;
-        while (iterator.hasNext() && c++ < 3) {
-            result.add(iterator.next());
-        }
+    @Override
+    public Collection<Car> topCarsByMaxVelocity(int k) {
+        //leaderboard copy - O(k), refilled from the index only after a leader was removed
+        return topByVelocity.top(k);
+    }
 
-        return result;
+    @Override
+    public Collection<Car> topCarsByPower(int k) {
+        return topByPower.top(k);
     }
 
     @Override
     public Collection<Car> carsWithPowerMoreThan(int power) {
-        //tailSet complexity - O(logN)
-        return carsByPower.tailSet(Car.proxyByPower(power));
+        //B+tree descent to the first key - O(logN)
+        return carsByPower.from(power);
+    }
+
+    @Override
+    public Collection<Car> carsWithPowerBetween(int from, int to) {
+        //size of the view is two order-statistic descents - O(logN)
+        return carsByPower.between(from, to);
+    }
+
+    @Override
+    public Collection<Car> carsWithVelocityBetween(int from, int to) {
+        return carsByVelocity.between(from, to);
+    }
+
+    @Override
+    public int countCarsWithPowerBetween(int from, int to) {
+        //B+tree rank - O(logN)
+        return carsByPower.count(from, to);
+    }
+
+    @Override
+    public int countCarsWithVelocityBetween(int from, int to) {
+        return carsByVelocity.count(from, to);
+    }
+
+    @Override
+    public double powerPercentileRank(int power) {
+        return carsByPower.percentileRank(power);
+    }
+
+    @Override
+    public double velocityPercentileRank(int velocity) {
+        return carsByVelocity.percentileRank(velocity);
+    }
+
+    @Override
+    public Car carAtPowerPercentile(double percentile) {
+        //B+tree select - O(logN)
+        return carsByPower.atPercentile(percentile);
+    }
+
+    @Override
+    public Car carAtVelocityPercentile(double percentile) {
+        return carsByVelocity.atPercentile(percentile);
+    }
+
+    @Override
+    public Car carOfBrandAtPowerPercentile(String brand, double percentile) {
+        //B+tree select in the brand's own index - O(log b)
+        return getBrandPower(brand).atPercentile(percentile);
+    }
+
+    @Override
+    public Car carOfBrandAtVelocityPercentile(String brand, double percentile) {
+        return getBrandVelocity(brand).atPercentile(percentile);
+    }
+
+    @Override
+    public int[] powerHistogram(int[] bounds) {
+        //B+tree rank per bound - O(bounds * logN)
+        return carsByPower.histogram(bounds);
+    }
+
+    @Override
+    public int[] velocityHistogram(int[] bounds) {
+        return carsByVelocity.histogram(bounds);
+    }
+
+    @Override
+    public int[] powerHistogramOfBrand(String brand, int[] bounds) {
+        return getBrandPower(brand).histogram(bounds);
+    }
+
+    @Override
+    public int[] velocityHistogramOfBrand(String brand, int[] bounds) {
+        return getBrandVelocity(brand).histogram(bounds);
     }
 
     @Override
     public Collection<Car> allCarsOfBrand(String brand) {
-        return carBrand.get(brand);
+        return carBrand.containsKey(brand) ? new BucketCars(null, brand) : null;
     }
 
     @Override
     public Collection<Car> allCarsOfOwner(Owner owner) {
-        return carOwner.get(owner);
+        return Objects.nonNull(ownerCars(owner)) ? new BucketCars(owner, null) : null;
     }
 
     @Override
-    public int meanOwnersAgeOfCarBrand(String brand) {
-        List<Integer> ownerIds = carBrand.get(brand).stream()
-            .map(Car::getOwnerId)
-            .collect(Collectors.toList());
+    public Collection<Car> carsOfBrandWithPowerBetween(String brand, int from, int to) {
+        final List<Car> cars = new ArrayList<>();
+        brandWithPowerBetween(brand, from, to, ref -> cars.add(carTrack.car(ref)));
+        return cars;
+    }
+
+    @Override
+    public int countCarsOfBrandWithPowerBetween(String brand, int from, int to) {
+        return brandWithPowerBetween(brand, from, to, ref -> { });
+    }
+
+    @Override
+    public Collection<Car> carsOfOwnerAndBrand(Owner owner, String brand) {
+        final List<Car> cars = new ArrayList<>();
+        ownerAndBrand(owner, brand, ref -> cars.add(carTrack.car(ref)));
+        return cars;
+    }
+
+    @Override
+    public int countCarsOfOwnerAndBrand(Owner owner, String brand) {
+        OwnerCars ownerCars = ownerCars(owner);
+        BrandCars brandCars = carBrand.get(brand);
+        if (Objects.isNull(ownerCars) || Objects.isNull(brandCars)) {
+            return 0;
+        }
+
+        //container-wise AND with popcount, no ref is visited one by one when both sides are dense
+        return bitmapBuckets ? ownerCars.refs.andCardinality(brandCars.refs) : ownerAndBrand(owner, brand, ref -> { });
+    }
 
-        Map<Integer, Integer> ownerToAge =
-            carOwner.keySet().stream()
-                .collect(Collectors.toMap(it -> ((int) it.getOwnerId()), Owner::getAge));
+    @Override
+    public Collection<Car> carsWithPowerAndVelocityBetween(int fromPower, int toPower, int fromVelocity,
+        int toVelocity) {
+        //k-d tree range, whole subtrees taken or skipped by their box - O(sqrt(N) + k)
+        final List<Car> cars = new ArrayList<>();
+        carsByPowerAndVelocity().forEach(fromPower, toPower, fromVelocity, toVelocity,
+            ref -> cars.add(carTrack.car(ref)));
+        return cars;
+    }
 
-        return ownerIds.stream().mapToInt(ownerToAge::get).sum() / carBrand.get(brand).size();
+    @Override
+    public int countCarsWithPowerAndVelocityBetween(int fromPower, int toPower, int fromVelocity, int toVelocity) {
+        //k-d tree count from the node sizes - O(sqrt(N))
+        return carsByPowerAndVelocity().count(fromPower, toPower, fromVelocity, toVelocity);
+    }
+
+    @Override
+    public Collection<Car> skylineOfBrand(String brand) {
+        BrandCars brandCars = carBrand.get(brand);
+        if (Objects.isNull(brandCars)) {
+            return new ArrayList<>();
+        }
+
+        //k-d tree branch and bound, dominated subtrees are skipped whole - O(s log b) for s cars of the skyline
+        KdTree points = brandCars.points;
+        if (Objects.isNull(points)) {
+            // a bucket shared with a snapshot is not written anymore, its tree is built from what it holds
+            points = points(refs(brandCars), brandCars.size());
+            brandCars.points = points;
+        }
+        return skyline(points, carTrack::car);
+    }
+
+    /**
+     * @return k-d tree of every car, built on first use - O(n log^2 n) once
+     */
+    private KdTree carsByPowerAndVelocity() {
+        KdTree points = carsByPowerAndVelocity;
+        if (Objects.isNull(points)) {
+            points = points(carsByPower.refs(Integer.MIN_VALUE, Integer.MAX_VALUE), carTrack.size());
+            carsByPowerAndVelocity = points;
+        }
+        return points;
+    }
+
+    /**
+     * @return k-d tree of the (power, max velocity) points of the given refs, bulk loaded
+     */
+    private KdTree points(PrimitiveIterator.OfInt refs, int count) {
+        final int[] refArray = new int[count];
+        int added = 0;
+        while (refs.hasNext()) {
+            refArray[added++] = refs.nextInt();
+        }
+
+        final KdTree points = new KdTree();
+        addPoints(points, refArray, added);
+        return points;
+    }
+
+    /**
+     * Adds the (power, max velocity) points of the first count refs to the tree in one batch
+     */
+    private void addPoints(KdTree points, int[] refs, int count) {
+        final int[] powers = new int[count];
+        final int[] velocities = new int[count];
+        for (int i = 0; i < count; i++) {
+            Car car = carTrack.car(refs[i]);
+            powers[i] = car.getPower();
+            velocities[i] = car.getMaxVelocity();
+        }
+        points.addAll(powers, velocities, refs, count);
+    }
+
+    /**
+     * @param cars car of each ref of the points
+     * @return cars of the skyline of the points, most powerful first
+     */
+    static List<Car> skyline(KdTree points, IntFunction<Car> cars) {
+        final List<Car> skyline = new ArrayList<>();
+        for (int ref : points.skyline()) {
+            skyline.add(cars.apply(ref));
+        }
+        skyline.sort(Comparator.comparingInt(Car::getPower).thenComparingInt(Car::getMaxVelocity).reversed());
+        return skyline;
+    }
+
+    @Override
+    public Collection<Car> query(CarQuery query) {
+        final QueryPlan plan = explain(query);
+        final Iterator<Car> candidates = candidates(plan.getAccess(), query);
+
+        //walks only the chosen access path - O(rows of the plan), stops at the limit
+        final List<Car> cars = new ArrayList<>(Math.min(plan.getEstimatedRows(), query.getLimit()));
+        while (cars.size() < query.getLimit() && candidates.hasNext()) {
+            Car car = candidates.next();
+            if (query.matches(car)) {
+                cars.add(car);
+            }
+        }
+        return cars;
+    }
+
+    /**
+     * Pages walk the access path chosen for the first page, in position order: packed keys for a range, refs for
+     * a bucket. The token holds that path, the position to resume from and the number of cars returned so far.
+     * A HashSet bucket is sorted by ref on every page - O(b log b), bitmap buckets resume in place. A token is
+     * issued while the path has positions left, so the last page may be empty when none of them match.
+     * The token also holds the move epoch of the first page: a car that {@link #updateCar} moves on a range path
+     * after it is skipped by later pages over that range, so it is returned at most once and may be missed.
+     */
+    @Override
+    public CarPage queryPage(CarQuery query, String pageToken, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+
+        final Access access;
+        long from;
+        final int returned;
+        final int epoch;
+        if (Objects.isNull(pageToken)) {
+            access = explain(query).getAccess();
+            from = lower(access, query);
+            returned = 0;
+            epoch = moves;
+        } else {
+            String[] parts = pageToken.split(":");
+            try {
+                access = Access.values()[Integer.parseInt(parts[0])];
+                from = Long.parseLong(parts[1], Character.MAX_RADIX);
+                returned = Integer.parseInt(parts[2]);
+                epoch = Integer.parseInt(parts[3], Character.MAX_RADIX);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("malformed page token: " + pageToken, e);
+            }
+        }
+
+        final OrderedCars path = path(access, query);
+        final long to = upper(access, query);
+        final int wanted = (int) Math.min(pageSize, Math.max(0L, (long) query.getLimit() - returned));
+        final List<Car> cars = new ArrayList<>(Math.min(wanted, 1 << 10));
+        final long[] positions = new long[Math.min(Math.max(wanted, 16), 1 << 10)];
+
+        //B+tree descent per chunk - O(logN + page)
+        while (cars.size() < wanted && from < to) {
+            int count = path.positions(from, to, positions);
+            if (count == 0) {
+                from = to;
+                break;
+            }
+
+            for (int i = 0; i < count && cars.size() < wanted; i++) {
+                from = positions[i] + 1;
+                // a range position packs the ref in its low half
+                if (movedSince(access, (int) positions[i], epoch)) {
+                    continue;
+                }
+                Car car = path.car(positions[i]);
+                if (query.matches(car)) {
+                    cars.add(car);
+                }
+            }
+        }
+
+        boolean last = returned + cars.size() >= query.getLimit() || path.positions(from, to, new long[1]) == 0;
+        return new CarPage(cars, last ? null : access.ordinal() + ":" + Long.toString(from, Character.MAX_RADIX)
+            + ":" + (returned + cars.size()) + ":" + Integer.toString(epoch, Character.MAX_RADIX));
+    }
+
+    /**
+     * The stream walks the chosen access path a chunk at a time without copying it, splits halve the remaining
+     * positions by B+tree rank, so parallel streams get balanced work. A car that {@link #updateCar} moves on a
+     * range path after the stream started is skipped from then on, so it is returned at most once.
+     */
+    @Override
+    public Stream<Car> stream(CarQuery query) {
+        final Access access = explain(query).getAccess();
+        final int epoch = moves;
+        final Stream<Car> cars = StreamSupport.stream(
+            new CarSpliterator(path(access, query), lower(access, query), upper(access, query)), false)
+            .filter(car -> moves == epoch || !movedSince(access, carTrack.ref(car.getCarId()), epoch))
+            .filter(query::matches);
+
+        return query.getLimit() == Integer.MAX_VALUE ? cars : cars.limit(query.getLimit());
+    }
+
+    private OrderedCars path(Access access, CarQuery query) {
+        switch (access) {
+            case OWNER:
+                return path(ownerCars(query.getOwner()));
+            case BRAND:
+                return path(carBrand.get(query.getBrand()));
+            case VELOCITY_RANGE:
+                return carsByVelocity.ordered();
+            default:
+                return carsByPower.ordered();
+        }
+    }
+
+    private OrderedCars path(Bucket bucket) {
+        if (Objects.isNull(bucket)) {
+            return new SortedRefs(new int[0]);
+        }
+        return bitmapBuckets ? new BitmapRefs(bucket.refs) : new SortedRefs(sortedRefs(bucket));
+    }
+
+    private static long lower(Access access, CarQuery query) {
+        switch (access) {
+            case OWNER:
+            case BRAND:
+                return 0;
+            case VELOCITY_RANGE:
+                return AttributeIndex.key(query.getMinVelocity(), 0);
+            default:
+                return AttributeIndex.key(query.getMinPower(), 0);
+        }
+    }
+
+    private long upper(Access access, CarQuery query) {
+        switch (access) {
+            case OWNER:
+            case BRAND:
+                // refs are below the high-water mark of the registry
+                return carTrack.registered();
+            case VELOCITY_RANGE:
+                return AttributeIndex.upperKey(query.getMaxVelocity());
+            default:
+                return AttributeIndex.upperKey(query.getMaxPower());
+        }
+    }
+
+    /**
+     * Picks the access path of the query that yields the fewest cars.
+     *
+     * The statistics are exact cardinalities: bucket sizes and B+tree rank differences. Ties go to the path
+     * considered first - owner, brand, power, velocity.
+     *
+     * @return plan that {@link #query(CarQuery)} follows - O(logN)
+     */
+    public QueryPlan explain(CarQuery query) {
+        QueryPlan plan = null;
+
+        if (Objects.nonNull(query.getOwner())) {
+            //HashMap get complexity - O(1)
+            plan = cheaper(plan, Access.OWNER, size(ownerCars(query.getOwner())));
+        }
+        if (Objects.nonNull(query.getBrand())) {
+            plan = cheaper(plan, Access.BRAND, size(carBrand.get(query.getBrand())));
+        }
+        if (query.hasPowerRange() || Objects.isNull(plan) && !query.hasVelocityRange()) {
+            //B+tree rank - O(logN)
+            plan = cheaper(plan, Access.POWER_RANGE, carsByPower.count(query.getMinPower(), query.getMaxPower()));
+        }
+        if (query.hasVelocityRange()) {
+            plan = cheaper(plan, Access.VELOCITY_RANGE,
+                carsByVelocity.count(query.getMinVelocity(), query.getMaxVelocity()));
+        }
+        return plan;
+    }
+
+    private static QueryPlan cheaper(QueryPlan plan, Access access, int rows) {
+        return Objects.isNull(plan) || rows < plan.getEstimatedRows() ? new QueryPlan(access, rows) : plan;
+    }
+
+    private static int size(Bucket bucket) {
+        return Objects.isNull(bucket) ? 0 : bucket.size();
+    }
+
+    private Iterator<Car> candidates(Access access, CarQuery query) {
+        switch (access) {
+            case OWNER:
+                return iterator(ownerCars(query.getOwner()));
+            case BRAND:
+                return iterator(carBrand.get(query.getBrand()));
+            case VELOCITY_RANGE:
+                return carsByVelocity.between(query.getMinVelocity(), query.getMaxVelocity()).iterator();
+            default:
+                return carsByPower.between(query.getMinPower(), query.getMaxPower()).iterator();
+        }
+    }
+
+    private Iterator<Car> iterator(Bucket bucket) {
+        if (Objects.isNull(bucket)) {
+            return Collections.emptyIterator();
+        }
+        if (!bitmapBuckets) {
+            return Collections.unmodifiableSet(bucket.cars).iterator();
+        }
+
+        final PrimitiveIterator.OfInt iterator = bucket.refs.iterator();
+        return new Iterator<Car>() {
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Car next() {
+                return carTrack.car(iterator.nextInt());
+            }
+        };
+    }
+
+    /**
+     * OwnerRegistry get by the owner id - O(1), the Owner is never used as a key
+     */
+    private OwnerCars ownerCars(Owner owner) {
+        return Objects.isNull(owner) ? null : carOwner.get(owner.getOwnerId());
+    }
+
+    private boolean containsRef(Bucket bucket, int ref) {
+        return bitmapBuckets ? bucket.refs.contains(ref) : bucket.cars.contains(carTrack.car(ref));
+    }
+
+    /**
+     * @return refs of the cars, the HashSet bucket looks each of them up in the registry
+     */
+    private PrimitiveIterator.OfInt refs(Bucket bucket) {
+        if (bitmapBuckets) {
+            return bucket.refs.iterator();
+        }
+
+        final Iterator<Car> iterator = bucket.cars.iterator();
+        return new PrimitiveIterator.OfInt() {
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public int nextInt() {
+                return carTrack.ref(iterator.next().getCarId());
+            }
+        };
+    }
+
+    /**
+     * @return refs of the cars in ascending order, a copy
+     */
+    private int[] sortedRefs(Bucket bucket) {
+        int[] sorted = new int[bucket.size()];
+        PrimitiveIterator.OfInt iterator = refs(bucket);
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = iterator.nextInt();
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Calls the action with the ref of every car of the brand with power in [from, to].
+     *
+     * The smaller side drives: a power range shorter than the brand is walked in the B+tree and its refs probed
+     * against the brand bucket, otherwise the brand bucket is walked and the power of its cars checked.
+     *
+     * @return number of matching cars
+     */
+    private int brandWithPowerBetween(String brand, int from, int to, IntConsumer action) {
+        BrandCars brandCars = carBrand.get(brand);
+        if (Objects.isNull(brandCars) || brandCars.isEmpty()) {
+            return 0;
+        }
+
+        int count = 0;
+
+        //B+tree rank - O(logN), RefBitmap probe - O(log 4096) per ref
+        if (carsByPower.count(from, to) <= brandCars.size()) {
+            PrimitiveIterator.OfInt refs = carsByPower.refs(from, to);
+            while (refs.hasNext()) {
+                int ref = refs.nextInt();
+                if (containsRef(brandCars, ref)) {
+                    action.accept(ref);
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        PrimitiveIterator.OfInt refs = refs(brandCars);
+        while (refs.hasNext()) {
+            int ref = refs.nextInt();
+            int power = carTrack.car(ref).getPower();
+            if (power >= from && power <= to) {
+                action.accept(ref);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Calls the action with the ref of every car of the owner with the brand.
+     *
+     * @return number of matching cars
+     */
+    private int ownerAndBrand(Owner owner, String brand, IntConsumer action) {
+        OwnerCars ownerCars = ownerCars(owner);
+        BrandCars brandCars = carBrand.get(brand);
+        if (Objects.isNull(ownerCars) || Objects.isNull(brandCars)) {
+            return 0;
+        }
+
+        //RefBitmap intersection - O(min(|owner|, |brand|)) probes, containers without a common key are skipped
+        if (bitmapBuckets) {
+            final int[] count = new int[1];
+            ownerCars.refs.forEachAnd(brandCars.refs, ref -> {
+                action.accept(ref);
+                count[0]++;
+            });
+            return count[0];
+        }
+
+        //HashSet contains - O(1) for every car of the smaller bucket
+        Bucket small = ownerCars.size() <= brandCars.size() ? ownerCars : brandCars;
+        Bucket large = small == ownerCars ? brandCars : ownerCars;
+        int count = 0;
+        PrimitiveIterator.OfInt refs = refs(small);
+        while (refs.hasNext()) {
+            int ref = refs.nextInt();
+            if (containsRef(large, ref)) {
+                action.accept(ref);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int meanOwnersAgeOfCarBrand(String brand) {
+        //HashMap get complexity - O(1), the sum is maintained by addCar/removeCar
+        BrandCars cars = carBrand.get(brand);
+
+        return Objects.isNull(cars) || cars.isEmpty() ? 0 : (int) (cars.ownersAgeSum / cars.size());
     }
 
     @Override
     public int meanCarNumberForEachOwner() {
-        return carOwner.values().stream().mapToInt(Collection::size).sum() / carOwner.size();
+        //every live car belongs to exactly one owner bucket - O(1)
+        return carOwner.isEmpty() ? 0 : carTrack.size() / carOwner.size();
     }
 
     @Override
     public void addCar(Car car, Owner owner) {
-        if (Objects.nonNull(car) && Objects.nonNull(owner) && !carTrack
-            .containsKey((int) car.getCarId())) {
-            carTrack.put((int) car.getCarId(), new Pair(car, TRUE));
+        add(car, owner);
+    }
 
-            Optional.ofNullable(carOwner.get(owner))
-                .ifPresentOrElse(
+    /**
+     * @return false if the car was rejected: no car or owner, or a live or retained id
+     */
+    boolean add(Car car, Owner owner) {
+        checkWritable();
+        if (Objects.isNull(car) || Objects.isNull(owner)) {
+            return false;
+        }
+
+        // CarRegistry add is a single probe that rejects live and removed ids - O(1)
+        final int ref = carTrack.add(car);
+        if (ref < 0) {
+            return false;
+        }
+
+        //B+tree add complexity - O(logN), one comparison for the leaderboard unless the car becomes a leader
+        topByVelocity.add(carsByVelocity.add(car, ref));
+        topByPower.add(carsByPower.add(car, ref));
+        //k-d tree add complexity - amortized O(log^2 N), once the tree is built
+        final KdTree points = carsByPowerAndVelocity;
+        if (Objects.nonNull(points)) {
+            points.add(car.getPower(), car.getMaxVelocity(), ref);
+        }
+
+        //the registered owner, the given one may carry other attributes under the same id
+        events.added(car, addToBuckets(car, ref, owner));
+        return true;
+    }
 
-                    // HashSet add complexity - O(1)
-                    it -> it.add(car),
+    @Override
+    public void addCars(Collection<Car> cars, Function<Car, Owner> owners) {
+        addCars(cars, owners, (car, owner) -> { });
+    }
+
+    /**
+     * @param onAdd called with every car that was added and its registered owner
+     */
+    void addCars(Collection<Car> cars, Function<Car, Owner> owners, BiConsumer<Car, Owner> onAdd) {
+        checkWritable();
 
-                    // HashMap put complexity - O(1)
-                    () -> carOwner.put(owner, new HashSet<>(Arrays.asList(car)))
-                );
+        // one resize of the registry for the whole batch
+        carTrack.ensureCapacity(cars.size());
 
-            //TreeSet add complexity - O(logN)
-            carsByVelocity.add(car);
-            carsByPower.add(car);
+        final long[] velocityKeys = new long[cars.size()];
+        final long[] powerKeys = new long[cars.size()];
+        final int[] refs = new int[cars.size()];
+        int added = 0;
+
+        for (Car car : cars) {
+            if (Objects.isNull(car)) {
+                continue;
+            }
+
+            final Owner owner = owners.apply(car);
+            if (Objects.isNull(owner)) {
+                continue;
+            }
+
+            final int ref = carTrack.add(car);
+            if (ref < 0) {
+                continue;
+            }
+
+            final Owner registered = addToBuckets(car, ref, owner);
+            onAdd.accept(car, registered);
+            events.added(car, registered);
+
+            velocityKeys[added] = carsByVelocity.key(car, ref);
+            powerKeys[added] = carsByPower.key(car, ref);
+            refs[added] = ref;
+            added++;
+        }
+
+        //one sort per index and a bottom-up B+tree build - O(n logN) instead of n descents with splits
+        final int count = added;
+        if (count >= PARALLEL_LOAD_THRESHOLD) {
+            CompletableFuture<Void> velocity =
+                CompletableFuture.runAsync(() -> carsByVelocity.addAll(velocityKeys, count));
+            carsByPower.addAll(powerKeys, count);
+            velocity.join();
+        } else {
+            carsByVelocity.addAll(velocityKeys, count);
+            carsByPower.addAll(powerKeys, count);
+        }
+
+        final KdTree points = carsByPowerAndVelocity;
+        if (Objects.nonNull(points)) {
+            addPoints(points, refs, count);
+        }
+
+        topByVelocity.reset();
+        topByPower.reset();
+    }
+
+    /**
+     * An owner registered without cars is kept like an owner whose cars were all removed: forever, or until the
+     * retention policy prunes it with its last car.
+     */
+    @Override
+    public boolean addOwner(Owner owner) {
+        checkWritable();
+        if (Objects.isNull(owner)) {
+            return false;
+        }
 
-            final String brand = car.getBrand();
+        //OwnerRegistry add complexity - O(1) amortized
+        return carOwner.add(owner.getOwnerId(), new OwnerCars(owner, bitmapBuckets, version));
+    }
+
+    @Override
+    public boolean updateOwner(Owner owner) {
+        checkWritable();
+        OwnerCars ownerCars = ownerCars(owner);
+        if (Objects.isNull(ownerCars)) {
+            return false;
+        }
+
+        writableMaps();
+        ownerCars = writable(ownerCars);
+        final long delta = (long) owner.getAge() - ownerCars.owner.getAge();
+        ownerCars.owner = owner;
+        if (delta == 0) {
+            return true;
+        }
+
+        //every brand sum holds the age once per car - O(cars of the owner)
+        PrimitiveIterator.OfInt refs = refs(ownerCars);
+        while (refs.hasNext()) {
+            final String brand = carTrack.car(refs.nextInt()).getBrand();
             if (Objects.nonNull(brand)) {
+                writable(brand, carBrand.get(brand)).ownersAgeSum += delta;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Car updateCar(Car car) {
+        checkWritable();
+        if (Objects.isNull(car)) {
+            return null;
+        }
+
+        //CarRegistry lookup is a single probe - O(1)
+        final int ref = carTrack.ref(car.getCarId());
+        if (ref < 0 || !carTrack.isLive(ref)) {
+            return null;
+        }
 
-                // HashMap get complexity - O(1)
-                Optional.ofNullable(carBrand.get(brand))
-                    .ifPresentOrElse(
+        final Car old = carTrack.car(ref);
+        if (old.getOwnerId() != car.getOwnerId()) {
+            throw new IllegalArgumentException("owner of car " + car.getCarId() + " changes with transferOwnership");
+        }
+        carTrack.replaceAt(ref, car);
+
+        //B+tree remove and add complexity - O(logN), only for an attribute that changed
+        reposition(carsByVelocity, topByVelocity, old, car, ref);
+        reposition(carsByPower, topByPower, old, car, ref);
+        if (old.getMaxVelocity() != car.getMaxVelocity()) {
+            velocityMoves = stamp(velocityMoves, ref, ++moves);
+        }
+        if (old.getPower() != car.getPower()) {
+            powerMoves = stamp(powerMoves, ref, ++moves);
+        }
+        final KdTree points = carsByPowerAndVelocity;
+        if (Objects.nonNull(points) && (old.getPower() != car.getPower()
+            || old.getMaxVelocity() != car.getMaxVelocity())) {
+            points.remove(old.getPower(), old.getMaxVelocity(), ref);
+            points.add(car.getPower(), car.getMaxVelocity(), ref);
+        }
 
-                        // HashSet add complexity - O(1)
-                        it -> it.add(car),
+        writableMaps();
+        OwnerCars ownerCars = writable(carOwner.get(car.getOwnerId()));
+        ownerCars.replace(old, car, ref);
 
-                        // HashMap put complexity - O(1)
-                        () -> carBrand.put(brand, new HashSet<>(Arrays.asList(car)))
-                    );
+        if (Objects.equals(old.getBrand(), car.getBrand())) {
+            if (Objects.nonNull(car.getBrand())) {
+                writable(car.getBrand(), carBrand.get(car.getBrand())).replace(old, car, ref);
             }
+        } else {
+            removeFromBrand(old, ref, ownerCars.owner);
+            addToBrand(car, ref, ownerCars.owner);
         }
+
+        events.updated(car, ownerCars.owner);
+        return old;
+    }
+
+    @Override
+    public Car transferOwnership(int carId, Owner owner) {
+        checkWritable();
+        final int ref = carTrack.ref(carId);
+        if (Objects.isNull(owner) || ref < 0 || !carTrack.isLive(ref)) {
+            return null;
+        }
+        final int ownerId = carOwnerId(owner);
+
+        final Car old = carTrack.car(ref);
+        if (old.getOwnerId() == ownerId) {
+            return old;
+        }
+
+        // the indexes and leaderboards hold the ref, they read the new version from the registry
+        final Car car = new Car(old.getCarId(), old.getBrand(), old.getModelName(), old.getMaxVelocity(),
+            old.getPower(), ownerId);
+        carTrack.replaceAt(ref, car);
+
+        //OwnerRegistry get & HashSet remove/add complexity - O(1)
+        writableMaps();
+        OwnerCars from = writable(carOwner.get(old.getOwnerId()));
+        from.remove(old, ref);
+        if (pruneEmptyBuckets && from.isEmpty()) {
+            carOwner.remove(old.getOwnerId());
+        }
+        OwnerCars to = ownerBucket(owner);
+        to.add(car, ref);
+
+        if (Objects.nonNull(car.getBrand())) {
+            BrandCars brandCars = writable(car.getBrand(), carBrand.get(car.getBrand()));
+            brandCars.replace(old, car, ref);
+            brandCars.ownersAgeSum += to.owner.getAge() - from.owner.getAge();
+        }
+
+        events.updated(car, to.owner);
+        return old;
+    }
+
+    /**
+     * @return the stamps with the epoch at the ref, grown by doubling if the ref is past their end
+     */
+    private static int[] stamp(int[] stamps, int ref, int epoch) {
+        if (ref >= stamps.length) {
+            stamps = Arrays.copyOf(stamps, Math.max(ref + 1, stamps.length << 1));
+        }
+        stamps[ref] = epoch;
+        return stamps;
+    }
+
+    /**
+     * @return whether the car at the ref moved on the range path of the access after the epoch - O(1)
+     */
+    private boolean movedSince(Access access, int ref, int epoch) {
+        if (moves == epoch) {
+            return false;
+        }
+
+        final int[] stamps;
+        switch (access) {
+            case VELOCITY_RANGE:
+                stamps = velocityMoves;
+                break;
+            case POWER_RANGE:
+                stamps = powerMoves;
+                break;
+            default:
+                // bucket paths are ordered by ref, which an update keeps
+                return false;
+        }
+        // differences, not comparisons, so the epochs may wrap around
+        return ref < stamps.length && stamps[ref] - epoch > 0 && stamps[ref] - moves <= 0;
+    }
+
+    private static void reposition(AttributeIndex index, TopCars top, Car old, Car car, int ref) {
+        if (index.key(old, ref) != index.key(car, ref)) {
+            top.remove(index.remove(old, ref));
+            top.add(index.add(car, ref));
+        }
+    }
+
+    /**
+     * @return writable bucket of the owner, registered with these attributes if it is new
+     */
+    private OwnerCars ownerBucket(Owner owner) {
+        // OwnerRegistry get complexity - O(1)
+        OwnerCars ownerCars = carOwner.get(owner.getOwnerId());
+        if (Objects.isNull(ownerCars)) {
+            // OwnerRegistry add complexity - O(1) amortized
+            ownerCars = new OwnerCars(owner, bitmapBuckets, version);
+            carOwner.add(owner.getOwnerId(), ownerCars);
+            return ownerCars;
+        }
+        return writable(ownerCars);
+    }
+
+    private void addToBrand(Car car, int ref, Owner owner) {
+        final String brand = car.getBrand();
+        if (Objects.isNull(brand)) {
+            return;
+        }
+
+        // HashMap get complexity - O(1)
+        BrandCars brandCars = carBrand.get(brand);
+        if (Objects.isNull(brandCars)) {
+            // HashMap put complexity - O(1)
+            brandCars = new BrandCars(bitmapBuckets, version);
+            carBrand.put(brand, brandCars);
+        } else {
+            brandCars = writable(brand, brandCars);
+        }
+
+        brandCars.add(car, ref);
+        brandCars.ownersAgeSum += owner.getAge();
+    }
+
+    private void removeFromBrand(Car car, int ref, Owner owner) {
+        if (Objects.isNull(car.getBrand())) {
+            return;
+        }
+
+        //Assuming all brands are unique - HashMap get & HashSet remove complexity - O(1)
+        BrandCars brandCars = writable(car.getBrand(), carBrand.get(car.getBrand()));
+        brandCars.remove(car, ref);
+        brandCars.ownersAgeSum -= owner.getAge();
+        if (pruneEmptyBuckets && brandCars.isEmpty()) {
+            carBrand.remove(car.getBrand());
+        }
+    }
+
+    /**
+     * @return owner registered with the id of the given one
+     */
+    private Owner addToBuckets(Car car, int ref, Owner owner) {
+        writableMaps();
+        OwnerCars ownerCars = ownerBucket(owner);
+
+        // HashSet add complexity - O(1), RefBitmap add - O(log 4096)
+        ownerCars.add(car, ref);
+        addToBrand(car, ref, ownerCars.owner);
+        return ownerCars.owner;
     }
 
     @Override
     public Car removeCar(int carId) {
-        Car car = null;
+        checkWritable();
+
+        //CarRegistry lookup is a single probe - O(1)
+        final int ref = carTrack.ref(carId);
+        if (ref < 0 || !carTrack.isLive(ref)) {
+            return null;
+        }
 
-        if (carTrack.containsKey(carId) && carTrack.get(carId).getValue()) {
-            car = carTrack.get(carId).getKey();
+        final Car car = carTrack.car(ref);
 
-            //HashMap put time complexity - O(1)
-            carTrack.put(carId, new Pair<>(car, FALSE));
+        //flips the live flag, or releases the ref and leaves a tombstone - O(1)
+        carTrack.removeAt(ref);
 
-            //HashMap get & HashSet remove complexity - O(1)
-            carOwner.get(Owner.proxy(car.getOwnerId())).remove(Car.proxy(carId));
+        //OwnerRegistry get by the primitive id, no proxy Owner & HashSet remove complexity - O(1)
+        writableMaps();
+        OwnerCars ownerCars = writable(carOwner.get(car.getOwnerId()));
+        ownerCars.remove(car, ref);
+        if (pruneEmptyBuckets && ownerCars.isEmpty()) {
+            carOwner.remove(car.getOwnerId());
+        }
 
-            //Assuming all brands are unique - HashMap get & HashSet remove complexity - O(1)
-            carBrand.get(car.getBrand()).remove(Car.proxy(carId));
+        removeFromBrand(car, ref, ownerCars.owner);
 
-            //TreeSet remove complexity - O(logN)
-            carsByPower.remove(car);
-            carsByVelocity.remove(car);
+        //B+tree remove complexity - O(logN)
+        topByPower.remove(carsByPower.remove(car, ref));
+        topByVelocity.remove(carsByVelocity.remove(car, ref));
+        final KdTree points = carsByPowerAndVelocity;
+        if (Objects.nonNull(points)) {
+            points.remove(car.getPower(), car.getMaxVelocity(), ref);
         }
 
+        events.removed(car, ownerCars.owner);
         return car;
     }
 
-    //for testing
+    /**
+     * Events are published by the thread that writes the garage, with one volatile read while nobody ever
+     * subscribed and one slot write plus one volatile write afterwards. The last 16384 changes are buffered. A
+     * snapshot publishes nothing and rejects subscriptions.
+     */
+    @Override
+    public Subscription subscribe(GarageListener listener, long afterSequence) {
+        checkWritable();
+        return events.subscribe(Objects.requireNonNull(listener), afterSequence);
+    }
 
-    public Map<Integer, Pair<Car, Boolean>> getCarTrack() {
-        return carTrack;
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("snapshot is read-only");
+        }
+    }
+
+    private void writableMaps() {
+        //HashMap copy - O(brands), once per snapshot, the OwnerRegistry copies its own arrays on the first write
+        if (mapsVersion != version) {
+            carBrand = new HashMap<>(carBrand);
+            mapsVersion = version;
+        }
     }
 
-    public Map<Owner, Collection<Car>> getCarOwner() {
-        return carOwner;
+    private OwnerCars writable(OwnerCars ownerCars) {
+        if (ownerCars.version == version) {
+            return ownerCars;
+        }
+
+        OwnerCars copy = new OwnerCars(ownerCars, version);
+        carOwner.replace(copy.owner.getOwnerId(), copy);
+        return copy;
     }
 
-    public Map<String, Collection<Car>> getCarBrand() {
-        return carBrand;
+    private BrandCars writable(String brand, BrandCars brandCars) {
+        if (brandCars.version == version) {
+            return brandCars;
+        }
+
+        BrandCars copy = new BrandCars(brandCars, version);
+        carBrand.put(brand, copy);
+        return copy;
     }
 
-    public NavigableSet<Car> getCarsByVelocity() {
+    /**
+     * @return point-in-time memory counters - O(1)
+     */
+    public GarageFootprint footprint() {
+        return new GarageFootprint(carTrack.size(), carTrack.removed(), carTrack.freeRefs(), carTrack.refCapacity(),
+            carTrack.idCapacity(), carTrack.tombstoneCapacity(), carOwner.size(), carBrand.size(),
+            carsByVelocity.size(), carsByPower.size());
+    }
+
+    /*
+        Exact aggregates behind the means and percentiles, ShardedGarage combines them across its shards
+     */
+
+    int size() {
+        return carTrack.size();
+    }
+
+    /**
+     * @return sum of the ages of the owners of the brand's cars, one age per car - O(1)
+     */
+    long ownersAgeSumOfCarBrand(String brand) {
+        BrandCars cars = carBrand.get(brand);
+        return Objects.isNull(cars) ? 0 : cars.ownersAgeSum;
+    }
+
+    int countCarsOfBrand(String brand) {
+        BrandCars cars = carBrand.get(brand);
+        return Objects.isNull(cars) ? 0 : cars.size();
+    }
+
+    AttributeIndex getCarsByVelocity() {
         return carsByVelocity;
     }
 
-    public NavigableSet<Car> getCarsByPower() {
+    AttributeIndex getCarsByPower() {
         return carsByPower;
     }
+
+    /**
+     * @return power index of the cars of the brand, empty for an unknown brand - O(1)
+     */
+    AttributeIndex getBrandPower(String brand) {
+        BrandCars cars = carBrand.get(brand);
+        return new AttributeIndex(Car::getPower, carTrack, Objects.isNull(cars) ? NO_KEYS : cars.powerKeys);
+    }
+
+    /**
+     * @return max velocity index of the cars of the brand, empty for an unknown brand - O(1)
+     */
+    AttributeIndex getBrandVelocity(String brand) {
+        BrandCars cars = carBrand.get(brand);
+        return new AttributeIndex(Car::getMaxVelocity, carTrack, Objects.isNull(cars) ? NO_KEYS : cars.velocityKeys);
+    }
+
+    //for testing
+
+    CarRegistry getCarTrack() {
+        return carTrack;
+    }
+
+    Map<Owner, ? extends Collection<Car>> getCarOwner() {
+        return allCarsUniqueOwners().stream().collect(Collectors.toMap(Function.identity(), this::allCarsOfOwner));
+    }
+
+    Map<String, ? extends Collection<Car>> getCarBrand() {
+        return carBrand.keySet().stream().collect(Collectors.toMap(Function.identity(), this::allCarsOfBrand));
+    }
+
+    /*
+        Buckets carry the running aggregates of their cars, so the mean queries never scan or allocate.
+        They hold either a HashSet of cars or a RefBitmap of refs - never both, and belong to the garage version
+        that created them. allCarsOfOwner/allCarsOfBrand return unmodifiable views that look the bucket up on
+        every call, so they follow its copies
+     */
+
+    private static class Bucket {
+
+        final Set<Car> cars;
+        final RefBitmap refs;
+
+        // garage version that may change the bucket in place
+        final int version;
+
+        private Bucket(boolean bitmap, int version) {
+            cars = bitmap ? null : new HashSet<>();
+            refs = bitmap ? new RefBitmap() : null;
+            this.version = version;
+        }
+
+        //HashSet copy - O(b), RefBitmap copy - O(containers)
+        private Bucket(Bucket bucket, int version) {
+            cars = Objects.isNull(bucket.cars) ? null : new HashSet<>(bucket.cars);
+            refs = Objects.isNull(bucket.refs) ? null : bucket.refs.copy();
+            this.version = version;
+        }
+
+        void add(Car car, int ref) {
+            if (Objects.nonNull(refs)) {
+                refs.add(ref);
+            } else {
+                cars.add(car);
+            }
+        }
+
+        void remove(Car car, int ref) {
+            if (Objects.nonNull(refs)) {
+                refs.remove(ref);
+            } else {
+                cars.remove(car);
+            }
+        }
+
+        /**
+         * Puts the new version of a car of the bucket in place of the old one, with the same ref
+         */
+        void replace(Car old, Car car, int ref) {
+            if (Objects.nonNull(cars)) {
+                // equal by id, add alone would keep the old version
+                cars.remove(old);
+                cars.add(car);
+            }
+        }
+
+        int size() {
+            return Objects.nonNull(refs) ? refs.cardinality() : cars.size();
+        }
+
+        boolean isEmpty() {
+            return size() == 0;
+        }
+    }
+
+    private final class BucketCars extends AbstractSet<Car> {
+
+        // exactly one of them
+        private final Owner owner;
+        private final String brand;
+
+        private BucketCars(Owner owner, String brand) {
+            this.owner = owner;
+            this.brand = brand;
+        }
+
+        private Bucket bucket() {
+            return Objects.nonNull(owner) ? ownerCars(owner) : carBrand.get(brand);
+        }
+
+        @Override
+        public int size() {
+            return GarageImpl.size(bucket());
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            Bucket bucket = bucket();
+            if (Objects.isNull(bucket)) {
+                return false;
+            }
+            if (!bitmapBuckets) {
+                return bucket.cars.contains(o);
+            }
+            if (!(o instanceof Car)) {
+                return false;
+            }
+
+            int ref = carTrack.ref(((Car) o).getCarId());
+            return ref >= 0 && bucket.refs.contains(ref);
+        }
+
+        @Override
+        public Iterator<Car> iterator() {
+            return GarageImpl.this.iterator(bucket());
+        }
+    }
+
+    /*
+        Buckets as access paths positioned by ref
+     */
+
+    private final class BitmapRefs implements OrderedCars {
+
+        private final RefBitmap refs;
+
+        private BitmapRefs(RefBitmap refs) {
+            this.refs = refs;
+        }
+
+        @Override
+        public int positions(long from, long to, long[] out) {
+            PrimitiveIterator.OfInt iterator = refs.iterator((int) from);
+            int count = 0;
+            while (count < out.length && iterator.hasNext()) {
+                int ref = iterator.nextInt();
+                if (ref >= to) {
+                    break;
+                }
+                out[count++] = ref;
+            }
+            return count;
+        }
+
+        @Override
+        public long count(long from, long to) {
+            // refs are dense, the bucket is assumed to be spread evenly over them
+            int registered = Math.max(carTrack.registered(), 1);
+            return from >= to ? 0 : Math.min(refs.cardinality(), refs.cardinality() * (to - from) / registered + 1);
+        }
+
+        @Override
+        public long middle(long from, long to) {
+            return from + (to - from) / 2;
+        }
+
+        @Override
+        public Car car(long position) {
+            return carTrack.car((int) position);
+        }
+    }
+
+    private final class SortedRefs implements OrderedCars {
+
+        private final int[] refs;
+
+        private SortedRefs(int[] refs) {
+            this.refs = refs;
+        }
+
+        @Override
+        public int positions(long from, long to, long[] out) {
+            int count = 0;
+            for (int i = index(from); i < refs.length && refs[i] < to && count < out.length; i++) {
+                out[count++] = refs[i];
+            }
+            return count;
+        }
+
+        @Override
+        public long count(long from, long to) {
+            return from >= to ? 0 : index(to) - index(from);
+        }
+
+        @Override
+        public long middle(long from, long to) {
+            int first = index(from);
+            int end = index(to);
+            return end - first < 2 ? from : refs[first + (end - first) / 2];
+        }
+
+        @Override
+        public Car car(long position) {
+            return carTrack.car((int) position);
+        }
+
+        // index of the first ref not below the position
+        private int index(long position) {
+            int i = Arrays.binarySearch(refs, (int) Math.min(position, Integer.MAX_VALUE));
+            return i < 0 ? -i - 1 : i;
+        }
+    }
+
+    private static final class OwnerCars extends Bucket {
+
+        // the first Owner instance added for this id or the last one passed to updateOwner, its age is what the
+        // brand sums are made of
+        private Owner owner;
+
+        private OwnerCars(Owner owner, boolean bitmap, int version) {
+            super(bitmap, version);
+            this.owner = owner;
+        }
+
+        private OwnerCars(OwnerCars ownerCars, int version) {
+            super(ownerCars, version);
+            owner = ownerCars.owner;
+        }
+    }
+
+    private static final class BrandCars extends Bucket {
+
+        private long ownersAgeSum;
+
+        // packed keys of the brand's cars, order statistics of the brand like the global indexes
+        private final LongBTree velocityKeys;
+        private final LongBTree powerKeys;
+
+        // (power, max velocity) points of the brand's cars, built by the first skyline of the brand
+        private volatile KdTree points;
+
+        private BrandCars(boolean bitmap, int version) {
+            super(bitmap, version);
+            velocityKeys = new LongBTree();
+            powerKeys = new LongBTree();
+        }
+
+        //the trees are shared with the older version, which is not written anymore - O(1)
+        private BrandCars(BrandCars brandCars, int version) {
+            super(brandCars, version);
+            ownersAgeSum = brandCars.ownersAgeSum;
+            velocityKeys = brandCars.velocityKeys.fork();
+            powerKeys = brandCars.powerKeys.fork();
+            KdTree points = brandCars.points;
+            this.points = Objects.isNull(points) ? null : points.fork();
+        }
+
+        @Override
+        void add(Car car, int ref) {
+            super.add(car, ref);
+            //B+tree add complexity - O(log b)
+            velocityKeys.add(AttributeIndex.key(car.getMaxVelocity(), ref));
+            powerKeys.add(AttributeIndex.key(car.getPower(), ref));
+            if (Objects.nonNull(points)) {
+                points.add(car.getPower(), car.getMaxVelocity(), ref);
+            }
+        }
+
+        @Override
+        void remove(Car car, int ref) {
+            super.remove(car, ref);
+            velocityKeys.remove(AttributeIndex.key(car.getMaxVelocity(), ref));
+            powerKeys.remove(AttributeIndex.key(car.getPower(), ref));
+            if (Objects.nonNull(points)) {
+                points.remove(car.getPower(), car.getMaxVelocity(), ref);
+            }
+        }
+
+        @Override
+        void replace(Car old, Car car, int ref) {
+            super.replace(old, car, ref);
+            if (old.getMaxVelocity() != car.getMaxVelocity()) {
+                velocityKeys.remove(AttributeIndex.key(old.getMaxVelocity(), ref));
+                velocityKeys.add(AttributeIndex.key(car.getMaxVelocity(), ref));
+            }
+            if (old.getPower() != car.getPower()) {
+                powerKeys.remove(AttributeIndex.key(old.getPower(), ref));
+                powerKeys.add(AttributeIndex.key(car.getPower(), ref));
+            }
+            if (Objects.nonNull(points) && (old.getPower() != car.getPower()
+                || old.getMaxVelocity() != car.getMaxVelocity())) {
+                points.remove(old.getPower(), old.getMaxVelocity(), ref);
+                points.add(car.getPower(), car.getMaxVelocity(), ref);
+            }
+        }
+    }
 }
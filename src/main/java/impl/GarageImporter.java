@@ -0,0 +1,396 @@
+package impl;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+
+import domain.Car;
+import domain.Garage;
+import domain.Owner;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * Loads owners and cars into a garage from CSV dumps or from a binary export of {@link GarageExporter}.
+ *
+ * CSV files are memory-mapped and cut into chunks parsed in parallel on a {@link ForkJoinPool}. A line belongs to
+ * the chunk it starts in, so a chunk task skips the partial line at its start and reads past its end to finish
+ * its last line. Numbers are parsed straight from the mapped bytes, and every chunk keeps a small dictionary of
+ * the strings it decoded, so repeated brands, models and names are one String each. The calling thread hands
+ * the chunks to the garage in file order, one {@link Garage#addCars} batch per chunk, while the next chunks are
+ * parsed; at most two chunks per pool thread are parsed ahead.
+ *
+ * CSV layout, comma-separated without quoting, an empty field is a null string, a first line that does not start
+ * with a number is a header and skipped, {@code \n} or {@code \r\n} line ends:
+ * <pre>
+ *   owners: ownerId,name,lastName,age
+ *   cars:   carId,brand,modelName,maxVelocity,power,ownerId
+ * </pre>
+ *
+ * Owners are registered with {@link Garage#addOwner} before the cars are read. A car whose owner is not in the
+ * owners file is skipped. Cars already in the garage are rejected by it as by {@code addCar}.
+ */
+public final class GarageImporter {
+
+    static final int DEFAULT_CHUNK_SIZE = 1 << 23;
+
+    // a line longer than that is rejected, a chunk task maps this much past its end
+    static final int MAX_LINE = 1 << 16;
+
+    private static final int BATCH_SIZE = 1 << 16;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    public GarageImporter() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool parses the chunks of the CSV files
+     */
+    public GarageImporter(ForkJoinPool pool) {
+        this(pool, DEFAULT_CHUNK_SIZE);
+    }
+
+    GarageImporter(ForkJoinPool pool, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        this.pool = Objects.requireNonNull(pool);
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @return number of cars handed to the garage, the ones with a known owner
+     * @throws IOException if a file cannot be read or has a malformed line, the lines before it may be loaded
+     */
+    public long importCsv(Garage garage, Path owners, Path cars) throws IOException {
+        final OwnerRegistry<Owner> registry = new OwnerRegistry<>();
+        parse(owners, GarageImporter::owner, batch -> {
+            for (Owner owner : batch) {
+                garage.addOwner(owner);
+                registry.add(owner.getOwnerId(), owner);
+            }
+        });
+
+        final long[] added = new long[1];
+        parse(cars, GarageImporter::car, batch -> {
+            //OwnerRegistry get - O(1) per car, no Owner key
+            garage.addCars(batch, car -> registry.get(car.getOwnerId()));
+            for (Car car : batch) {
+                if (Objects.nonNull(registry.get(car.getOwnerId()))) {
+                    added[0]++;
+                }
+            }
+        });
+        return added[0];
+    }
+
+    /**
+     * Reads a file of {@link GarageExporter#exportBinary} - O(n), cars are added in batches of 65536.
+     *
+     * @return number of cars handed to the garage, the ones with an owner in the export
+     * @throws IOException if the file is not an export or is cut short, the records before the cut may be loaded
+     */
+    public long importBinary(Garage garage, Path file) throws IOException {
+        final OwnerRegistry<Owner> owners = new OwnerRegistry<>();
+        final List<Car> batch = new ArrayList<>(BATCH_SIZE);
+        long records = 0;
+        long added = 0;
+
+        try (BufferedInputStream in = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE)) {
+            RecordReader reader = new RecordReader(in);
+            if (!reader.header(GarageExporter.EXPORT_MAGIC)) {
+                throw new IOException("Export is cut short: " + file);
+            }
+
+            while (reader.next()) {
+                switch (reader.type()) {
+                    case RecordWriter.OWNER:
+                        garage.addOwner(reader.owner());
+                        owners.add(reader.owner().getOwnerId(), reader.owner());
+                        break;
+                    case RecordWriter.CAR:
+                        batch.add(reader.car());
+                        if (batch.size() == BATCH_SIZE) {
+                            added += addCars(garage, batch, owners);
+                        }
+                        break;
+                    case RecordWriter.END:
+                        if (reader.value() != records) {
+                            throw new IOException("Export has " + records + " records, expected " + reader.value());
+                        }
+                        return added + addCars(garage, batch, owners);
+                    default:
+                        throw new IOException("Unexpected record " + reader.type() + " in " + file);
+                }
+                records++;
+            }
+        }
+
+        throw new IOException("Export is cut short: " + file);
+    }
+
+    /**
+     * @return number of cars of the batch with a known owner, counted like {@link #importCsv}
+     */
+    private static int addCars(Garage garage, List<Car> batch, OwnerRegistry<Owner> owners) {
+        garage.addCars(batch, car -> owners.get(car.getOwnerId()));
+        int count = 0;
+        for (Car car : batch) {
+            if (Objects.nonNull(owners.get(car.getOwnerId()))) {
+                count++;
+            }
+        }
+        batch.clear();
+        return count;
+    }
+
+    /*
+        CSV pipeline - chunks are parsed ahead on the pool and consumed in file order by the calling thread
+     */
+
+    private <T> void parse(Path file, LineParser<T> parser, Consumer<List<T>> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            final long size = channel.size();
+            final int ahead = Math.max(pool.getParallelism() * 2, 2);
+            final Deque<CompletableFuture<List<T>>> parsing = new ArrayDeque<>(ahead);
+
+            long next = 0;
+            while (next < size || !parsing.isEmpty()) {
+                while (next < size && parsing.size() < ahead) {
+                    final long start = next;
+                    final long end = Math.min(start + chunkSize, size);
+                    parsing.add(CompletableFuture.supplyAsync(() -> chunk(file, channel, size, start, end, parser),
+                        pool));
+                    next = end;
+                }
+
+                consumer.accept(join(parsing.poll()));
+            }
+        }
+    }
+
+    /**
+     * @return records of the lines starting in [start, end)
+     */
+    private static <T> List<T> chunk(Path file, FileChannel channel, long size, long start, long end,
+        LineParser<T> parser) {
+        // one byte before the chunk tells whether a line starts at its first byte
+        final long from = Math.max(start - 1, 0);
+        final MappedByteBuffer buffer;
+        try {
+            buffer = channel.map(READ_ONLY, from, Math.min(end + MAX_LINE, size) - from);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        final int limit = buffer.limit();
+        final int owned = (int) (end - from);
+        int line = (int) (start - from);
+        while (line > 0 && line < limit && buffer.get(line - 1) != '\n') {
+            line++;
+        }
+
+        final List<T> records = new ArrayList<>();
+        final Fields fields = new Fields(buffer);
+        while (line < owned) {
+            int lineEnd = line;
+            while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            if (lineEnd == limit && from + limit < size) {
+                throw new UncheckedIOException(new IOException(
+                    "Line longer than " + MAX_LINE + " bytes at byte " + (from + line) + " of " + file));
+            }
+
+            final int contentEnd = lineEnd > line && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+            final boolean header = from + line == 0 && !fields.startsWithNumber(line, contentEnd);
+            if (contentEnd > line && !header) {
+                try {
+                    records.add(parser.parse(fields.reset(line, contentEnd)));
+                } catch (IllegalArgumentException e) {
+                    throw new UncheckedIOException(new IOException(
+                        "Malformed line at byte " + (from + line) + " of " + file + ": " + e.getMessage()));
+                }
+            }
+            line = lineEnd + 1;
+        }
+        return records;
+    }
+
+    private static <T> List<T> join(CompletableFuture<List<T>> chunk) throws IOException {
+        try {
+            return chunk.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static Owner owner(Fields fields) {
+        Owner owner = new Owner(fields.nextLong(), fields.nextString(), fields.nextString(), fields.nextInt());
+        fields.end();
+        return owner;
+    }
+
+    private static Car car(Fields fields) {
+        Car car = new Car(fields.nextLong(), fields.nextString(), fields.nextString(), fields.nextInt(),
+            fields.nextInt(), fields.nextInt());
+        fields.end();
+        return car;
+    }
+
+    @FunctionalInterface
+    private interface LineParser<T> {
+
+        /**
+         * @throws IllegalArgumentException if the line is malformed
+         */
+        T parse(Fields fields);
+    }
+
+    /**
+     * Cursor over the comma-separated fields of one line of a mapped chunk, confined to the chunk task
+     */
+    private static final class Fields {
+
+        // strings decoded by this chunk, open addressing on the hash of the bytes
+        private static final int DICTIONARY_SIZE = 1 << 12;
+
+        private final MappedByteBuffer buffer;
+        private final byte[][] keys = new byte[DICTIONARY_SIZE][];
+        private final String[] values = new String[DICTIONARY_SIZE];
+        private int entries;
+
+        private int position;
+        private int end;
+
+        private Fields(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        private Fields reset(int start, int end) {
+            this.position = start;
+            this.end = end;
+            return this;
+        }
+
+        private boolean startsWithNumber(int start, int end) {
+            if (start == end) {
+                return false;
+            }
+            byte first = buffer.get(start);
+            return first == '-' || first >= '0' && first <= '9';
+        }
+
+        private long nextLong() {
+            boolean negative = position < end && buffer.get(position) == '-';
+            int digits = negative ? position + 1 : position;
+            long value = 0;
+            int i = digits;
+            for (; i < end && buffer.get(i) != ','; i++) {
+                int digit = buffer.get(i) - '0';
+                if (digit < 0 || digit > 9 || i - digits >= 18) {
+                    throw new IllegalArgumentException("not a number");
+                }
+                value = value * 10 + digit;
+            }
+            if (i == digits) {
+                throw new IllegalArgumentException("missing number");
+            }
+            skip(i);
+            return negative ? -value : value;
+        }
+
+        private int nextInt() {
+            long value = nextLong();
+            if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("int out of range: " + value);
+            }
+            return (int) value;
+        }
+
+        /**
+         * @return null for an empty field
+         */
+        private String nextString() {
+            int start = position;
+            int i = start;
+            int hash = 1;
+            for (; i < end && buffer.get(i) != ','; i++) {
+                hash = 31 * hash + buffer.get(i);
+            }
+            skip(i);
+            return i == start ? null : string(start, i, hash);
+        }
+
+        private void end() {
+            if (position <= end) {
+                throw new IllegalArgumentException("unexpected fields");
+            }
+        }
+
+        private void skip(int separator) {
+            // past the comma, or past the end of the line after its last field
+            position = separator + 1;
+        }
+
+        private String string(int start, int end, int hash) {
+            int slot = (hash ^ hash >>> 16) & (DICTIONARY_SIZE - 1);
+            for (int probes = 0; probes < 8; probes++, slot = (slot + 1) & (DICTIONARY_SIZE - 1)) {
+                byte[] key = keys[slot];
+                if (Objects.isNull(key)) {
+                    break;
+                }
+                if (matches(key, start, end)) {
+                    return values[slot];
+                }
+            }
+
+            byte[] bytes = new byte[end - start];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buffer.get(start + i);
+            }
+            String value = new String(bytes, UTF_8);
+
+            // a full dictionary or a long probe run only decodes, without caching
+            if (entries < DICTIONARY_SIZE / 2 && Objects.isNull(keys[slot])) {
+                keys[slot] = bytes;
+                values[slot] = value;
+                entries++;
+            }
+            return value;
+        }
+
+        private boolean matches(byte[] key, int start, int end) {
+            if (key.length != end - start) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != buffer.get(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
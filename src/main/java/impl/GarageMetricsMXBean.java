@@ -0,0 +1,34 @@
+package impl;
+
+import java.util.List;
+
+/**
+ * Management interface of {@link InstrumentedGarage}, see {@link InstrumentedGarage#register(String)}.
+ *
+ * As an MXBean it only exposes open types: every {@link OperationMetrics} and the {@link GarageFootprint} reach
+ * a JMX client as CompositeData, readable by jconsole or any generic client without the garage classes.
+ */
+public interface GarageMetricsMXBean {
+
+    /**
+     * @return false while recording is switched off, calls then go straight to the garage
+     */
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /**
+     * @return metrics of every Garage method, in declaration order
+     */
+    List<OperationMetrics> getOperations();
+
+    /**
+     * @return sizes of the registry, buckets and ordered indexes, null if the garage does not report them
+     */
+    GarageFootprint getFootprint();
+
+    /**
+     * Clears every histogram and counter, rates restart from now.
+     */
+    void reset();
+}
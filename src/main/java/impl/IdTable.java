@@ -0,0 +1,215 @@
+package impl;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash table from a primitive {@code long} car id to an int ref.
+ *
+ * Linear probing with Fibonacci hashing over two parallel primitive arrays, no boxed key and no entry object.
+ * Removal shifts the following entries of the probe run back, so there are no deleted markers and lookups
+ * never slow down with churn. The table never shrinks, its capacity follows the peak number of ids.
+ *
+ * A {@link #snapshot()} shares the arrays. Puts only fill empty slots, which never break the probe run of an
+ * id the snapshot holds; replace and remove copy the arrays first, once per snapshot.
+ *
+ * Not thread-safe.
+ */
+final class IdTable {
+
+    static final int NO_REF = -1;
+
+    private static final int MIN_CAPACITY = 16;
+    private static final long PHI = 0x9E3779B97F4A7C15L;
+
+    // capacity is a power of two and never more than half full
+    private long[] keys;
+    private int[] refs;
+    private int shift;
+    private int size;
+
+    // the arrays are shared with a snapshot
+    private boolean shared;
+
+    IdTable(int expectedIds) {
+        allocate(capacityFor(expectedIds));
+    }
+
+    private IdTable(IdTable table) {
+        keys = table.keys;
+        refs = table.refs;
+        shift = table.shift;
+        size = table.size;
+    }
+
+    /**
+     * @return read-only table of the current ids - O(1), it may also find ids put later
+     */
+    IdTable snapshot() {
+        shared = true;
+        return new IdTable(this);
+    }
+
+    /**
+     * HashMap.putIfAbsent in one probe sequence - O(1)
+     *
+     * @return ref already mapped to the id, or {@link #NO_REF} if the given ref was put
+     */
+    int putIfAbsent(long id, int ref) {
+        int mask = keys.length - 1;
+
+        int slot = slot(id);
+        int existing;
+        while ((existing = refs[slot]) != NO_REF) {
+            if (keys[slot] == id) {
+                return existing;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = id;
+        refs[slot] = ref;
+        size++;
+
+        if (size << 1 > keys.length) {
+            rehash(keys.length << 1);
+        }
+
+        return NO_REF;
+    }
+
+    /**
+     * @return ref mapped to the id or {@link #NO_REF}
+     */
+    int get(long id) {
+        int slot = find(id);
+        return slot < 0 ? NO_REF : refs[slot];
+    }
+
+    /**
+     * Maps an id that is already in the table to another ref - O(1)
+     *
+     * @return false if the id is not in the table
+     */
+    boolean replace(long id, int ref) {
+        int slot = find(id);
+        if (slot < 0) {
+            return false;
+        }
+        unshare();
+        refs[slot] = ref;
+        return true;
+    }
+
+    /**
+     * Backward-shift deletion - O(1) on average, no rehash
+     *
+     * @return false if the id is not in the table
+     */
+    boolean remove(long id) {
+        int hole = find(id);
+        if (hole < 0) {
+            return false;
+        }
+        unshare();
+
+        int mask = keys.length - 1;
+        int slot = hole;
+        while (true) {
+            slot = (slot + 1) & mask;
+            if (refs[slot] == NO_REF) {
+                break;
+            }
+
+            // an entry may fill the hole only if the hole lies between its home slot and where it sits
+            int home = slot(keys[slot]);
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                keys[hole] = keys[slot];
+                refs[hole] = refs[slot];
+                hole = slot;
+            }
+        }
+
+        refs[hole] = NO_REF;
+        size--;
+        return true;
+    }
+
+    /**
+     * Grows the table once, so the next {@code additionalIds} puts never rehash.
+     */
+    void ensureCapacity(int additionalIds) {
+        int capacity = capacityFor(size + additionalIds);
+        if (capacity > keys.length) {
+            rehash(capacity);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return keys.length;
+    }
+
+    private int find(long id) {
+        int mask = keys.length - 1;
+
+        int slot = slot(id);
+        while (refs[slot] != NO_REF) {
+            if (keys[slot] == id) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    private void unshare() {
+        if (shared) {
+            keys = keys.clone();
+            refs = refs.clone();
+            shared = false;
+        }
+    }
+
+    private int slot(long id) {
+        return (int) ((id * PHI) >>> shift);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        refs = new int[capacity];
+        Arrays.fill(refs, NO_REF);
+        shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        shared = false;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldRefs = refs;
+
+        allocate(capacity);
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldRefs.length; i++) {
+            if (oldRefs[i] != NO_REF) {
+                int slot = slot(oldKeys[i]);
+                while (refs[slot] != NO_REF) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                refs[slot] = oldRefs[i];
+            }
+        }
+    }
+
+    private static int capacityFor(int expectedIds) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < (long) expectedIds << 1) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
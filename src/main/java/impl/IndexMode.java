@@ -0,0 +1,20 @@
+package impl;
+
+/**
+ * How {@link GarageImpl} keeps the cars of each owner and brand.
+ */
+public enum IndexMode {
+
+    /**
+     * A {@code HashSet<Car>} per owner and per brand - the default
+     */
+    HASH_SETS,
+
+    /**
+     * A compressed bitmap of car refs per owner and per brand, the brand map being the dictionary that turns a
+     * brand into its posting list. About 2 bytes per car instead of a hash entry, and multi-predicate queries
+     * are answered by intersecting posting lists or by probing them with the refs of an index range, without
+     * touching the cars. Iteration order is ref order.
+     */
+    BITMAPS
+}
@@ -0,0 +1,551 @@
+package impl;
+
+import domain.Car;
+import domain.CarPage;
+import domain.CarQuery;
+import domain.Garage;
+import domain.GarageListener;
+import domain.Owner;
+import domain.Subscription;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.SortedSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * {@link Garage} decorator recording a latency histogram, the call count and the result sizes of every method,
+ * exposed with the footprint of the garage through the {@link GarageMetricsMXBean} interface.
+ *
+ * A recorded call costs two {@code System.nanoTime()} reads, a {@link LatencyHistogram} record and, for sized
+ * results, a {@code size()} of the result after the second read, outside the measured time - O(1) for lists and
+ * buckets, O(logN) for GarageImpl range views. Sorted sets are not sized, a skip list or a view of a sorted set
+ * counts its elements one by one, so they are left out of the mean result size. Switched off, a call costs one
+ * volatile read. The benchmarks measure the overhead with
+ * {@code -p impl=GarageImpl,InstrumentedGarage}.
+ *
+ * {@code stream} is timed until the stream is returned, not while it is consumed. Calls that throw are not
+ * recorded. The snapshot returned by {@code snapshot} is not instrumented.
+ *
+ * As thread-safe as the decorated garage, the metrics themselves are thread-safe.
+ */
+public final class InstrumentedGarage implements Garage, GarageMetricsMXBean {
+
+    // start time of a call that is not recorded
+    private static final long OFF = Long.MIN_VALUE;
+
+    private final Garage garage;
+    private final Supplier<GarageFootprint> footprint;
+
+    // by Operation ordinal
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.COUNT];
+    private final LongAdder[] results = new LongAdder[Operation.COUNT];
+    private final LongAdder[] sizedCalls = new LongAdder[Operation.COUNT];
+
+    private volatile boolean enabled = true;
+    private volatile long resetNanos = System.nanoTime();
+
+    /**
+     * @param garage decorated garage, its footprint is reported for a {@link GarageImpl} or a
+     *     {@link PersistentGarage}
+     */
+    public InstrumentedGarage(Garage garage) {
+        this.garage = Objects.requireNonNull(garage, "garage");
+
+        if (garage instanceof GarageImpl) {
+            footprint = ((GarageImpl) garage)::footprint;
+        } else if (garage instanceof PersistentGarage) {
+            footprint = ((PersistentGarage) garage)::footprint;
+        } else {
+            footprint = () -> null;
+        }
+
+        for (int i = 0; i < Operation.COUNT; i++) {
+            latencies[i] = new LatencyHistogram();
+            results[i] = new LongAdder();
+            sizedCalls[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, unregister them through the same server with the
+     * returned name.
+     *
+     * @return {@code tesnik:type=Garage,name="<name>"}
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("tesnik:type=Garage,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public List<OperationMetrics> getOperations() {
+        final double elapsedSeconds = (System.nanoTime() - resetNanos) / 1e9;
+        final List<OperationMetrics> operations = new ArrayList<>(Operation.COUNT);
+        for (Operation operation : Operation.VALUES) {
+            operations.add(new OperationMetrics(operation.method, latencies[operation.ordinal()],
+                results[operation.ordinal()].sum(), sizedCalls[operation.ordinal()].sum(), elapsedSeconds));
+        }
+        return operations;
+    }
+
+    /**
+     * @return metrics of the Garage method with the given name, null for an unknown name
+     */
+    public OperationMetrics getOperation(String method) {
+        for (OperationMetrics operation : getOperations()) {
+            if (operation.getName().equals(method)) {
+                return operation;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public GarageFootprint getFootprint() {
+        return footprint.get();
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < Operation.COUNT; i++) {
+            latencies[i].reset();
+            results[i].reset();
+            sizedCalls[i].reset();
+        }
+        resetNanos = System.nanoTime();
+    }
+
+    @Override
+    public Collection<Owner> allCarsUniqueOwners() {
+        long start = start();
+        return sized(Operation.ALL_CARS_UNIQUE_OWNERS, start, garage.allCarsUniqueOwners());
+    }
+
+    @Override
+    public Collection<Car> topThreeCarsByMaxVelocity() {
+        long start = start();
+        return sized(Operation.TOP_THREE_CARS_BY_MAX_VELOCITY, start, garage.topThreeCarsByMaxVelocity());
+    }
+
+    @Override
+    public Collection<Car> topCarsByMaxVelocity(int k) {
+        long start = start();
+        return sized(Operation.TOP_CARS_BY_MAX_VELOCITY, start, garage.topCarsByMaxVelocity(k));
+    }
+
+    @Override
+    public Collection<Car> topCarsByPower(int k) {
+        long start = start();
+        return sized(Operation.TOP_CARS_BY_POWER, start, garage.topCarsByPower(k));
+    }
+
+    @Override
+    public Collection<Car> allCarsOfBrand(String brand) {
+        long start = start();
+        return sized(Operation.ALL_CARS_OF_BRAND, start, garage.allCarsOfBrand(brand));
+    }
+
+    @Override
+    public Collection<Car> carsWithPowerMoreThan(int power) {
+        long start = start();
+        return sized(Operation.CARS_WITH_POWER_MORE_THAN, start, garage.carsWithPowerMoreThan(power));
+    }
+
+    @Override
+    public Collection<Car> carsWithPowerBetween(int from, int to) {
+        long start = start();
+        return sized(Operation.CARS_WITH_POWER_BETWEEN, start, garage.carsWithPowerBetween(from, to));
+    }
+
+    @Override
+    public Collection<Car> carsWithVelocityBetween(int from, int to) {
+        long start = start();
+        return sized(Operation.CARS_WITH_VELOCITY_BETWEEN, start, garage.carsWithVelocityBetween(from, to));
+    }
+
+    @Override
+    public int countCarsWithPowerBetween(int from, int to) {
+        long start = start();
+        return counted(Operation.COUNT_CARS_WITH_POWER_BETWEEN, start, garage.countCarsWithPowerBetween(from, to));
+    }
+
+    @Override
+    public int countCarsWithVelocityBetween(int from, int to) {
+        long start = start();
+        return counted(Operation.COUNT_CARS_WITH_VELOCITY_BETWEEN, start,
+            garage.countCarsWithVelocityBetween(from, to));
+    }
+
+    @Override
+    public double powerPercentileRank(int power) {
+        long start = start();
+        double rank = garage.powerPercentileRank(power);
+        timed(Operation.POWER_PERCENTILE_RANK, start);
+        return rank;
+    }
+
+    @Override
+    public double velocityPercentileRank(int velocity) {
+        long start = start();
+        double rank = garage.velocityPercentileRank(velocity);
+        timed(Operation.VELOCITY_PERCENTILE_RANK, start);
+        return rank;
+    }
+
+    @Override
+    public Car carAtPowerPercentile(double percentile) {
+        long start = start();
+        Car car = garage.carAtPowerPercentile(percentile);
+        timed(Operation.CAR_AT_POWER_PERCENTILE, start);
+        return car;
+    }
+
+    @Override
+    public Car carAtVelocityPercentile(double percentile) {
+        long start = start();
+        Car car = garage.carAtVelocityPercentile(percentile);
+        timed(Operation.CAR_AT_VELOCITY_PERCENTILE, start);
+        return car;
+    }
+
+    @Override
+    public Car carOfBrandAtPowerPercentile(String brand, double percentile) {
+        long start = start();
+        Car car = garage.carOfBrandAtPowerPercentile(brand, percentile);
+        timed(Operation.CAR_OF_BRAND_AT_POWER_PERCENTILE, start);
+        return car;
+    }
+
+    @Override
+    public Car carOfBrandAtVelocityPercentile(String brand, double percentile) {
+        long start = start();
+        Car car = garage.carOfBrandAtVelocityPercentile(brand, percentile);
+        timed(Operation.CAR_OF_BRAND_AT_VELOCITY_PERCENTILE, start);
+        return car;
+    }
+
+    @Override
+    public int[] powerHistogram(int[] bounds) {
+        long start = start();
+        int[] counts = garage.powerHistogram(bounds);
+        timed(Operation.POWER_HISTOGRAM, start);
+        return counts;
+    }
+
+    @Override
+    public int[] velocityHistogram(int[] bounds) {
+        long start = start();
+        int[] counts = garage.velocityHistogram(bounds);
+        timed(Operation.VELOCITY_HISTOGRAM, start);
+        return counts;
+    }
+
+    @Override
+    public int[] powerHistogramOfBrand(String brand, int[] bounds) {
+        long start = start();
+        int[] counts = garage.powerHistogramOfBrand(brand, bounds);
+        timed(Operation.POWER_HISTOGRAM_OF_BRAND, start);
+        return counts;
+    }
+
+    @Override
+    public int[] velocityHistogramOfBrand(String brand, int[] bounds) {
+        long start = start();
+        int[] counts = garage.velocityHistogramOfBrand(brand, bounds);
+        timed(Operation.VELOCITY_HISTOGRAM_OF_BRAND, start);
+        return counts;
+    }
+
+    @Override
+    public Collection<Car> allCarsOfOwner(Owner owner) {
+        long start = start();
+        return sized(Operation.ALL_CARS_OF_OWNER, start, garage.allCarsOfOwner(owner));
+    }
+
+    @Override
+    public Collection<Car> carsOfBrandWithPowerBetween(String brand, int from, int to) {
+        long start = start();
+        return sized(Operation.CARS_OF_BRAND_WITH_POWER_BETWEEN, start,
+            garage.carsOfBrandWithPowerBetween(brand, from, to));
+    }
+
+    @Override
+    public int countCarsOfBrandWithPowerBetween(String brand, int from, int to) {
+        long start = start();
+        return counted(Operation.COUNT_CARS_OF_BRAND_WITH_POWER_BETWEEN, start,
+            garage.countCarsOfBrandWithPowerBetween(brand, from, to));
+    }
+
+    @Override
+    public Collection<Car> carsOfOwnerAndBrand(Owner owner, String brand) {
+        long start = start();
+        return sized(Operation.CARS_OF_OWNER_AND_BRAND, start, garage.carsOfOwnerAndBrand(owner, brand));
+    }
+
+    @Override
+    public int countCarsOfOwnerAndBrand(Owner owner, String brand) {
+        long start = start();
+        return counted(Operation.COUNT_CARS_OF_OWNER_AND_BRAND, start,
+            garage.countCarsOfOwnerAndBrand(owner, brand));
+    }
+
+    @Override
+    public Collection<Car> carsWithPowerAndVelocityBetween(int fromPower, int toPower, int fromVelocity,
+        int toVelocity) {
+        long start = start();
+        return sized(Operation.CARS_WITH_POWER_AND_VELOCITY_BETWEEN, start,
+            garage.carsWithPowerAndVelocityBetween(fromPower, toPower, fromVelocity, toVelocity));
+    }
+
+    @Override
+    public int countCarsWithPowerAndVelocityBetween(int fromPower, int toPower, int fromVelocity, int toVelocity) {
+        long start = start();
+        return counted(Operation.COUNT_CARS_WITH_POWER_AND_VELOCITY_BETWEEN, start,
+            garage.countCarsWithPowerAndVelocityBetween(fromPower, toPower, fromVelocity, toVelocity));
+    }
+
+    @Override
+    public Collection<Car> carsWithPowerAndVelocityAtLeast(int power, int velocity) {
+        long start = start();
+        return sized(Operation.CARS_WITH_POWER_AND_VELOCITY_AT_LEAST, start,
+            garage.carsWithPowerAndVelocityAtLeast(power, velocity));
+    }
+
+    @Override
+    public Collection<Car> skylineOfBrand(String brand) {
+        long start = start();
+        return sized(Operation.SKYLINE_OF_BRAND, start, garage.skylineOfBrand(brand));
+    }
+
+    @Override
+    public Collection<Car> query(CarQuery query) {
+        long start = start();
+        return sized(Operation.QUERY, start, garage.query(query));
+    }
+
+    @Override
+    public CarPage queryPage(CarQuery query, String pageToken, int pageSize) {
+        long start = start();
+        CarPage page = garage.queryPage(query, pageToken, pageSize);
+        if (start != OFF) {
+            timed(Operation.QUERY_PAGE, start);
+            resultSize(Operation.QUERY_PAGE, page.getCars().size());
+        }
+        return page;
+    }
+
+    @Override
+    public Stream<Car> stream(CarQuery query) {
+        long start = start();
+        Stream<Car> cars = garage.stream(query);
+        timed(Operation.STREAM, start);
+        return cars;
+    }
+
+    @Override
+    public int meanOwnersAgeOfCarBrand(String brand) {
+        long start = start();
+        int age = garage.meanOwnersAgeOfCarBrand(brand);
+        timed(Operation.MEAN_OWNERS_AGE_OF_CAR_BRAND, start);
+        return age;
+    }
+
+    @Override
+    public int meanCarNumberForEachOwner() {
+        long start = start();
+        int mean = garage.meanCarNumberForEachOwner();
+        timed(Operation.MEAN_CAR_NUMBER_FOR_EACH_OWNER, start);
+        return mean;
+    }
+
+    @Override
+    public Car removeCar(int carId) {
+        long start = start();
+        Car car = garage.removeCar(carId);
+        timed(Operation.REMOVE_CAR, start);
+        return car;
+    }
+
+    @Override
+    public Car updateCar(Car car) {
+        long start = start();
+        Car old = garage.updateCar(car);
+        timed(Operation.UPDATE_CAR, start);
+        return old;
+    }
+
+    @Override
+    public Car transferOwnership(int carId, Owner owner) {
+        long start = start();
+        Car old = garage.transferOwnership(carId, owner);
+        timed(Operation.TRANSFER_OWNERSHIP, start);
+        return old;
+    }
+
+    @Override
+    public void addCar(Car car, Owner owner) {
+        long start = start();
+        garage.addCar(car, owner);
+        timed(Operation.ADD_CAR, start);
+    }
+
+    @Override
+    public void addCars(Collection<Car> cars, Function<Car, Owner> owners) {
+        long start = start();
+        garage.addCars(cars, owners);
+        if (start != OFF) {
+            timed(Operation.ADD_CARS, start);
+            resultSize(Operation.ADD_CARS, cars.size());
+        }
+    }
+
+    @Override
+    public boolean addOwner(Owner owner) {
+        long start = start();
+        boolean added = garage.addOwner(owner);
+        timed(Operation.ADD_OWNER, start);
+        return added;
+    }
+
+    @Override
+    public boolean updateOwner(Owner owner) {
+        long start = start();
+        boolean updated = garage.updateOwner(owner);
+        timed(Operation.UPDATE_OWNER, start);
+        return updated;
+    }
+
+    @Override
+    public Garage snapshot() {
+        long start = start();
+        Garage snapshot = garage.snapshot();
+        timed(Operation.SNAPSHOT, start);
+        return snapshot;
+    }
+
+    @Override
+    public Subscription subscribe(GarageListener listener, long afterSequence) {
+        long start = start();
+        Subscription subscription = garage.subscribe(listener, afterSequence);
+        timed(Operation.SUBSCRIBE, start);
+        return subscription;
+    }
+
+    private long start() {
+        return enabled ? System.nanoTime() : OFF;
+    }
+
+    private void timed(Operation operation, long start) {
+        if (start != OFF) {
+            latencies[operation.ordinal()].record(System.nanoTime() - start);
+        }
+    }
+
+    private <T extends Collection<?>> T sized(Operation operation, long start, T result) {
+        if (start != OFF) {
+            timed(operation, start);
+            if (!(result instanceof SortedSet)) {
+                resultSize(operation, Objects.isNull(result) ? 0 : result.size());
+            }
+        }
+        return result;
+    }
+
+    private int counted(Operation operation, long start, int count) {
+        if (start != OFF) {
+            timed(operation, start);
+            resultSize(operation, count);
+        }
+        return count;
+    }
+
+    private void resultSize(Operation operation, long size) {
+        results[operation.ordinal()].add(size);
+        sizedCalls[operation.ordinal()].increment();
+    }
+
+    /*
+        One constant per Garage method, the metric name is the method name
+     */
+
+    private enum Operation {
+        ALL_CARS_UNIQUE_OWNERS,
+        TOP_THREE_CARS_BY_MAX_VELOCITY,
+        TOP_CARS_BY_MAX_VELOCITY,
+        TOP_CARS_BY_POWER,
+        ALL_CARS_OF_BRAND,
+        CARS_WITH_POWER_MORE_THAN,
+        CARS_WITH_POWER_BETWEEN,
+        CARS_WITH_VELOCITY_BETWEEN,
+        COUNT_CARS_WITH_POWER_BETWEEN,
+        COUNT_CARS_WITH_VELOCITY_BETWEEN,
+        POWER_PERCENTILE_RANK,
+        VELOCITY_PERCENTILE_RANK,
+        CAR_AT_POWER_PERCENTILE,
+        CAR_AT_VELOCITY_PERCENTILE,
+        CAR_OF_BRAND_AT_POWER_PERCENTILE,
+        CAR_OF_BRAND_AT_VELOCITY_PERCENTILE,
+        POWER_HISTOGRAM,
+        VELOCITY_HISTOGRAM,
+        POWER_HISTOGRAM_OF_BRAND,
+        VELOCITY_HISTOGRAM_OF_BRAND,
+        ALL_CARS_OF_OWNER,
+        CARS_OF_BRAND_WITH_POWER_BETWEEN,
+        COUNT_CARS_OF_BRAND_WITH_POWER_BETWEEN,
+        CARS_OF_OWNER_AND_BRAND,
+        COUNT_CARS_OF_OWNER_AND_BRAND,
+        CARS_WITH_POWER_AND_VELOCITY_BETWEEN,
+        COUNT_CARS_WITH_POWER_AND_VELOCITY_BETWEEN,
+        CARS_WITH_POWER_AND_VELOCITY_AT_LEAST,
+        SKYLINE_OF_BRAND,
+        QUERY,
+        QUERY_PAGE,
+        STREAM,
+        MEAN_OWNERS_AGE_OF_CAR_BRAND,
+        MEAN_CAR_NUMBER_FOR_EACH_OWNER,
+        REMOVE_CAR,
+        UPDATE_CAR,
+        TRANSFER_OWNERSHIP,
+        ADD_CAR,
+        ADD_CARS,
+        ADD_OWNER,
+        UPDATE_OWNER,
+        SNAPSHOT,
+        SUBSCRIBE;
+
+        private static final Operation[] VALUES = values();
+        private static final int COUNT = VALUES.length;
+
+        // ALL_CARS_OF_BRAND - allCarsOfBrand
+        private final String method;
+
+        Operation() {
+            StringBuilder method = new StringBuilder();
+            for (String word : name().toLowerCase(Locale.ROOT).split("_")) {
+                method.append(method.length() == 0 ? word.charAt(0) : Character.toUpperCase(word.charAt(0)));
+                method.append(word, 1, word.length());
+            }
+            this.method = method.toString();
+        }
+    }
+}
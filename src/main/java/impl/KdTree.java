@@ -0,0 +1,635 @@
+package impl;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.function.IntConsumer;
+
+/**
+ * Points of two int coordinates, each with an int ref, in a k-d tree - the two-dimensional counterpart of
+ * {@link LongBTree}.
+ *
+ * A branch splits its points on one coordinate at the median: points below the split value go low, the others
+ * high. Leaves hold about {@link #LEAF_SIZE} points in parallel int arrays. Every node keeps its number of points
+ * and their bounding box, so a range query takes whole subtrees whose box lies inside the range, skips those
+ * whose box misses it and only descends along the edges - O(sqrt(N) + k) for a balanced tree.
+ *
+ * Adds and removes walk down one path and keep the boxes of the path tight. A subtree with more than 3/4 of its
+ * points on one side is rebuilt balanced, the scapegoat way, so sorted input keeps the depth O(logN) at an
+ * amortized O(log^2 N) per write.
+ *
+ * {@link #snapshot()} is O(1) with the edit tokens of {@link LongBTree}: later writes copy each node of their
+ * path once before changing it and never touch what the snapshot can reach.
+ *
+ * Not thread-safe. A snapshot can be read by other threads while the tree is written.
+ */
+final class KdTree {
+
+    static final int LEAF_SIZE = 32;
+
+    // nodes created with this token are owned by this tree, the others are shared with snapshots
+    private Object edit = new Object();
+
+    private Node root = new Leaf(edit, LEAF_SIZE + 1);
+
+    // branches on the path of the current add or remove, root first
+    private Branch[] path = new Branch[32];
+    private int depth;
+
+    /**
+     * @return read-only tree with the current points, unaffected by later writes - O(1)
+     */
+    KdTree snapshot() {
+        KdTree snapshot = new KdTree();
+        snapshot.edit = null;
+        snapshot.root = root;
+
+        edit = new Object();
+        return snapshot;
+    }
+
+    /**
+     * For a tree that is not written anymore, only read
+     *
+     * @return writable tree with the current points that leaves this tree unchanged - O(1)
+     */
+    KdTree fork() {
+        KdTree fork = new KdTree();
+        fork.root = root;
+        return fork;
+    }
+
+    int size() {
+        return root.size;
+    }
+
+    boolean isEmpty() {
+        return root.size == 0;
+    }
+
+    /**
+     * @param ref not in the tree yet
+     */
+    void add(int x, int y, int ref) {
+        depth = 0;
+        root = writable(root);
+
+        Node node = root;
+        while (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            branch.size++;
+            branch.include(x, y);
+            push(branch);
+            node = branch.isLow(x, y) ? (branch.low = writable(branch.low)) : (branch.high = writable(branch.high));
+        }
+
+        Leaf leaf = (Leaf) node;
+        leaf.add(x, y, ref);
+        if (leaf.size > leaf.limit) {
+            replace(depth, leaf, rebuild(leaf));
+        }
+        rebalance();
+    }
+
+    /**
+     * Adds a batch of points that are not in the tree yet.
+     *
+     * A batch small next to the tree is added point by point - O(m log^2 N), otherwise the tree is rebuilt with
+     * the batch - O((n + m) log^2 (n + m)).
+     */
+    void addAll(int[] xs, int[] ys, int[] refs, int count) {
+        int existing = size();
+        if (count < existing >> 3) {
+            for (int i = 0; i < count; i++) {
+                add(xs[i], ys[i], refs[i]);
+            }
+            return;
+        }
+
+        int[] allXs = new int[existing + count];
+        int[] allYs = new int[existing + count];
+        int[] allRefs = new int[existing + count];
+        collect(root, allXs, allYs, allRefs, 0);
+        System.arraycopy(xs, 0, allXs, existing, count);
+        System.arraycopy(ys, 0, allYs, existing, count);
+        System.arraycopy(refs, 0, allRefs, existing, count);
+
+        root = build(allXs, allYs, allRefs, 0, existing + count);
+    }
+
+    /**
+     * @return true if the point was present
+     */
+    boolean remove(int x, int y, int ref) {
+        if (!contains(x, y, ref)) {
+            return false;
+        }
+
+        depth = 0;
+        root = writable(root);
+
+        Node node = root;
+        while (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            branch.size--;
+            push(branch);
+            node = branch.isLow(x, y) ? (branch.low = writable(branch.low)) : (branch.high = writable(branch.high));
+        }
+
+        ((Leaf) node).remove(x, y, ref);
+        for (int i = depth - 1; i >= 0; i--) {
+            path[i].fit();
+        }
+        rebalance();
+        return true;
+    }
+
+    boolean contains(int x, int y, int ref) {
+        Node node = root;
+        while (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            node = branch.isLow(x, y) ? branch.low : branch.high;
+        }
+        return ((Leaf) node).indexOf(x, y, ref) >= 0;
+    }
+
+    /**
+     * @return number of points with x in [minX, maxX] and y in [minY, maxY]
+     */
+    int count(int minX, int maxX, int minY, int maxY) {
+        if (minX > maxX || minY > maxY) {
+            return 0;
+        }
+        return count(root, minX, maxX, minY, maxY);
+    }
+
+    /**
+     * Passes the ref of every point with x in [minX, maxX] and y in [minY, maxY] to the action, in no particular
+     * order
+     */
+    void forEach(int minX, int maxX, int minY, int maxY, IntConsumer action) {
+        if (minX <= maxX && minY <= maxY) {
+            forEach(root, minX, maxX, minY, maxY, action);
+        }
+    }
+
+    /**
+     * Refs of the points no other point dominates, a point dominating another when neither of its coordinates is
+     * smaller and one is larger. Equal points are all kept.
+     *
+     * Branch and bound, best first by x + y: a point can only be dominated by a point of a larger sum, so it is
+     * decided when it is taken, and a node whose upper corner is dominated is skipped whole - O(s logN) for s
+     * skyline points in the usual case.
+     *
+     * @return refs in descending order of x + y
+     */
+    int[] skyline() {
+        int[] refs = new int[8];
+        int count = 0;
+
+        // x to y of the skyline points so far, a staircase: y falls as x grows
+        TreeMap<Integer, Integer> staircase = new TreeMap<>();
+        PriorityQueue<Candidate> queue = new PriorityQueue<>();
+        offer(queue, root);
+
+        while (!queue.isEmpty()) {
+            Candidate candidate = queue.poll();
+            if (isDominated(staircase, candidate.x, candidate.y)) {
+                continue;
+            }
+
+            Node node = candidate.node;
+            if (node == null) {
+                staircase.put(candidate.x, candidate.y);
+                if (count == refs.length) {
+                    refs = Arrays.copyOf(refs, count << 1);
+                }
+                refs[count++] = candidate.ref;
+            } else if (node instanceof Branch) {
+                offer(queue, ((Branch) node).low);
+                offer(queue, ((Branch) node).high);
+            } else {
+                Leaf leaf = (Leaf) node;
+                for (int i = 0; i < leaf.size; i++) {
+                    queue.add(new Candidate(null, leaf.xs[i], leaf.ys[i], leaf.refs[i]));
+                }
+            }
+        }
+
+        return Arrays.copyOf(refs, count);
+    }
+
+    /**
+     * @return number of levels, 1 for a single leaf
+     */
+    int height() {
+        return height(root);
+    }
+
+    // a node is ranked by the upper corner of its box, no point of it can rank higher
+    private static void offer(PriorityQueue<Candidate> queue, Node node) {
+        if (node.size > 0) {
+            queue.add(new Candidate(node, node.maxX, node.maxY, 0));
+        }
+    }
+
+    private static boolean isDominated(TreeMap<Integer, Integer> staircase, int x, int y) {
+        // among the points with a larger or equal x, the one with the smallest x has the largest y
+        Map.Entry<Integer, Integer> step = staircase.ceilingEntry(x);
+        return step != null && step.getValue() >= y && (step.getKey() > x || step.getValue() > y);
+    }
+
+    private static int count(Node node, int minX, int maxX, int minY, int maxY) {
+        if (node.size == 0 || node.misses(minX, maxX, minY, maxY)) {
+            return 0;
+        }
+        if (node.isWithin(minX, maxX, minY, maxY)) {
+            return node.size;
+        }
+
+        if (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            return count(branch.low, minX, maxX, minY, maxY) + count(branch.high, minX, maxX, minY, maxY);
+        }
+
+        Leaf leaf = (Leaf) node;
+        int count = 0;
+        for (int i = 0; i < leaf.size; i++) {
+            if (leaf.xs[i] >= minX && leaf.xs[i] <= maxX && leaf.ys[i] >= minY && leaf.ys[i] <= maxY) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void forEach(Node node, int minX, int maxX, int minY, int maxY, IntConsumer action) {
+        if (node.size == 0 || node.misses(minX, maxX, minY, maxY)) {
+            return;
+        }
+        if (node.isWithin(minX, maxX, minY, maxY)) {
+            forEach(node, action);
+            return;
+        }
+
+        if (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            forEach(branch.low, minX, maxX, minY, maxY, action);
+            forEach(branch.high, minX, maxX, minY, maxY, action);
+            return;
+        }
+
+        Leaf leaf = (Leaf) node;
+        for (int i = 0; i < leaf.size; i++) {
+            if (leaf.xs[i] >= minX && leaf.xs[i] <= maxX && leaf.ys[i] >= minY && leaf.ys[i] <= maxY) {
+                action.accept(leaf.refs[i]);
+            }
+        }
+    }
+
+    private static void forEach(Node node, IntConsumer action) {
+        if (node instanceof Branch) {
+            forEach(((Branch) node).low, action);
+            forEach(((Branch) node).high, action);
+            return;
+        }
+
+        Leaf leaf = (Leaf) node;
+        for (int i = 0; i < leaf.size; i++) {
+            action.accept(leaf.refs[i]);
+        }
+    }
+
+    private static int height(Node node) {
+        if (node instanceof Branch) {
+            return 1 + Math.max(height(((Branch) node).low), height(((Branch) node).high));
+        }
+        return 1;
+    }
+
+    private void push(Branch branch) {
+        if (depth == path.length) {
+            path = Arrays.copyOf(path, depth << 1);
+        }
+        path[depth++] = branch;
+    }
+
+    /**
+     * Puts the node in place of the one at the given depth of the path
+     */
+    private void replace(int at, Node old, Node node) {
+        if (at == 0) {
+            root = node;
+            return;
+        }
+
+        Branch parent = path[at - 1];
+        if (parent.low == old) {
+            parent.low = node;
+        } else {
+            parent.high = node;
+        }
+    }
+
+    /**
+     * Rebuilds the highest branch of the path with more than 3/4 of its points on one side
+     */
+    private void rebalance() {
+        for (int i = 0; i < depth; i++) {
+            Branch branch = path[i];
+            if (branch.size >= branch.rebuildAt
+                && Math.max(branch.low.size, branch.high.size) * 4L > branch.size * 3L) {
+                replace(i, branch, rebuild(branch));
+                return;
+            }
+        }
+    }
+
+    private Node rebuild(Node node) {
+        int[] xs = new int[node.size];
+        int[] ys = new int[node.size];
+        int[] refs = new int[node.size];
+        collect(node, xs, ys, refs, 0);
+        return build(xs, ys, refs, 0, node.size);
+    }
+
+    /**
+     * @return position after the points of the node
+     */
+    private static int collect(Node node, int[] xs, int[] ys, int[] refs, int at) {
+        if (node instanceof Branch) {
+            return collect(((Branch) node).high, xs, ys, refs, collect(((Branch) node).low, xs, ys, refs, at));
+        }
+
+        Leaf leaf = (Leaf) node;
+        System.arraycopy(leaf.xs, 0, xs, at, leaf.size);
+        System.arraycopy(leaf.ys, 0, ys, at, leaf.size);
+        System.arraycopy(leaf.refs, 0, refs, at, leaf.size);
+        return at + leaf.size;
+    }
+
+    /**
+     * Balanced subtree of the points in [from, to) of the arrays, which it reorders - O(m log^2 m)
+     */
+    private Node build(int[] xs, int[] ys, int[] refs, int from, int to) {
+        final int count = to - from;
+        if (count <= LEAF_SIZE) {
+            return new Leaf(edit, xs, ys, refs, from, to);
+        }
+
+        // the cut nearest the median on each coordinate, the more even one wins
+        long[] byX = sorted(xs, from, to);
+        long[] byY = sorted(ys, from, to);
+        int cutX = cut(byX);
+        int cutY = cut(byY);
+        if (cutX < 0 && cutY < 0) {
+            // every point is the same, a bigger leaf until the count doubles
+            return new Leaf(edit, xs, ys, refs, from, to);
+        }
+
+        final boolean byXAxis = cutY < 0 || cutX >= 0 && Math.abs(cutX - count / 2) <= Math.abs(cutY - count / 2);
+        final long[] order = byXAxis ? byX : byY;
+        final int cut = byXAxis ? cutX : cutY;
+
+        int[] orderedXs = new int[count];
+        int[] orderedYs = new int[count];
+        int[] orderedRefs = new int[count];
+        for (int i = 0; i < count; i++) {
+            int at = from + (int) order[i];
+            orderedXs[i] = xs[at];
+            orderedYs[i] = ys[at];
+            orderedRefs[i] = refs[at];
+        }
+        System.arraycopy(orderedXs, 0, xs, from, count);
+        System.arraycopy(orderedYs, 0, ys, from, count);
+        System.arraycopy(orderedRefs, 0, refs, from, count);
+
+        Node low = build(xs, ys, refs, from, from + cut);
+        Node high = build(xs, ys, refs, from + cut, to);
+        Branch branch = new Branch(edit, byXAxis, (int) (order[cut] >> 32), low, high);
+
+        // a lopsided cut forced by equal values is not rebuilt again until the subtree doubles
+        boolean even = Math.max(cut, count - cut) * 4L <= count * 3L;
+        branch.rebuildAt = even ? 0 : count * 2;
+        return branch;
+    }
+
+    /**
+     * @return packed (value << 32 | position - from) of every point, sorted
+     */
+    private static long[] sorted(int[] values, int from, int to) {
+        long[] keys = new long[to - from];
+        for (int i = from; i < to; i++) {
+            keys[i - from] = (long) values[i] << 32 | (i - from);
+        }
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    /**
+     * @return first position of a value, the closest one to the middle, -1 if all values are the same
+     */
+    private static int cut(long[] sorted) {
+        final int middle = sorted.length / 2;
+        final long value = sorted[middle] >> 32;
+
+        int first = middle;
+        while (first > 0 && sorted[first - 1] >> 32 == value) {
+            first--;
+        }
+        int next = middle + 1;
+        while (next < sorted.length && sorted[next] >> 32 == value) {
+            next++;
+        }
+
+        if (first == 0) {
+            return next < sorted.length ? next : -1;
+        }
+        if (next == sorted.length) {
+            return first;
+        }
+        return middle - first <= next - middle ? first : next;
+    }
+
+    private Node writable(Node node) {
+        if (node.edit == edit) {
+            return node;
+        }
+        return node instanceof Branch ? new Branch(edit, (Branch) node) : new Leaf(edit, (Leaf) node);
+    }
+
+    private abstract static class Node {
+
+        final Object edit;
+        int size;
+
+        // bounding box of the points, empty boxes have min above max
+        int minX = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxY = Integer.MIN_VALUE;
+
+        Node(Object edit) {
+            this.edit = edit;
+        }
+
+        Node(Object edit, Node node) {
+            this.edit = edit;
+            size = node.size;
+            minX = node.minX;
+            maxX = node.maxX;
+            minY = node.minY;
+            maxY = node.maxY;
+        }
+
+        void include(int x, int y) {
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+
+        boolean misses(int fromX, int toX, int fromY, int toY) {
+            return maxX < fromX || minX > toX || maxY < fromY || minY > toY;
+        }
+
+        boolean isWithin(int fromX, int toX, int fromY, int toY) {
+            return minX >= fromX && maxX <= toX && minY >= fromY && maxY <= toY;
+        }
+    }
+
+    private static final class Branch extends Node {
+
+        // split on x or on y, points below the split value are in the low child
+        final boolean byX;
+        final int split;
+
+        Node low;
+        Node high;
+
+        // size from which an uneven split is rebuilt
+        int rebuildAt;
+
+        Branch(Object edit, boolean byX, int split, Node low, Node high) {
+            super(edit);
+            this.byX = byX;
+            this.split = split;
+            this.low = low;
+            this.high = high;
+            size = low.size + high.size;
+            fit();
+        }
+
+        Branch(Object edit, Branch branch) {
+            super(edit, branch);
+            byX = branch.byX;
+            split = branch.split;
+            low = branch.low;
+            high = branch.high;
+            rebuildAt = branch.rebuildAt;
+        }
+
+        boolean isLow(int x, int y) {
+            return (byX ? x : y) < split;
+        }
+
+        void fit() {
+            minX = Math.min(low.minX, high.minX);
+            maxX = Math.max(low.maxX, high.maxX);
+            minY = Math.min(low.minY, high.minY);
+            maxY = Math.max(low.maxY, high.maxY);
+        }
+    }
+
+    private static final class Leaf extends Node {
+
+        int[] xs;
+        int[] ys;
+        int[] refs;
+
+        // size above which the leaf is split
+        int limit = LEAF_SIZE;
+
+        Leaf(Object edit, int capacity) {
+            super(edit);
+            xs = new int[capacity];
+            ys = new int[capacity];
+            refs = new int[capacity];
+        }
+
+        Leaf(Object edit, int[] xs, int[] ys, int[] refs, int from, int to) {
+            this(edit, Math.max(LEAF_SIZE, to - from) + 1);
+            for (int i = from; i < to; i++) {
+                add(xs[i], ys[i], refs[i]);
+            }
+            limit = Math.max(LEAF_SIZE, size * 2);
+        }
+
+        Leaf(Object edit, Leaf leaf) {
+            super(edit, leaf);
+            xs = leaf.xs.clone();
+            ys = leaf.ys.clone();
+            refs = leaf.refs.clone();
+            limit = leaf.limit;
+        }
+
+        void add(int x, int y, int ref) {
+            if (size == xs.length) {
+                xs = Arrays.copyOf(xs, size << 1);
+                ys = Arrays.copyOf(ys, size << 1);
+                refs = Arrays.copyOf(refs, size << 1);
+            }
+            xs[size] = x;
+            ys[size] = y;
+            refs[size] = ref;
+            size++;
+            include(x, y);
+        }
+
+        void remove(int x, int y, int ref) {
+            int i = indexOf(x, y, ref);
+            size--;
+            xs[i] = xs[size];
+            ys[i] = ys[size];
+            refs[i] = refs[size];
+
+            minX = Integer.MAX_VALUE;
+            maxX = Integer.MIN_VALUE;
+            minY = Integer.MAX_VALUE;
+            maxY = Integer.MIN_VALUE;
+            for (int j = 0; j < size; j++) {
+                include(xs[j], ys[j]);
+            }
+        }
+
+        int indexOf(int x, int y, int ref) {
+            for (int i = 0; i < size; i++) {
+                if (refs[i] == ref && xs[i] == x && ys[i] == y) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static final class Candidate implements Comparable<Candidate> {
+
+        // null for a point
+        final Node node;
+        final int x;
+        final int y;
+        final int ref;
+
+        Candidate(Node node, int x, int y, int ref) {
+            this.node = node;
+            this.x = x;
+            this.y = y;
+            this.ref = ref;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            return Long.compare((long) other.x + other.y, (long) x + y);
+        }
+    }
+}
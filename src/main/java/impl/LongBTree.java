@@ -0,0 +1,785 @@
+package impl;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Sorted set of primitive longs stored in a B+tree.
+ *
+ * Keys are kept in sorted {@code long[]} leaves of up to {@link #MAX} entries, so lookups are a handful of
+ * binary searches over contiguous arrays with no boxing, no comparator and no allocation. Inserting only
+ * allocates when a node splits.
+ *
+ * Branches also keep the number of keys below each child, which makes the tree an order-statistic tree:
+ * {@link #rank(long)} and {@link #select(int)} are O(logN) descents.
+ *
+ * Leaves are not linked: iterators walk down from the root and keep the path on a small stack.
+ *
+ * {@link #snapshot()} is O(1): the snapshot keeps the current root, and every node carries the edit token of the
+ * tree allowed to change it in place. Taking a snapshot gives the tree a new token, so later writes copy each
+ * node of their path once before changing it and never touch what the snapshot can reach. Without snapshots
+ * nothing is copied.
+ *
+ * Not thread-safe, iterators are fail-fast. A snapshot can be read by other threads while the tree is written.
+ */
+final class LongBTree {
+
+    // keys per leaf, children per branch
+    static final int MAX = 64;
+    private static final int MIN = MAX / 2;
+
+    // nodes created with this token are owned by this tree, the others are shared with snapshots
+    private Object edit = new Object();
+
+    private Node root = new Leaf(edit);
+    private int height = 1;
+    private int size;
+    private int modCount;
+
+    // scratch space for branch splits, a full branch plus the new child
+    private final long[] splitKeys = new long[MAX];
+    private final Node[] splitChildren = new Node[MAX + 1];
+    private final int[] splitSizes = new int[MAX + 1];
+
+    // second result of insert, separator key of the split-off right node
+    private long splitKey;
+
+    /**
+     * @return read-only tree with the current keys, unaffected by later writes - O(1)
+     */
+    LongBTree snapshot() {
+        LongBTree snapshot = new LongBTree();
+        snapshot.edit = null;
+        snapshot.root = root;
+        snapshot.height = height;
+        snapshot.size = size;
+
+        edit = new Object();
+        return snapshot;
+    }
+
+    /**
+     * For a tree that is not written anymore, only read
+     *
+     * @return writable tree with the current keys that leaves this tree unchanged - O(1)
+     */
+    LongBTree fork() {
+        LongBTree fork = new LongBTree();
+        fork.root = root;
+        fork.height = height;
+        fork.size = size;
+        return fork;
+    }
+
+    /**
+     * @return true if the key was not present
+     */
+    boolean add(long key) {
+        int before = size;
+
+        root = writable(root);
+        Node right = insert(root, key);
+        if (right != null) {
+            Branch branch = new Branch(edit);
+            branch.children[0] = root;
+            branch.children[1] = right;
+            branch.sizes[0] = weight(root);
+            branch.sizes[1] = weight(right);
+            branch.keys[0] = splitKey;
+            branch.count = 2;
+
+            root = branch;
+            height++;
+        }
+
+        return size != before;
+    }
+
+    /**
+     * @return true if the key was present
+     */
+    boolean remove(long key) {
+        if (!contains(key)) {
+            return false;
+        }
+
+        root = writable(root);
+        if (!delete(root, key)) {
+            return false;
+        }
+
+        if (root.count == 1 && root instanceof Branch) {
+            root = ((Branch) root).children[0];
+            height--;
+        }
+
+        return true;
+    }
+
+    boolean contains(long key) {
+        Node node = root;
+        while (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            node = branch.children[childIndex(branch, key)];
+        }
+
+        Leaf leaf = (Leaf) node;
+        return Arrays.binarySearch(leaf.keys, 0, leaf.count, key) >= 0;
+    }
+
+    long first() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+
+        Node node = root;
+        while (node instanceof Branch) {
+            node = ((Branch) node).children[0];
+        }
+
+        return ((Leaf) node).keys[0];
+    }
+
+    long last() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+
+        Node node = root;
+        while (node instanceof Branch) {
+            node = ((Branch) node).children[node.count - 1];
+        }
+
+        return ((Leaf) node).keys[node.count - 1];
+    }
+
+    /**
+     * @return number of keys less than the given one - O(logN)
+     */
+    int rank(long key) {
+        int rank = 0;
+
+        Node node = root;
+        while (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            int c = childIndex(branch, key);
+            for (int i = 0; i < c; i++) {
+                rank += branch.sizes[i];
+            }
+            node = branch.children[c];
+        }
+
+        Leaf leaf = (Leaf) node;
+        int i = Arrays.binarySearch(leaf.keys, 0, leaf.count, key);
+        return rank + (i >= 0 ? i : -i - 1);
+    }
+
+    /**
+     * @return key with the given rank, the number of keys less than it - O(logN)
+     */
+    long select(int rank) {
+        if (rank < 0 || rank >= size) {
+            throw new IndexOutOfBoundsException("rank " + rank + " out of " + size);
+        }
+
+        Node node = root;
+        while (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            int c = 0;
+            while (rank >= branch.sizes[c]) {
+                rank -= branch.sizes[c++];
+            }
+            node = branch.children[c];
+        }
+
+        return ((Leaf) node).keys[rank];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        root = new Leaf(edit);
+        height = 1;
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * Replaces the content with the given keys, building the tree bottom-up level by level - O(n).
+     * Nodes are filled evenly, so every node but the root holds at least {@code MAX / 2} entries.
+     *
+     * @param sorted strictly ascending keys
+     * @param count number of keys to take from the array
+     */
+    void build(long[] sorted, int count) {
+        clear();
+        if (count == 0) {
+            return;
+        }
+
+        int width = (count + MAX - 1) / MAX;
+        Node[] level = new Node[width];
+        long[] firstKeys = new long[width];
+        int[] weights = new int[width];
+
+        for (int i = 0, offset = 0; i < width; i++) {
+            Leaf leaf = new Leaf(edit);
+            leaf.count = (count - offset) / (width - i);
+            System.arraycopy(sorted, offset, leaf.keys, 0, leaf.count);
+
+            level[i] = leaf;
+            firstKeys[i] = sorted[offset];
+            weights[i] = leaf.count;
+            offset += leaf.count;
+        }
+
+        while (width > 1) {
+            int parents = (width + MAX - 1) / MAX;
+
+            for (int p = 0, offset = 0; p < parents; p++) {
+                Branch branch = new Branch(edit);
+                branch.count = (width - offset) / (parents - p);
+                System.arraycopy(level, offset, branch.children, 0, branch.count);
+                System.arraycopy(weights, offset, branch.sizes, 0, branch.count);
+                System.arraycopy(firstKeys, offset + 1, branch.keys, 0, branch.count - 1);
+
+                int weight = 0;
+                for (int i = 0; i < branch.count; i++) {
+                    weight += branch.sizes[i];
+                }
+
+                // parents are written over the prefix of the arrays they were built from
+                long firstKey = firstKeys[offset];
+                level[p] = branch;
+                firstKeys[p] = firstKey;
+                weights[p] = weight;
+                offset += branch.count;
+            }
+
+            width = parents;
+            height++;
+        }
+
+        root = level[0];
+        size = count;
+    }
+
+    /**
+     * @return ascending iterator over the keys greater or equal to {@code from}
+     */
+    PrimitiveIterator.OfLong iterator(long from) {
+        return new Ascending(from);
+    }
+
+    /**
+     * @return descending iterator over all keys, greatest first
+     */
+    PrimitiveIterator.OfLong descendingIterator() {
+        return new Descending();
+    }
+
+    private Node insert(Node node, long key) {
+        if (node instanceof Leaf) {
+            return insertIntoLeaf((Leaf) node, key);
+        }
+
+        Branch branch = (Branch) node;
+        int c = childIndex(branch, key);
+        int before = size;
+
+        branch.children[c] = writable(branch.children[c]);
+        Node right = insert(branch.children[c], key);
+        if (size != before) {
+            branch.sizes[c]++;
+        }
+        if (right == null) {
+            return null;
+        }
+
+        int rightSize = weight(right);
+        branch.sizes[c] -= rightSize;
+
+        if (branch.count < MAX) {
+            System.arraycopy(branch.keys, c, branch.keys, c + 1, branch.count - 1 - c);
+            System.arraycopy(branch.children, c + 1, branch.children, c + 2, branch.count - 1 - c);
+            System.arraycopy(branch.sizes, c + 1, branch.sizes, c + 2, branch.count - 1 - c);
+            branch.keys[c] = splitKey;
+            branch.children[c + 1] = right;
+            branch.sizes[c + 1] = rightSize;
+            branch.count++;
+            return null;
+        }
+
+        return splitBranch(branch, c, right, rightSize);
+    }
+
+    private Node insertIntoLeaf(Leaf leaf, long key) {
+        int i = Arrays.binarySearch(leaf.keys, 0, leaf.count, key);
+        if (i >= 0) {
+            return null;
+        }
+
+        i = -i - 1;
+        size++;
+        modCount++;
+
+        if (leaf.count < MAX) {
+            insertAt(leaf.keys, leaf.count, i, key);
+            leaf.count++;
+            return null;
+        }
+
+        Leaf right = new Leaf(edit);
+        int half = MAX / 2;
+        System.arraycopy(leaf.keys, half, right.keys, 0, MAX - half);
+        right.count = MAX - half;
+        leaf.count = half;
+
+        if (i <= half) {
+            insertAt(leaf.keys, leaf.count, i, key);
+            leaf.count++;
+        } else {
+            insertAt(right.keys, right.count, i - half, key);
+            right.count++;
+        }
+
+        splitKey = right.keys[0];
+        return right;
+    }
+
+    private Node splitBranch(Branch branch, int c, Node child, int childSize) {
+        // lay out the MAX + 1 children and MAX separators in scratch space, then cut in two
+        System.arraycopy(branch.children, 0, splitChildren, 0, c + 1);
+        splitChildren[c + 1] = child;
+        System.arraycopy(branch.children, c + 1, splitChildren, c + 2, MAX - c - 1);
+
+        System.arraycopy(branch.sizes, 0, splitSizes, 0, c + 1);
+        splitSizes[c + 1] = childSize;
+        System.arraycopy(branch.sizes, c + 1, splitSizes, c + 2, MAX - c - 1);
+
+        System.arraycopy(branch.keys, 0, splitKeys, 0, c);
+        splitKeys[c] = splitKey;
+        System.arraycopy(branch.keys, c, splitKeys, c + 1, MAX - 1 - c);
+
+        int left = (MAX + 1) / 2;
+        Branch right = new Branch(edit);
+
+        System.arraycopy(splitChildren, 0, branch.children, 0, left);
+        System.arraycopy(splitSizes, 0, branch.sizes, 0, left);
+        System.arraycopy(splitKeys, 0, branch.keys, 0, left - 1);
+        Arrays.fill(branch.children, left, MAX, null);
+        branch.count = left;
+
+        System.arraycopy(splitChildren, left, right.children, 0, MAX + 1 - left);
+        System.arraycopy(splitSizes, left, right.sizes, 0, MAX + 1 - left);
+        System.arraycopy(splitKeys, left, right.keys, 0, MAX - left);
+        right.count = MAX + 1 - left;
+
+        Arrays.fill(splitChildren, null);
+        splitKey = splitKeys[left - 1];
+        return right;
+    }
+
+    private boolean delete(Node node, long key) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int i = Arrays.binarySearch(leaf.keys, 0, leaf.count, key);
+            if (i < 0) {
+                return false;
+            }
+
+            System.arraycopy(leaf.keys, i + 1, leaf.keys, i, leaf.count - i - 1);
+            leaf.count--;
+            size--;
+            modCount++;
+            return true;
+        }
+
+        Branch branch = (Branch) node;
+        int c = childIndex(branch, key);
+        Node child = writable(branch.children[c]);
+        branch.children[c] = child;
+
+        if (!delete(child, key)) {
+            return false;
+        }
+
+        branch.sizes[c]--;
+        if (child.count < MIN) {
+            rebalance(branch, c);
+        }
+        return true;
+    }
+
+    private void rebalance(Branch parent, int c) {
+        // the child at c is writable already, the sibling it borrows from or merges with is made so
+        if (c > 0) {
+            parent.children[c - 1] = writable(parent.children[c - 1]);
+        }
+        if (c + 1 < parent.count) {
+            parent.children[c + 1] = writable(parent.children[c + 1]);
+        }
+
+        if (c > 0 && parent.children[c - 1].count > MIN) {
+            borrowFromLeft(parent, c);
+        } else if (c + 1 < parent.count && parent.children[c + 1].count > MIN) {
+            borrowFromRight(parent, c);
+        } else if (c > 0) {
+            merge(parent, c - 1);
+        } else {
+            merge(parent, c);
+        }
+    }
+
+    private static void borrowFromLeft(Branch parent, int c) {
+        Node node = parent.children[c];
+        Node left = parent.children[c - 1];
+
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            Leaf from = (Leaf) left;
+
+            insertAt(leaf.keys, leaf.count, 0, from.keys[from.count - 1]);
+            leaf.count++;
+            from.count--;
+            parent.keys[c - 1] = leaf.keys[0];
+            parent.sizes[c - 1]--;
+            parent.sizes[c]++;
+        } else {
+            Branch branch = (Branch) node;
+            Branch from = (Branch) left;
+
+            int moved = from.sizes[from.count - 1];
+
+            System.arraycopy(branch.keys, 0, branch.keys, 1, branch.count - 1);
+            System.arraycopy(branch.children, 0, branch.children, 1, branch.count);
+            System.arraycopy(branch.sizes, 0, branch.sizes, 1, branch.count);
+            branch.keys[0] = parent.keys[c - 1];
+            branch.children[0] = from.children[from.count - 1];
+            branch.sizes[0] = moved;
+            branch.count++;
+
+            parent.keys[c - 1] = from.keys[from.count - 2];
+            parent.sizes[c - 1] -= moved;
+            parent.sizes[c] += moved;
+            from.children[from.count - 1] = null;
+            from.count--;
+        }
+    }
+
+    private static void borrowFromRight(Branch parent, int c) {
+        Node node = parent.children[c];
+        Node right = parent.children[c + 1];
+
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            Leaf from = (Leaf) right;
+
+            leaf.keys[leaf.count++] = from.keys[0];
+            System.arraycopy(from.keys, 1, from.keys, 0, from.count - 1);
+            from.count--;
+            parent.keys[c] = from.keys[0];
+            parent.sizes[c]++;
+            parent.sizes[c + 1]--;
+        } else {
+            Branch branch = (Branch) node;
+            Branch from = (Branch) right;
+
+            int moved = from.sizes[0];
+
+            branch.keys[branch.count - 1] = parent.keys[c];
+            branch.children[branch.count] = from.children[0];
+            branch.sizes[branch.count] = moved;
+            branch.count++;
+
+            parent.keys[c] = from.keys[0];
+            parent.sizes[c] += moved;
+            parent.sizes[c + 1] -= moved;
+            System.arraycopy(from.keys, 1, from.keys, 0, from.count - 2);
+            System.arraycopy(from.children, 1, from.children, 0, from.count - 1);
+            System.arraycopy(from.sizes, 1, from.sizes, 0, from.count - 1);
+            from.children[from.count - 1] = null;
+            from.count--;
+        }
+    }
+
+    /**
+     * Moves {@code children[i + 1]} into {@code children[i]}.
+     */
+    private static void merge(Branch parent, int i) {
+        Node left = parent.children[i];
+        Node right = parent.children[i + 1];
+
+        if (left instanceof Leaf) {
+            Leaf into = (Leaf) left;
+            Leaf from = (Leaf) right;
+
+            System.arraycopy(from.keys, 0, into.keys, into.count, from.count);
+            into.count += from.count;
+        } else {
+            Branch into = (Branch) left;
+            Branch from = (Branch) right;
+
+            into.keys[into.count - 1] = parent.keys[i];
+            System.arraycopy(from.keys, 0, into.keys, into.count, from.count - 1);
+            System.arraycopy(from.children, 0, into.children, into.count, from.count);
+            System.arraycopy(from.sizes, 0, into.sizes, into.count, from.count);
+            into.count += from.count;
+        }
+
+        parent.sizes[i] += parent.sizes[i + 1];
+        System.arraycopy(parent.keys, i + 1, parent.keys, i, parent.count - i - 2);
+        System.arraycopy(parent.children, i + 2, parent.children, i + 1, parent.count - i - 2);
+        System.arraycopy(parent.sizes, i + 2, parent.sizes, i + 1, parent.count - i - 2);
+        parent.children[parent.count - 1] = null;
+        parent.count--;
+    }
+
+    /**
+     * @return the node itself if this tree owns it, otherwise a copy owned by this tree
+     */
+    private Node writable(Node node) {
+        if (node.edit == edit) {
+            return node;
+        }
+
+        if (node instanceof Leaf) {
+            Leaf copy = new Leaf(edit);
+            System.arraycopy(((Leaf) node).keys, 0, copy.keys, 0, node.count);
+            copy.count = node.count;
+            return copy;
+        }
+
+        Branch branch = (Branch) node;
+        Branch copy = new Branch(edit);
+        System.arraycopy(branch.keys, 0, copy.keys, 0, node.count - 1);
+        System.arraycopy(branch.children, 0, copy.children, 0, node.count);
+        System.arraycopy(branch.sizes, 0, copy.sizes, 0, node.count);
+        copy.count = node.count;
+        return copy;
+    }
+
+    /**
+     * @return index of the child that may hold the key, the number of separators less or equal to it
+     */
+    private static int childIndex(Branch branch, long key) {
+        int low = 0;
+        int high = branch.count - 1;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (branch.keys[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * @return number of keys under the node
+     */
+    private static int weight(Node node) {
+        if (node instanceof Leaf) {
+            return node.count;
+        }
+
+        int weight = 0;
+        int[] sizes = ((Branch) node).sizes;
+        for (int i = 0; i < node.count; i++) {
+            weight += sizes[i];
+        }
+        return weight;
+    }
+
+    private static void insertAt(long[] keys, int count, int i, long key) {
+        System.arraycopy(keys, i, keys, i + 1, count - i);
+        keys[i] = key;
+    }
+
+    abstract static class Node {
+
+        // token of the tree that may change this node in place
+        final Object edit;
+
+        // keys in a leaf, children in a branch
+        int count;
+
+        Node(Object edit) {
+            this.edit = edit;
+        }
+    }
+
+    static final class Leaf extends Node {
+
+        final long[] keys = new long[MAX];
+
+        Leaf(Object edit) {
+            super(edit);
+        }
+    }
+
+    static final class Branch extends Node {
+
+        // keys[i] is the smallest key of children[i + 1]
+        final long[] keys = new long[MAX - 1];
+        final Node[] children = new Node[MAX];
+
+        // number of keys under children[i]
+        final int[] sizes = new int[MAX];
+
+        Branch(Object edit) {
+            super(edit);
+        }
+    }
+
+    private abstract class Walk implements PrimitiveIterator.OfLong {
+
+        // path from the root, index of the child taken at every branch level and position in the leaf
+        final Node[] nodes = new Node[height];
+        final int[] positions = new int[height];
+
+        private final int expectedModCount = modCount;
+
+        final Leaf leaf() {
+            return (Leaf) nodes[nodes.length - 1];
+        }
+
+        final void checkForComodification() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    private final class Ascending extends Walk {
+
+        private Ascending(long from) {
+            Node node = root;
+            for (int level = 0; level < nodes.length - 1; level++) {
+                Branch branch = (Branch) node;
+                nodes[level] = branch;
+                positions[level] = childIndex(branch, from);
+                node = branch.children[positions[level]];
+            }
+
+            Leaf leaf = (Leaf) node;
+            nodes[nodes.length - 1] = leaf;
+
+            int i = Arrays.binarySearch(leaf.keys, 0, leaf.count, from);
+            positions[nodes.length - 1] = i >= 0 ? i : -i - 1;
+            skipExhaustedLeaf();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nodes[0] != null;
+        }
+
+        @Override
+        public long nextLong() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            checkForComodification();
+
+            int last = nodes.length - 1;
+            long key = leaf().keys[positions[last]++];
+            skipExhaustedLeaf();
+            return key;
+        }
+
+        private void skipExhaustedLeaf() {
+            int last = nodes.length - 1;
+            if (positions[last] < nodes[last].count) {
+                return;
+            }
+
+            int level = last - 1;
+            while (level >= 0 && positions[level] + 1 >= nodes[level].count) {
+                level--;
+            }
+
+            if (level < 0) {
+                nodes[0] = null;
+                return;
+            }
+
+            positions[level]++;
+            for (; level < last; level++) {
+                nodes[level + 1] = ((Branch) nodes[level]).children[positions[level]];
+                positions[level + 1] = 0;
+            }
+        }
+    }
+
+    private final class Descending extends Walk {
+
+        private Descending() {
+            if (size == 0) {
+                nodes[0] = null;
+                return;
+            }
+
+            Node node = root;
+            for (int level = 0; level < nodes.length; level++) {
+                nodes[level] = node;
+                positions[level] = node.count - 1;
+                if (node instanceof Branch) {
+                    node = ((Branch) node).children[node.count - 1];
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nodes[0] != null;
+        }
+
+        @Override
+        public long nextLong() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            checkForComodification();
+
+            int last = nodes.length - 1;
+            long key = leaf().keys[positions[last]--];
+            if (positions[last] < 0) {
+                previousLeaf();
+            }
+            return key;
+        }
+
+        private void previousLeaf() {
+            int last = nodes.length - 1;
+
+            int level = last - 1;
+            while (level >= 0 && positions[level] == 0) {
+                level--;
+            }
+
+            if (level < 0) {
+                nodes[0] = null;
+                return;
+            }
+
+            positions[level]--;
+            for (; level < last; level++) {
+                Node child = ((Branch) nodes[level]).children[positions[level]];
+                nodes[level + 1] = child;
+                positions[level + 1] = child.count - 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package impl;
+
+/**
+ * Metrics of one {@link domain.Garage} method recorded by {@link InstrumentedGarage}, a point-in-time copy.
+ *
+ * Latencies are in nanoseconds, percentiles come from a {@link LatencyHistogram} and may be up to 1/8 above the
+ * exact value. Calls are counted since the metrics were created or last reset.
+ */
+public final class OperationMetrics {
+
+    private final String name;
+    private final long calls;
+    private final double callsPerSecond;
+    private final double meanNanos;
+    private final long p50Nanos;
+    private final long p99Nanos;
+    private final long p999Nanos;
+    private final long maxNanos;
+    private final double meanResultSize;
+
+    OperationMetrics(String name, LatencyHistogram latency, long results, long sizedCalls, double elapsedSeconds) {
+        this.name = name;
+        this.calls = latency.count();
+        this.callsPerSecond = elapsedSeconds > 0 ? calls / elapsedSeconds : 0;
+        this.meanNanos = latency.mean();
+        this.p50Nanos = latency.valueAt(0.5);
+        this.p99Nanos = latency.valueAt(0.99);
+        this.p999Nanos = latency.valueAt(0.999);
+        this.maxNanos = latency.max();
+        this.meanResultSize = sizedCalls == 0 ? 0 : (double) results / sizedCalls;
+    }
+
+    /**
+     * @return name of the Garage method
+     */
+    public String getName() {
+        return name;
+    }
+
+    public long getCalls() {
+        return calls;
+    }
+
+    /**
+     * @return mean call rate since the metrics were created or reset
+     */
+    public double getCallsPerSecond() {
+        return callsPerSecond;
+    }
+
+    public double getMeanNanos() {
+        return meanNanos;
+    }
+
+    public long getP50Nanos() {
+        return p50Nanos;
+    }
+
+    public long getP99Nanos() {
+        return p99Nanos;
+    }
+
+    public long getP999Nanos() {
+        return p999Nanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * @return mean number of cars, owners or the count returned per sized call, 0 for methods without a sized
+     *     result
+     */
+    public double getMeanResultSize() {
+        return meanResultSize;
+    }
+
+    @Override
+    public String toString() {
+        return "OperationMetrics{"
+            + "name=" + name
+            + ", calls=" + calls
+            + ", callsPerSecond=" + callsPerSecond
+            + ", meanNanos=" + meanNanos
+            + ", p50Nanos=" + p50Nanos
+            + ", p99Nanos=" + p99Nanos
+            + ", p999Nanos=" + p999Nanos
+            + ", maxNanos=" + maxNanos
+            + ", meanResultSize=" + meanResultSize
+            + '}';
+    }
+}
@@ -0,0 +1,34 @@
+package impl;
+
+import domain.Car;
+
+/**
+ * Cars of one access path, each at a unique long position and ordered by it - packed keys of an
+ * {@link AttributeIndex}, refs of an owner or brand bucket.
+ *
+ * Positions are what cursors resume from: a walk that restarts after the last position it saw never returns a
+ * car twice and never misses a car that stayed in the path, whatever was added or removed in between. An
+ * update that changes the attribute of an {@link AttributeIndex} moves the car to a new position, the cursors of
+ * {@link GarageImpl} skip such a car by the epoch of the move.
+ */
+interface OrderedCars {
+
+    /**
+     * Copies the positions in [from, to) into {@code out}, ascending, as many as fit.
+     *
+     * @return number of positions copied, 0 when there are no more
+     */
+    int positions(long from, long to, long[] out);
+
+    /**
+     * @return number of positions in [from, to), may be an estimate
+     */
+    long count(long from, long to);
+
+    /**
+     * @return position that splits [from, to) into two halves of about the same count, {@code from} if it cannot
+     */
+    long middle(long from, long to);
+
+    Car car(long position);
+}
@@ -0,0 +1,143 @@
+package impl;
+
+import java.util.Arrays;
+
+/**
+ * Registry of owners keyed by their primitive {@code long} id, one entry per owner.
+ *
+ * An {@link IdTable} maps the id to a dense index into parallel arrays of ids and entries, so a lookup is one
+ * probe sequence over primitive arrays with no key object: a car finds its owner from {@link
+ * domain.Car#getOwnerId()} without an {@code Owner.proxy}. Removal moves the last entry into the hole, the
+ * entries stay dense for iteration by index.
+ *
+ * A {@link #snapshot()} shares the arrays. Adds only fill the slots past the size of the snapshot; replace and
+ * remove copy the entries first, once per snapshot, and a snapshot ignores ids that map past its size.
+ *
+ * Not thread-safe.
+ *
+ * @param <E> entry of an owner, it holds the owner attributes
+ */
+final class OwnerRegistry<E> {
+
+    private final IdTable index;
+
+    private long[] ids;
+    private Object[] entries;
+    private int size;
+
+    // the arrays are shared with a snapshot
+    private boolean shared;
+
+    OwnerRegistry() {
+        index = new IdTable(16);
+        ids = new long[16];
+        entries = new Object[16];
+    }
+
+    private OwnerRegistry(OwnerRegistry<E> registry) {
+        index = registry.index.snapshot();
+        ids = registry.ids;
+        entries = registry.entries;
+        size = registry.size;
+    }
+
+    /**
+     * @return read-only registry of the current owners - O(1)
+     */
+    OwnerRegistry<E> snapshot() {
+        shared = true;
+        return new OwnerRegistry<>(this);
+    }
+
+    /**
+     * IdTable probe - O(1), no allocation
+     *
+     * @return entry of the owner, null if the owner is not registered
+     */
+    E get(long ownerId) {
+        int i = index.get(ownerId);
+        return i == IdTable.NO_REF || i >= size ? null : entry(i);
+    }
+
+    /**
+     * @return false if the owner is registered already, its entry is left unchanged
+     */
+    boolean add(long ownerId, E entry) {
+        if (index.putIfAbsent(ownerId, size) != IdTable.NO_REF) {
+            return false;
+        }
+
+        if (size == entries.length) {
+            ids = Arrays.copyOf(ids, size << 1);
+            entries = Arrays.copyOf(entries, size << 1);
+            shared = false;
+        }
+
+        ids[size] = ownerId;
+        entries[size] = entry;
+        size++;
+        return true;
+    }
+
+    /**
+     * @return false if the owner is not registered
+     */
+    boolean replace(long ownerId, E entry) {
+        int i = index.get(ownerId);
+        if (i == IdTable.NO_REF) {
+            return false;
+        }
+
+        unshare();
+        entries[i] = entry;
+        return true;
+    }
+
+    /**
+     * Swap-remove - O(1)
+     *
+     * @return false if the owner is not registered
+     */
+    boolean remove(long ownerId) {
+        int hole = index.get(ownerId);
+        if (hole == IdTable.NO_REF) {
+            return false;
+        }
+
+        unshare();
+        index.remove(ownerId);
+
+        int last = --size;
+        if (hole != last) {
+            ids[hole] = ids[last];
+            entries[hole] = entries[last];
+            index.replace(ids[hole], hole);
+        }
+        entries[last] = null;
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param i in [0, size), the order changes with removals
+     */
+    @SuppressWarnings("unchecked")
+    E entry(int i) {
+        return (E) entries[i];
+    }
+
+    private void unshare() {
+        if (shared) {
+            ids = ids.clone();
+            entries = entries.clone();
+            shared = false;
+        }
+    }
+}
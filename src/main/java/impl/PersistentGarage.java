@@ -0,0 +1,791 @@
+package impl;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import domain.Car;
+import domain.CarPage;
+import domain.CarQuery;
+import domain.Garage;
+import domain.GarageListener;
+import domain.Owner;
+import domain.Subscription;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * {@link GarageImpl} that survives restarts.
+ *
+ * Every mutation is appended to a {@link WriteAheadLog} before it is applied, fsyncs are batched by group
+ * commit. Every {@code snapshotEvery} mutations the whole garage is written to a snapshot, the log continues
+ * in a new segment and the older segments and snapshots are deleted. A failed automatic snapshot does not fail
+ * the mutation that triggered it, it is kept for {@link #checkpointFailure()} and tried again {@code snapshotEvery}
+ * mutations later. {@link #open} loads the newest snapshot
+ * and replays the log segments written after it, a torn record at the end of the last segment is cut off.
+ * Opening fails rather than start from a partial history: when snapshot files exist but none reads back whole,
+ * when a segment is missing, or when a segment other than the last is torn.
+ *
+ * Once an append or fsync fails the log is broken and every later mutation throws without changing the garage.
+ * The mutation that failed may still have reached the file, and then recovery applies it.
+ *
+ * Directory layout: {@code snapshot-N.snap} is the garage state before the records of {@code log-N.wal}.
+ *
+ * Not thread-safe, like {@link GarageImpl}.
+ */
+public final class PersistentGarage implements Garage, Closeable {
+
+    public static final int DEFAULT_SYNC_EVERY = 512;
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 10;
+    public static final int DEFAULT_SNAPSHOT_EVERY = 1 << 20;
+
+    static final int SNAPSHOT_MAGIC = 0x47534E50;
+
+    private static final String LOG_PREFIX = "log-";
+    private static final String LOG_SUFFIX = ".wal";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path directory;
+    private final int syncEvery;
+    private final long syncIntervalMillis;
+    private final int snapshotEvery;
+
+    private final GarageImpl garage = new GarageImpl();
+
+    private WriteAheadLog log;
+    private long segment;
+    private int mutations;
+    private IOException checkpointFailure;
+
+    private PersistentGarage(Path directory, int syncEvery, long syncIntervalMillis, int snapshotEvery) {
+        this.directory = directory;
+        this.syncEvery = syncEvery;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.snapshotEvery = snapshotEvery;
+    }
+
+    public static PersistentGarage open(Path directory) throws IOException {
+        return open(directory, DEFAULT_SYNC_EVERY, DEFAULT_SYNC_INTERVAL_MILLIS, DEFAULT_SNAPSHOT_EVERY);
+    }
+
+    /**
+     * Recovers the garage stored in the directory, or starts an empty one.
+     *
+     * @param syncEvery number of mutations forced to disk by one fsync
+     * @param syncIntervalMillis longest time a mutation waits for its fsync, 0 to sync by count only
+     * @param snapshotEvery number of mutations between automatic snapshots
+     */
+    public static PersistentGarage open(Path directory, int syncEvery, long syncIntervalMillis, int snapshotEvery)
+        throws IOException {
+        if (syncEvery <= 0) {
+            throw new IllegalArgumentException("syncEvery must be positive: " + syncEvery);
+        }
+        if (syncIntervalMillis < 0) {
+            throw new IllegalArgumentException("syncIntervalMillis must not be negative: " + syncIntervalMillis);
+        }
+        if (snapshotEvery <= 0) {
+            throw new IllegalArgumentException("snapshotEvery must be positive: " + snapshotEvery);
+        }
+
+        Files.createDirectories(directory);
+
+        PersistentGarage garage = new PersistentGarage(directory, syncEvery, syncIntervalMillis, snapshotEvery);
+        garage.recover();
+        return garage;
+    }
+
+    @Override
+    public Collection<Owner> allCarsUniqueOwners() {
+        return garage.allCarsUniqueOwners();
+    }
+
+    @Override
+    public Collection<Car> topThreeCarsByMaxVelocity() {
+        return garage.topThreeCarsByMaxVelocity();
+    }
+
+    @Override
+    public Collection<Car> topCarsByMaxVelocity(int k) {
+        return garage.topCarsByMaxVelocity(k);
+    }
+
+    @Override
+    public Collection<Car> topCarsByPower(int k) {
+        return garage.topCarsByPower(k);
+    }
+
+    @Override
+    public Collection<Car> allCarsOfBrand(String brand) {
+        return garage.allCarsOfBrand(brand);
+    }
+
+    @Override
+    public Collection<Car> carsWithPowerMoreThan(int power) {
+        return garage.carsWithPowerMoreThan(power);
+    }
+
+    @Override
+    public Collection<Car> carsWithPowerBetween(int from, int to) {
+        return garage.carsWithPowerBetween(from, to);
+    }
+
+    @Override
+    public Collection<Car> carsWithVelocityBetween(int from, int to) {
+        return garage.carsWithVelocityBetween(from, to);
+    }
+
+    @Override
+    public int countCarsWithPowerBetween(int from, int to) {
+        return garage.countCarsWithPowerBetween(from, to);
+    }
+
+    @Override
+    public int countCarsWithVelocityBetween(int from, int to) {
+        return garage.countCarsWithVelocityBetween(from, to);
+    }
+
+    @Override
+    public double powerPercentileRank(int power) {
+        return garage.powerPercentileRank(power);
+    }
+
+    @Override
+    public double velocityPercentileRank(int velocity) {
+        return garage.velocityPercentileRank(velocity);
+    }
+
+    @Override
+    public Car carAtPowerPercentile(double percentile) {
+        return garage.carAtPowerPercentile(percentile);
+    }
+
+    @Override
+    public Car carAtVelocityPercentile(double percentile) {
+        return garage.carAtVelocityPercentile(percentile);
+    }
+
+    @Override
+    public Car carOfBrandAtPowerPercentile(String brand, double percentile) {
+        return garage.carOfBrandAtPowerPercentile(brand, percentile);
+    }
+
+    @Override
+    public Car carOfBrandAtVelocityPercentile(String brand, double percentile) {
+        return garage.carOfBrandAtVelocityPercentile(brand, percentile);
+    }
+
+    @Override
+    public int[] powerHistogram(int[] bounds) {
+        return garage.powerHistogram(bounds);
+    }
+
+    @Override
+    public int[] velocityHistogram(int[] bounds) {
+        return garage.velocityHistogram(bounds);
+    }
+
+    @Override
+    public int[] powerHistogramOfBrand(String brand, int[] bounds) {
+        return garage.powerHistogramOfBrand(brand, bounds);
+    }
+
+    @Override
+    public int[] velocityHistogramOfBrand(String brand, int[] bounds) {
+        return garage.velocityHistogramOfBrand(brand, bounds);
+    }
+
+    @Override
+    public Collection<Car> allCarsOfOwner(Owner owner) {
+        return garage.allCarsOfOwner(owner);
+    }
+
+    @Override
+    public Collection<Car> carsOfBrandWithPowerBetween(String brand, int from, int to) {
+        return garage.carsOfBrandWithPowerBetween(brand, from, to);
+    }
+
+    @Override
+    public int countCarsOfBrandWithPowerBetween(String brand, int from, int to) {
+        return garage.countCarsOfBrandWithPowerBetween(brand, from, to);
+    }
+
+    @Override
+    public Collection<Car> carsOfOwnerAndBrand(Owner owner, String brand) {
+        return garage.carsOfOwnerAndBrand(owner, brand);
+    }
+
+    @Override
+    public int countCarsOfOwnerAndBrand(Owner owner, String brand) {
+        return garage.countCarsOfOwnerAndBrand(owner, brand);
+    }
+
+    @Override
+    public Collection<Car> carsWithPowerAndVelocityBetween(int fromPower, int toPower, int fromVelocity,
+        int toVelocity) {
+        return garage.carsWithPowerAndVelocityBetween(fromPower, toPower, fromVelocity, toVelocity);
+    }
+
+    @Override
+    public int countCarsWithPowerAndVelocityBetween(int fromPower, int toPower, int fromVelocity, int toVelocity) {
+        return garage.countCarsWithPowerAndVelocityBetween(fromPower, toPower, fromVelocity, toVelocity);
+    }
+
+    @Override
+    public Collection<Car> carsWithPowerAndVelocityAtLeast(int power, int velocity) {
+        return garage.carsWithPowerAndVelocityAtLeast(power, velocity);
+    }
+
+    @Override
+    public Collection<Car> skylineOfBrand(String brand) {
+        return garage.skylineOfBrand(brand);
+    }
+
+    @Override
+    public Collection<Car> query(CarQuery query) {
+        return garage.query(query);
+    }
+
+    @Override
+    public CarPage queryPage(CarQuery query, String pageToken, int pageSize) {
+        return garage.queryPage(query, pageToken, pageSize);
+    }
+
+    @Override
+    public Stream<Car> stream(CarQuery query) {
+        return garage.stream(query);
+    }
+
+    /**
+     * @return in-memory point-in-time view, nothing is written to the directory - see {@link #checkpoint()}
+     */
+    @Override
+    public Garage snapshot() {
+        return garage.snapshot();
+    }
+
+    /**
+     * Changes replayed from the files when the garage is opened are not published, only the later ones.
+     */
+    @Override
+    public Subscription subscribe(GarageListener listener, long afterSequence) {
+        return garage.subscribe(listener, afterSequence);
+    }
+
+    @Override
+    public int meanOwnersAgeOfCarBrand(String brand) {
+        return garage.meanOwnersAgeOfCarBrand(brand);
+    }
+
+    @Override
+    public int meanCarNumberForEachOwner() {
+        return garage.meanCarNumberForEachOwner();
+    }
+
+    /**
+     * @throws UncheckedIOException if the mutation could not be logged, the garage is left unchanged and the log
+     *     refuses every later mutation
+     */
+    @Override
+    public Car removeCar(int carId) {
+        if (Objects.isNull(garage.getCarTrack().get(carId))) {
+            return null;
+        }
+
+        try {
+            log.removeCar(carId);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        Car car = garage.removeCar(carId);
+        mutated(1);
+        return car;
+    }
+
+    /**
+     * @throws UncheckedIOException if the mutation could not be logged, the garage is left unchanged and the log
+     *     refuses every later mutation
+     */
+    @Override
+    public Car updateCar(Car car) {
+        final Car old = Objects.isNull(car) ? null : garage.getCarTrack().get(car.getCarId());
+        if (Objects.isNull(old)) {
+            return null;
+        }
+        if (old.getOwnerId() != car.getOwnerId()) {
+            throw new IllegalArgumentException("owner of car " + car.getCarId() + " changes with transferOwnership");
+        }
+
+        try {
+            log.updateCar(car);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        garage.updateCar(car);
+        mutated(1);
+        return old;
+    }
+
+    /**
+     * @throws UncheckedIOException if the mutation could not be logged, the garage is left unchanged and the log
+     *     refuses every later mutation
+     */
+    @Override
+    public Car transferOwnership(int carId, Owner owner) {
+        final Car old = Objects.isNull(owner) ? null : garage.getCarTrack().get(carId);
+        if (Objects.isNull(old) || GarageImpl.carOwnerId(owner) == old.getOwnerId()) {
+            return old;
+        }
+
+        try {
+            log.transferOwnership(carId, owner);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        garage.transferOwnership(carId, owner);
+        mutated(1);
+        return old;
+    }
+
+    /**
+     * @throws UncheckedIOException if the mutation could not be logged, the garage is left unchanged and the log
+     *     refuses every later mutation
+     */
+    @Override
+    public void addCar(Car car, Owner owner) {
+        if (Objects.isNull(car) || Objects.isNull(owner) || garage.getCarTrack().contains(car.getCarId())) {
+            return;
+        }
+
+        try {
+            log.addCar(car, owner);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        garage.addCar(car, owner);
+        mutated(1);
+    }
+
+    /**
+     * @throws UncheckedIOException if the mutation could not be logged, the garage is left unchanged and the log
+     *     refuses every later mutation
+     */
+    @Override
+    public boolean addOwner(Owner owner) {
+        if (Objects.isNull(owner) || Objects.nonNull(garage.allCarsOfOwner(owner))) {
+            return false;
+        }
+
+        try {
+            log.addOwner(owner);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        garage.addOwner(owner);
+        mutated(1);
+        return true;
+    }
+
+    /**
+     * @throws UncheckedIOException if the mutation could not be logged, the garage is left unchanged and the log
+     *     refuses every later mutation
+     */
+    @Override
+    public boolean updateOwner(Owner owner) {
+        if (Objects.isNull(owner) || Objects.isNull(garage.allCarsOfOwner(owner))) {
+            return false;
+        }
+
+        try {
+            log.updateOwner(owner);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        garage.updateOwner(owner);
+        mutated(1);
+        return true;
+    }
+
+    /**
+     * @throws UncheckedIOException if the batch could not be logged, cars logged before the failure are
+     *     applied on recovery
+     */
+    @Override
+    public void addCars(Collection<Car> cars, Function<Car, Owner> owners) {
+        // owners are resolved once, so the log and the garage see the same owner
+        List<Car> logged = new ArrayList<>(cars.size());
+        Map<Car, Owner> ownerOf = new IdentityHashMap<>(cars.size());
+
+        try {
+            for (Car car : cars) {
+                Owner owner = Objects.isNull(car) ? null : owners.apply(car);
+                if (Objects.isNull(owner) || garage.getCarTrack().contains(car.getCarId())) {
+                    continue;
+                }
+
+                log.addCar(car, owner);
+                logged.add(car);
+                ownerOf.put(car, owner);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        garage.addCars(logged, ownerOf::get);
+        mutated(logged.size());
+    }
+
+    /**
+     * @return memory counters of the in-memory garage - O(1)
+     */
+    public GarageFootprint footprint() {
+        return garage.footprint();
+    }
+
+    /**
+     * Forces every logged mutation to disk without waiting for the group commit.
+     */
+    public void sync() throws IOException {
+        log.sync();
+    }
+
+    /**
+     * Writes the whole garage to a new snapshot file, continues the log in a new segment and deletes the older
+     * segments and snapshot files - O(n). A segment that fails to close is replaced by the snapshot all the same,
+     * only when the snapshot fails too is the log left closed.
+     */
+    public void checkpoint() throws IOException {
+        final long next = segment + 1;
+
+        IOException closeFailure = null;
+        try {
+            log.close();
+        } catch (IOException e) {
+            // the old segment may miss its last records, the snapshot holds them and replaces it
+            closeFailure = e;
+        }
+
+        try {
+            writeSnapshot(next);
+        } catch (IOException e) {
+            if (Objects.nonNull(closeFailure)) {
+                // nothing may follow what the old segment lost, the closed log refuses every later mutation
+                e.addSuppressed(closeFailure);
+                throw e;
+            }
+            // keep appending to the old segment, the last snapshot and the log are still complete
+            log = new WriteAheadLog(logFile(segment), syncEvery, syncIntervalMillis);
+            throw e;
+        }
+
+        log = new WriteAheadLog(logFile(next), syncEvery, syncIntervalMillis);
+        segment = next;
+        mutations = 0;
+        checkpointFailure = null;
+
+        deleteBefore(next);
+    }
+
+    /**
+     * @return failure of the last automatic checkpoint, null if there was none or a checkpoint succeeded since
+     */
+    public IOException checkpointFailure() {
+        return checkpointFailure;
+    }
+
+    @Override
+    public void close() throws IOException {
+        log.close();
+    }
+
+    private void mutated(int count) {
+        mutations += count;
+        if (mutations >= snapshotEvery) {
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                // the mutation is logged and applied already, the log keeps growing until the next attempt
+                checkpointFailure = e;
+                mutations = 0;
+            }
+        }
+    }
+
+    /*
+        Recovery - the newest snapshot that reads back whole, then every segment from its number on
+     */
+
+    private void recover() throws IOException {
+        for (Path tmp : list(TMP_SUFFIX)) {
+            // snapshot interrupted before its atomic rename
+            Files.delete(tmp);
+        }
+
+        TreeSet<Long> snapshots = numbers(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        long base = -1;
+        for (long number : snapshots.descendingSet()) {
+            if (loadSnapshot(snapshotFile(number))) {
+                base = number;
+                break;
+            }
+        }
+        if (base < 0) {
+            if (!snapshots.isEmpty()) {
+                // the segments before the snapshots are deleted, an empty garage would lose them
+                throw new IOException("No snapshot in " + directory + " reads back whole");
+            }
+            base = 0;
+        }
+
+        TreeSet<Long> segments = numbers(LOG_PREFIX, LOG_SUFFIX);
+        segment = base;
+        long next = base;
+        for (long number : segments) {
+            if (number < base) {
+                // already in the snapshot, left behind by a crash before the cleanup
+                Files.delete(logFile(number));
+                continue;
+            }
+            if (number != next) {
+                throw new IOException("Log segment " + next + " is missing in " + directory);
+            }
+
+            mutations += replay(logFile(number), number == segments.last());
+            segment = number;
+            next = number + 1;
+        }
+
+        log = new WriteAheadLog(logFile(segment), syncEvery, syncIntervalMillis);
+    }
+
+    /**
+     * @return false if the snapshot is not whole, the garage is left unchanged
+     */
+    private boolean loadSnapshot(Path file) throws IOException {
+        // registry order of the owners is kept
+        Map<Long, Owner> owners = new LinkedHashMap<>();
+        List<Car> cars = new ArrayList<>();
+        List<Long> removed = new ArrayList<>();
+
+        try (BufferedInputStream in = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE)) {
+            RecordReader reader = new RecordReader(in);
+            if (!reader.header(SNAPSHOT_MAGIC)) {
+                return false;
+            }
+
+            long records = 0;
+            while (reader.next()) {
+                switch (reader.type()) {
+                    case RecordWriter.OWNER:
+                        owners.put(reader.owner().getOwnerId(), reader.owner());
+                        break;
+                    case RecordWriter.CAR:
+                        cars.add(reader.car());
+                        break;
+                    case RecordWriter.REMOVE_CAR:
+                        removed.add(reader.value());
+                        break;
+                    case RecordWriter.END:
+                        if (reader.value() != records) {
+                            return false;
+                        }
+
+                        //owners without cars are registered too, then one sorted bulk build of the indexes,
+                        //removed cars keep their ids registered
+                        owners.values().forEach(garage::addOwner);
+                        garage.addCars(cars, car -> owners.getOrDefault((long) car.getOwnerId(),
+                            Owner.proxy(car.getOwnerId())));
+                        for (long carId : removed) {
+                            garage.removeCar((int) carId);
+                        }
+                        return true;
+                    default:
+                        throw new IOException("Unexpected record " + reader.type() + " in " + file);
+                }
+                records++;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @param last true for the segment appended to when the process stopped, the only one that may be torn
+     * @return number of replayed mutations
+     */
+    private int replay(Path file, boolean last) throws IOException {
+        int replayed = 0;
+
+        try (BufferedInputStream in = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE)) {
+            RecordReader reader = new RecordReader(in);
+
+            if (reader.header(WriteAheadLog.MAGIC)) {
+                while (reader.next()) {
+                    switch (reader.type()) {
+                        case RecordWriter.ADD_CAR:
+                            garage.addCar(reader.car(), reader.owner());
+                            break;
+                        case RecordWriter.REMOVE_CAR:
+                            garage.removeCar((int) reader.value());
+                            break;
+                        case RecordWriter.ADD_OWNER:
+                            garage.addOwner(reader.owner());
+                            break;
+                        case RecordWriter.UPDATE_OWNER:
+                            garage.updateOwner(reader.owner());
+                            break;
+                        case RecordWriter.UPDATE_CAR:
+                            garage.updateCar(reader.car());
+                            break;
+                        case RecordWriter.TRANSFER_OWNERSHIP:
+                            garage.transferOwnership((int) reader.value(), reader.owner());
+                            break;
+                        default:
+                            throw new IOException("Unexpected record " + reader.type() + " in " + file);
+                    }
+                    replayed++;
+                }
+            }
+
+            if (reader.isTorn()) {
+                if (!last) {
+                    // later segments were written after it, cutting it off would leave a hole in the history
+                    throw new IOException("Torn record in " + file + " before the last log segment");
+                }
+
+                // the append in flight when the process died, it was never acknowledged as synced
+                try (FileChannel channel = FileChannel.open(file, WRITE)) {
+                    channel.truncate(reader.position());
+                    channel.force(true);
+                }
+            }
+        }
+
+        return replayed;
+    }
+
+    /*
+        Snapshot - owners, then every registered car in insertion order so refs and tie order come back the
+        same, then the removed ids, then END with the number of records
+     */
+
+    private void writeSnapshot(long number) throws IOException {
+        Path tmp = directory.resolve(SNAPSHOT_PREFIX + number + SNAPSHOT_SUFFIX + TMP_SUFFIX);
+
+        try (FileChannel channel = FileChannel.open(tmp, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            RecordWriter writer =
+                new RecordWriter(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+            writer.header(SNAPSHOT_MAGIC);
+
+            long records = 0;
+            for (Owner owner : garage.allCarsUniqueOwners()) {
+                writer.owner(owner);
+                records++;
+            }
+
+            CarRegistry registry = garage.getCarTrack();
+            for (int ref = 0; ref < registry.registered(); ref++) {
+                writer.car(registry.car(ref));
+                records++;
+            }
+            for (int ref = 0; ref < registry.registered(); ref++) {
+                if (!registry.isLive(ref)) {
+                    writer.removeCar(registry.car(ref).getCarId());
+                    records++;
+                }
+            }
+
+            writer.end(records);
+            writer.flush();
+            channel.force(true);
+        }
+
+        Files.move(tmp, snapshotFile(number), ATOMIC_MOVE);
+        syncDirectory();
+    }
+
+    private void deleteBefore(long number) throws IOException {
+        for (long old : numbers(LOG_PREFIX, LOG_SUFFIX).headSet(number, false)) {
+            Files.delete(logFile(old));
+        }
+        for (long old : numbers(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX).headSet(number, false)) {
+            Files.delete(snapshotFile(old));
+        }
+    }
+
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // directories can not be opened or forced on every platform, the rename is still atomic
+        }
+    }
+
+    private Path logFile(long number) {
+        return directory.resolve(LOG_PREFIX + number + LOG_SUFFIX);
+    }
+
+    private Path snapshotFile(long number) {
+        return directory.resolve(SNAPSHOT_PREFIX + number + SNAPSHOT_SUFFIX);
+    }
+
+    private TreeSet<Long> numbers(String prefix, String suffix) throws IOException {
+        TreeSet<Long> numbers = new TreeSet<>();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    numbers.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+                } catch (NumberFormatException e) {
+                    // not ours
+                }
+            }
+        }
+
+        return numbers;
+    }
+
+    private List<Path> list(String suffix) throws IOException {
+        List<Path> result = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + suffix)) {
+            files.forEach(result::add);
+        }
+        return result;
+    }
+
+    //for testing
+
+    GarageImpl getGarage() {
+        return garage;
+    }
+}
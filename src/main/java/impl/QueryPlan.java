@@ -0,0 +1,55 @@
+package impl;
+
+/**
+ * Access path {@link GarageImpl} picked for a {@link domain.CarQuery}: the one index walked, every other
+ * criterion is checked on the cars it yields.
+ */
+public final class QueryPlan {
+
+    public enum Access {
+
+        /**
+         * The owner bucket
+         */
+        OWNER,
+
+        /**
+         * The brand bucket
+         */
+        BRAND,
+
+        /**
+         * The power range of the power index, all cars when the query has no criterion
+         */
+        POWER_RANGE,
+
+        /**
+         * The velocity range of the velocity index
+         */
+        VELOCITY_RANGE
+    }
+
+    private final Access access;
+    private final int estimatedRows;
+
+    QueryPlan(Access access, int estimatedRows) {
+        this.access = access;
+        this.estimatedRows = estimatedRows;
+    }
+
+    public Access getAccess() {
+        return access;
+    }
+
+    /**
+     * @return number of cars the access path yields before filtering
+     */
+    public int getEstimatedRows() {
+        return estimatedRows;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryPlan{access=" + access + ", estimatedRows=" + estimatedRows + '}';
+    }
+}
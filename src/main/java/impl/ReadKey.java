@@ -0,0 +1,41 @@
+package impl;
+
+import java.util.Arrays;
+
+/**
+ * Method name and arguments of a {@link domain.Garage} read, equal reads give equal answers between two writes.
+ * Arguments are compared with their {@code equals}, owners by id, and arrays by their elements.
+ */
+final class ReadKey {
+
+    private final String method;
+    private final Object[] arguments;
+
+    ReadKey(String method, Object... arguments) {
+        this.method = method;
+        this.arguments = arguments;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        ReadKey key = (ReadKey) o;
+        return method.equals(key.method) && Arrays.deepEquals(arguments, key.arguments);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * method.hashCode() + Arrays.deepHashCode(arguments);
+    }
+
+    @Override
+    public String toString() {
+        return method + Arrays.deepToString(arguments);
+    }
+}
@@ -0,0 +1,205 @@
+package impl;
+
+import domain.Car;
+import domain.Owner;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Reads records written by {@link RecordWriter}.
+ *
+ * {@link #next()} stops at the end of the file and at the first record that is cut short, has a bad length or
+ * a checksum mismatch - what an interrupted append leaves behind. {@link #isTorn()} tells the two apart and
+ * {@link #position()} is the end of the last whole record, where the file can be truncated.
+ *
+ * Not thread-safe.
+ */
+final class RecordReader {
+
+    private final InputStream in;
+    private final CRC32 crc = new CRC32();
+
+    private final byte[] frame = new byte[RecordWriter.FRAME_SIZE];
+    private byte[] payload = new byte[256];
+
+    private long position;
+    private boolean torn;
+
+    // current record
+    private byte type;
+    private Car car;
+    private Owner owner;
+    private long value;
+
+    RecordReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * @return true if the header is whole and matches, false marks the reader torn
+     */
+    boolean header(int magic) throws IOException {
+        byte[] header = new byte[RecordWriter.HEADER_SIZE];
+        if (read(header, header.length) != header.length) {
+            torn = true;
+            return false;
+        }
+
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(header));
+        if (data.readInt() != magic || data.readByte() != RecordWriter.VERSION) {
+            throw new IOException("Unknown file format");
+        }
+
+        position = header.length;
+        return true;
+    }
+
+    /**
+     * @return true if a whole record was read, false at the end of the file or at a torn record
+     */
+    boolean next() throws IOException {
+        if (torn) {
+            return false;
+        }
+
+        int read = read(frame, frame.length);
+        if (read == 0) {
+            return false;
+        }
+        if (read < frame.length) {
+            return tear();
+        }
+
+        int length = (frame[0] & 0xFF) << 24 | (frame[1] & 0xFF) << 16 | (frame[2] & 0xFF) << 8 | frame[3] & 0xFF;
+        int checksum = (frame[4] & 0xFF) << 24 | (frame[5] & 0xFF) << 16 | (frame[6] & 0xFF) << 8 | frame[7] & 0xFF;
+        if (length <= 0 || length > RecordWriter.MAX_PAYLOAD) {
+            return tear();
+        }
+
+        if (payload.length < length) {
+            payload = new byte[Math.max(length, payload.length << 1)];
+        }
+        if (read(payload, length) < length) {
+            return tear();
+        }
+
+        crc.reset();
+        crc.update(payload, 0, length);
+        if ((int) crc.getValue() != checksum || !parse(length)) {
+            return tear();
+        }
+
+        position += frame.length + length;
+        return true;
+    }
+
+    byte type() {
+        return type;
+    }
+
+    /**
+     * @return car of an {@code ADD_CAR}, {@code UPDATE_CAR} or {@code CAR} record
+     */
+    Car car() {
+        return car;
+    }
+
+    /**
+     * @return owner of an {@code ADD_CAR}, {@code ADD_OWNER}, {@code UPDATE_OWNER}, {@code TRANSFER_OWNERSHIP} or
+     *     {@code OWNER} record
+     */
+    Owner owner() {
+        return owner;
+    }
+
+    /**
+     * @return car id of a {@code REMOVE_CAR} or {@code TRANSFER_OWNERSHIP} record or the record count of an
+     *     {@code END} record
+     */
+    long value() {
+        return value;
+    }
+
+    /**
+     * @return length of the header and the whole records read so far
+     */
+    long position() {
+        return position;
+    }
+
+    boolean isTorn() {
+        return torn;
+    }
+
+    private boolean parse(int length) {
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(payload, 0, length));
+        car = null;
+        owner = null;
+
+        try {
+            type = data.readByte();
+            switch (type) {
+                case RecordWriter.ADD_CAR:
+                    car = readCar(data);
+                    owner = readOwner(data);
+                    break;
+                case RecordWriter.OWNER:
+                case RecordWriter.ADD_OWNER:
+                case RecordWriter.UPDATE_OWNER:
+                    owner = readOwner(data);
+                    break;
+                case RecordWriter.CAR:
+                case RecordWriter.UPDATE_CAR:
+                    car = readCar(data);
+                    break;
+                case RecordWriter.TRANSFER_OWNERSHIP:
+                    value = data.readLong();
+                    owner = readOwner(data);
+                    break;
+                case RecordWriter.REMOVE_CAR:
+                case RecordWriter.END:
+                    value = data.readLong();
+                    break;
+                default:
+                    return false;
+            }
+            return data.available() == 0;
+        } catch (IOException e) {
+            // the checksum matched, a payload that does not parse was written by something else
+            return false;
+        }
+    }
+
+    private boolean tear() {
+        torn = true;
+        return false;
+    }
+
+    private int read(byte[] buffer, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = in.read(buffer, total, length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private static Car readCar(DataInputStream data) throws IOException {
+        return new Car(data.readLong(), readString(data), readString(data), data.readInt(), data.readInt(),
+            data.readInt());
+    }
+
+    private static Owner readOwner(DataInputStream data) throws IOException {
+        return new Owner(data.readLong(), readString(data), readString(data), data.readInt());
+    }
+
+    private static String readString(DataInputStream data) throws IOException {
+        return data.readBoolean() ? data.readUTF() : null;
+    }
+}
@@ -0,0 +1,171 @@
+package impl;
+
+import domain.Car;
+import domain.Owner;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Writes the binary records of the write-ahead log and of snapshots.
+ *
+ * A file starts with {@code [int magic][byte version]}, followed by records framed as
+ * {@code [int length][int crc32][payload]}. The payload starts with the record type, strings are written as a
+ * presence flag and modified UTF-8. A record is either read back whole with a matching checksum or treated as
+ * the torn end of the file, see {@link RecordReader}.
+ *
+ * Not thread-safe.
+ */
+final class RecordWriter implements Flushable {
+
+    static final byte VERSION = 1;
+
+    // write-ahead log records
+    static final byte ADD_CAR = 1;
+    static final byte REMOVE_CAR = 2;
+
+    // snapshot records, cars refer to owners by id, END carries the number of records before it
+    static final byte OWNER = 3;
+    static final byte CAR = 4;
+    static final byte END = 5;
+
+    // write-ahead log records of the owner registry
+    static final byte ADD_OWNER = 6;
+    static final byte UPDATE_OWNER = 7;
+
+    // write-ahead log records of in-place car updates
+    static final byte UPDATE_CAR = 8;
+    static final byte TRANSFER_OWNERSHIP = 9;
+
+    static final int HEADER_SIZE = 5;
+    static final int FRAME_SIZE = 8;
+    static final int MAX_PAYLOAD = 1 << 20;
+
+    private final DataOutputStream out;
+
+    // payload of the record being written, reused across records
+    private final Payload payload = new Payload();
+    private final DataOutputStream data = new DataOutputStream(payload);
+    private final CRC32 crc = new CRC32();
+
+    RecordWriter(OutputStream out) {
+        this.out = new DataOutputStream(out);
+    }
+
+    void header(int magic) throws IOException {
+        out.writeInt(magic);
+        out.writeByte(VERSION);
+    }
+
+    void addCar(Car car, Owner owner) throws IOException {
+        begin(ADD_CAR);
+        writeCar(car);
+        writeOwner(owner);
+        frame();
+    }
+
+    void removeCar(long carId) throws IOException {
+        begin(REMOVE_CAR);
+        data.writeLong(carId);
+        frame();
+    }
+
+    void addOwner(Owner owner) throws IOException {
+        begin(ADD_OWNER);
+        writeOwner(owner);
+        frame();
+    }
+
+    void updateOwner(Owner owner) throws IOException {
+        begin(UPDATE_OWNER);
+        writeOwner(owner);
+        frame();
+    }
+
+    void updateCar(Car car) throws IOException {
+        begin(UPDATE_CAR);
+        writeCar(car);
+        frame();
+    }
+
+    void transferOwnership(long carId, Owner owner) throws IOException {
+        begin(TRANSFER_OWNERSHIP);
+        data.writeLong(carId);
+        writeOwner(owner);
+        frame();
+    }
+
+    void owner(Owner owner) throws IOException {
+        begin(OWNER);
+        writeOwner(owner);
+        frame();
+    }
+
+    void car(Car car) throws IOException {
+        begin(CAR);
+        writeCar(car);
+        frame();
+    }
+
+    void end(long records) throws IOException {
+        begin(END);
+        data.writeLong(records);
+        frame();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    private void begin(byte type) throws IOException {
+        payload.reset();
+        data.writeByte(type);
+    }
+
+    private void frame() throws IOException {
+        crc.reset();
+        crc.update(payload.buffer(), 0, payload.size());
+
+        out.writeInt(payload.size());
+        out.writeInt((int) crc.getValue());
+        out.write(payload.buffer(), 0, payload.size());
+    }
+
+    private void writeCar(Car car) throws IOException {
+        data.writeLong(car.getCarId());
+        writeString(car.getBrand());
+        writeString(car.getModelName());
+        data.writeInt(car.getMaxVelocity());
+        data.writeInt(car.getPower());
+        data.writeInt(car.getOwnerId());
+    }
+
+    private void writeOwner(Owner owner) throws IOException {
+        data.writeLong(owner.getOwnerId());
+        writeString(owner.getName());
+        writeString(owner.getLastName());
+        data.writeInt(owner.getAge());
+    }
+
+    private void writeString(String value) throws IOException {
+        data.writeBoolean(value != null);
+        if (value != null) {
+            data.writeUTF(value);
+        }
+    }
+
+    private static final class Payload extends ByteArrayOutputStream {
+
+        private Payload() {
+            super(256);
+        }
+
+        private byte[] buffer() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,506 @@
+package impl;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed set of non-negative int refs, the posting list of one owner or brand.
+ *
+ * Roaring layout: refs are split by their high 16 bits into containers kept sorted by that key. A container
+ * with few refs is a sorted {@code char[]} of the low 16 bits (2 bytes per ref), a dense one is a 65536-bit
+ * bitset (8 KB whatever its cardinality). Intersections work container by container: two bitsets are ANDed
+ * word by word with a popcount, otherwise the smaller side is probed against the other.
+ *
+ * {@link #copy()} shares the containers: each container is owned by one bitmap and the other copies clone it
+ * before their first write to it.
+ *
+ * Not thread-safe.
+ */
+final class RefBitmap {
+
+    // an array container above this many values becomes a bitset, a bitset below BITSET_MIN becomes an array
+    private static final int ARRAY_MAX = 4096;
+    private static final int BITSET_MIN = 2048;
+
+    // containers created with this token are owned by this bitmap, the others are shared with copies
+    private Object edit = new Object();
+
+    private char[] keys = new char[1];
+    private Container[] containers = new Container[1];
+    private int size;
+    private int cardinality;
+
+    /**
+     * @return false if the ref was already present
+     */
+    boolean add(int ref) {
+        char key = (char) (ref >>> 16);
+        int i = find(key);
+        if (i < 0) {
+            i = -i - 1;
+            insert(i, key, new ArrayContainer(edit));
+        } else if (containers[i].contains((char) ref)) {
+            return false;
+        }
+
+        containers[i] = writable(i).add((char) ref);
+        cardinality++;
+        return true;
+    }
+
+    /**
+     * @return false if the ref was not present
+     */
+    boolean remove(int ref) {
+        int i = find((char) (ref >>> 16));
+        if (i < 0 || !containers[i].contains((char) ref)) {
+            return false;
+        }
+
+        containers[i] = writable(i).remove((char) ref);
+        cardinality--;
+        if (containers[i].cardinality == 0) {
+            delete(i);
+        }
+        return true;
+    }
+
+    boolean contains(int ref) {
+        int i = find((char) (ref >>> 16));
+        return i >= 0 && containers[i].contains((char) ref);
+    }
+
+    int cardinality() {
+        return cardinality;
+    }
+
+    boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    /**
+     * @return bitmap with the same refs, containers are shared until either side writes to them - O(containers)
+     */
+    RefBitmap copy() {
+        RefBitmap copy = new RefBitmap();
+        copy.keys = keys.clone();
+        copy.containers = containers.clone();
+        copy.size = size;
+        copy.cardinality = cardinality;
+
+        edit = new Object();
+        return copy;
+    }
+
+    /**
+     * @return size of the intersection without building it
+     */
+    int andCardinality(RefBitmap other) {
+        int count = 0;
+        for (int i = 0, j = 0; i < size && j < other.size; ) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                count += containers[i++].andCardinality(other.containers[j++]);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Calls the action with every ref of the intersection, ascending.
+     */
+    void forEachAnd(RefBitmap other, IntConsumer action) {
+        for (int i = 0, j = 0; i < size && j < other.size; ) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Container small = containers[i];
+                Container large = other.containers[j];
+                if (small.cardinality > large.cardinality) {
+                    Container swap = small;
+                    small = large;
+                    large = swap;
+                }
+
+                int high = keys[i] << 16;
+                ContainerIterator values = small.iterator();
+                while (values.hasNext()) {
+                    char low = values.next();
+                    if (large.contains(low)) {
+                        action.accept(high | low);
+                    }
+                }
+                i++;
+                j++;
+            }
+        }
+    }
+
+    /**
+     * @return refs in ascending order
+     */
+    PrimitiveIterator.OfInt iterator() {
+        return iterator(0);
+    }
+
+    /**
+     * @return refs greater or equal to {@code from} in ascending order
+     */
+    PrimitiveIterator.OfInt iterator(int from) {
+        int first = find((char) (from >>> 16));
+        final int start = first < 0 ? -first - 1 : first;
+        final ContainerIterator head = first < 0 ? ArrayContainer.EMPTY_ITERATOR
+            : containers[first].iterator((char) from);
+
+        return new PrimitiveIterator.OfInt() {
+
+            private int container = first < 0 ? start - 1 : start;
+            private ContainerIterator values = head;
+
+            @Override
+            public boolean hasNext() {
+                while (!values.hasNext()) {
+                    if (++container >= size) {
+                        return false;
+                    }
+                    values = containers[container].iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public int nextInt() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return keys[container] << 16 | values.next();
+            }
+        };
+    }
+
+    /**
+     * @return bytes held by the containers, for memory counters
+     */
+    long sizeInBytes() {
+        long bytes = (long) keys.length * (Character.BYTES + Integer.BYTES);
+        for (int i = 0; i < size; i++) {
+            bytes += containers[i].sizeInBytes();
+        }
+        return bytes;
+    }
+
+    private Container writable(int i) {
+        Container container = containers[i];
+        return container.owner == edit ? container : container.copy(edit);
+    }
+
+    private int find(char key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void insert(int i, char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size << 1);
+            containers = Arrays.copyOf(containers, size << 1);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        keys[i] = key;
+        containers[i] = container;
+        size++;
+    }
+
+    private void delete(int i) {
+        System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+        System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+        containers[--size] = null;
+    }
+
+    /*
+        Containers return themselves from add/remove, or their replacement when they switch representation
+     */
+
+    private abstract static class Container {
+
+        // token of the bitmap that may change this container in place
+        final Object owner;
+
+        int cardinality;
+
+        Container(Object owner) {
+            this.owner = owner;
+        }
+
+        abstract Container copy(Object owner);
+
+        abstract Container add(char value);
+
+        abstract Container remove(char value);
+
+        abstract boolean contains(char value);
+
+        abstract int andCardinality(Container other);
+
+        abstract ContainerIterator iterator();
+
+        /**
+         * @return values greater or equal to {@code from}
+         */
+        abstract ContainerIterator iterator(char from);
+
+        abstract long sizeInBytes();
+    }
+
+    private interface ContainerIterator {
+
+        boolean hasNext();
+
+        char next();
+    }
+
+    private static final class ArrayContainer extends Container {
+
+        private static final ContainerIterator EMPTY_ITERATOR = new ArrayContainer(null).iterator();
+
+        private char[] values = new char[4];
+
+        ArrayContainer(Object owner) {
+            super(owner);
+        }
+
+        @Override
+        Container copy(Object owner) {
+            ArrayContainer copy = new ArrayContainer(owner);
+            copy.values = Arrays.copyOf(values, cardinality);
+            copy.cardinality = cardinality;
+            return copy;
+        }
+
+        @Override
+        Container add(char value) {
+            int i = Arrays.binarySearch(values, 0, cardinality, value);
+            if (i >= 0) {
+                return this;
+            }
+
+            if (cardinality == ARRAY_MAX) {
+                return toBitset().add(value);
+            }
+
+            i = -i - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(cardinality << 1, ARRAY_MAX));
+            }
+            System.arraycopy(values, i, values, i + 1, cardinality - i);
+            values[i] = value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            int i = Arrays.binarySearch(values, 0, cardinality, value);
+            if (i >= 0) {
+                System.arraycopy(values, i + 1, values, i, cardinality - i - 1);
+                cardinality--;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        int andCardinality(Container other) {
+            if (other instanceof BitsetContainer) {
+                return other.andCardinality(this);
+            }
+
+            // merge of two sorted arrays
+            ArrayContainer array = (ArrayContainer) other;
+            int count = 0;
+            for (int i = 0, j = 0; i < cardinality && j < array.cardinality; ) {
+                if (values[i] < array.values[j]) {
+                    i++;
+                } else if (values[i] > array.values[j]) {
+                    j++;
+                } else {
+                    count++;
+                    i++;
+                    j++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        ContainerIterator iterator() {
+            return iterator((char) 0);
+        }
+
+        @Override
+        ContainerIterator iterator(char from) {
+            int first = Arrays.binarySearch(values, 0, cardinality, from);
+            final int start = first < 0 ? -first - 1 : first;
+
+            return new ContainerIterator() {
+
+                private int next = start;
+
+                @Override
+                public boolean hasNext() {
+                    return next < cardinality;
+                }
+
+                @Override
+                public char next() {
+                    return values[next++];
+                }
+            };
+        }
+
+        @Override
+        long sizeInBytes() {
+            return (long) values.length * Character.BYTES;
+        }
+
+        private BitsetContainer toBitset() {
+            BitsetContainer bitset = new BitsetContainer(owner);
+            for (int i = 0; i < cardinality; i++) {
+                bitset.add(values[i]);
+            }
+            return bitset;
+        }
+    }
+
+    private static final class BitsetContainer extends Container {
+
+        private final long[] words;
+
+        BitsetContainer(Object owner) {
+            this(owner, new long[1 << 10]);
+        }
+
+        private BitsetContainer(Object owner, long[] words) {
+            super(owner);
+            this.words = words;
+        }
+
+        @Override
+        Container copy(Object owner) {
+            BitsetContainer copy = new BitsetContainer(owner, words.clone());
+            copy.cardinality = cardinality;
+            return copy;
+        }
+
+        @Override
+        Container add(char value) {
+            long bit = 1L << value;
+            int word = value >>> 6;
+            if ((words[word] & bit) == 0) {
+                words[word] |= bit;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            long bit = 1L << value;
+            int word = value >>> 6;
+            if ((words[word] & bit) != 0) {
+                words[word] &= ~bit;
+                cardinality--;
+                if (cardinality < BITSET_MIN) {
+                    return toArray();
+                }
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & 1L << value) != 0;
+        }
+
+        @Override
+        int andCardinality(Container other) {
+            if (other instanceof BitsetContainer) {
+                long[] otherWords = ((BitsetContainer) other).words;
+                int count = 0;
+                for (int i = 0; i < words.length; i++) {
+                    count += Long.bitCount(words[i] & otherWords[i]);
+                }
+                return count;
+            }
+
+            int count = 0;
+            ContainerIterator values = other.iterator();
+            while (values.hasNext()) {
+                if (contains(values.next())) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        ContainerIterator iterator() {
+            return iterator((char) 0);
+        }
+
+        @Override
+        ContainerIterator iterator(char from) {
+            return new ContainerIterator() {
+
+                private int word = from >>> 6;
+                private long bits = words[word] & -1L << from;
+
+                @Override
+                public boolean hasNext() {
+                    while (bits == 0) {
+                        // stays past the last word once exhausted, so hasNext can be asked again
+                        if (word + 1 >= words.length) {
+                            word = words.length;
+                            return false;
+                        }
+                        bits = words[++word];
+                    }
+                    return true;
+                }
+
+                @Override
+                public char next() {
+                    hasNext();
+                    char value = (char) (word << 6 | Long.numberOfTrailingZeros(bits));
+                    bits &= bits - 1;
+                    return value;
+                }
+            };
+        }
+
+        @Override
+        long sizeInBytes() {
+            return (long) words.length * Long.BYTES;
+        }
+
+        private ArrayContainer toArray() {
+            ArrayContainer array = new ArrayContainer(owner);
+            array.values = new char[cardinality];
+            ContainerIterator values = iterator();
+            while (values.hasNext()) {
+                array.values[array.cardinality++] = values.next();
+            }
+            return array;
+        }
+    }
+}
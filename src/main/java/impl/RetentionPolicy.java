@@ -0,0 +1,101 @@
+package impl;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * How long {@link GarageImpl} remembers removed cars.
+ *
+ * A removed car leaves a tombstone that rejects re-adding its id. {@link #forever()} is the original
+ * behaviour: the removed car, its ref and its id stay registered for the life of the garage, and empty owner
+ * and brand buckets are kept. Every other policy drops the removed car at once, keeps only its id as a
+ * tombstone until the policy lets it go, reuses its ref for the next car, and deletes owner and brand buckets
+ * that become empty. Expired tombstones are compacted a few at a time on every write, never in one pass.
+ *
+ * With ref reuse, cars with equal power or velocity are no longer ordered by insertion among themselves.
+ */
+public final class RetentionPolicy {
+
+    private static final RetentionPolicy FOREVER =
+        new RetentionPolicy(true, Integer.MAX_VALUE, Long.MAX_VALUE, Clock.systemUTC());
+
+    private final boolean forever;
+    private final int maxTombstones;
+    private final long ttlMillis;
+    private final Clock clock;
+
+    private RetentionPolicy(boolean forever, int maxTombstones, long ttlMillis, Clock clock) {
+        this.forever = forever;
+        this.maxTombstones = maxTombstones;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * Removed ids are never accepted again, removed cars stay in memory - the default
+     */
+    public static RetentionPolicy forever() {
+        return FOREVER;
+    }
+
+    /**
+     * No tombstones, a removed id can be added again right away
+     */
+    public static RetentionPolicy none() {
+        return keepLast(0);
+    }
+
+    /**
+     * Tombstones of the last {@code count} removed cars
+     */
+    public static RetentionPolicy keepLast(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count must not be negative: " + count);
+        }
+        return new RetentionPolicy(false, count, Long.MAX_VALUE, Clock.systemUTC());
+    }
+
+    /**
+     * Tombstones of the cars removed within {@code ttl}
+     */
+    public static RetentionPolicy keepFor(Duration ttl) {
+        return keepFor(ttl, Clock.systemUTC());
+    }
+
+    public static RetentionPolicy keepFor(Duration ttl, Clock clock) {
+        if (ttl.isNegative()) {
+            throw new IllegalArgumentException("ttl must not be negative: " + ttl);
+        }
+        return new RetentionPolicy(false, Integer.MAX_VALUE, ttl.toMillis(), Objects.requireNonNull(clock));
+    }
+
+    boolean isForever() {
+        return forever;
+    }
+
+    int maxTombstones() {
+        return maxTombstones;
+    }
+
+    boolean hasTtl() {
+        return ttlMillis != Long.MAX_VALUE;
+    }
+
+    long ttlMillis() {
+        return ttlMillis;
+    }
+
+    long now() {
+        return clock.millis();
+    }
+
+    @Override
+    public String toString() {
+        if (forever) {
+            return "RetentionPolicy[forever]";
+        }
+        return hasTtl() ? "RetentionPolicy[keepFor " + Duration.ofMillis(ttlMillis) + "]"
+            : "RetentionPolicy[keepLast " + maxTombstones + "]";
+    }
+}
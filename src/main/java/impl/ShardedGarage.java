@@ -0,0 +1,647 @@
+package impl;
+
+import domain.Car;
+import domain.CarQuery;
+import domain.Garage;
+import domain.Owner;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Thread-safe {@link Garage} partitioned by car id over several {@link GarageImpl} shards.
+ *
+ * A write locks the one shard its car id hashes to, so writes to different shards run on different cores.
+ * Queries that span the shards fan out on a {@link ForkJoinPool}, one task per shard, and merge what the shards
+ * return: a k-way merge for ordered results, sums for counts and means, a search over the attribute values for
+ * percentiles. A shard serves one reader or writer at a time (its leaderboards refill on read), so every task
+ * copies its result out of the shard before the lock is released.
+ *
+ * The cars of one owner or brand may be spread over every shard. The owners are registered once across shards,
+ * by id, and every shard gets the registered attributes with the first car of the owner it holds.
+ * The retention policy applies per shard. Like {@link ConcurrentGarage}, each shard is read at its own point in
+ * time and a query has no atomic cross-shard view, except for the percentiles and {@link #snapshot()}.
+ */
+public class ShardedGarage implements Garage {
+
+    private static final Comparator<Car> BY_VELOCITY = Comparator.comparingInt(Car::getMaxVelocity);
+
+    private static final Comparator<Car> BY_POWER = Comparator.comparingInt(Car::getPower);
+
+    private final GarageImpl[] shards;
+
+    // registered attributes and number of cars of every owner id over all shards, updated under the lock of the
+    // written shard, or of every shard for new attributes
+    private final Map<Long, Pair<Owner, Integer>> ownerCars;
+
+    // owners without cars are dropped, as the shards drop their empty buckets
+    private final boolean pruneEmptyOwners;
+
+    private final ForkJoinPool pool;
+
+    // a snapshot rejects writes, its shards are read without locks
+    private final boolean readOnly;
+
+    /**
+     * One shard per available processor
+     */
+    public ShardedGarage() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public ShardedGarage(int shardCount) {
+        this(shardCount, RetentionPolicy.forever(), IndexMode.HASH_SETS, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param shardCount number of GarageImpl partitions, about the number of concurrently writing threads
+     * @param retention how long removed car ids are rejected by each shard, see {@link RetentionPolicy}
+     * @param indexMode how each shard keeps the cars of an owner and a brand, see {@link IndexMode}
+     * @param pool runs the shard tasks of the queries
+     */
+    public ShardedGarage(int shardCount, RetentionPolicy retention, IndexMode indexMode, ForkJoinPool pool) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("shardCount must be positive: " + shardCount);
+        }
+
+        shards = new GarageImpl[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new GarageImpl(retention, indexMode);
+        }
+        ownerCars = new ConcurrentHashMap<>();
+        pruneEmptyOwners = !retention.isForever();
+        this.pool = Objects.requireNonNull(pool);
+        readOnly = false;
+    }
+
+    private ShardedGarage(ShardedGarage garage) {
+        shards = new GarageImpl[garage.shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = garage.shards[i].snapshot();
+        }
+        ownerCars = new HashMap<>(garage.ownerCars);
+        pruneEmptyOwners = garage.pruneEmptyOwners;
+        pool = garage.pool;
+        readOnly = true;
+    }
+
+    /**
+     * Waits for the writes in progress, then snapshots every shard at once - O(shards + owners), the owner
+     * counts are copied. The snapshot reads its shards without locking them.
+     */
+    @Override
+    public ShardedGarage snapshot() {
+        if (readOnly) {
+            return this;
+        }
+        return inAllShards(0, () -> new ShardedGarage(this));
+    }
+
+    @Override
+    public Collection<Owner> allCarsUniqueOwners() {
+        final List<Owner> owners = new ArrayList<>(ownerCars.size());
+        for (Pair<Owner, Integer> entry : ownerCars.values()) {
+            owners.add(entry.getKey());
+        }
+        return owners;
+    }
+
+    @Override
+    public Collection<Car> topThreeCarsByMaxVelocity() {
+        return topCarsByMaxVelocity(3);
+    }
+
+    @Override
+    public Collection<Car> topCarsByMaxVelocity(int k) {
+        checkK(k);
+        //k leaders of every shard, k-way merge - O(shards * k + k log shards)
+        return merge(scatter(shard -> copy(shard.topCarsByMaxVelocity(k))), BY_VELOCITY.reversed(), k);
+    }
+
+    @Override
+    public Collection<Car> topCarsByPower(int k) {
+        checkK(k);
+        return merge(scatter(shard -> copy(shard.topCarsByPower(k))), BY_POWER.reversed(), k);
+    }
+
+    @Override
+    public Collection<Car> allCarsOfBrand(String brand) {
+        return concat(scatter(shard -> copy(shard.allCarsOfBrand(brand))));
+    }
+
+    @Override
+    public Collection<Car> carsWithPowerMoreThan(int power) {
+        //ranges are walked in parallel, then merged in power order - O(n log shards)
+        return merge(scatter(shard -> copy(shard.carsWithPowerMoreThan(power))), BY_POWER, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Collection<Car> carsWithPowerBetween(int from, int to) {
+        return merge(scatter(shard -> copy(shard.carsWithPowerBetween(from, to))), BY_POWER, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Collection<Car> carsWithVelocityBetween(int from, int to) {
+        return merge(scatter(shard -> copy(shard.carsWithVelocityBetween(from, to))), BY_VELOCITY,
+            Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int countCarsWithPowerBetween(int from, int to) {
+        //B+tree rank in every shard - O(shards * logN)
+        return sum(scatter(shard -> shard.countCarsWithPowerBetween(from, to)));
+    }
+
+    @Override
+    public int countCarsWithVelocityBetween(int from, int to) {
+        return sum(scatter(shard -> shard.countCarsWithVelocityBetween(from, to)));
+    }
+
+    @Override
+    public double powerPercentileRank(int power) {
+        return percentileRank(GarageImpl::getCarsByPower, power);
+    }
+
+    @Override
+    public double velocityPercentileRank(int velocity) {
+        return percentileRank(GarageImpl::getCarsByVelocity, velocity);
+    }
+
+    @Override
+    public Car carAtPowerPercentile(double percentile) {
+        return atPercentile(GarageImpl::getCarsByPower, percentile);
+    }
+
+    @Override
+    public Car carAtVelocityPercentile(double percentile) {
+        return atPercentile(GarageImpl::getCarsByVelocity, percentile);
+    }
+
+    @Override
+    public Car carOfBrandAtPowerPercentile(String brand, double percentile) {
+        return atPercentile(shard -> shard.getBrandPower(brand), percentile);
+    }
+
+    @Override
+    public Car carOfBrandAtVelocityPercentile(String brand, double percentile) {
+        return atPercentile(shard -> shard.getBrandVelocity(brand), percentile);
+    }
+
+    @Override
+    public int[] powerHistogram(int[] bounds) {
+        //B+tree rank per bound in every shard - O(shards * bounds * logN)
+        return sumHistograms(scatter(shard -> shard.powerHistogram(bounds)));
+    }
+
+    @Override
+    public int[] velocityHistogram(int[] bounds) {
+        return sumHistograms(scatter(shard -> shard.velocityHistogram(bounds)));
+    }
+
+    @Override
+    public int[] powerHistogramOfBrand(String brand, int[] bounds) {
+        return sumHistograms(scatter(shard -> shard.powerHistogramOfBrand(brand, bounds)));
+    }
+
+    @Override
+    public int[] velocityHistogramOfBrand(String brand, int[] bounds) {
+        return sumHistograms(scatter(shard -> shard.velocityHistogramOfBrand(brand, bounds)));
+    }
+
+    @Override
+    public Collection<Car> allCarsOfOwner(Owner owner) {
+        List<Car> cars = concat(scatter(shard -> copy(shard.allCarsOfOwner(owner))));
+        //an owner registered by addOwner has no bucket in any shard until its first car
+        return Objects.isNull(cars) && Objects.nonNull(registered(owner)) ? new ArrayList<>() : cars;
+    }
+
+    @Override
+    public Collection<Car> carsOfBrandWithPowerBetween(String brand, int from, int to) {
+        return concat(scatter(shard -> shard.carsOfBrandWithPowerBetween(brand, from, to)));
+    }
+
+    @Override
+    public int countCarsOfBrandWithPowerBetween(String brand, int from, int to) {
+        return sum(scatter(shard -> shard.countCarsOfBrandWithPowerBetween(brand, from, to)));
+    }
+
+    @Override
+    public Collection<Car> carsOfOwnerAndBrand(Owner owner, String brand) {
+        return concat(scatter(shard -> shard.carsOfOwnerAndBrand(owner, brand)));
+    }
+
+    @Override
+    public int countCarsOfOwnerAndBrand(Owner owner, String brand) {
+        return sum(scatter(shard -> shard.countCarsOfOwnerAndBrand(owner, brand)));
+    }
+
+    @Override
+    public Collection<Car> carsWithPowerAndVelocityBetween(int fromPower, int toPower, int fromVelocity,
+        int toVelocity) {
+        return concat(scatter(shard -> shard.carsWithPowerAndVelocityBetween(fromPower, toPower, fromVelocity,
+            toVelocity)));
+    }
+
+    @Override
+    public int countCarsWithPowerAndVelocityBetween(int fromPower, int toPower, int fromVelocity, int toVelocity) {
+        return sum(scatter(shard -> shard.countCarsWithPowerAndVelocityBetween(fromPower, toPower, fromVelocity,
+            toVelocity)));
+    }
+
+    @Override
+    public Collection<Car> skylineOfBrand(String brand) {
+        //a car of the skyline is on the skyline of its shard, so only the shard skylines are compared
+        final List<Car> candidates = concat(scatter(shard -> shard.skylineOfBrand(brand)));
+        final KdTree points = new KdTree();
+        for (int i = 0; i < candidates.size(); i++) {
+            points.add(candidates.get(i).getPower(), candidates.get(i).getMaxVelocity(), i);
+        }
+        return GarageImpl.skyline(points, candidates::get);
+    }
+
+    @Override
+    public Collection<Car> query(CarQuery query) {
+        //every shard plans on its own statistics and stops at the limit
+        List<Car> cars = concat(scatter(shard -> shard.query(query)));
+        return cars.size() <= query.getLimit() ? cars : new ArrayList<>(cars.subList(0, query.getLimit()));
+    }
+
+    @Override
+    public int meanOwnersAgeOfCarBrand(String brand) {
+        //age sum and car count of every shard - O(shards)
+        long sum = 0;
+        long count = 0;
+        for (long[] aggregate : scatter(shard -> new long[] {
+            shard.ownersAgeSumOfCarBrand(brand), shard.countCarsOfBrand(brand)})) {
+            sum += aggregate[0];
+            count += aggregate[1];
+        }
+
+        return count == 0 ? 0 : (int) (sum / count);
+    }
+
+    @Override
+    public int meanCarNumberForEachOwner() {
+        int owners = ownerCars.size();
+        return owners == 0 ? 0 : sum(scatter(GarageImpl::size)) / owners;
+    }
+
+    @Override
+    public Car removeCar(int carId) {
+        checkWritable();
+
+        final GarageImpl shard = shardOf(carId);
+        synchronized (shard) {
+            Car car = shard.removeCar(carId);
+            if (Objects.nonNull(car)) {
+                //ConcurrentHashMap compute is atomic per key, owners may be written from several shards
+                ownerCars.computeIfPresent((long) car.getOwnerId(), (id, entry) -> uncount(entry));
+            }
+            return car;
+        }
+    }
+
+    @Override
+    public Car updateCar(Car car) {
+        checkWritable();
+        if (Objects.isNull(car)) {
+            return null;
+        }
+
+        final GarageImpl shard = shardOf(car.getCarId());
+        synchronized (shard) {
+            return shard.updateCar(car);
+        }
+    }
+
+    @Override
+    public Car transferOwnership(int carId, Owner owner) {
+        checkWritable();
+        if (Objects.isNull(owner)) {
+            return null;
+        }
+
+        final GarageImpl shard = shardOf(carId);
+        synchronized (shard) {
+            Owner attributes = registered(owner);
+            Car old = shard.transferOwnership(carId, Objects.nonNull(attributes) ? attributes : owner);
+            if (Objects.nonNull(old) && old.getOwnerId() != owner.getOwnerId()) {
+                countCar(owner);
+                ownerCars.computeIfPresent((long) old.getOwnerId(), (id, entry) -> uncount(entry));
+            }
+            return old;
+        }
+    }
+
+    @Override
+    public void addCar(Car car, Owner owner) {
+        add(car, owner);
+    }
+
+    /**
+     * @return false if the car was rejected: no car or owner, or a live or retained id
+     */
+    boolean add(Car car, Owner owner) {
+        checkWritable();
+        if (Objects.isNull(car) || Objects.isNull(owner)) {
+            return false;
+        }
+
+        final GarageImpl shard = shardOf(car.getCarId());
+        synchronized (shard) {
+            Owner attributes = registered(owner);
+            if (!shard.add(car, Objects.nonNull(attributes) ? attributes : owner)) {
+                return false;
+            }
+            countCar(owner);
+            return true;
+        }
+    }
+
+    /**
+     * The batch is split by shard and every shard bulk loads its part in parallel, so {@code owners} is called
+     * from several threads.
+     */
+    @Override
+    public void addCars(Collection<Car> cars, Function<Car, Owner> owners) {
+        checkWritable();
+
+        final Map<GarageImpl, List<Car>> batches = new HashMap<>();
+        for (Car car : cars) {
+            if (Objects.nonNull(car)) {
+                batches.computeIfAbsent(shardOf(car.getCarId()), it -> new ArrayList<>()).add(car);
+            }
+        }
+
+        scatter(shard -> {
+            List<Car> batch = batches.get(shard);
+            if (Objects.nonNull(batch)) {
+                shard.addCars(batch, car -> {
+                    Owner owner = owners.apply(car);
+                    Owner attributes = registered(owner);
+                    return Objects.nonNull(attributes) ? attributes : owner;
+                }, (car, owner) -> countCar(owner));
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public boolean addOwner(Owner owner) {
+        checkWritable();
+        return Objects.nonNull(owner) && ownerCars.putIfAbsent(owner.getOwnerId(), new Pair<>(owner, 0)) == null;
+    }
+
+    /**
+     * Waits for the writes in progress and updates every shard that holds cars of the owner - O(shards + cars of
+     * the owner), adds never see the old attributes once the new ones are registered.
+     */
+    @Override
+    public boolean updateOwner(Owner owner) {
+        checkWritable();
+        if (Objects.isNull(owner)) {
+            return false;
+        }
+
+        return inAllShards(0, () -> {
+            //shard locks are held, the shards are updated by the calling thread
+            if (Objects.isNull(ownerCars.computeIfPresent(owner.getOwnerId(),
+                (id, entry) -> new Pair<>(owner, entry.getValue())))) {
+                return false;
+            }
+            for (GarageImpl shard : shards) {
+                shard.updateOwner(owner);
+            }
+            return true;
+        });
+    }
+
+    /**
+     * @return attributes registered for the id of the owner, null if it is not registered
+     */
+    private Owner registered(Owner owner) {
+        Pair<Owner, Integer> entry = Objects.isNull(owner) ? null : ownerCars.get(owner.getOwnerId());
+        return Objects.isNull(entry) ? null : entry.getKey();
+    }
+
+    private Pair<Owner, Integer> uncount(Pair<Owner, Integer> entry) {
+        int count = entry.getValue() - 1;
+        return count > 0 || !pruneEmptyOwners ? new Pair<>(entry.getKey(), count) : null;
+    }
+
+    private void countCar(Owner owner) {
+        //ConcurrentHashMap merge is atomic per key, owners may be written from several shards
+        ownerCars.merge(owner.getOwnerId(), new Pair<>(owner, 1),
+            (entry, one) -> new Pair<>(entry.getKey(), entry.getValue() + 1));
+    }
+
+    /**
+     * Runs the task on every shard under the lock of the shard: one fork-join task per shard but the first,
+     * which the calling thread runs itself.
+     *
+     * @param task must copy what it returns out of the shard, views of a shard are not safe without its lock
+     * @return results in shard order
+     */
+    private <T> List<T> scatter(Function<GarageImpl, T> task) {
+        final List<ForkJoinTask<T>> forks = new ArrayList<>(shards.length - 1);
+        for (int i = 1; i < shards.length; i++) {
+            final GarageImpl shard = shards[i];
+            forks.add(pool.submit(() -> read(shard, task)));
+        }
+
+        final List<T> results = new ArrayList<>(shards.length);
+        results.add(read(shards[0], task));
+        for (ForkJoinTask<T> fork : forks) {
+            results.add(fork.join());
+        }
+        return results;
+    }
+
+    private <T> T read(GarageImpl shard, Function<GarageImpl, T> task) {
+        if (readOnly) {
+            return task.apply(shard);
+        }
+        synchronized (shard) {
+            return task.apply(shard);
+        }
+    }
+
+    /**
+     * Runs the action while holding the lock of every shard, taken in shard order
+     */
+    private <T> T inAllShards(int shard, Supplier<T> action) {
+        if (readOnly || shard == shards.length) {
+            return action.get();
+        }
+        synchronized (shards[shard]) {
+            return inAllShards(shard + 1, action);
+        }
+    }
+
+    private double percentileRank(Function<GarageImpl, AttributeIndex> attribute, int value) {
+        long below = 0;
+        long total = 0;
+        for (long[] rank : scatter(shard -> new long[] {
+            attribute.apply(shard).rank(value), attribute.apply(shard).size()})) {
+            below += rank[0];
+            total += rank[1];
+        }
+
+        return total == 0 ? 0 : (double) below / total;
+    }
+
+    /**
+     * Nearest-rank percentile over all shards, locked together so the ranks add up.
+     *
+     * A binary search over the attribute values finds the value of the car at the rank, then the car is picked
+     * among the cars of that value shard by shard - O(32 * shards * logN).
+     */
+    private Car atPercentile(Function<GarageImpl, AttributeIndex> attribute, double percentile) {
+        if (!(percentile >= 0 && percentile <= 1)) {
+            throw new IllegalArgumentException("percentile must be in [0, 1]: " + percentile);
+        }
+
+        return inAllShards(0, () -> {
+            long total = 0;
+            for (GarageImpl shard : shards) {
+                total += attribute.apply(shard).size();
+            }
+            if (total == 0) {
+                return null;
+            }
+
+            final long rank = Math.max((long) Math.ceil(percentile * total) - 1, 0);
+
+            //largest value with at most rank cars below it, the car at the rank has that value
+            long low = Integer.MIN_VALUE;
+            long high = Integer.MAX_VALUE;
+            while (low < high) {
+                long middle = Math.floorDiv(low + high + 1, 2);
+                if (countBelow(attribute, (int) middle) <= rank) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+
+            final int value = (int) low;
+            long skip = rank - countBelow(attribute, value);
+            for (GarageImpl shard : shards) {
+                AttributeIndex index = attribute.apply(shard);
+                int ties = index.count(value, value);
+                if (skip < ties) {
+                    return index.atRank(index.rank(value) + (int) skip);
+                }
+                skip -= ties;
+            }
+            return null;
+        });
+    }
+
+    private long countBelow(Function<GarageImpl, AttributeIndex> attribute, int value) {
+        long count = 0;
+        for (GarageImpl shard : shards) {
+            count += attribute.apply(shard).rank(value);
+        }
+        return count;
+    }
+
+    private GarageImpl shardOf(long carId) {
+        //sequential ids go round the shards, the high bits of the id are folded in
+        int h = Long.hashCode(carId);
+        return shards[Math.floorMod(h ^ (h >>> 16), shards.length)];
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("snapshot is read-only");
+        }
+    }
+
+    private static void checkK(int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k must not be negative: " + k);
+        }
+    }
+
+    private static List<Car> copy(Collection<Car> cars) {
+        return Objects.isNull(cars) ? null : new ArrayList<>(cars);
+    }
+
+    /**
+     * @return cars of every part in shard order, null if every part is null
+     */
+    private static List<Car> concat(List<? extends Collection<Car>> parts) {
+        List<Car> cars = null;
+        for (Collection<Car> part : parts) {
+            if (Objects.nonNull(part)) {
+                if (Objects.isNull(cars)) {
+                    cars = new ArrayList<>(part.size());
+                }
+                cars.addAll(part);
+            }
+        }
+        return cars;
+    }
+
+    private static int[] sumHistograms(List<int[]> histograms) {
+        final int[] sum = histograms.get(0);
+        for (int i = 1; i < histograms.size(); i++) {
+            for (int j = 0; j < sum.length; j++) {
+                sum[j] += histograms.get(i)[j];
+            }
+        }
+        return sum;
+    }
+
+    private static int sum(List<Integer> counts) {
+        int sum = 0;
+        for (int count : counts) {
+            sum += count;
+        }
+        return sum;
+    }
+
+    /**
+     * k-way merge of lists sorted by the order, ties keep the shard order - O(n log shards)
+     *
+     * @return at most limit cars
+     */
+    private static List<Car> merge(List<List<Car>> parts, Comparator<Car> order, int limit) {
+        int total = 0;
+        for (List<Car> part : parts) {
+            total += part.size();
+        }
+
+        final int[] next = new int[parts.size()];
+        final PriorityQueue<Integer> heads = new PriorityQueue<>(parts.size(), (a, b) -> {
+            int compared = order.compare(parts.get(a).get(next[a]), parts.get(b).get(next[b]));
+            return compared != 0 ? compared : Integer.compare(a, b);
+        });
+        for (int i = 0; i < parts.size(); i++) {
+            if (!parts.get(i).isEmpty()) {
+                heads.add(i);
+            }
+        }
+
+        final List<Car> cars = new ArrayList<>(Math.min(total, limit));
+        while (cars.size() < limit && !heads.isEmpty()) {
+            int part = heads.poll();
+            cars.add(parts.get(part).get(next[part]++));
+            if (next[part] < parts.get(part).size()) {
+                heads.add(part);
+            }
+        }
+        return cars;
+    }
+}
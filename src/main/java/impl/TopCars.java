@@ -0,0 +1,139 @@
+package impl;
+
+import domain.Car;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PrimitiveIterator;
+
+/**
+ * Bounded leaderboard of the cars with the highest value of one attribute, best first.
+ *
+ * Holds the exact top {@code size} packed keys of an {@link AttributeIndex}. Adding a car costs one long
+ * comparison against the last leader, and an array shift only when it enters the board. Removing a leader
+ * shrinks the board; when a query asks for more cars than are left, the board is refilled from the index,
+ * which happens at most once per evicted leader rather than per query.
+ *
+ * Not thread-safe.
+ */
+final class TopCars {
+
+    private final AttributeIndex index;
+
+    private final long[] leaders;
+    private int size;
+
+    // number of cars in the index, when greater than size the board may be missing cars after a removal
+    private int total;
+
+    /**
+     * @param index every car of the garage ordered by the ranked attribute, used to refill the board
+     * @param capacity maximum number of leaders kept
+     */
+    TopCars(AttributeIndex index, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+
+        this.index = index;
+        this.leaders = new long[capacity];
+    }
+
+    void add(long key) {
+        total++;
+
+        if (size == leaders.length) {
+            if (key < leaders[size - 1]) {
+                return;
+            }
+            size--;
+        } else if (size < total - 1 && (size == 0 || key < leaders[size - 1])) {
+            // board is short after a removal, cars below the last leader are unknown until refill
+            return;
+        }
+
+        int i = size;
+        while (i > 0 && key > leaders[i - 1]) {
+            leaders[i] = leaders[i - 1];
+            i--;
+        }
+        leaders[i] = key;
+        size++;
+    }
+
+    void remove(long key) {
+        total--;
+
+        for (int i = 0; i < size; i++) {
+            if (leaders[i] == key) {
+                System.arraycopy(leaders, i + 1, leaders, i, size - i - 1);
+                size--;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param index snapshot of the index of this board
+     * @return full board over the snapshot, {@link #top(int)} never refills it - O(capacity)
+     */
+    TopCars snapshot(AttributeIndex index) {
+        TopCars snapshot = new TopCars(index, leaders.length);
+        snapshot.total = total;
+        if (size < Math.min(total, leaders.length)) {
+            snapshot.refill();
+        } else {
+            System.arraycopy(leaders, 0, snapshot.leaders, 0, size);
+            snapshot.size = size;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Rebuilds the board from the index after keys were added to it in bulk, bypassing {@link #add} - O(capacity)
+     */
+    void reset() {
+        total = index.size();
+        refill();
+    }
+
+    /**
+     * @return at most k best cars, best first
+     */
+    List<Car> top(int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k must not be negative: " + k);
+        }
+
+        int count = Math.min(k, total);
+        List<Car> result = new ArrayList<>(count);
+
+        if (count > leaders.length) {
+            // bigger than the board, walk the full index - O(k)
+            Iterator<Car> iterator = index.descendingIterator();
+            while (result.size() < count && iterator.hasNext()) {
+                result.add(iterator.next());
+            }
+            return result;
+        }
+
+        if (count > size) {
+            refill();
+        }
+
+        for (int i = 0; i < count; i++) {
+            result.add(index.car(leaders[i]));
+        }
+
+        return result;
+    }
+
+    private void refill() {
+        PrimitiveIterator.OfLong iterator = index.descendingKeys();
+
+        size = 0;
+        while (size < leaders.length && iterator.hasNext()) {
+            leaders[size++] = iterator.nextLong();
+        }
+    }
+}
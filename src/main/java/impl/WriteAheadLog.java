@@ -0,0 +1,205 @@
+package impl;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import domain.Car;
+import domain.Owner;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One append-only segment of the write-ahead log with group commit.
+ *
+ * Appends go to a buffer and are forced to disk together: once {@code syncEvery} records are pending, or by a
+ * background flusher every {@code syncIntervalMillis}, whichever comes first. One fsync is paid per group
+ * instead of per mutation; a crash loses at most the pending group, and the file always ends with whole
+ * records or a single torn one.
+ *
+ * A failed flush or fsync breaks the log: the first failure is kept and every later append or sync throws it,
+ * so nothing is acknowledged after a record that may not be on disk.
+ *
+ * Appends are synchronized with the flusher, callers are expected to be a single writer.
+ */
+final class WriteAheadLog implements Closeable {
+
+    static final int MAGIC = 0x4741574C;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final RecordWriter writer;
+    private final int syncEvery;
+    private final ScheduledExecutorService flusher;
+
+    private int unsynced;
+    private IOException failure;
+
+    /**
+     * @param file segment to append to, created with a header if it is empty or missing
+     * @param syncIntervalMillis period of the background flusher, 0 to sync by record count only
+     */
+    WriteAheadLog(Path file, int syncEvery, long syncIntervalMillis) throws IOException {
+        this(FileChannel.open(file, CREATE, WRITE, APPEND), syncEvery, syncIntervalMillis);
+    }
+
+    /**
+     * @param channel segment opened for appending, closed with the log
+     */
+    WriteAheadLog(FileChannel channel, int syncEvery, long syncIntervalMillis) throws IOException {
+        this.channel = channel;
+        this.writer = new RecordWriter(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+        this.syncEvery = syncEvery;
+
+        if (channel.size() == 0) {
+            writer.header(MAGIC);
+            writer.flush();
+            channel.force(true);
+        }
+
+        if (syncIntervalMillis > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "garage-wal-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flushQuietly, syncIntervalMillis, syncIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    synchronized void addCar(Car car, Owner owner) throws IOException {
+        checkFailure();
+        writer.addCar(car, owner);
+        appended();
+    }
+
+    synchronized void removeCar(long carId) throws IOException {
+        checkFailure();
+        writer.removeCar(carId);
+        appended();
+    }
+
+    synchronized void addOwner(Owner owner) throws IOException {
+        checkFailure();
+        writer.addOwner(owner);
+        appended();
+    }
+
+    synchronized void updateOwner(Owner owner) throws IOException {
+        checkFailure();
+        writer.updateOwner(owner);
+        appended();
+    }
+
+    synchronized void updateCar(Car car) throws IOException {
+        checkFailure();
+        writer.updateCar(car);
+        appended();
+    }
+
+    synchronized void transferOwnership(long carId, Owner owner) throws IOException {
+        checkFailure();
+        writer.transferOwnership(carId, owner);
+        appended();
+    }
+
+    /**
+     * Forces every appended record to disk.
+     *
+     * @throws IOException if the records could not be forced, the log refuses every later append
+     */
+    synchronized void sync() throws IOException {
+        checkFailure();
+        if (unsynced == 0) {
+            return;
+        }
+
+        try {
+            writer.flush();
+            channel.force(false);
+        } catch (IOException e) {
+            // some of the pending records may have reached the file, no later one may follow them
+            failure = e;
+            throw e;
+        }
+        unsynced = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) {
+            // not interrupted, an interrupt inside force closes the channel and breaks the log
+            flusher.shutdown();
+            awaitFlusher();
+        }
+
+        synchronized (this) {
+            if (!channel.isOpen()) {
+                return;
+            }
+            try {
+                sync();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private void awaitFlusher() {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    if (flusher.awaitTermination(1, TimeUnit.SECONDS)) {
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void appended() throws IOException {
+        if (++unsynced >= syncEvery) {
+            sync();
+        }
+    }
+
+    private synchronized void flushQuietly() {
+        if (failure != null || !channel.isOpen()) {
+            return;
+        }
+
+        try {
+            sync();
+        } catch (IOException e) {
+            // kept by sync, reported to the writer on its next append
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Write-ahead log is broken", failure);
+        }
+        if (!channel.isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+}
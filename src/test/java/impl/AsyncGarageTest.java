@@ -0,0 +1,190 @@
+package impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import domain.Car;
+import domain.CarQuery;
+import domain.Owner;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class AsyncGarageTest {
+
+    private static final String[] BRANDS = {"A", "B", "C"};
+
+    private final Random random = new Random();
+    private final Owner[] owners = new Owner[10];
+
+    // drain tasks wait here until the test runs them
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+    private InstrumentedGarage garage;
+    private AsyncGarage async;
+
+    @BeforeEach
+    void setUp() {
+        for (int i = 0; i < owners.length; i++) {
+            owners[i] = new Owner(i, "", "", 20 + i);
+        }
+        garage = new InstrumentedGarage(new GarageImpl());
+        async = new AsyncGarage(garage, tasks::add);
+    }
+
+    @Test
+    void testIdenticalReadsAreCoalesced() {
+        async.addCar(new Car(1, "A", "", 10, 10, 1), owners[1]);
+
+        List<CompletableFuture<Collection<Car>>> brandReads = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            brandReads.add(async.allCarsOfBrand("A"));
+            async.topThreeCarsByMaxVelocity();
+        }
+        CompletableFuture<Collection<Car>> otherBrand = async.allCarsOfBrand("B");
+        runTasks();
+
+        assertEquals(2, calls("allCarsOfBrand"));
+        assertEquals(1, calls("topThreeCarsByMaxVelocity"));
+        for (CompletableFuture<Collection<Car>> read : brandReads) {
+            assertEquals(1, read.join().size());
+        }
+        assertNull(otherBrand.join());
+    }
+
+    @Test
+    void testReadAfterWriteIsNotCoalescedWithReadBeforeIt() {
+        CompletableFuture<Collection<Car>> before = async.carsWithPowerMoreThan(0);
+        async.addCar(new Car(1, "A", "", 10, 10, 1), owners[1]);
+        CompletableFuture<Collection<Car>> after = async.carsWithPowerMoreThan(0);
+        CompletableFuture<Collection<Car>> joined = async.carsWithPowerMoreThan(0);
+        runTasks();
+
+        assertEquals(0, before.join().size());
+        assertEquals(1, after.join().size());
+        assertEquals(1, joined.join().size());
+        assertEquals(2, calls("carsWithPowerMoreThan"));
+    }
+
+    @Test
+    void testConsecutiveAddsAreOneBatch() {
+        List<CompletableFuture<Void>> adds = new ArrayList<>();
+        for (int carId = 0; carId < 50; carId++) {
+            adds.add(async.addCar(new Car(carId, "A", "", carId, carId, 0), owners[0]));
+        }
+        CompletableFuture<Car> removed = async.removeCar(7);
+        adds.add(async.addCar(new Car(100, "B", "", 1, 1, 1), owners[1]));
+        runTasks();
+
+        adds.forEach(CompletableFuture::join);
+        assertEquals(7, removed.join().getCarId());
+        assertEquals(1, calls("addCars"));
+        assertEquals(1, calls("addCar"));
+        assertEquals(50, garage.countCarsWithPowerBetween(Integer.MIN_VALUE, Integer.MAX_VALUE));
+    }
+
+    @Test
+    void testResultsAreCopies() {
+        async.addCar(new Car(1, "A", "", 10, 10, 1), owners[1]);
+        CompletableFuture<Collection<Car>> cars = async.allCarsOfOwner(owners[1]);
+        async.removeCar(1);
+        runTasks();
+
+        assertEquals(1, cars.join().size());
+        assertThrows(UnsupportedOperationException.class, () -> cars.join().clear());
+    }
+
+    @Test
+    void testFailuresCompleteExceptionally() {
+        CompletableFuture<Collection<Car>> top = async.topCarsByPower(-1);
+        CompletableFuture<Integer> count = async.countCarsWithPowerBetween(0, 10);
+        runTasks();
+
+        CompletionException e = assertThrows(CompletionException.class, top::join);
+        assertTrue(e.getCause() instanceof IllegalArgumentException);
+        assertEquals(0, count.join());
+    }
+
+    @Test
+    void testConcurrentCallersSeeTheSameAnswersAsDirectCalls() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        GarageImpl reference = new GarageImpl();
+        try (AsyncGarage pooled = new AsyncGarage(new GarageImpl(), executor)) {
+            List<Car> cars = new ArrayList<>();
+            for (int carId = 0; carId < 2_000; carId++) {
+                Car car = new Car(carId, BRANDS[random.nextInt(BRANDS.length)], "", random.nextInt(300),
+                    random.nextInt(500), random.nextInt(owners.length));
+                cars.add(car);
+                reference.addCar(car, owners[car.getOwnerId()]);
+            }
+
+            List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final int thread = t;
+                writers.add(executor.submit(() -> {
+                    for (int i = thread; i < cars.size(); i += 4) {
+                        pooled.addCar(cars.get(i), owners[cars.get(i).getOwnerId()]);
+                        pooled.allCarsOfBrand(cars.get(i).getBrand());
+                    }
+                }));
+            }
+            for (Future<?> writer : writers) {
+                writer.get(30, TimeUnit.SECONDS);
+            }
+
+            for (String brand : BRANDS) {
+                assertEquals(new HashSet<>(reference.allCarsOfBrand(brand)),
+                    new HashSet<>(pooled.allCarsOfBrand(brand).get(30, TimeUnit.SECONDS)));
+                assertEquals(reference.meanOwnersAgeOfCarBrand(brand),
+                    pooled.meanOwnersAgeOfCarBrand(brand).get(30, TimeUnit.SECONDS));
+            }
+            CarQuery query = CarQuery.builder().brand("B").minPower(100).build();
+            assertEquals(new HashSet<>(reference.query(query)),
+                new HashSet<>(pooled.query(query).get(30, TimeUnit.SECONDS)));
+            assertEquals(reference.carAtPowerPercentile(0.5).getPower(),
+                pooled.carAtPowerPercentile(0.5).get(30, TimeUnit.SECONDS).getPower());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testCloseWaitsForQueuedCalls() {
+        // the drain tasks run on the calling thread
+        AsyncGarage direct = new AsyncGarage(garage, Runnable::run);
+        CompletableFuture<Boolean> added = direct.addOwner(owners[0]);
+        direct.close();
+
+        assertTrue(added.join());
+        assertThrows(IllegalStateException.class, () -> direct.addOwner(owners[1]));
+        assertFalse(garage.addOwner(owners[0]));
+    }
+
+    private void runTasks() {
+        for (Runnable task = tasks.poll(); task != null; task = tasks.poll()) {
+            task.run();
+        }
+    }
+
+    private long calls(String method) {
+        return garage.getOperations().stream()
+            .filter(it -> it.getName().equals(method))
+            .mapToLong(OperationMetrics::getCalls)
+            .sum();
+    }
+}
@@ -0,0 +1,261 @@
+package impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import domain.Car;
+import domain.CarQuery;
+import domain.Owner;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class CachingGarageTest {
+
+    private static final String[] BRANDS = {"A", "B", "C", null};
+
+    private final Random random = new Random();
+    private final Owner[] owners = new Owner[10];
+
+    private InstrumentedGarage garage;
+    private CachingGarage cache;
+
+    @BeforeEach
+    void setUp() {
+        for (int i = 0; i < owners.length; i++) {
+            owners[i] = new Owner(i, "", "", 20 + i);
+        }
+        garage = new InstrumentedGarage(new GarageImpl());
+        cache = new CachingGarage(garage, 100);
+    }
+
+    @Test
+    void testRepeatedReadsAreHits() {
+        cache.addCar(new Car(1, "A", "", 10, 10, 1), owners[1]);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(1, cache.allCarsOfBrand("A").size());
+            assertEquals(1, cache.allCarsUniqueOwners().size());
+            assertEquals(1, cache.countCarsWithPowerBetween(0, 100));
+        }
+        assertNull(cache.allCarsOfBrand("B"));
+        assertNull(cache.allCarsOfBrand("B"));
+
+        assertEquals(2, calls("allCarsOfBrand"));
+        assertEquals(1, calls("allCarsUniqueOwners"));
+        assertEquals(1, calls("countCarsWithPowerBetween"));
+        assertEquals(4, cache.getMisses());
+        assertEquals(28, cache.getHits());
+        assertEquals(0.875, cache.getHitRate());
+        assertThrows(UnsupportedOperationException.class, () -> cache.allCarsOfBrand("A").clear());
+    }
+
+    @Test
+    void testWriteInvalidatesOnlyItsScopes() {
+        cache.addCar(new Car(1, "A", "", 10, 10, 1), owners[1]);
+        cache.addCar(new Car(2, "B", "", 20, 20, 2), owners[2]);
+        cache.allCarsOfBrand("A");
+        cache.allCarsOfBrand("B");
+        cache.allCarsOfOwner(owners[1]);
+        cache.allCarsOfOwner(owners[2]);
+        cache.meanOwnersAgeOfCarBrand("B");
+        cache.topCarsByPower(5);
+
+        cache.addCar(new Car(3, "A", "", 30, 30, 1), owners[1]);
+        assertEquals(2, cache.allCarsOfBrand("A").size());
+        assertEquals(2, cache.allCarsOfOwner(owners[1]).size());
+        assertEquals(3, cache.topCarsByPower(5).size());
+        assertEquals(1, cache.allCarsOfBrand("B").size());
+        assertEquals(1, cache.allCarsOfOwner(owners[2]).size());
+        assertEquals(owners[2].getAge(), cache.meanOwnersAgeOfCarBrand("B"));
+        assertEquals(3, calls("allCarsOfBrand"));
+        assertEquals(3, calls("allCarsOfOwner"));
+        assertEquals(2, calls("topCarsByPower"));
+        assertEquals(1, calls("meanOwnersAgeOfCarBrand"));
+
+        // an unknown id changes nothing
+        assertNull(cache.removeCar(100));
+        cache.allCarsOfBrand("A");
+        cache.topCarsByPower(5);
+        assertEquals(3, calls("allCarsOfBrand"));
+        assertEquals(2, calls("topCarsByPower"));
+
+        cache.removeCar(2);
+        Collection<Car> brandB = cache.allCarsOfBrand("B");
+        assertTrue(brandB == null || brandB.isEmpty());
+        assertEquals(4, calls("allCarsOfBrand"));
+
+        cache.updateOwner(new Owner(1, "", "", 70));
+        assertEquals(70, cache.meanOwnersAgeOfCarBrand("A"));
+        assertEquals(70, cache.allCarsUniqueOwners().stream()
+            .filter(owner -> owner.getOwnerId() == 1).findFirst().orElseThrow().getAge());
+    }
+
+    @Test
+    void testRejectedAddKeepsAnswers() {
+        // a GarageImpl or a ShardedGarage tells a rejected add apart, no lookup is needed for it
+        for (CachingGarage direct : List.of(new CachingGarage(new GarageImpl(), 100),
+            new CachingGarage(new ShardedGarage(), 100))) {
+            direct.addCar(new Car(1, "A", "", 10, 10, 1), owners[1]);
+            direct.addCar(new Car(2, "A", "", 20, 20, 2), owners[2]);
+            direct.removeCar(2);
+            direct.allCarsOfBrand("A");
+            direct.topCarsByPower(5);
+            long misses = direct.getMisses();
+
+            // a live id and a removed one
+            direct.addCar(new Car(1, "A", "", 30, 30, 1), owners[1]);
+            direct.addCar(new Car(2, "A", "", 30, 30, 2), owners[2]);
+            assertEquals(1, direct.allCarsOfBrand("A").size());
+            assertEquals(1, direct.topCarsByPower(5).size());
+            assertEquals(misses, direct.getMisses());
+
+            direct.addCar(new Car(3, "A", "", 30, 30, 1), owners[1]);
+            assertEquals(2, direct.allCarsOfBrand("A").size());
+            assertEquals(misses + 1, direct.getMisses());
+        }
+
+        // other garages can not tell, the add invalidates its scopes
+        cache.addCar(new Car(1, "A", "", 10, 10, 1), owners[1]);
+        cache.allCarsOfBrand("A");
+        cache.addCar(new Car(1, "A", "", 10, 10, 1), owners[1]);
+        assertEquals(1, cache.allCarsOfBrand("A").size());
+        assertEquals(2, calls("allCarsOfBrand"));
+    }
+
+    @Test
+    void testUpdatesInvalidateOldAndNewScopes() {
+        cache.addCar(new Car(1, "A", "", 10, 10, 1), owners[1]);
+        cache.addCar(new Car(2, "C", "", 20, 20, 3), owners[3]);
+        cache.allCarsOfBrand("A");
+        cache.allCarsOfBrand("B");
+        cache.allCarsOfOwner(owners[2]);
+        cache.meanOwnersAgeOfCarBrand("C");
+
+        cache.updateCar(new Car(1, "B", "", 10, 50, 1));
+        assertTrue(cache.allCarsOfBrand("A").isEmpty());
+        assertEquals(50, cache.allCarsOfBrand("B").iterator().next().getPower());
+        assertEquals(owners[3].getAge(), cache.meanOwnersAgeOfCarBrand("C"));
+        assertEquals(4, calls("allCarsOfBrand"));
+        assertEquals(1, calls("meanOwnersAgeOfCarBrand"));
+
+        cache.transferOwnership(1, owners[2]);
+        assertEquals(1, cache.allCarsOfOwner(owners[2]).size());
+        assertTrue(cache.allCarsOfOwner(owners[1]).isEmpty());
+        assertEquals(owners[2].getAge(), cache.meanOwnersAgeOfCarBrand("B"));
+
+        // a car that is not there changes nothing
+        assertNull(cache.updateCar(new Car(100, "C", "", 1, 1, 1)));
+        assertNull(cache.transferOwnership(100, owners[1]));
+        assertEquals(owners[3].getAge(), cache.meanOwnersAgeOfCarBrand("C"));
+        assertEquals(2, calls("meanOwnersAgeOfCarBrand"));
+    }
+
+    @Test
+    void testLeastRecentlyReadIsEvicted() {
+        CachingGarage small = new CachingGarage(garage, 2);
+        small.addCar(new Car(1, "A", "", 10, 10, 1), owners[1]);
+
+        small.topCarsByPower(1);
+        small.topCarsByPower(2);
+        small.topCarsByPower(1);
+        small.topCarsByPower(3);
+        small.topCarsByPower(1);
+        small.topCarsByPower(2);
+
+        assertEquals(2, small.size());
+        assertEquals(2, small.getEvictions());
+        assertEquals(2, small.getHits());
+        assertEquals(4, small.getMisses());
+        assertThrows(IllegalArgumentException.class, () -> new CachingGarage(garage, 0));
+    }
+
+    @Test
+    void testAnswersMatchTheGarageThroughRandomWrites() {
+        GarageImpl reference = new GarageImpl();
+        List<Integer> ids = new ArrayList<>();
+        for (int step = 0; step < 2_000; step++) {
+            int action = random.nextInt(10);
+            if (action < 4) {
+                int carId = random.nextInt(1_000_000);
+                Car car = new Car(carId, BRANDS[random.nextInt(BRANDS.length)], "", random.nextInt(300),
+                    random.nextInt(500), random.nextInt(owners.length));
+                ids.add(carId);
+                cache.addCar(car, owners[car.getOwnerId()]);
+                reference.addCar(car, owners[car.getOwnerId()]);
+            } else if (action < 5 && !ids.isEmpty()) {
+                int carId = ids.remove(random.nextInt(ids.size()));
+                assertEquals(reference.removeCar(carId), cache.removeCar(carId));
+            } else if (action < 6) {
+                List<Car> batch = new ArrayList<>();
+                for (int i = 0; i < 5; i++) {
+                    int carId = random.nextInt(1_000_000);
+                    ids.add(carId);
+                    batch.add(new Car(carId, BRANDS[random.nextInt(BRANDS.length)], "", random.nextInt(300),
+                        random.nextInt(500), random.nextInt(owners.length)));
+                }
+                cache.addCars(batch, car -> owners[car.getOwnerId()]);
+                reference.addCars(batch, car -> owners[car.getOwnerId()]);
+            } else if (action < 7) {
+                Owner owner = owners[random.nextInt(owners.length)];
+                Owner older = new Owner(owner.getOwnerId(), "", "", owner.getAge() + 1);
+                owners[(int) owner.getOwnerId()] = older;
+                assertEquals(reference.updateOwner(older), cache.updateOwner(older));
+            } else if (action < 8 && !ids.isEmpty()) {
+                Car old = reference.getCarTrack().get(ids.get(random.nextInt(ids.size())));
+                if (old != null) {
+                    Car car = new Car(old.getCarId(), BRANDS[random.nextInt(BRANDS.length)], "", random.nextInt(300),
+                        random.nextInt(500), old.getOwnerId());
+                    assertEquals(reference.updateCar(car), cache.updateCar(car));
+                }
+            } else if (action < 9 && !ids.isEmpty()) {
+                int carId = ids.get(random.nextInt(ids.size()));
+                Owner owner = owners[random.nextInt(owners.length)];
+                assertEquals(reference.transferOwnership(carId, owner), cache.transferOwnership(carId, owner));
+            }
+            assertSameAnswers(reference);
+        }
+        assertEquals(cache.getMisses(), garage.getOperations().stream().mapToLong(OperationMetrics::getCalls).sum()
+            - calls("addCar") - calls("addCars") - calls("removeCar") - calls("updateOwner") - calls("updateCar")
+            - calls("transferOwnership"));
+    }
+
+    private void assertSameAnswers(GarageImpl reference) {
+        String brand = BRANDS[random.nextInt(BRANDS.length)];
+        Owner owner = owners[random.nextInt(owners.length)];
+        int power = random.nextInt(500);
+
+        assertSameCars(reference.allCarsOfBrand(brand), cache.allCarsOfBrand(brand));
+        assertSameCars(reference.allCarsOfOwner(owner), cache.allCarsOfOwner(owner));
+        assertSameCars(reference.carsOfOwnerAndBrand(owner, brand), cache.carsOfOwnerAndBrand(owner, brand));
+        assertSameCars(reference.carsWithPowerMoreThan(power), cache.carsWithPowerMoreThan(power));
+        assertSameCars(reference.topCarsByPower(3), cache.topCarsByPower(3));
+        assertEquals(reference.countCarsOfBrandWithPowerBetween(brand, 0, power),
+            cache.countCarsOfBrandWithPowerBetween(brand, 0, power));
+        assertEquals(reference.meanOwnersAgeOfCarBrand(brand), cache.meanOwnersAgeOfCarBrand(brand));
+        assertEquals(reference.meanCarNumberForEachOwner(), cache.meanCarNumberForEachOwner());
+        assertEquals(new HashSet<>(reference.allCarsUniqueOwners()), new HashSet<>(cache.allCarsUniqueOwners()));
+        assertEquals(reference.powerPercentileRank(power), cache.powerPercentileRank(power));
+
+        CarQuery query = CarQuery.builder().brand(BRANDS[power % 3]).minPower(power).build();
+        assertSameCars(reference.query(query), cache.query(query));
+    }
+
+    private static void assertSameCars(Collection<Car> expected, Collection<Car> actual) {
+        if (expected == null) {
+            assertNull(actual);
+            return;
+        }
+        assertEquals(new HashSet<>(expected), new HashSet<>(actual));
+    }
+
+    private long calls(String method) {
+        return garage.getOperation(method).getCalls();
+    }
+}
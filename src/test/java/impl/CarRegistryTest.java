@@ -0,0 +1,209 @@
+package impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import domain.Car;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class CarRegistryTest {
+
+    private CarRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        registry = new CarRegistry();
+    }
+
+    @Test
+    void testAddAndGet() {
+        Car car = car(42);
+
+        assertEquals(0, registry.add(car));
+
+        assertSame(car, registry.get(42));
+        assertTrue(registry.contains(42));
+        assertEquals(CarRegistry.LIVE, registry.state(42));
+        assertEquals(1, registry.size());
+        assertNull(registry.get(43));
+        assertFalse(registry.contains(43));
+        assertEquals(0, registry.state(43));
+    }
+
+    @Test
+    void testDuplicateIdIsRejected() {
+        Car car = car(7);
+        registry.add(car);
+
+        assertEquals(-1, registry.add(car(7)));
+        assertSame(car, registry.get(7));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    void testRemoveKeepsIdRegistered() {
+        Car car = car(7);
+        registry.add(car);
+
+        assertSame(car, registry.car(registry.remove(7)));
+
+        assertNull(registry.get(7));
+        assertEquals(-1, registry.remove(7));
+        assertTrue(registry.contains(7));
+        assertEquals(CarRegistry.REMOVED, registry.state(7));
+        assertEquals(0, registry.size());
+        assertEquals(1, registry.removed());
+        assertEquals(-1, registry.add(car(7)));
+    }
+
+    @Test
+    void testIdsAboveIntRangeDoNotCollide() {
+        long low = 5;
+        long high = (1L << 32) + 5;
+        long negative = -(1L << 40) + 5;
+
+        Car lowCar = car(low);
+        Car highCar = car(high);
+        Car negativeCar = car(negative);
+
+        registry.add(lowCar);
+        registry.add(highCar);
+        registry.add(negativeCar);
+
+        assertEquals(3, registry.size());
+        assertSame(lowCar, registry.get(low));
+        assertSame(highCar, registry.get(high));
+        assertSame(negativeCar, registry.get(negative));
+    }
+
+    @Test
+    void testGrowsBeyondInitialCapacity() {
+        int count = 100_000;
+        for (long id = 0; id < count; id++) {
+            assertEquals(id, registry.add(car(id * 31)));
+        }
+
+        assertEquals(count, registry.size());
+        for (long id = 0; id < count; id++) {
+            assertEquals(id * 31, registry.get(id * 31).getCarId());
+            assertSame(registry.car((int) id), registry.get(id * 31));
+            assertFalse(registry.contains(id * 31 + 1));
+        }
+    }
+
+    @Test
+    void testNoRetentionAcceptsRemovedIdAndReusesRef() {
+        registry = new CarRegistry(16, RetentionPolicy.none());
+        Car car = car(7);
+
+        int ref = registry.add(car);
+        assertEquals(ref, registry.remove(7));
+
+        assertNull(registry.car(ref));
+        assertFalse(registry.contains(7));
+        assertEquals(0, registry.state(7));
+        assertEquals(0, registry.removed());
+        assertEquals(1, registry.freeRefs());
+
+        assertEquals(ref, registry.add(car(8)));
+        assertEquals(ref + 1, registry.add(car(7)));
+        assertEquals(0, registry.freeRefs());
+    }
+
+    @Test
+    void testKeepLastExpiresOldestTombstone() {
+        registry = new CarRegistry(16, RetentionPolicy.keepLast(2));
+        for (long id = 1; id <= 3; id++) {
+            registry.add(car(id));
+        }
+        for (long id = 1; id <= 3; id++) {
+            registry.remove(id);
+        }
+
+        assertEquals(2, registry.removed());
+        assertFalse(registry.contains(1));
+        assertEquals(CarRegistry.REMOVED, registry.state(2));
+        assertEquals(CarRegistry.TOMBSTONE, registry.ref(3));
+
+        assertEquals(-1, registry.add(car(3)));
+        assertTrue(registry.add(car(1)) >= 0);
+    }
+
+    @Test
+    void testKeepForExpiresTombstonesOnLaterWrites() {
+        MutableClock clock = new MutableClock();
+        registry = new CarRegistry(16, RetentionPolicy.keepFor(Duration.ofSeconds(10), clock));
+
+        registry.add(car(1));
+        registry.remove(1);
+        clock.advance(Duration.ofSeconds(5));
+        registry.add(car(2));
+        registry.remove(2);
+
+        assertEquals(-1, registry.add(car(1)));
+
+        clock.advance(Duration.ofSeconds(6));
+        assertTrue(registry.add(car(1)) >= 0);
+        assertEquals(1, registry.removed());
+        assertEquals(-1, registry.add(car(2)));
+
+        clock.advance(Duration.ofSeconds(5));
+        assertTrue(registry.add(car(2)) >= 0);
+        assertEquals(0, registry.removed());
+    }
+
+    @Test
+    void testChurnKeepsMemoryBounded() {
+        registry = new CarRegistry(16, RetentionPolicy.keepLast(100));
+
+        for (long id = 0; id < 200_000; id++) {
+            registry.add(car(id));
+            if (id >= 1_000) {
+                assertTrue(registry.remove(id - 1_000) >= 0);
+            }
+        }
+
+        assertEquals(1_000, registry.size());
+        assertEquals(100, registry.removed());
+        assertTrue(registry.refCapacity() <= 2_048);
+        assertTrue(registry.idCapacity() <= 4_096);
+        assertTrue(registry.tombstoneCapacity() <= 128);
+    }
+
+    private static Car car(long carId) {
+        return new Car(carId, "", "", 0, 0, 0);
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private Instant now = Instant.EPOCH;
+
+        private void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
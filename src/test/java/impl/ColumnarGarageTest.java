@@ -0,0 +1,224 @@
+package impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import domain.Car;
+import domain.Garage;
+import domain.Owner;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ColumnarGarageTest {
+
+    private static final String[] BRANDS = {"A", "B", "C", "D", null};
+
+    @TempDir
+    Path directory;
+
+    private ColumnarGarage garage;
+    private final GarageImpl expected = new GarageImpl();
+    private final Random random = new Random();
+    private final Owner[] owners = new Owner[100];
+
+    @BeforeEach
+    void setUp() throws IOException {
+        garage = ColumnarGarage.open(directory.resolve("cars.columns"));
+        for (int i = 0; i < owners.length; i++) {
+            owners[i] = new Owner(i, "", "", 18 + random.nextInt(70));
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        garage.close();
+    }
+
+    @Test
+    void testSnapshotKeepsOwnersWithoutCars() {
+        garage.addCar(new Car(1, "A", "", 10, 10, 1), owners[1]);
+        garage.addCar(new Car(2, "A", "", 10, 10, 1), owners[1]);
+        garage.addOwner(owners[2]);
+
+        Garage snapshot = garage.snapshot();
+        assertEquals(new HashSet<>(garage.allCarsUniqueOwners()), new HashSet<>(snapshot.allCarsUniqueOwners()));
+        assertEquals(garage.meanCarNumberForEachOwner(), snapshot.meanCarNumberForEachOwner());
+        assertTrue(snapshot.allCarsOfOwner(owners[2]).isEmpty());
+    }
+
+    @Test
+    void testCarIsReadBackFromColumns() {
+        Car car = new Car(42, "brand", "model", 120, 90, 7);
+        garage.addCar(car, owners[7]);
+
+        Car stored = garage.allCarsOfOwner(owners[7]).iterator().next();
+        assertTrue(stored instanceof ColumnarCar);
+        assertEquals(car, stored);
+        assertEquals(stored, car);
+        assertEquals(car.hashCode(), stored.hashCode());
+        assertEquals("brand", stored.getBrand());
+        assertEquals("model", stored.getModelName());
+        assertEquals(120, stored.getMaxVelocity());
+        assertEquals(90, stored.getPower());
+        assertEquals(7, stored.getOwnerId());
+
+        Car removed = garage.removeCar(42);
+        assertFalse(removed instanceof ColumnarCar);
+        assertEquals(car, removed);
+        assertEquals(90, removed.getPower());
+        assertTrue(garage.allCarsOfOwner(owners[7]).isEmpty());
+        assertNull(garage.removeCar(42));
+
+        // removed ids can not be added again, like GarageImpl
+        garage.addCar(car, owners[7]);
+        assertTrue(garage.allCarsOfOwner(owners[7]).isEmpty());
+    }
+
+    @Test
+    void testTransferToOwnerIdOutsideIntRange() {
+        garage.addCar(new Car(1, "A", "", 10, 10, 1), owners[1]);
+
+        Owner outside = new Owner(1L << 32, "", "", 30);
+        assertThrows(IllegalArgumentException.class, () -> garage.transferOwnership(1, outside));
+        assertEquals(1, garage.allCarsOfOwner(owners[1]).size());
+        assertEquals(1, garage.removeCar(1).getOwnerId());
+    }
+
+    @Test
+    void testUnknownKeysGiveEmptyViews() {
+        assertTrue(garage.allCarsOfBrand("unknown").isEmpty());
+        assertTrue(garage.allCarsOfBrand(null).isEmpty());
+        assertTrue(garage.allCarsOfOwner(owners[0]).isEmpty());
+        assertEquals(0, garage.meanOwnersAgeOfCarBrand("unknown"));
+        assertEquals(0, garage.meanCarNumberForEachOwner());
+        assertNull(garage.carAtPowerPercentile(0.5));
+    }
+
+    @Test
+    void testMatchesGarageImplAcrossPages() {
+        int carId = 0;
+
+        // more than one page of 2^16 cars
+        for (int round = 0; round < 3; round++) {
+            List<Car> batch = new ArrayList<>();
+            for (int i = 0; i < 30_000; i++) {
+                Car car = newCar(carId++);
+                if (random.nextBoolean()) {
+                    batch.add(car);
+                } else {
+                    garage.addCar(car, owners[car.getOwnerId()]);
+                    expected.addCar(car, owners[car.getOwnerId()]);
+                }
+            }
+            garage.addCars(batch, car -> owners[car.getOwnerId()]);
+            expected.addCars(batch, car -> owners[car.getOwnerId()]);
+
+            for (int i = 0; i < 10_000; i++) {
+                int id = random.nextInt(carId);
+                assertEquals(expected.removeCar(id), garage.removeCar(id));
+            }
+
+            assertSameQueries();
+        }
+    }
+
+    @Test
+    void testUpdatesMatchGarageImpl() {
+        for (int carId = 0; carId < 5_000; carId++) {
+            Car car = newCar(carId);
+            garage.addCar(car, owners[car.getOwnerId()]);
+            expected.addCar(car, owners[car.getOwnerId()]);
+        }
+
+        for (int i = 0; i < 10_000; i++) {
+            int carId = random.nextInt(6_000);
+            if (random.nextBoolean()) {
+                Owner owner = owners[random.nextInt(owners.length)];
+                assertSameCar(expected.transferOwnership(carId, owner), garage.transferOwnership(carId, owner));
+            } else {
+                Car old = expected.getCarTrack().get(carId);
+                Car car = newCar(carId);
+                car = new Car(carId, car.getBrand(), car.getModelName(), car.getMaxVelocity(), car.getPower(),
+                    old == null ? car.getOwnerId() : old.getOwnerId());
+                assertSameCar(expected.updateCar(car), garage.updateCar(car));
+            }
+        }
+        assertSameQueries();
+
+        Car stored = garage.allCarsOfOwner(owners[0]).iterator().next();
+        Car old = garage.updateCar(new Car(stored.getCarId(), "E", "new", 1, 2, 0));
+        assertEquals("E", stored.getBrand());
+        assertEquals("new", stored.getModelName());
+        assertTrue(garage.allCarsOfBrand("E").contains(stored));
+        assertFalse(old instanceof ColumnarCar);
+        assertThrows(IllegalArgumentException.class,
+            () -> garage.updateCar(new Car(stored.getCarId(), "E", "", 1, 1, 1)));
+    }
+
+    private void assertSameQueries() {
+        assertEquals(new HashSet<>(expected.allCarsUniqueOwners()), new HashSet<>(garage.allCarsUniqueOwners()));
+
+        for (String brand : BRANDS) {
+            if (brand != null) {
+                assertSameCars(expected.allCarsOfBrand(brand), garage.allCarsOfBrand(brand));
+            }
+            assertEquals(expected.meanOwnersAgeOfCarBrand(brand), garage.meanOwnersAgeOfCarBrand(brand));
+        }
+        for (Owner owner : owners) {
+            assertSameCars(expected.allCarsOfOwner(owner), garage.allCarsOfOwner(owner));
+        }
+        assertEquals(expected.meanCarNumberForEachOwner(), garage.meanCarNumberForEachOwner());
+
+        assertEquals(expected.topThreeCarsByMaxVelocity(), garage.topThreeCarsByMaxVelocity());
+        assertEquals(expected.topCarsByPower(100), garage.topCarsByPower(100));
+        assertEquals(new ArrayList<>(expected.carsWithPowerMoreThan(450)),
+            new ArrayList<>(garage.carsWithPowerMoreThan(450)));
+        assertEquals(new ArrayList<>(expected.carsWithVelocityBetween(10, 20)),
+            new ArrayList<>(garage.carsWithVelocityBetween(10, 20)));
+        assertEquals(expected.countCarsWithPowerBetween(100, 200), garage.countCarsWithPowerBetween(100, 200));
+        assertEquals(expected.velocityPercentileRank(150), garage.velocityPercentileRank(150));
+        assertEquals(expected.carAtPowerPercentile(0.9), garage.carAtPowerPercentile(0.9));
+    }
+
+    private static void assertSameCars(Collection<Car> expected, Collection<Car> actual) {
+        Set<Car> expectedCars = new HashSet<>(expected);
+        assertEquals(expectedCars, new HashSet<>(actual));
+        assertEquals(expected.size(), actual.size());
+
+        for (Car car : expected) {
+            assertTrue(actual.contains(car));
+        }
+        assertFalse(actual.contains(Car.proxy(-1)));
+    }
+
+    private static void assertSameCar(Car expected, Car actual) {
+        if (expected == null) {
+            assertNull(actual);
+            return;
+        }
+        assertEquals(expected, actual);
+        assertEquals(expected.getBrand(), actual.getBrand());
+        assertEquals(expected.getModelName(), actual.getModelName());
+        assertEquals(expected.getMaxVelocity(), actual.getMaxVelocity());
+        assertEquals(expected.getPower(), actual.getPower());
+        assertEquals(expected.getOwnerId(), actual.getOwnerId());
+    }
+
+    private Car newCar(int carId) {
+        return new Car(carId, BRANDS[random.nextInt(BRANDS.length)], "model-" + random.nextInt(20),
+            random.nextInt(300), random.nextInt(500), random.nextInt(owners.length));
+    }
+}
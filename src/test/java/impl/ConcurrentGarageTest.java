@@ -0,0 +1,393 @@
+package impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import domain.Car;
+import domain.CarPage;
+import domain.CarQuery;
+import domain.Garage;
+import domain.Owner;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ConcurrentGarageTest {
+
+    private static final int THREADS = 8;
+    private static final int CARS_PER_THREAD = 2_000;
+    private static final String[] BRANDS = {"A", "B", "C", "D"};
+
+    private ConcurrentGarage garage;
+    private ExecutorService executor;
+    private Owner[] owners;
+
+    @BeforeEach
+    void setUp() {
+        garage = new ConcurrentGarage();
+        executor = Executors.newFixedThreadPool(THREADS + 2);
+        owners = new Owner[16];
+        for (int i = 0; i < owners.length; i++) {
+            owners[i] = new Owner(i, "", "", 20 + i);
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void testConcurrentAddCar() throws Exception {
+        runConcurrently(thread -> {
+            for (int i = 0; i < CARS_PER_THREAD; i++) {
+                Car car = car(thread * CARS_PER_THREAD + i);
+                garage.addCar(car, owners[car.getOwnerId()]);
+            }
+        });
+
+        int total = THREADS * CARS_PER_THREAD;
+        assertEquals(total, garage.getCarTrack().size());
+        assertEquals(total, garage.getCarsByPower().size());
+        assertEquals(total, garage.getCarsByVelocity().size());
+        assertEquals(owners.length, garage.allCarsUniqueOwners().size());
+
+        int byOwner = 0;
+        for (Owner owner : owners) {
+            byOwner += garage.allCarsOfOwner(owner).size();
+        }
+        assertEquals(total, byOwner);
+
+        int byBrand = 0;
+        for (String brand : BRANDS) {
+            byBrand += garage.allCarsOfBrand(brand).size();
+        }
+        assertEquals(total, byBrand);
+    }
+
+    @Test
+    void testConcurrentAddOfSameCarIsAcceptedOnce() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+
+        runConcurrently(thread -> {
+            for (int i = 0; i < CARS_PER_THREAD; i++) {
+                Car car = car(i);
+                garage.addCar(car, owners[car.getOwnerId()]);
+                attempts.incrementAndGet();
+            }
+        });
+
+        assertEquals(THREADS * CARS_PER_THREAD, attempts.get());
+        assertEquals(CARS_PER_THREAD, garage.getCarTrack().size());
+        assertEquals(CARS_PER_THREAD, garage.getCarsByPower().size());
+        assertEquals(CARS_PER_THREAD, garage.getCarsByVelocity().size());
+    }
+
+    @Test
+    void testConcurrentAddAndRemoveCar() throws Exception {
+        for (int i = 0; i < THREADS * CARS_PER_THREAD; i++) {
+            Car car = car(i);
+            garage.addCar(car, owners[car.getOwnerId()]);
+        }
+
+        AtomicInteger removed = new AtomicInteger();
+
+        // every thread races to remove every odd car, each removal must succeed exactly once
+        runConcurrently(thread -> {
+            for (int i = 1; i < THREADS * CARS_PER_THREAD; i += 2) {
+                if (garage.removeCar(i) != null) {
+                    removed.incrementAndGet();
+                }
+            }
+        });
+
+        int expected = THREADS * CARS_PER_THREAD / 2;
+        assertEquals(expected, removed.get());
+        assertEquals(expected, garage.getCarsByPower().size());
+        assertEquals(expected, garage.getCarsByVelocity().size());
+
+        for (Car car : garage.getCarsByPower()) {
+            assertEquals(0, car.getCarId() % 2);
+        }
+
+        int byOwner = 0;
+        for (Owner owner : owners) {
+            byOwner += garage.allCarsOfOwner(owner).size();
+        }
+        assertEquals(expected, byOwner);
+
+        assertNull(garage.removeCar(1));
+        garage.addCar(car(1), owners[1]);
+        assertFalse(garage.getCarTrack().get(1L).getValue());
+    }
+
+    @Test
+    void testReadsDoNotFailDuringWrites() throws Exception {
+        AtomicBoolean writing = new AtomicBoolean(true);
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Future<Integer>> readers = new ArrayList<>();
+        for (int r = 0; r < 2; r++) {
+            readers.add(executor.submit(() -> {
+                start.await();
+                int reads = 0;
+                while (writing.get()) {
+                    Collection<Car> top = garage.topThreeCarsByMaxVelocity();
+                    assertTrue(top.size() <= 3);
+
+                    for (Car car : garage.carsWithPowerMoreThan(50)) {
+                        assertTrue(car.getPower() >= 50);
+                    }
+                    for (Car car : garage.allCarsOfBrand(BRANDS[0])) {
+                        assertEquals(BRANDS[0], car.getBrand());
+                    }
+                    for (Car car : garage.allCarsOfOwner(owners[3])) {
+                        assertEquals(3, car.getOwnerId());
+                    }
+                    reads++;
+                }
+                return reads;
+            }));
+        }
+
+        start.countDown();
+        runConcurrently(thread -> {
+            for (int i = 0; i < CARS_PER_THREAD; i++) {
+                int carId = thread * CARS_PER_THREAD + i;
+                Car car = car(carId);
+                garage.addCar(car, owners[car.getOwnerId()]);
+                if (i % 3 == 0) {
+                    garage.removeCar(carId);
+                }
+            }
+        });
+        writing.set(false);
+
+        for (Future<Integer> reader : readers) {
+            assertTrue(reader.get(30, TimeUnit.SECONDS) > 0);
+        }
+    }
+
+    @Test
+    void testCarsWithPowerMoreThanKeepsEqualPowers() {
+        Owner owner = owners[0];
+        Car car1 = new Car(1, "A", "", 10, 50, 0);
+        Car car2 = new Car(2, "A", "", 20, 50, 0);
+        Car car3 = new Car(3, "A", "", 30, 40, 0);
+        garage.addCar(car1, owner);
+        garage.addCar(car2, owner);
+        garage.addCar(car3, owner);
+
+        Collection<Car> actual = garage.carsWithPowerMoreThan(45);
+
+        assertEquals(2, actual.size());
+        assertTrue(actual.containsAll(Set.of(car1, car2)));
+    }
+
+    @Test
+    void testTransferToOwnerIdOutsideIntRange() {
+        garage.addCar(car(1), owners[1]);
+
+        Owner outside = new Owner(1L << 32, "", "", 30);
+        assertThrows(IllegalArgumentException.class, () -> garage.transferOwnership(1, outside));
+        assertEquals(1, garage.allCarsOfOwner(owners[1]).size());
+        assertEquals(1, garage.removeCar(1).getOwnerId());
+    }
+
+    @Test
+    void testRangeQueriesMatchGarageImpl() {
+        GarageImpl reference = new GarageImpl();
+        for (int carId = 0; carId < 1_000; carId++) {
+            Car car = car(carId);
+            garage.addCar(car, owners[car.getOwnerId()]);
+            reference.addCar(car, owners[car.getOwnerId()]);
+        }
+
+        assertEquals(reference.countCarsWithPowerBetween(10, 30), garage.countCarsWithPowerBetween(10, 30));
+        assertEquals(reference.countCarsWithVelocityBetween(50, 120),
+            garage.countCarsWithVelocityBetween(50, 120));
+        assertEquals(0, garage.countCarsWithPowerBetween(30, 10));
+        assertEquals(Set.copyOf(reference.carsWithVelocityBetween(50, 120)),
+            Set.copyOf(garage.carsWithVelocityBetween(50, 120)));
+        assertEquals(reference.powerPercentileRank(40), garage.powerPercentileRank(40));
+        assertEquals(reference.carAtVelocityPercentile(0.9).getMaxVelocity(),
+            garage.carAtVelocityPercentile(0.9).getMaxVelocity());
+        assertEquals(Set.copyOf(reference.carsWithPowerAndVelocityBetween(10, 200, 20, 60)),
+            Set.copyOf(garage.carsWithPowerAndVelocityBetween(10, 200, 20, 60)));
+        assertEquals(reference.countCarsWithPowerAndVelocityBetween(10, 200, 20, 60),
+            garage.countCarsWithPowerAndVelocityBetween(10, 200, 20, 60));
+        for (String brand : BRANDS) {
+            // equal cars of the skyline may come in another order
+            assertEquals(Set.copyOf(reference.skylineOfBrand(brand)), Set.copyOf(garage.skylineOfBrand(brand)));
+            assertEquals(reference.skylineOfBrand(brand).stream().map(Car::getPower).collect(Collectors.toList()),
+                garage.skylineOfBrand(brand).stream().map(Car::getPower).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    void testUpdatesMatchGarageImpl() throws Exception {
+        GarageImpl reference = new GarageImpl();
+        for (int carId = 0; carId < THREADS * CARS_PER_THREAD; carId++) {
+            Car car = car(carId);
+            garage.addCar(car, owners[car.getOwnerId()]);
+            reference.addCar(car, owners[car.getOwnerId()]);
+        }
+
+        // every thread updates its own cars, the reference gets the same writes afterwards
+        runConcurrently(thread -> {
+            for (int i = 0; i < CARS_PER_THREAD; i++) {
+                int carId = thread * CARS_PER_THREAD + i;
+                if (i % 2 == 0) {
+                    garage.updateCar(new Car(carId, BRANDS[i % 3], "", i % 17, i % 31, carId % owners.length));
+                } else {
+                    garage.transferOwnership(carId, owners[(carId + thread) % owners.length]);
+                }
+            }
+        });
+        for (int thread = 0; thread < THREADS; thread++) {
+            for (int i = 0; i < CARS_PER_THREAD; i++) {
+                int carId = thread * CARS_PER_THREAD + i;
+                if (i % 2 == 0) {
+                    reference.updateCar(new Car(carId, BRANDS[i % 3], "", i % 17, i % 31, carId % owners.length));
+                } else {
+                    reference.transferOwnership(carId, owners[(carId + thread) % owners.length]);
+                }
+            }
+        }
+
+        for (String brand : BRANDS) {
+            assertEquals(Set.copyOf(reference.allCarsOfBrand(brand)), Set.copyOf(garage.allCarsOfBrand(brand)));
+            assertEquals(reference.meanOwnersAgeOfCarBrand(brand), garage.meanOwnersAgeOfCarBrand(brand));
+        }
+        for (Owner owner : owners) {
+            assertEquals(Set.copyOf(reference.allCarsOfOwner(owner)), Set.copyOf(garage.allCarsOfOwner(owner)));
+        }
+        assertEquals(reference.countCarsWithPowerBetween(10, 20), garage.countCarsWithPowerBetween(10, 20));
+        assertEquals(reference.countCarsWithVelocityBetween(0, 5), garage.countCarsWithVelocityBetween(0, 5));
+        assertEquals(reference.topCarsByPower(50).stream().map(Car::getPower).collect(Collectors.toList()),
+            garage.topCarsByPower(50).stream().map(Car::getPower).collect(Collectors.toList()));
+        assertEquals(THREADS * CARS_PER_THREAD, garage.countCarsWithPowerBetween(Integer.MIN_VALUE, Integer.MAX_VALUE));
+    }
+
+    @Test
+    void testPagesAndStreamMatchQuery() {
+        for (int carId = 0; carId < 1_000; carId++) {
+            Car car = car(carId);
+            garage.addCar(car, owners[car.getOwnerId()]);
+        }
+
+        CarQuery query = CarQuery.builder().brand("B").minPower(20).build();
+        List<Car> paged = new ArrayList<>();
+        String token = null;
+        do {
+            CarPage page = garage.queryPage(query, token, 7);
+            assertTrue(page.getCars().size() <= 7);
+            paged.addAll(page.getCars());
+            token = page.getNextPageToken();
+        } while (token != null);
+
+        assertEquals(Set.copyOf(garage.query(query)), Set.copyOf(paged));
+        assertEquals(garage.query(query).size(), paged.size());
+        assertEquals(Set.copyOf(paged), garage.stream(query).collect(Collectors.toSet()));
+    }
+
+    @Test
+    void testSnapshotIsConsistentAcrossIndexes() throws Exception {
+        Future<Void> writes = executor.submit(() -> {
+            runConcurrently(thread -> {
+                for (int i = 0; i < CARS_PER_THREAD; i++) {
+                    Car car = car(thread * CARS_PER_THREAD + i);
+                    garage.addCar(car, owners[car.getOwnerId()]);
+                    if (i % 3 == 0) {
+                        garage.removeCar((int) car.getCarId());
+                    }
+                }
+            });
+            return null;
+        });
+
+        List<Garage> snapshots = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        while (!writes.isDone()) {
+            Garage snapshot = garage.snapshot();
+            snapshots.add(snapshot);
+
+            // every car of the snapshot is in every index, whatever the writers were in the middle of
+            int size = snapshot.countCarsWithPowerBetween(Integer.MIN_VALUE, Integer.MAX_VALUE);
+            int byOwner = 0;
+            for (Owner owner : snapshot.allCarsUniqueOwners()) {
+                byOwner += snapshot.allCarsOfOwner(owner).size();
+            }
+            assertEquals(size, byOwner);
+            assertEquals(size, snapshot.countCarsWithVelocityBetween(Integer.MIN_VALUE, Integer.MAX_VALUE));
+            sizes.add(size);
+        }
+        writes.get();
+
+        for (int i = 0; i < snapshots.size(); i++) {
+            assertEquals(sizes.get(i),
+                snapshots.get(i).countCarsWithPowerBetween(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        }
+    }
+
+    @Test
+    void testSnapshotKeepsOwnersWithoutCars() {
+        // one lock per stripe, taken in a loop however many there are
+        ConcurrentGarage wide = new ConcurrentGarage(1 << 16);
+        wide.addCar(car(1), owners[1]);
+        Owner carless = new Owner(1_000, "carless", "", 40);
+        wide.addOwner(carless);
+
+        Garage snapshot = wide.snapshot();
+        assertEquals(Set.copyOf(wide.allCarsUniqueOwners()), Set.copyOf(snapshot.allCarsUniqueOwners()));
+        assertEquals(wide.meanCarNumberForEachOwner(), snapshot.meanCarNumberForEachOwner());
+        assertTrue(snapshot.allCarsOfOwner(carless).isEmpty());
+    }
+
+    private void runConcurrently(ThreadTask task) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Void>> futures = new ArrayList<>();
+
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            Callable<Void> callable = () -> {
+                start.await();
+                task.run(thread);
+                return null;
+            };
+            futures.add(executor.submit(callable));
+        }
+
+        start.countDown();
+        for (Future<Void> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+    }
+
+    private Car car(int carId) {
+        return new Car(carId, BRANDS[carId % BRANDS.length], "", carId % 300, carId % 100,
+            carId % owners.length);
+    }
+
+    @FunctionalInterface
+    private interface ThreadTask {
+        void run(int thread);
+    }
+}
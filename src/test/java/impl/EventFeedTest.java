@@ -0,0 +1,253 @@
+package impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import domain.Car;
+import domain.GarageEvent;
+import domain.GarageEvent.Type;
+import domain.GarageListener;
+import domain.Owner;
+import domain.Subscription;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class EventFeedTest {
+
+    private final GarageImpl garage = new GarageImpl(RetentionPolicy.none());
+    private final Owner owner = new Owner(1, "", "", 30);
+
+    @Test
+    void testChangesAreDeliveredInOrder() throws Exception {
+        garage.addCar(car(0), owner);
+        Recorder recorder = new Recorder();
+        Subscription subscription = garage.subscribe(recorder, -1);
+        assertEquals(0, subscription.getSequence());
+
+        garage.addCar(car(1), owner);
+        garage.addCar(car(1), owner);
+        garage.addCar(car(2), null);
+        garage.removeCar(0);
+        garage.removeCar(0);
+        garage.addCars(List.of(car(3), car(4)), car -> owner);
+
+        List<GarageEvent> events = recorder.take(4);
+        assertEquals(List.of(1L, 2L, 3L, 4L), sequences(events));
+        assertEquals(List.of(Type.ADDED, Type.REMOVED, Type.ADDED, Type.ADDED), types(events));
+        assertEquals(0, events.get(1).getCar().getCarId());
+        assertEquals(owner, events.get(1).getOwner());
+        assertEquals(4, events.get(3).getCar().getCarId());
+
+        subscription.close();
+        assertNull(recorder.closed.poll(10, TimeUnit.SECONDS).orElse(null));
+        assertTrue(subscription.isClosed());
+        assertEquals(4, subscription.getSequence());
+    }
+
+    @Test
+    void testResumeAfterLastHandledSequence() throws Exception {
+        Recorder first = new Recorder();
+        Subscription subscription = garage.subscribe(first, -1);
+        for (int carId = 0; carId < 10; carId++) {
+            garage.addCar(car(carId), owner);
+        }
+        first.take(10);
+        subscription.close();
+        first.closed.poll(10, TimeUnit.SECONDS);
+
+        garage.removeCar(3);
+        garage.removeCar(4);
+
+        Recorder second = new Recorder();
+        garage.subscribe(second, 7);
+        List<GarageEvent> events = second.take(5);
+        assertEquals(List.of(8L, 9L, 10L, 11L, 12L), sequences(events));
+        assertEquals(Type.REMOVED, events.get(3).getType());
+
+        assertThrows(IllegalArgumentException.class, () -> garage.subscribe(new Recorder(), 13));
+    }
+
+    @Test
+    void testUpdatesCarryTheNewVersion() throws Exception {
+        garage.addCar(car(1), owner);
+        Recorder recorder = new Recorder();
+        garage.subscribe(recorder, -1);
+
+        Owner buyer = new Owner(2, "", "", 50);
+        garage.updateCar(new Car(1, "B", "", 7, 7, 1));
+        garage.updateCar(new Car(5, "B", "", 7, 7, 1));
+        garage.transferOwnership(1, owner);
+        garage.transferOwnership(1, buyer);
+
+        List<GarageEvent> events = recorder.take(2);
+        assertEquals(List.of(Type.UPDATED, Type.UPDATED), types(events));
+        assertEquals("B", events.get(0).getCar().getBrand());
+        assertEquals(owner, events.get(0).getOwner());
+        assertEquals(2, events.get(1).getCar().getOwnerId());
+        assertEquals(buyer, events.get(1).getOwner());
+        assertNull(recorder.events.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void testAddsCarryTheRegisteredOwner() throws Exception {
+        garage.addOwner(owner);
+        Recorder recorder = new Recorder();
+        garage.subscribe(recorder, -1);
+
+        // same id, other attributes - the garage keeps the registered ones
+        Owner stranger = new Owner(1, "other", "other", 90);
+        garage.addCar(car(1), stranger);
+        garage.addCars(List.of(car(2)), car -> stranger);
+
+        for (GarageEvent event : recorder.take(2)) {
+            assertEquals(Type.ADDED, event.getType());
+            assertEquals(30, event.getOwner().getAge());
+            assertEquals("", event.getOwner().getName());
+        }
+    }
+
+    @Test
+    void testSlowListenerGetsBiggerBatches() throws Exception {
+        Recorder slow = new Recorder() {
+            @Override
+            public void onEvents(List<GarageEvent> events) {
+                sleep(1);
+                super.onEvents(events);
+            }
+        };
+        garage.subscribe(slow, -1);
+
+        int changes = 10_000;
+        for (int carId = 0; carId < changes; carId++) {
+            garage.addCar(car(carId), owner);
+        }
+
+        List<GarageEvent> events = slow.take(changes);
+        assertEquals(changes, events.get(changes - 1).getSequence());
+        assertTrue(slow.batches < changes / 10, "batches: " + slow.batches);
+    }
+
+    @Test
+    void testListenerTooFarBehindIsClosed() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Recorder blocked = new Recorder() {
+            @Override
+            public void onEvents(List<GarageEvent> events) {
+                await(release);
+                super.onEvents(events);
+            }
+        };
+        Subscription subscription = garage.subscribe(blocked, -1);
+
+        // the writer never waits for the blocked listener
+        int changes = 100_000;
+        for (int carId = 0; carId < changes; carId++) {
+            garage.addCar(car(carId), owner);
+        }
+
+        release.countDown();
+        Throwable cause = blocked.closed.poll(10, TimeUnit.SECONDS).orElse(null);
+        assertTrue(cause instanceof IllegalStateException, String.valueOf(cause));
+        assertTrue(subscription.isClosed());
+
+        assertThrows(IllegalArgumentException.class, () -> garage.subscribe(new Recorder(), 0));
+        Recorder resumed = new Recorder();
+        garage.subscribe(resumed, changes - 16_384);
+        assertEquals(changes - 16_383, resumed.take(1).get(0).getSequence());
+    }
+
+    @Test
+    void testListenerFailureClosesSubscription() throws Exception {
+        Recorder failing = new Recorder() {
+            @Override
+            public void onEvents(List<GarageEvent> events) {
+                throw new IllegalArgumentException("listener bug");
+            }
+        };
+        Subscription subscription = garage.subscribe(failing, -1);
+        garage.addCar(car(1), owner);
+
+        Throwable cause = failing.closed.poll(10, TimeUnit.SECONDS).orElse(null);
+        assertEquals("listener bug", cause.getMessage());
+        assertTrue(subscription.isClosed());
+        assertEquals(0, subscription.getSequence());
+    }
+
+    @Test
+    void testUnsupportedGarages() {
+        assertThrows(UnsupportedOperationException.class, () -> garage.snapshot().subscribe(new Recorder(), -1));
+        assertThrows(UnsupportedOperationException.class, () -> new ConcurrentGarage().subscribe(new Recorder(), -1));
+        assertFalse(garage.subscribe(new Recorder(), -1).isClosed());
+    }
+
+    private static Car car(int carId) {
+        return new Car(carId, "A", "", carId, carId, 1);
+    }
+
+    private static List<Long> sequences(List<GarageEvent> events) {
+        List<Long> sequences = new ArrayList<>();
+        events.forEach(event -> sequences.add(event.getSequence()));
+        return sequences;
+    }
+
+    private static List<Type> types(List<GarageEvent> events) {
+        List<Type> types = new ArrayList<>();
+        events.forEach(event -> types.add(event.getType()));
+        return types;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Recorder implements GarageListener {
+
+        final BlockingQueue<GarageEvent> events = new LinkedBlockingQueue<>();
+        final BlockingQueue<Optional<Throwable>> closed = new LinkedBlockingQueue<>();
+        volatile int batches;
+
+        @Override
+        public void onEvents(List<GarageEvent> events) {
+            batches++;
+            this.events.addAll(events);
+        }
+
+        @Override
+        public void onClose(Throwable cause) {
+            closed.add(Optional.ofNullable(cause));
+        }
+
+        List<GarageEvent> take(int count) throws InterruptedException {
+            List<GarageEvent> taken = new ArrayList<>();
+            while (taken.size() < count) {
+                GarageEvent event = events.poll(10, TimeUnit.SECONDS);
+                if (event == null) {
+                    throw new AssertionError("events missing after " + taken);
+                }
+                taken.add(event);
+            }
+            return taken;
+        }
+    }
+}
@@ -1,17 +1,31 @@
 package impl;
 
-import static java.lang.Boolean.TRUE;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import domain.Car;
+import domain.CarPage;
+import domain.CarQuery;
 import domain.Owner;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
+import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.BeforeEach;
@@ -40,11 +54,11 @@ class GarageImplTest {
         assertFalse(garage.getCarsByPower().isEmpty());
         assertFalse(garage.getCarsByVelocity().isEmpty());
 
-        assertTrue(garage.getCarTrack().containsValue(new Pair(car, TRUE)));
+        assertSame(car, garage.getCarTrack().get(car.getCarId()));
         assertTrue(garage.getCarOwner().containsKey(owner));
         assertTrue(garage.getCarBrand().containsKey(car.getBrand()));
-        assertEquals(garage.getCarsByPower().pollFirst(), car);
-        assertEquals(garage.getCarsByVelocity().pollFirst(), car);
+        assertEquals(car, garage.getCarsByPower().first());
+        assertEquals(car, garage.getCarsByVelocity().first());
     }
 
     @Test
@@ -62,7 +76,8 @@ class GarageImplTest {
 
         garage.removeCar((int) car.getCarId());
 
-        assertFalse(garage.getCarTrack().get((int)car.getCarId()).getValue());
+        assertNull(garage.getCarTrack().get(car.getCarId()));
+        assertTrue(garage.getCarTrack().contains(car.getCarId()));
         assertTrue(garage.getCarOwner().get(owner).isEmpty());
         assertTrue(garage.getCarBrand().get(car.getBrand()).isEmpty());
         assertTrue(garage.getCarsByPower().isEmpty());
@@ -129,6 +144,54 @@ class GarageImplTest {
         assertTrue(actualCars.containsAll(expectedCars));
     }
 
+    @Test
+    void testTopCarsByMaxVelocityAfterLeaderRemoved() {
+        Owner owner = createOwner();
+        for (int carId = 1; carId <= 10; carId++) {
+            garage.addCar(new Car(carId, "A", "", carId * 10, 100 - carId, (int) owner.getOwnerId()), owner);
+        }
+
+        assertEquals(values(100, 90, 80), velocities(garage.topCarsByMaxVelocity(3)));
+        assertEquals(values(99, 98), powers(garage.topCarsByPower(2)));
+
+        garage.removeCar(10);
+        garage.removeCar(8);
+        garage.removeCar(1);
+
+        assertEquals(values(90, 70, 60, 50), velocities(garage.topCarsByMaxVelocity(4)));
+        assertEquals(values(98, 97), powers(garage.topCarsByPower(2)));
+        assertEquals(7, garage.topCarsByMaxVelocity(100).size());
+        assertTrue(garage.topCarsByPower(0).isEmpty());
+    }
+
+    @Test
+    void testTopCarsMatchSortedCars() {
+        Owner owner = createOwner();
+        List<Car> cars = new ArrayList<>();
+
+        for (int carId = 0; carId < 2_000; carId++) {
+            Car car = new Car(carId, "A", "", random.nextInt(1_000), random.nextInt(1_000),
+                (int) owner.getOwnerId());
+            garage.addCar(car, owner);
+            cars.add(car);
+
+            if (random.nextInt(3) == 0) {
+                Car removed = garage.removeCar(random.nextInt(carId + 1));
+                if (removed != null) {
+                    cars.remove(removed);
+                }
+            }
+
+            if (carId % 100 == 0) {
+                for (int k : new int[] {1, 3, 10, 50}) {
+                    assertEquals(expectedTop(cars, Car::getMaxVelocity, k),
+                        velocities(garage.topCarsByMaxVelocity(k)));
+                    assertEquals(expectedTop(cars, Car::getPower, k), powers(garage.topCarsByPower(k)));
+                }
+            }
+        }
+    }
+
     @Test
     void testAllCarsOfBrand() {
         final String brandA = "A";
@@ -199,6 +262,774 @@ class GarageImplTest {
         assertTrue(actualCars.containsAll(expectedCars));
     }
 
+    @Test
+    void testCarsWithPowerMoreThanAfterRemoveCar() {
+        Owner owner = createOwner();
+        Car car1 = new Car(1, "A", "", 1, 50, (int) owner.getOwnerId());
+        Car car2 = new Car(2, "A", "", 1, 50, (int) owner.getOwnerId());
+        Car car3 = new Car(3, "A", "", 1, 50, (int) owner.getOwnerId());
+        Car car4 = new Car(4, "A", "", 1, 10, (int) owner.getOwnerId());
+
+        garage.addCar(car1, owner);
+        garage.addCar(car2, owner);
+        garage.addCar(car3, owner);
+        garage.addCar(car4, owner);
+
+        garage.removeCar(2);
+
+        Collection<Car> actualCars = garage.carsWithPowerMoreThan(50);
+
+        assertEquals(2, actualCars.size());
+        assertTrue(actualCars.containsAll(Set.of(car1, car3)));
+        assertFalse(actualCars.contains(car2));
+        assertFalse(actualCars.contains(car4));
+        assertTrue(garage.carsWithPowerMoreThan(51).isEmpty());
+    }
+
+    @Test
+    void testRangeQueriesMatchFullScan() {
+        Owner owner = createOwner();
+        List<Car> cars = new ArrayList<>();
+
+        for (int carId = 0; carId < 3_000; carId++) {
+            Car car = new Car(carId, "A", "", random.nextInt(300), random.nextInt(500),
+                (int) owner.getOwnerId());
+            garage.addCar(car, owner);
+            cars.add(car);
+        }
+        for (int carId = 0; carId < 3_000; carId += 3) {
+            cars.remove(garage.removeCar(carId));
+        }
+
+        for (int i = 0; i < 100; i++) {
+            int from = random.nextInt(520) - 10;
+            int to = from + random.nextInt(200) - 20;
+
+            Set<Car> expectedByPower = cars.stream()
+                .filter(it -> it.getPower() >= from && it.getPower() <= to)
+                .collect(Collectors.toSet());
+            Set<Car> expectedByVelocity = cars.stream()
+                .filter(it -> it.getMaxVelocity() >= from && it.getMaxVelocity() <= to)
+                .collect(Collectors.toSet());
+
+            assertEquals(expectedByPower.size(), garage.countCarsWithPowerBetween(from, to));
+            assertEquals(expectedByVelocity.size(), garage.countCarsWithVelocityBetween(from, to));
+            assertEquals(expectedByPower, Set.copyOf(garage.carsWithPowerBetween(from, to)));
+            assertEquals(expectedByVelocity, Set.copyOf(garage.carsWithVelocityBetween(from, to)));
+            assertEquals(expectedByPower.size(), garage.carsWithPowerBetween(from, to).size());
+
+            long below = cars.stream().filter(it -> it.getPower() < from).count();
+            assertEquals((double) below / cars.size(), garage.powerPercentileRank(from));
+        }
+    }
+
+    @Test
+    void testAddCarsMatchesAddCar() {
+        Owner[] owners = new Owner[40];
+        for (int i = 0; i < owners.length; i++) {
+            owners[i] = new Owner(i, "", "", 18 + random.nextInt(70));
+        }
+        Function<Car, Owner> ownerOf = car -> car.getOwnerId() < owners.length ? owners[car.getOwnerId()] : null;
+        String[] brands = {"A", "B", "C"};
+
+        GarageImpl expected = new GarageImpl();
+        int carId = 0;
+
+        // empty garage, a batch as big as the garage and a small batch take different paths
+        for (int batchSize : new int[] {5_000, 6_000, 100}) {
+            List<Car> batch = new ArrayList<>();
+            for (int i = 0; i < batchSize; i++) {
+                // an owner id past the end has no owner
+                batch.add(new Car(carId++, brands[random.nextInt(brands.length)], "", random.nextInt(300),
+                    random.nextInt(500), random.nextInt(owners.length + 1)));
+            }
+            batch.add(batch.get(0));
+            batch.add(null);
+
+            for (Car car : batch) {
+                if (car != null) {
+                    expected.addCar(car, ownerOf.apply(car));
+                }
+            }
+            garage.addCars(batch, ownerOf);
+
+            for (int i = 0; i < 500; i++) {
+                Car removed = garage.removeCar(random.nextInt(carId));
+                assertEquals(removed, expected.removeCar((int) (removed == null ? -1 : removed.getCarId())));
+            }
+
+            assertEquals(expected.getCarTrack().size(), garage.getCarTrack().size());
+            assertEquals(Set.copyOf(expected.allCarsUniqueOwners()), Set.copyOf(garage.allCarsUniqueOwners()));
+            for (String brand : brands) {
+                assertEquals(expected.allCarsOfBrand(brand), garage.allCarsOfBrand(brand));
+                assertEquals(expected.meanOwnersAgeOfCarBrand(brand), garage.meanOwnersAgeOfCarBrand(brand));
+            }
+            assertEquals(expected.meanCarNumberForEachOwner(), garage.meanCarNumberForEachOwner());
+            assertEquals(expected.topCarsByMaxVelocity(10), garage.topCarsByMaxVelocity(10));
+            assertEquals(expected.topCarsByPower(50), garage.topCarsByPower(50));
+            assertEquals(new ArrayList<>(expected.carsWithPowerMoreThan(250)),
+                new ArrayList<>(garage.carsWithPowerMoreThan(250)));
+            assertEquals(expected.countCarsWithVelocityBetween(100, 200),
+                garage.countCarsWithVelocityBetween(100, 200));
+        }
+    }
+
+    @Test
+    void testRetentionPrunesBucketsAndBoundsMemory() {
+        garage = new GarageImpl(RetentionPolicy.keepLast(50));
+        Owner[] owners = new Owner[20];
+        for (int i = 0; i < owners.length; i++) {
+            owners[i] = new Owner(i, "", "", 18 + random.nextInt(70));
+        }
+
+        for (int carId = 0; carId < 100_000; carId++) {
+            Owner owner = owners[random.nextInt(owners.length)];
+            garage.addCar(new Car(carId, "brand-" + carId % 7, "", random.nextInt(300), random.nextInt(500),
+                (int) owner.getOwnerId()), owner);
+            if (carId >= 500) {
+                garage.removeCar(carId - 500);
+            }
+        }
+
+        GarageFootprint footprint = garage.footprint();
+        assertEquals(500, footprint.getLiveCars());
+        assertEquals(50, footprint.getTombstones());
+        assertTrue(footprint.getRefCapacity() <= 1_024);
+        assertTrue(footprint.getIdTableCapacity() <= 2_048);
+        assertEquals(1_000, footprint.getIndexKeys());
+
+        // the most recent removals are still rejected, older ones can come back
+        garage.addCar(new Car(99_499, "", "", 1, 1, 0), owners[0]);
+        assertNull(garage.getCarTrack().get(99_499));
+        garage.addCar(new Car(0, "", "", 1, 1, 0), owners[0]);
+        assertTrue(garage.allCarsOfOwner(owners[0]).contains(Car.proxy(0)));
+        garage.removeCar(0);
+
+        for (int carId = 99_500; carId < 100_000; carId++) {
+            garage.removeCar(carId);
+        }
+        assertTrue(garage.allCarsUniqueOwners().isEmpty());
+        assertTrue(garage.getCarBrand().isEmpty());
+        assertEquals(0, garage.meanCarNumberForEachOwner());
+        assertEquals(0, garage.meanOwnersAgeOfCarBrand("brand-1"));
+        assertTrue(garage.topCarsByPower(3).isEmpty());
+    }
+
+    @Test
+    void testRetentionKeepsQueriesConsistent() {
+        garage = new GarageImpl(RetentionPolicy.none());
+        Owner owner = createOwner();
+        List<Car> cars = new ArrayList<>();
+
+        for (int i = 0; i < 20_000; i++) {
+            // ids come back after removal, refs are reused
+            Car car = new Car(random.nextInt(3_000), "A", "", random.nextInt(300), random.nextInt(500),
+                (int) owner.getOwnerId());
+            if (garage.getCarTrack().contains(car.getCarId())) {
+                cars.remove(garage.removeCar((int) car.getCarId()));
+            } else {
+                garage.addCar(car, owner);
+                cars.add(car);
+            }
+        }
+
+        assertEquals(Set.copyOf(cars), Set.copyOf(garage.allCarsOfOwner(owner)));
+        assertEquals(expectedTop(cars, Car::getPower, 20), powers(garage.topCarsByPower(20)));
+        assertEquals(cars.stream().filter(it -> it.getMaxVelocity() >= 100 && it.getMaxVelocity() <= 200).count(),
+            garage.countCarsWithVelocityBetween(100, 200));
+        assertEquals(cars.stream().filter(it -> it.getPower() >= 250).collect(Collectors.toSet()),
+            Set.copyOf(garage.carsWithPowerMoreThan(250)));
+    }
+
+    @Test
+    void testBitmapBucketsMatchHashSets() {
+        garage = new GarageImpl(RetentionPolicy.keepLast(100), IndexMode.BITMAPS);
+        GarageImpl expected = new GarageImpl(RetentionPolicy.keepLast(100));
+        Owner[] owners = new Owner[30];
+        for (int i = 0; i < owners.length; i++) {
+            owners[i] = new Owner(i, "", "", 18 + random.nextInt(70));
+        }
+        // one brand dense enough for bitset containers, the others stay sorted arrays
+        String[] brands = {"A", "A", "A", "A", "A", "A", "B", "C"};
+
+        for (int i = 0; i < 60_000; i++) {
+            int carId = random.nextInt(20_000);
+            if (expected.getCarTrack().contains(carId)) {
+                assertEquals(expected.removeCar(carId), garage.removeCar(carId));
+            } else {
+                Owner owner = owners[random.nextInt(owners.length)];
+                Car car = new Car(carId, brands[random.nextInt(brands.length)], "", random.nextInt(300),
+                    random.nextInt(500), (int) owner.getOwnerId());
+                expected.addCar(car, owner);
+                garage.addCar(car, owner);
+            }
+        }
+
+        for (String brand : new String[] {"A", "B", "C", "D"}) {
+            assertEquals(expected.allCarsOfBrand(brand), garage.allCarsOfBrand(brand));
+            assertEquals(expected.meanOwnersAgeOfCarBrand(brand), garage.meanOwnersAgeOfCarBrand(brand));
+
+            // a narrow range walks the power index, a wide one walks the brand
+            for (int[] range : new int[][] {{100, 105}, {0, 499}, {300, 200}}) {
+                Set<Car> matching = expected.allCarsOfBrand(brand) == null ? Set.of()
+                    : expected.allCarsOfBrand(brand).stream()
+                        .filter(car -> car.getPower() >= range[0] && car.getPower() <= range[1])
+                        .collect(Collectors.toSet());
+                assertEquals(matching, Set.copyOf(garage.carsOfBrandWithPowerBetween(brand, range[0], range[1])));
+                assertEquals(matching.size(), garage.countCarsOfBrandWithPowerBetween(brand, range[0], range[1]));
+                assertEquals(matching.size(), expected.countCarsOfBrandWithPowerBetween(brand, range[0], range[1]));
+            }
+
+            for (Owner owner : owners) {
+                Set<Car> matching = expected.allCarsOfOwner(owner).stream()
+                    .filter(car -> brand.equals(car.getBrand()))
+                    .collect(Collectors.toSet());
+                assertEquals(matching, Set.copyOf(garage.carsOfOwnerAndBrand(owner, brand)));
+                assertEquals(matching.size(), garage.countCarsOfOwnerAndBrand(owner, brand));
+                assertEquals(matching.size(), expected.countCarsOfOwnerAndBrand(owner, brand));
+            }
+        }
+
+        for (Owner owner : owners) {
+            assertEquals(expected.allCarsOfOwner(owner), garage.allCarsOfOwner(owner));
+        }
+        assertEquals(expected.meanCarNumberForEachOwner(), garage.meanCarNumberForEachOwner());
+    }
+
+    @Test
+    void testQueryPlanPicksMostSelectiveIndex() {
+        Owner[] owners = new Owner[100];
+        for (int i = 0; i < owners.length; i++) {
+            owners[i] = new Owner(i, "", "", 18 + random.nextInt(70));
+        }
+        for (int carId = 0; carId < 10_000; carId++) {
+            // "rare" has 10 cars, "common" the rest, power and velocity are uniform
+            Owner owner = owners[carId % owners.length];
+            garage.addCar(new Car(carId, carId % 1_000 == 0 ? "rare" : "common", "", carId % 500, carId % 1_000,
+                (int) owner.getOwnerId()), owner);
+        }
+
+        assertEquals(QueryPlan.Access.BRAND,
+            garage.explain(CarQuery.builder().brand("rare").minPower(100).build()).getAccess());
+        assertEquals(10, garage.explain(CarQuery.builder().brand("rare").minPower(100).build()).getEstimatedRows());
+        assertEquals(QueryPlan.Access.POWER_RANGE,
+            garage.explain(CarQuery.builder().brand("common").minPower(990).build()).getAccess());
+        assertEquals(QueryPlan.Access.OWNER,
+            garage.explain(CarQuery.builder().brand("common").owner(owners[3]).maxVelocity(400).build()).getAccess());
+        assertEquals(QueryPlan.Access.VELOCITY_RANGE,
+            garage.explain(CarQuery.builder().owner(owners[3]).minVelocity(495).maxVelocity(495).build()).getAccess());
+        assertEquals(QueryPlan.Access.BRAND,
+            garage.explain(CarQuery.builder().brand("unknown").minPower(990).build()).getAccess());
+        assertEquals(0, garage.explain(CarQuery.builder().brand("unknown").build()).getEstimatedRows());
+
+        QueryPlan all = garage.explain(CarQuery.builder().build());
+        assertEquals(QueryPlan.Access.POWER_RANGE, all.getAccess());
+        assertEquals(10_000, all.getEstimatedRows());
+    }
+
+    @Test
+    void testQueryMatchesFilter() {
+        Owner[] owners = new Owner[20];
+        for (int i = 0; i < owners.length; i++) {
+            owners[i] = new Owner(i, "", "", 18 + random.nextInt(70));
+        }
+        String[] brands = {"A", "B", "C", "D"};
+        List<Car> cars = new ArrayList<>();
+        for (int carId = 0; carId < 5_000; carId++) {
+            Owner owner = owners[random.nextInt(owners.length)];
+            Car car = new Car(carId, brands[random.nextInt(brands.length)], "", random.nextInt(300),
+                random.nextInt(500), (int) owner.getOwnerId());
+            garage.addCar(car, owner);
+            cars.add(car);
+        }
+
+        for (int i = 0; i < 500; i++) {
+            CarQuery.Builder builder = CarQuery.builder();
+            if (random.nextBoolean()) {
+                builder.brand(brands[random.nextInt(brands.length)]);
+            }
+            if (random.nextBoolean()) {
+                builder.owner(owners[random.nextInt(owners.length)]);
+            }
+            if (random.nextBoolean()) {
+                builder.minPower(random.nextInt(500));
+            }
+            if (random.nextBoolean()) {
+                builder.maxVelocity(random.nextInt(300));
+            }
+            CarQuery query = builder.build();
+
+            Set<Car> expected = cars.stream().filter(query::matches).collect(Collectors.toSet());
+            assertEquals(expected, Set.copyOf(garage.query(query)));
+
+            // the limit keeps the first matches in the order of the chosen index
+            Collection<Car> limited = garage.query(CarQuery.builder().minPower(query.getMinPower()).limit(3).build());
+            assertEquals(new ArrayList<>(garage.carsWithPowerMoreThan(query.getMinPower())).subList(0,
+                Math.min(3, garage.countCarsWithPowerBetween(query.getMinPower(), Integer.MAX_VALUE))),
+                new ArrayList<>(limited));
+        }
+    }
+
+    @Test
+    void testPagesSurviveChangesBetweenPages() {
+        for (IndexMode mode : IndexMode.values()) {
+            garage = new GarageImpl(RetentionPolicy.none(), mode);
+            Owner[] owners = new Owner[5];
+            for (int i = 0; i < owners.length; i++) {
+                owners[i] = new Owner(i, "", "", 18 + random.nextInt(70));
+            }
+            int nextId = 0;
+            for (; nextId < 3_000; nextId++) {
+                Owner owner = owners[random.nextInt(owners.length)];
+                garage.addCar(new Car(nextId, nextId % 3 == 0 ? "A" : "B", "", random.nextInt(300),
+                    random.nextInt(500), (int) owner.getOwnerId()), owner);
+            }
+
+            // one query per access path
+            for (CarQuery query : List.of(CarQuery.builder().owner(owners[1]).build(),
+                CarQuery.builder().brand("A").minVelocity(100).build(),
+                CarQuery.builder().minPower(50).maxPower(120).build(),
+                CarQuery.builder().minVelocity(10).maxVelocity(12).limit(25).build())) {
+
+                Set<Car> before = Set.copyOf(garage.query(query));
+                Set<Car> removed = new HashSet<>();
+                List<Car> paged = new ArrayList<>();
+                String token = null;
+                do {
+                    CarPage page = garage.queryPage(query, token, 40);
+                    assertTrue(page.getCars().size() <= 40);
+                    paged.addAll(page.getCars());
+                    token = page.getNextPageToken();
+
+                    // removals and additions between pages, refs of removed cars are reused
+                    for (int i = 0; i < 20; i++) {
+                        Car car = garage.removeCar(random.nextInt(nextId));
+                        if (car != null) {
+                            removed.add(car);
+                        }
+                        Owner owner = owners[random.nextInt(owners.length)];
+                        garage.addCar(new Car(nextId, nextId % 3 == 0 ? "A" : "B", "", random.nextInt(300),
+                            random.nextInt(500), (int) owner.getOwnerId()), owner);
+                        nextId++;
+                    }
+                } while (token != null);
+
+                assertEquals(paged.size(), Set.copyOf(paged).size());
+                assertTrue(paged.stream().allMatch(query::matches));
+                if (query.getLimit() == Integer.MAX_VALUE) {
+                    for (Car car : before) {
+                        assertTrue(removed.contains(car) || paged.contains(car));
+                    }
+                } else {
+                    assertTrue(paged.size() <= query.getLimit());
+                }
+            }
+        }
+    }
+
+    @Test
+    void testStreamSplitsForParallelConsumers() {
+        for (IndexMode mode : IndexMode.values()) {
+            garage = new GarageImpl(RetentionPolicy.forever(), mode);
+            Owner owner = createOwner();
+            for (int carId = 0; carId < 50_000; carId++) {
+                garage.addCar(new Car(carId, carId % 2 == 0 ? "A" : "B", "", random.nextInt(300),
+                    random.nextInt(500), (int) owner.getOwnerId()), owner);
+            }
+
+            for (CarQuery query : List.of(CarQuery.builder().minPower(100).build(),
+                CarQuery.builder().brand("A").maxVelocity(200).build())) {
+                Set<Car> expected = Set.copyOf(garage.query(query));
+                List<Car> sequential = garage.stream(query).collect(Collectors.toList());
+                assertEquals(expected.size(), sequential.size());
+                assertEquals(expected, Set.copyOf(sequential));
+                assertEquals(sequential, garage.stream(query).parallel().collect(Collectors.toList()));
+            }
+
+            CarSpliterator spliterator = new CarSpliterator(garage.getCarsByPower().ordered(), Long.MIN_VALUE,
+                Long.MAX_VALUE);
+            assertEquals(50_000, spliterator.estimateSize());
+            Spliterator<Car> prefix = spliterator.trySplit();
+            assertEquals(25_000, prefix.estimateSize());
+            assertEquals(25_000, spliterator.estimateSize());
+
+            // removing cars while the stream is consumed neither throws nor repeats a car
+            Set<Car> all = Set.copyOf(garage.query(CarQuery.builder().build()));
+            Set<Car> seen = new HashSet<>();
+            Set<Car> removed = new HashSet<>();
+            garage.stream(CarQuery.builder().build()).forEach(car -> {
+                assertTrue(seen.add(car));
+                Car next = garage.removeCar((int) car.getCarId() + 1);
+                if (next != null) {
+                    removed.add(next);
+                }
+            });
+            assertTrue(all.stream().allMatch(car -> seen.contains(car) || removed.contains(car)));
+        }
+    }
+
+    @Test
+    void testUpdatesWhilePagingASnapshotOrStreaming() {
+        for (IndexMode mode : IndexMode.values()) {
+            garage = new GarageImpl(RetentionPolicy.none(), mode);
+            Owner owner = createOwner();
+            for (int carId = 1; carId <= 10; carId++) {
+                garage.addCar(new Car(carId, "A", "", carId * 10, carId * 10, (int) owner.getOwnerId()), owner);
+            }
+            CarQuery byPower = CarQuery.builder().minPower(0).maxPower(100_000).build();
+            CarQuery byVelocity = CarQuery.builder().minVelocity(0).maxVelocity(100_000).build();
+
+            // raising the power of a car already paged moves it past the cursor of the live garage
+            GarageImpl snapshot = garage.snapshot();
+            List<Long> paged = new ArrayList<>();
+            String token = null;
+            do {
+                CarPage page = snapshot.queryPage(byPower, token, 3);
+                page.getCars().forEach(car -> paged.add(car.getCarId()));
+                token = page.getNextPageToken();
+                garage.updateCar(new Car(paged.get(0), "A", "", 10, 500 + paged.size(), (int) owner.getOwnerId()));
+            } while (token != null);
+            assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L), paged);
+
+            // the live garage skips the moved car instead of paging it again
+            List<Long> live = new ArrayList<>();
+            token = null;
+            do {
+                CarPage page = garage.queryPage(byPower, token, 3);
+                page.getCars().forEach(car -> live.add(car.getCarId()));
+                token = page.getNextPageToken();
+                garage.updateCar(new Car(live.get(live.size() - 1), "A", "", 10, 50_000 + live.size(),
+                    (int) owner.getOwnerId()));
+            } while (token != null);
+            assertEquals(10, live.size());
+            assertEquals(10, Set.copyOf(live).size());
+
+            for (CarQuery query : List.of(byPower, byVelocity)) {
+                List<Long> streamed = new ArrayList<>();
+                garage.stream(query).forEach(car -> {
+                    streamed.add(car.getCarId());
+                    garage.updateCar(new Car(car.getCarId(), "A", "", car.getMaxVelocity() + 1_000,
+                        car.getPower() + 1_000, (int) owner.getOwnerId()));
+                });
+                assertEquals(10, streamed.size());
+                assertEquals(10, Set.copyOf(streamed).size());
+                // back into the range for the next query
+                for (long carId = 1; carId <= 10; carId++) {
+                    Car car = garage.getCarTrack().get(carId);
+                    garage.updateCar(new Car(carId, "A", "", car.getMaxVelocity() - 1_000, car.getPower() - 1_000,
+                        (int) owner.getOwnerId()));
+                }
+            }
+        }
+    }
+
+    @Test
+    void testMalformedPageToken() {
+        CarQuery query = CarQuery.builder().build();
+        assertThrows(IllegalArgumentException.class, () -> garage.queryPage(query, "x", 10));
+        assertThrows(IllegalArgumentException.class, () -> garage.queryPage(query, "9:0:0", 10));
+        assertThrows(IllegalArgumentException.class, () -> garage.queryPage(query, null, 0));
+        assertFalse(garage.queryPage(query, null, 10).hasNext());
+    }
+
+    @Test
+    void testSnapshotKeepsPointInTimeView() {
+        RetentionPolicy[] policies = {RetentionPolicy.forever(), RetentionPolicy.none(), RetentionPolicy.keepLast(100)};
+
+        for (RetentionPolicy policy : policies) {
+            for (IndexMode mode : IndexMode.values()) {
+                garage = new GarageImpl(policy, mode);
+                Owner[] owners = createOwners(20);
+                churn(owners, 20_000);
+
+                List<GarageImpl> snapshots = new ArrayList<>();
+                List<List<Object>> reports = new ArrayList<>();
+                for (int round = 0; round < 3; round++) {
+                    reports.add(report(garage, owners));
+                    snapshots.add(garage.snapshot());
+                    churn(owners, 5_000);
+                }
+
+                for (int i = 0; i < snapshots.size(); i++) {
+                    assertEquals(reports.get(i), report(snapshots.get(i), owners), policy + " " + mode);
+                }
+                assertEquals(report(garage, owners), report(garage.snapshot(), owners));
+            }
+        }
+    }
+
+    @Test
+    void testSnapshotIsReadOnly() {
+        Owner owner = createOwner();
+        Car car = createCar(owner);
+        garage.addCar(car, owner);
+
+        GarageImpl snapshot = garage.snapshot();
+        assertSame(snapshot, snapshot.snapshot());
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.addCar(createCar(owner), owner));
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.removeCar((int) car.getCarId()));
+        assertThrows(UnsupportedOperationException.class,
+            () -> snapshot.addCars(List.of(createCar(owner)), it -> owner));
+        assertEquals(car, garage.removeCar((int) car.getCarId()));
+        assertEquals(List.of(car), new ArrayList<>(snapshot.allCarsOfOwner(owner)));
+    }
+
+    @Test
+    void testSnapshotReadsWhileGarageIsWritten() throws Exception {
+        garage = new GarageImpl(RetentionPolicy.none(), IndexMode.BITMAPS);
+        Owner[] owners = createOwners(20);
+        churn(owners, 20_000);
+
+        List<Object> expected = report(garage, owners);
+        GarageImpl snapshot = garage.snapshot();
+
+        ExecutorService readers = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<Object>>> reports = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                reports.add(readers.submit(() -> report(snapshot, owners)));
+            }
+            churn(owners, 50_000);
+
+            for (Future<List<Object>> report : reports) {
+                assertEquals(expected, report.get());
+            }
+        } finally {
+            readers.shutdown();
+        }
+    }
+
+    @Test
+    void testCarAtPercentile() {
+        assertNull(garage.carAtPowerPercentile(0.5));
+        assertEquals(0, garage.velocityPercentileRank(10));
+
+        Owner owner = createOwner();
+        for (int carId = 1; carId <= 100; carId++) {
+            garage.addCar(new Car(carId, "A", "", 1_000 - carId, carId, (int) owner.getOwnerId()), owner);
+        }
+
+        assertEquals(1, garage.carAtPowerPercentile(0).getPower());
+        assertEquals(50, garage.carAtPowerPercentile(0.5).getPower());
+        assertEquals(90, garage.carAtPowerPercentile(0.9).getPower());
+        assertEquals(99, garage.carAtPowerPercentile(0.99).getPower());
+        assertEquals(100, garage.carAtPowerPercentile(1).getPower());
+        assertEquals(949, garage.carAtVelocityPercentile(0.5).getMaxVelocity());
+
+        assertEquals(0.25, garage.powerPercentileRank(26));
+        assertEquals(0.75, garage.velocityPercentileRank(975));
+
+        garage.removeCar(50);
+
+        assertEquals(51, garage.carAtPowerPercentile(0.5).getPower());
+    }
+
+    @Test
+    void testBrandDistributionsMatchSortedCars() {
+        String[] brands = {"A", "B", "C", "D", "E"};
+        int[] bounds = {-10, 0, 50, 100, 250, 299};
+        for (IndexMode mode : IndexMode.values()) {
+            garage = new GarageImpl(RetentionPolicy.none(), mode);
+            assertNull(garage.carOfBrandAtPowerPercentile("A", 0.5));
+            assertEquals(List.of(0, 0, 0, 0, 0, 0), toList(garage.velocityHistogramOfBrand("A", bounds)));
+
+            Owner[] owners = createOwners(20);
+            churn(owners, 20_000);
+            garage.addCars(List.of(new Car(20_000, "E", "", 7, 7, 0), new Car(20_001, "E", "", 300, 3, 0)),
+                car -> owners[0]);
+
+            for (String brand : brands) {
+                List<Car> cars = new ArrayList<>(garage.allCarsOfBrand(brand));
+                for (double percentile : new double[] {0, 0.01, 0.5, 0.9, 0.99, 1}) {
+                    int rank = Math.max((int) Math.ceil(percentile * cars.size()) - 1, 0);
+                    cars.sort(Comparator.comparingInt(Car::getPower));
+                    assertEquals(cars.get(rank).getPower(),
+                        garage.carOfBrandAtPowerPercentile(brand, percentile).getPower(), brand + " " + mode);
+                    cars.sort(Comparator.comparingInt(Car::getMaxVelocity));
+                    assertEquals(cars.get(rank).getMaxVelocity(),
+                        garage.carOfBrandAtVelocityPercentile(brand, percentile).getMaxVelocity());
+                }
+
+                int[] power = new int[bounds.length];
+                int[] velocity = new int[bounds.length];
+                for (Car car : cars) {
+                    for (int i = bounds.length - 1; i >= 0; i--) {
+                        if (car.getPower() >= bounds[i]) {
+                            power[i]++;
+                            break;
+                        }
+                    }
+                    for (int i = bounds.length - 1; i >= 0; i--) {
+                        if (car.getMaxVelocity() >= bounds[i]) {
+                            velocity[i]++;
+                            break;
+                        }
+                    }
+                }
+                assertEquals(toList(power), toList(garage.powerHistogramOfBrand(brand, bounds)));
+                assertEquals(toList(velocity), toList(garage.velocityHistogramOfBrand(brand, bounds)));
+            }
+
+            int[] all = garage.powerHistogram(new int[] {Integer.MIN_VALUE, 100});
+            assertEquals(garage.countCarsWithPowerBetween(Integer.MIN_VALUE, 99), all[0]);
+            assertEquals(garage.countCarsWithPowerBetween(100, Integer.MAX_VALUE), all[1]);
+            assertEquals(garage.countCarsWithVelocityBetween(0, 99), garage.velocityHistogram(new int[] {0, 100})[0]);
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> garage.powerHistogram(new int[] {1, 1}));
+        assertThrows(IllegalArgumentException.class, () -> garage.carOfBrandAtPowerPercentile("A", 1.5));
+    }
+
+    @Test
+    void testPowerAndVelocityQueriesMatchScan() {
+        for (IndexMode mode : IndexMode.values()) {
+            garage = new GarageImpl(RetentionPolicy.none(), mode);
+            assertTrue(garage.skylineOfBrand("A").isEmpty());
+
+            Owner[] owners = createOwners(20);
+            churn(owners, 20_000);
+            // the trees are built by the first queries and kept current by the writes after them
+            GarageImpl unbuilt = garage.snapshot();
+            assertMatchesScan(garage, new ArrayList<>(garage.carsWithPowerBetween(Integer.MIN_VALUE,
+                Integer.MAX_VALUE)));
+            churn(owners, 5_000);
+            garage.addCars(List.of(new Car(20_000, "A", "", 500, 700, 0), new Car(20_001, "B", "", 700, 500, 0)),
+                car -> owners[0]);
+            for (Car car : new ArrayList<>(garage.carsWithPowerBetween(0, 100))) {
+                garage.updateCar(new Car(car.getCarId(), car.getBrand(), "", car.getPower() + random.nextInt(300),
+                    random.nextInt(500), car.getOwnerId()));
+            }
+            GarageImpl snapshot = garage.snapshot();
+            List<Car> before = new ArrayList<>(garage.carsWithPowerBetween(Integer.MIN_VALUE, Integer.MAX_VALUE));
+
+            churn(owners, 5_000);
+            assertMatchesScan(garage, new ArrayList<>(garage.carsWithPowerBetween(Integer.MIN_VALUE,
+                Integer.MAX_VALUE)));
+            assertMatchesScan(snapshot, before);
+            assertMatchesScan(unbuilt, new ArrayList<>(unbuilt.carsWithPowerBetween(Integer.MIN_VALUE,
+                Integer.MAX_VALUE)));
+        }
+    }
+
+    private void assertMatchesScan(GarageImpl garage, List<Car> cars) {
+        for (int i = 0; i < 20; i++) {
+            int fromPower = random.nextInt(400);
+            int toPower = fromPower + random.nextInt(200);
+            int fromVelocity = random.nextInt(500);
+            int toVelocity = fromVelocity + random.nextInt(200);
+            Set<Car> expected = cars.stream()
+                .filter(car -> car.getPower() >= fromPower && car.getPower() <= toPower)
+                .filter(car -> car.getMaxVelocity() >= fromVelocity && car.getMaxVelocity() <= toVelocity)
+                .collect(Collectors.toSet());
+            assertEquals(expected,
+                new HashSet<>(garage.carsWithPowerAndVelocityBetween(fromPower, toPower, fromVelocity, toVelocity)));
+            assertEquals(expected.size(),
+                garage.countCarsWithPowerAndVelocityBetween(fromPower, toPower, fromVelocity, toVelocity));
+            assertEquals(cars.stream().filter(car -> car.getPower() >= fromPower)
+                    .filter(car -> car.getMaxVelocity() >= fromVelocity).collect(Collectors.toSet()),
+                new HashSet<>(garage.carsWithPowerAndVelocityAtLeast(fromPower, fromVelocity)));
+        }
+
+        for (String brand : new String[] {"A", "B", "C", "D", "unknown"}) {
+            List<Car> ofBrand = cars.stream().filter(car -> brand.equals(car.getBrand())).collect(Collectors.toList());
+            Set<Car> expected = ofBrand.stream()
+                .filter(car -> ofBrand.stream().noneMatch(other -> other.getPower() >= car.getPower()
+                    && other.getMaxVelocity() >= car.getMaxVelocity()
+                    && (other.getPower() > car.getPower() || other.getMaxVelocity() > car.getMaxVelocity())))
+                .collect(Collectors.toSet());
+            Collection<Car> skyline = garage.skylineOfBrand(brand);
+            assertEquals(expected, new HashSet<>(skyline), brand);
+            List<Integer> powers = powers(skyline);
+            List<Integer> descending = new ArrayList<>(powers);
+            descending.sort(Comparator.reverseOrder());
+            assertEquals(descending, powers);
+        }
+    }
+
+    @Test
+    void testUpdatesMatchRemoveAndAdd() {
+        String[] brands = {"A", "B", "C", "D", null};
+        for (IndexMode mode : IndexMode.values()) {
+            garage = new GarageImpl(RetentionPolicy.none(), mode);
+            GarageImpl reference = new GarageImpl(RetentionPolicy.none(), mode);
+            Owner[] owners = createOwners(20);
+
+            GarageImpl snapshot = null;
+            List<Object> expected = null;
+            for (int step = 0; step < 20_000; step++) {
+                int carId = random.nextInt(2_000);
+                Car old = garage.getCarTrack().get(carId);
+                Owner owner = owners[random.nextInt(owners.length)];
+                if (old == null) {
+                    Car car = new Car(carId, brands[random.nextInt(brands.length)], "", random.nextInt(300),
+                        random.nextInt(500), (int) owner.getOwnerId());
+                    garage.addCar(car, owner);
+                    reference.addCar(car, owner);
+                } else if (random.nextInt(3) == 0) {
+                    // a new brand, velocity or power, or all of them
+                    int changes = random.nextInt(8);
+                    String brand = (changes & 1) == 0 ? old.getBrand() : brands[random.nextInt(brands.length)];
+                    Car car = new Car(carId, brand, "", (changes & 2) == 0 ? old.getMaxVelocity() : random.nextInt(300),
+                        (changes & 4) == 0 ? old.getPower() : random.nextInt(500), old.getOwnerId());
+                    assertEquals(old, garage.updateCar(car));
+                    reference.removeCar(carId);
+                    reference.addCar(car, owners[car.getOwnerId()]);
+                } else if (random.nextInt(2) == 0) {
+                    assertEquals(old, garage.transferOwnership(carId, owner));
+                    reference.removeCar(carId);
+                    reference.addCar(new Car(carId, old.getBrand(), "", old.getMaxVelocity(), old.getPower(),
+                        (int) owner.getOwnerId()), owner);
+                } else {
+                    garage.removeCar(carId);
+                    reference.removeCar(carId);
+                }
+
+                if (step == 10_000) {
+                    snapshot = garage.snapshot();
+                    expected = describe(garage, owners);
+                }
+            }
+
+            assertEquals(describe(reference, owners), describe(garage, owners), mode.toString());
+            assertEquals(expected, describe(snapshot, owners), mode.toString());
+        }
+    }
+
+    @Test
+    void testTransferToOwnerIdOutsideIntRange() {
+        Owner owner = new Owner(1, "", "", 20);
+        garage.addCar(new Car(1, "A", "", 10, 10, 1), owner);
+
+        Owner outside = new Owner(1L << 32, "", "", 30);
+        assertThrows(IllegalArgumentException.class, () -> garage.transferOwnership(1, outside));
+        assertEquals(1, garage.allCarsOfOwner(owner).size());
+        assertEquals(1, garage.removeCar(1).getOwnerId());
+    }
+
+    @Test
+    void testUpdateCarKeepsTheOwner() {
+        Owner owner = new Owner(1, "", "", 20);
+        Car car = new Car(1, "A", "", 10, 10, 1);
+        garage.addCar(car, owner);
+
+        assertNull(garage.updateCar(new Car(2, "A", "", 10, 10, 1)));
+        assertNull(garage.updateCar(null));
+        assertThrows(IllegalArgumentException.class, () -> garage.updateCar(new Car(1, "A", "", 10, 10, 2)));
+        assertNull(garage.transferOwnership(2, owner));
+        assertNull(garage.transferOwnership(1, null));
+        assertSame(car, garage.transferOwnership(1, owner));
+
+        // a new owner is registered with the attributes it is transferred to
+        garage.transferOwnership(1, new Owner(2, "", "", 60));
+        assertEquals(60, garage.meanOwnersAgeOfCarBrand("A"));
+        assertTrue(garage.allCarsOfOwner(owner).isEmpty());
+        assertEquals(2, garage.allCarsOfBrand("A").iterator().next().getOwnerId());
+
+        GarageImpl snapshot = garage.snapshot();
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.updateCar(car));
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.transferOwnership(1, owner));
+    }
+
     @Test
     void testAllCarsOfOwner() {
         Owner owner1 = createOwner();
@@ -315,6 +1146,256 @@ class GarageImplTest {
        assertEquals(meanExpectedMeanBrandB, garage.meanOwnersAgeOfCarBrand(brands[1]));
     }
 
+    @Test
+    void meanOwnersAgeOfCarBrandAfterRemoveCar() {
+        Owner owner1 = new Owner(1, "", "", 20);
+        Owner owner2 = new Owner(2, "", "", 41);
+        Owner owner3 = new Owner(3, "", "", 70);
+
+        garage.addCar(new Car(1, "A", "", 1, 1, 1), owner1);
+        garage.addCar(new Car(2, "A", "", 1, 1, 2), owner2);
+        garage.addCar(new Car(3, "A", "", 1, 1, 3), owner3);
+        garage.addCar(new Car(4, "B", "", 1, 1, 3), owner3);
+
+        assertEquals((20 + 41 + 70) / 3, garage.meanOwnersAgeOfCarBrand("A"));
+        assertEquals(70, garage.meanOwnersAgeOfCarBrand("B"));
+
+        garage.removeCar(3);
+
+        assertEquals((20 + 41) / 2, garage.meanOwnersAgeOfCarBrand("A"));
+        assertEquals(70, garage.meanOwnersAgeOfCarBrand("B"));
+
+        garage.removeCar(4);
+        garage.addCar(new Car(5, "A", "", 1, 1, 3), owner3);
+
+        assertEquals((20 + 41 + 70) / 3, garage.meanOwnersAgeOfCarBrand("A"));
+        assertEquals(0, garage.meanOwnersAgeOfCarBrand("B"));
+        assertEquals(0, garage.meanOwnersAgeOfCarBrand("C"));
+    }
+
+    @Test
+    void meanCarNumberForEachOwnerAfterRemoveCar() {
+        assertEquals(0, garage.meanCarNumberForEachOwner());
+
+        Owner owner1 = new Owner(1, "", "", 20);
+        Owner owner2 = new Owner(2, "", "", 30);
+
+        garage.addCar(new Car(1, "A", "", 1, 1, 1), owner1);
+        garage.addCar(new Car(2, "A", "", 1, 1, 1), owner1);
+        garage.addCar(new Car(3, "A", "", 1, 1, 1), owner1);
+        garage.addCar(new Car(4, "A", "", 1, 1, 2), owner2);
+        garage.addCar(new Car(5, "A", "", 1, 1, 2), owner2);
+
+        assertEquals(5 / 2, garage.meanCarNumberForEachOwner());
+
+        garage.removeCar(4);
+        garage.removeCar(5);
+
+        // owners stay registered with no cars
+        assertEquals(3 / 2, garage.meanCarNumberForEachOwner());
+
+        garage.removeCar(1);
+
+        assertEquals(2 / 2, garage.meanCarNumberForEachOwner());
+    }
+
+    @Test
+    void testAddOwnerWithoutCars() {
+        Owner owner = new Owner(1, "", "", 20);
+
+        assertTrue(garage.addOwner(owner));
+        assertFalse(garage.addOwner(new Owner(1, "other", "", 99)));
+        assertFalse(garage.addOwner(null));
+        assertEquals(List.of(owner), new ArrayList<>(garage.allCarsUniqueOwners()));
+        assertTrue(garage.allCarsOfOwner(owner).isEmpty());
+
+        // the registered attributes win over the owner passed with a car
+        garage.addCar(new Car(1, "A", "", 1, 1, 1), new Owner(1, "", "", 60));
+        assertEquals(20, garage.meanOwnersAgeOfCarBrand("A"));
+        assertEquals(1, garage.allCarsOfOwner(owner).size());
+    }
+
+    @Test
+    void testUpdateOwnerPropagatesAge() {
+        Owner owner1 = new Owner(1, "", "", 20);
+        Owner owner2 = new Owner(2, "", "", 40);
+
+        garage.addCar(new Car(1, "A", "", 1, 1, 1), owner1);
+        garage.addCar(new Car(2, "A", "", 1, 1, 1), owner1);
+        garage.addCar(new Car(3, "B", "", 1, 1, 1), owner1);
+        garage.addCar(new Car(4, "A", "", 1, 1, 2), owner2);
+        garage.addCar(new Car(5, null, "", 1, 1, 1), owner1);
+
+        GarageImpl snapshot = garage.snapshot();
+        Owner older = new Owner(1, "renamed", "", 50);
+        assertTrue(garage.updateOwner(older));
+        assertFalse(garage.updateOwner(new Owner(3, "", "", 30)));
+
+        assertEquals((50 + 50 + 40) / 3, garage.meanOwnersAgeOfCarBrand("A"));
+        assertEquals(50, garage.meanOwnersAgeOfCarBrand("B"));
+        assertTrue(garage.allCarsUniqueOwners().stream().anyMatch(it -> it.getName().equals("renamed")));
+
+        // the snapshot keeps the attributes of its point in time
+        assertEquals((20 + 20 + 40) / 3, snapshot.meanOwnersAgeOfCarBrand("A"));
+        assertEquals(20, snapshot.meanOwnersAgeOfCarBrand("B"));
+        assertTrue(snapshot.allCarsUniqueOwners().stream().noneMatch(it -> it.getName().equals("renamed")));
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.updateOwner(older));
+
+        // cars removed after the update take the new age out of the sums
+        garage.removeCar(1);
+        garage.removeCar(4);
+        assertEquals(50, garage.meanOwnersAgeOfCarBrand("A"));
+    }
+
+    @Test
+    void meanValuesMatchFullRecomputation() {
+        Owner[] owners = new Owner[50];
+        for (int i = 0; i < owners.length; i++) {
+            owners[i] = new Owner(i, "", "", 18 + random.nextInt(70));
+        }
+        String[] brands = {"A", "B", "C", "D", "E"};
+
+        for (int carId = 0; carId < 5_000; carId++) {
+            Owner owner = owners[random.nextInt(owners.length)];
+            garage.addCar(new Car(carId, brands[random.nextInt(brands.length)], "", random.nextInt(300),
+                random.nextInt(500), (int) owner.getOwnerId()), owner);
+
+            if (random.nextInt(4) == 0) {
+                garage.removeCar(random.nextInt(carId + 1));
+            }
+        }
+
+        for (String brand : brands) {
+            assertEquals(recomputeMeanOwnersAgeOfCarBrand(brand), garage.meanOwnersAgeOfCarBrand(brand));
+        }
+        assertEquals(recomputeMeanCarNumberForEachOwner(), garage.meanCarNumberForEachOwner());
+    }
+
+    // the scanning implementation the running aggregates replaced
+
+    private int recomputeMeanOwnersAgeOfCarBrand(String brand) {
+        Map<Integer, Integer> ownerToAge = garage.getCarOwner().keySet().stream()
+            .collect(Collectors.toMap(it -> (int) it.getOwnerId(), Owner::getAge));
+
+        Collection<Car> cars = garage.getCarBrand().get(brand);
+        return cars.stream().mapToInt(it -> ownerToAge.get(it.getOwnerId())).sum() / cars.size();
+    }
+
+    private int recomputeMeanCarNumberForEachOwner() {
+        return garage.getCarOwner().values().stream().mapToInt(Collection::size).sum()
+            / garage.getCarOwner().size();
+    }
+
+    private static List<Integer> expectedTop(Collection<Car> cars,
+        ToIntFunction<Car> attribute, int k) {
+        return cars.stream()
+            .map(attribute::applyAsInt)
+            .sorted(Comparator.reverseOrder())
+            .limit(k)
+            .collect(Collectors.toList());
+    }
+
+    private static List<Integer> velocities(Collection<Car> cars) {
+        return cars.stream().map(Car::getMaxVelocity).collect(Collectors.toList());
+    }
+
+    private static List<Integer> powers(Collection<Car> cars) {
+        return cars.stream().map(Car::getPower).collect(Collectors.toList());
+    }
+
+    private void churn(Owner[] owners, int writes) {
+        String[] brands = {"A", "A", "A", "B", "C", "D"};
+        for (int i = 0; i < writes; i++) {
+            int carId = random.nextInt(10_000);
+            if (garage.getCarTrack().get(carId) != null) {
+                garage.removeCar(carId);
+            } else {
+                Owner owner = owners[random.nextInt(owners.length)];
+                garage.addCar(new Car(carId, brands[random.nextInt(brands.length)], "", random.nextInt(300),
+                    random.nextInt(500), (int) owner.getOwnerId()), owner);
+            }
+        }
+    }
+
+    // answers of every kind of query, comparable with equals
+    private static List<Object> report(GarageImpl garage, Owner[] owners) {
+        List<Object> report = new ArrayList<>();
+        report.add(new HashSet<>(garage.allCarsUniqueOwners()));
+        report.add(garage.topCarsByMaxVelocity(10));
+        report.add(garage.topCarsByPower(50));
+        report.add(new ArrayList<>(garage.carsWithPowerBetween(100, 200)));
+        report.add(garage.countCarsWithVelocityBetween(50, 150));
+        report.add(garage.carAtPowerPercentile(0.5));
+        report.add(garage.meanCarNumberForEachOwner());
+        for (String brand : new String[] {"A", "B", "C", "D"}) {
+            Collection<Car> cars = garage.allCarsOfBrand(brand);
+            report.add(cars == null ? null : Set.copyOf(cars));
+            report.add(garage.meanOwnersAgeOfCarBrand(brand));
+            report.add(Set.copyOf(garage.carsOfBrandWithPowerBetween(brand, 0, 250)));
+            report.add(garage.carOfBrandAtPowerPercentile(brand, 0.9));
+            report.add(garage.carOfBrandAtVelocityPercentile(brand, 0.5));
+            report.add(Arrays.toString(garage.powerHistogramOfBrand(brand, new int[] {0, 100, 400})));
+        }
+        for (Owner owner : owners) {
+            Collection<Car> cars = garage.allCarsOfOwner(owner);
+            report.add(cars == null ? null : Set.copyOf(cars));
+            report.add(garage.countCarsOfOwnerAndBrand(owner, "A"));
+        }
+        CarQuery query = CarQuery.builder().brand("B").minPower(100).maxPower(400).build();
+        report.add(new ArrayList<>(garage.query(query)));
+        report.add(garage.stream(query).collect(Collectors.toList()));
+        return report;
+    }
+
+    // answers of the queries with every attribute of the cars, Car equals compares ids only
+    private static List<Object> describe(GarageImpl garage, Owner[] owners) {
+        List<Object> description = new ArrayList<>();
+        description.add(new HashSet<>(garage.allCarsUniqueOwners()));
+        description.add(powers(garage.topCarsByPower(20)));
+        description.add(velocities(garage.topCarsByMaxVelocity(20)));
+        description.add(garage.countCarsWithPowerBetween(100, 200));
+        description.add(garage.carAtVelocityPercentile(0.5).getMaxVelocity());
+        description.add(toList(garage.powerHistogram(new int[] {0, 100, 400})));
+        description.add(garage.meanCarNumberForEachOwner());
+        for (String brand : new String[] {"A", "B", "C", "D"}) {
+            description.add(describe(garage.allCarsOfBrand(brand)));
+            description.add(garage.meanOwnersAgeOfCarBrand(brand));
+            description.add(toList(garage.velocityHistogramOfBrand(brand, new int[] {0, 100, 200})));
+            description.add(describe(garage.query(CarQuery.builder().brand(brand).minPower(250).build())));
+        }
+        for (Owner owner : owners) {
+            description.add(describe(garage.allCarsOfOwner(owner)));
+        }
+        return description;
+    }
+
+    private static List<String> describe(Collection<Car> cars) {
+        if (cars == null) {
+            return List.of();
+        }
+        return cars.stream()
+            .map(car -> car.getCarId() + " " + car.getBrand() + " " + car.getMaxVelocity() + " " + car.getPower()
+                + " " + car.getOwnerId())
+            .sorted()
+            .collect(Collectors.toList());
+    }
+
+    private static List<Integer> toList(int[] counts) {
+        return Arrays.stream(counts).boxed().collect(Collectors.toList());
+    }
+
+    private Owner[] createOwners(int count) {
+        Owner[] owners = new Owner[count];
+        for (int i = 0; i < count; i++) {
+            owners[i] = new Owner(i, "", "", 18 + random.nextInt(70));
+        }
+        return owners;
+    }
+
+    private static List<Integer> values(Integer... values) {
+        return Arrays.asList(values);
+    }
+
     private Car createCar(Owner owner) {
         return new Car(random.nextInt(100000), "", "", random.nextInt(100), random.nextInt(100),
             (int) owner.getOwnerId());
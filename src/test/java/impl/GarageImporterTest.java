@@ -0,0 +1,177 @@
+package impl;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import domain.Car;
+import domain.Owner;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class GarageImporterTest {
+
+    private static final String[] BRANDS = {"Audi", "BMW", "Škoda", null};
+
+    @TempDir
+    Path directory;
+
+    private final Random random = new Random();
+    private final List<Owner> owners = new ArrayList<>();
+    private final List<Car> cars = new ArrayList<>();
+
+    private Path ownersFile;
+    private Path carsFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        StringBuilder ownerLines = new StringBuilder("ownerId,name,lastName,age\n");
+        for (int i = 0; i < 300; i++) {
+            Owner owner = new Owner(i * 7L, "name-" + random.nextInt(20), i % 4 == 0 ? null : "last-" + i,
+                18 + random.nextInt(70));
+            owners.add(owner);
+            ownerLines.append(owner.getOwnerId()).append(',').append(owner.getName()).append(',')
+                .append(owner.getLastName() == null ? "" : owner.getLastName()).append(',').append(owner.getAge())
+                .append(i % 3 == 0 ? "\r\n" : "\n");
+        }
+        ownersFile = Files.writeString(directory.resolve("owners.csv"), ownerLines);
+
+        StringBuilder carLines = new StringBuilder("carId,brand,modelName,maxVelocity,power,ownerId\n");
+        for (int carId = 0; carId < 5_000; carId++) {
+            String brand = BRANDS[random.nextInt(BRANDS.length)];
+            Car car = new Car(carId, brand, "model-" + random.nextInt(5), random.nextInt(300) - 20,
+                random.nextInt(1_000), (int) owners.get(random.nextInt(owners.size())).getOwnerId());
+            cars.add(car);
+            carLines.append(car.getCarId()).append(',').append(brand == null ? "" : brand).append(',')
+                .append(car.getModelName()).append(',').append(car.getMaxVelocity()).append(',')
+                .append(car.getPower()).append(',').append(car.getOwnerId()).append('\n');
+        }
+        // a car of an owner that is not in the owners file
+        carLines.append("9999,Audi,x,1,1,5");
+        carsFile = Files.writeString(directory.resolve("cars.csv"), carLines);
+    }
+
+    @Test
+    void testCsvImportMatchesAddCarForAnyChunkSize() throws IOException {
+        GarageImpl expected = new GarageImpl();
+        owners.forEach(expected::addOwner);
+        for (Car car : cars) {
+            expected.addCar(car, owners.get(car.getOwnerId() / 7));
+        }
+
+        // chunks shorter than a line, chunks ending inside a line break, one chunk for the whole file
+        for (int chunkSize : new int[] {7, 100, 4_096, GarageImporter.DEFAULT_CHUNK_SIZE}) {
+            GarageImpl garage = new GarageImpl();
+            GarageImporter importer = new GarageImporter(ForkJoinPool.commonPool(), chunkSize);
+
+            assertEquals(cars.size(), importer.importCsv(garage, ownersFile, carsFile));
+            assertSameGarage(expected, garage);
+        }
+    }
+
+    @Test
+    void testParsedFieldsAndSharedStrings() throws IOException {
+        GarageImpl garage = new GarageImpl();
+        new GarageImporter(ForkJoinPool.commonPool(), 1 << 20).importCsv(garage, ownersFile, carsFile);
+
+        Car first = garage.carsWithPowerMoreThan(Integer.MIN_VALUE).stream()
+            .filter(car -> car.getCarId() == 0).findFirst().orElseThrow();
+        Car expected = cars.get(0);
+        assertEquals(expected.getBrand(), first.getBrand());
+        assertEquals(expected.getModelName(), first.getModelName());
+        assertEquals(expected.getMaxVelocity(), first.getMaxVelocity());
+        assertEquals(expected.getPower(), first.getPower());
+        assertEquals(expected.getOwnerId(), first.getOwnerId());
+
+        // one String per distinct model within a chunk
+        List<String> models = new ArrayList<>();
+        for (Car car : garage.carsWithPowerMoreThan(Integer.MIN_VALUE)) {
+            if (models.stream().noneMatch(model -> model == car.getModelName())) {
+                models.add(car.getModelName());
+            }
+        }
+        assertEquals(5, models.size());
+    }
+
+    @Test
+    void testMalformedLineIsReported() throws IOException {
+        Files.writeString(carsFile, "1,A,m,10,20,0\n2,A,m,ten,20,0\n", UTF_8);
+        IOException e = assertThrows(IOException.class,
+            () -> new GarageImporter().importCsv(new GarageImpl(), ownersFile, carsFile));
+        assertTrue(e.getMessage().contains("byte 14"), e.getMessage());
+
+        Files.writeString(carsFile, "1,A,m,10,20,0,extra\n", UTF_8);
+        assertThrows(IOException.class, () -> new GarageImporter().importCsv(new GarageImpl(), ownersFile, carsFile));
+
+        Files.writeString(carsFile, "1,A,m,10,20\n", UTF_8);
+        assertThrows(IOException.class, () -> new GarageImporter().importCsv(new GarageImpl(), ownersFile, carsFile));
+    }
+
+    @Test
+    void testBinaryExportRoundTrip() throws IOException {
+        GarageImpl garage = new GarageImpl();
+        new GarageImporter().importCsv(garage, ownersFile, carsFile);
+        for (int carId = 0; carId < 1_000; carId += 3) {
+            garage.removeCar(carId);
+        }
+        Owner carless = new Owner(100_000, "carless", "", 40);
+        garage.addOwner(carless);
+
+        Path export = directory.resolve("garage.bin");
+        long exported = GarageExporter.exportBinary(garage.snapshot(), export);
+        assertEquals(garage.countCarsWithPowerBetween(Integer.MIN_VALUE, Integer.MAX_VALUE), exported);
+
+        GarageImpl restored = new GarageImpl();
+        assertEquals(exported, new GarageImporter().importBinary(restored, export));
+        assertSameGarage(garage, restored);
+        assertTrue(restored.allCarsOfOwner(carless).isEmpty());
+
+        // cut short: the END record is missing
+        Files.write(export, Arrays.copyOf(Files.readAllBytes(export), (int) Files.size(export) - 3));
+        assertThrows(IOException.class, () -> new GarageImporter().importBinary(new GarageImpl(), export));
+    }
+
+    @Test
+    void testBinaryImportCountsOnlyCarsWithAnOwner() throws IOException {
+        Path export = directory.resolve("orphans.bin");
+        try (BufferedOutputStream out = new BufferedOutputStream(Files.newOutputStream(export))) {
+            RecordWriter writer = new RecordWriter(out);
+            writer.header(GarageExporter.EXPORT_MAGIC);
+            writer.owner(new Owner(1, "", "", 30));
+            writer.car(new Car(1, "A", "", 10, 10, 1));
+            // the owner of this car is not in the export, the CSV import would not count it either
+            writer.car(new Car(2, "A", "", 10, 10, 2));
+            writer.end(3);
+            writer.flush();
+        }
+
+        GarageImpl garage = new GarageImpl();
+        assertEquals(1, new GarageImporter().importBinary(garage, export));
+        assertEquals(1, garage.countCarsWithPowerBetween(Integer.MIN_VALUE, Integer.MAX_VALUE));
+    }
+
+    private static void assertSameGarage(GarageImpl expected, GarageImpl actual) {
+        assertEquals(new HashSet<>(expected.allCarsUniqueOwners()), new HashSet<>(actual.allCarsUniqueOwners()));
+        assertEquals(expected.getCarOwner(), actual.getCarOwner());
+        assertEquals(expected.getCarBrand(), actual.getCarBrand());
+        for (String brand : BRANDS) {
+            assertEquals(expected.meanOwnersAgeOfCarBrand(brand), actual.meanOwnersAgeOfCarBrand(brand));
+        }
+        assertEquals(expected.meanCarNumberForEachOwner(), actual.meanCarNumberForEachOwner());
+        assertEquals(expected.topCarsByPower(100).stream().map(Car::getPower).collect(Collectors.toList()),
+            actual.topCarsByPower(100).stream().map(Car::getPower).collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,71 @@
+package impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class IdTableTest {
+
+    private final IdTable table = new IdTable(16);
+    private final Random random = new Random();
+
+    @Test
+    void testPutGetReplaceRemove() {
+        assertEquals(IdTable.NO_REF, table.putIfAbsent(5, 0));
+        assertEquals(0, table.putIfAbsent(5, 1));
+        assertEquals(0, table.get(5));
+
+        assertTrue(table.replace(5, 7));
+        assertEquals(7, table.get(5));
+        assertFalse(table.replace(6, 7));
+
+        assertTrue(table.remove(5));
+        assertFalse(table.remove(5));
+        assertEquals(IdTable.NO_REF, table.get(5));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    void testMatchesHashMapUnderChurn() {
+        Map<Long, Integer> expected = new HashMap<>();
+
+        // a small id space keeps probe runs long, every removal has entries to shift back
+        for (int i = 0; i < 500_000; i++) {
+            long id = random.nextInt(5_000) * 1_024L;
+            int op = random.nextInt(3);
+            if (op == 0) {
+                assertEquals(expected.remove(id) != null, table.remove(id));
+            } else if (op == 1) {
+                Integer previous = expected.putIfAbsent(id, i);
+                assertEquals(previous == null ? IdTable.NO_REF : previous, table.putIfAbsent(id, i));
+            } else {
+                assertEquals(expected.getOrDefault(id, IdTable.NO_REF), table.get(id));
+            }
+        }
+
+        assertEquals(expected.size(), table.size());
+        for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), table.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    void testCapacityFollowsPeakNotChurn() {
+        for (int round = 0; round < 100; round++) {
+            for (long id = 0; id < 1_000; id++) {
+                table.putIfAbsent(round * 1_000L + id, (int) id);
+            }
+            for (long id = 0; id < 1_000; id++) {
+                assertTrue(table.remove(round * 1_000L + id));
+            }
+        }
+
+        assertEquals(0, table.size());
+        assertEquals(2_048, table.capacity());
+    }
+}
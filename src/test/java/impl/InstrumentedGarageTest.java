@@ -0,0 +1,144 @@
+package impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import domain.Car;
+import domain.CarQuery;
+import domain.Garage;
+import domain.Owner;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class InstrumentedGarageTest {
+
+    private final Owner owner = new Owner(1, "", "", 40);
+    private InstrumentedGarage garage;
+
+    @BeforeEach
+    void setUp() {
+        garage = new InstrumentedGarage(new GarageImpl(RetentionPolicy.keepLast(10)));
+    }
+
+    @Test
+    void testRecordsCallsAndResultSizes() {
+        for (int carId = 0; carId < 100; carId++) {
+            garage.addCar(new Car(carId, carId % 2 == 0 ? "A" : "B", "", carId, carId, 1), owner);
+        }
+        garage.removeCar(0);
+        garage.removeCar(1);
+
+        assertEquals(49, garage.allCarsOfBrand("A").size());
+        assertEquals(10, garage.topCarsByPower(10).size());
+        assertEquals(11, garage.countCarsWithPowerBetween(10, 20));
+        garage.query(CarQuery.builder().brand("B").maxPower(9).build());
+
+        assertEquals(100, garage.getOperation("addCar").getCalls());
+        assertEquals(2, garage.getOperation("removeCar").getCalls());
+        assertEquals(49, garage.getOperation("allCarsOfBrand").getMeanResultSize());
+        assertEquals(10, garage.getOperation("topCarsByPower").getMeanResultSize());
+        assertEquals(11, garage.getOperation("countCarsWithPowerBetween").getMeanResultSize());
+        assertEquals(4, garage.getOperation("query").getMeanResultSize());
+        assertEquals(0, garage.getOperation("stream").getCalls());
+        assertNull(garage.getOperation("unknown"));
+
+        OperationMetrics addCar = garage.getOperation("addCar");
+        assertTrue(addCar.getP50Nanos() > 0);
+        assertTrue(addCar.getP50Nanos() <= addCar.getP99Nanos());
+        assertTrue(addCar.getP999Nanos() <= addCar.getMaxNanos());
+        assertTrue(addCar.getCallsPerSecond() > 0);
+
+        GarageFootprint footprint = garage.getFootprint();
+        assertEquals(98, footprint.getLiveCars());
+        assertEquals(2, footprint.getTombstones());
+        assertEquals(98, footprint.getPowerIndexKeys());
+        assertEquals(98, footprint.getVelocityIndexKeys());
+        assertEquals(2, footprint.getBrandBuckets());
+
+        garage.reset();
+        assertTrue(garage.getOperations().stream().allMatch(operation -> operation.getCalls() == 0));
+    }
+
+    @Test
+    void testDisabledRecordsNothing() {
+        garage.setEnabled(false);
+        assertFalse(garage.isEnabled());
+        garage.addCar(new Car(1, "A", "", 1, 1, 1), owner);
+        assertEquals(1, garage.allCarsOfOwner(owner).size());
+        assertEquals(0, garage.getOperation("addCar").getCalls());
+
+        garage.setEnabled(true);
+        garage.allCarsOfOwner(owner);
+        assertEquals(1, garage.getOperation("allCarsOfOwner").getCalls());
+    }
+
+    @Test
+    void testSortedSetViewsAreNotSized() {
+        InstrumentedGarage concurrent = new InstrumentedGarage(new ConcurrentGarage());
+        for (int carId = 0; carId < 10; carId++) {
+            concurrent.addCar(new Car(carId, "A", "", carId, carId, 1), owner);
+        }
+
+        // a skip list view counts its elements one by one, the call is timed without it
+        assertEquals(5, concurrent.carsWithPowerMoreThan(5).size());
+        assertEquals(1, concurrent.getOperation("carsWithPowerMoreThan").getCalls());
+        assertEquals(0, concurrent.getOperation("carsWithPowerMoreThan").getMeanResultSize());
+
+        assertEquals(10, concurrent.allCarsOfBrand("A").size());
+        assertEquals(10, concurrent.getOperation("allCarsOfBrand").getMeanResultSize());
+    }
+
+    @Test
+    void testEveryMethodIsReported() {
+        List<String> methods = garage.getOperations().stream()
+            .map(OperationMetrics::getName)
+            .collect(Collectors.toList());
+
+        List<String> expected = new ArrayList<>();
+        for (java.lang.reflect.Method method : Garage.class.getMethods()) {
+            expected.add(method.getName());
+        }
+        assertEquals(expected.stream().sorted().collect(Collectors.toList()),
+            methods.stream().sorted().collect(Collectors.toList()));
+    }
+
+    @Test
+    void testExposedThroughJmx() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = garage.register("test");
+        try {
+            garage.addCar(new Car(1, "A", "", 1, 1, 1), owner);
+
+            CompositeData[] operations = (CompositeData[]) server.getAttribute(name, "Operations");
+            assertEquals(garage.getOperations().size(), operations.length);
+            CompositeData addCar = null;
+            for (CompositeData operation : operations) {
+                if ("addCar".equals(operation.get("name"))) {
+                    addCar = operation;
+                }
+            }
+            assertNotNull(addCar);
+            assertEquals(1L, addCar.get("calls"));
+
+            CompositeData footprint = (CompositeData) server.getAttribute(name, "Footprint");
+            assertEquals(1, footprint.get("liveCars"));
+
+            server.setAttribute(name, new javax.management.Attribute("Enabled", false));
+            assertFalse(garage.isEnabled());
+            server.invoke(name, "reset", new Object[0], new String[0]);
+            assertEquals(0, garage.getOperation("addCar").getCalls());
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package impl;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class KdTreeTest {
+
+    private KdTree tree;
+    private final Random random = new Random();
+
+    // points by ref, null once removed
+    private final List<int[]> points = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        tree = new KdTree();
+    }
+
+    @Test
+    void testEmpty() {
+        assertTrue(tree.isEmpty());
+        assertEquals(0, tree.count(Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE));
+        assertEquals(0, tree.skyline().length);
+        assertFalse(tree.remove(1, 1, 0));
+        tree.forEach(0, 10, 0, 10, ref -> {
+            throw new AssertionError();
+        });
+    }
+
+    @Test
+    void testMatchesScanUnderRandomUpdates() {
+        for (int step = 0; step < 20_000; step++) {
+            if (random.nextInt(3) == 0 && !points.isEmpty()) {
+                int ref = random.nextInt(points.size());
+                int[] point = points.get(ref);
+                if (point == null) {
+                    assertFalse(tree.remove(0, 0, ref));
+                } else {
+                    assertTrue(tree.remove(point[0], point[1], ref));
+                    assertFalse(tree.contains(point[0], point[1], ref));
+                    points.set(ref, null);
+                }
+            } else {
+                add(random.nextInt(1_000) - 500, random.nextInt(300));
+            }
+
+            if (step % 1_000 == 0) {
+                assertMatchesScan(tree);
+            }
+        }
+        assertMatchesScan(tree);
+        assertTrue(tree.height() < 30, "height " + tree.height());
+    }
+
+    @Test
+    void testSortedInputStaysBalanced() {
+        for (int i = 0; i < 50_000; i++) {
+            add(i, i / 3);
+        }
+        assertTrue(tree.height() < 30, "height " + tree.height());
+        assertEquals(1, tree.skyline().length);
+
+        // removing all but the low end leaves a tree sized for what is left
+        for (int ref = 100; ref < points.size(); ref++) {
+            int[] point = points.get(ref);
+            assertTrue(tree.remove(point[0], point[1], ref));
+            points.set(ref, null);
+        }
+        assertTrue(tree.height() < 10, "height " + tree.height());
+        assertMatchesScan(tree);
+    }
+
+    @Test
+    void testEqualPoints() {
+        for (int i = 0; i < 1_000; i++) {
+            add(7, 7);
+        }
+        add(8, 1);
+        add(1, 8);
+        add(7, 6);
+
+        assertEquals(1_003, tree.count(0, 10, 0, 10));
+        assertEquals(1_002, tree.skyline().length);
+        assertMatchesScan(tree);
+
+        for (int ref = 0; ref < 1_000; ref += 2) {
+            assertTrue(tree.remove(7, 7, ref));
+            points.set(ref, null);
+        }
+        assertMatchesScan(tree);
+    }
+
+    @Test
+    void testBulkLoadMatchesAdds() {
+        for (int i = 0; i < 1_000; i++) {
+            add(random.nextInt(100), random.nextInt(100));
+        }
+
+        int count = 20_000;
+        int[] xs = new int[count];
+        int[] ys = new int[count];
+        int[] refs = new int[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = random.nextInt(5_000);
+            ys[i] = random.nextInt(5_000);
+            refs[i] = points.size();
+            points.add(new int[] {xs[i], ys[i]});
+        }
+        tree.addAll(xs, ys, refs, count);
+
+        assertEquals(points.size(), tree.size());
+        assertMatchesScan(tree);
+    }
+
+    @Test
+    void testSnapshotKeepsItsPoints() {
+        for (int i = 0; i < 5_000; i++) {
+            add(random.nextInt(1_000), random.nextInt(1_000));
+        }
+        KdTree snapshot = tree.snapshot();
+        List<int[]> before = new ArrayList<>(points);
+
+        for (int i = 0; i < 5_000; i++) {
+            int ref = random.nextInt(points.size());
+            int[] point = points.get(ref);
+            if (point != null) {
+                tree.remove(point[0], point[1], ref);
+                points.set(ref, null);
+            }
+            add(random.nextInt(1_000), random.nextInt(1_000));
+        }
+        assertMatchesScan(tree);
+
+        List<int[]> after = new ArrayList<>(points);
+        points.clear();
+        points.addAll(before);
+        assertMatchesScan(snapshot);
+
+        // a fork is written without touching the tree it came from
+        KdTree fork = snapshot.fork();
+        fork.add(2_000, 2_000, -1);
+        assertEquals(before.stream().filter(point -> point != null).count(), snapshot.size());
+        assertArrayEquals(new int[] {-1}, fork.skyline());
+
+        points.clear();
+        points.addAll(after);
+        assertMatchesScan(tree);
+    }
+
+    private void add(int x, int y) {
+        tree.add(x, y, points.size());
+        points.add(new int[] {x, y});
+    }
+
+    private void assertMatchesScan(KdTree tree) {
+        int live = (int) points.stream().filter(point -> point != null).count();
+        assertEquals(live, tree.size());
+
+        for (int i = 0; i < 20; i++) {
+            int minX = random.nextInt(1_200) - 600;
+            int maxX = minX + random.nextInt(600);
+            int minY = random.nextInt(400) - 50;
+            int maxY = i == 0 ? Integer.MAX_VALUE : minY + random.nextInt(200);
+
+            List<Integer> expected = new ArrayList<>();
+            for (int ref = 0; ref < points.size(); ref++) {
+                int[] point = points.get(ref);
+                if (point != null && point[0] >= minX && point[0] <= maxX && point[1] >= minY && point[1] <= maxY) {
+                    expected.add(ref);
+                }
+            }
+
+            List<Integer> actual = new ArrayList<>();
+            tree.forEach(minX, maxX, minY, maxY, actual::add);
+            actual.sort(null);
+            assertEquals(expected, actual);
+            assertEquals(expected.size(), tree.count(minX, maxX, minY, maxY));
+        }
+
+        int[] skyline = tree.skyline();
+        Arrays.sort(skyline);
+        assertArrayEquals(skyline(), skyline);
+    }
+
+    // every point no other point dominates, by comparing all pairs
+    private int[] skyline() {
+        List<Integer> skyline = new ArrayList<>();
+        for (int ref = 0; ref < points.size(); ref++) {
+            int[] point = points.get(ref);
+            if (point == null) {
+                continue;
+            }
+            boolean dominated = false;
+            for (int[] other : points) {
+                if (other != null && other[0] >= point[0] && other[1] >= point[1]
+                    && (other[0] > point[0] || other[1] > point[1])) {
+                    dominated = true;
+                    break;
+                }
+            }
+            if (!dominated) {
+                skyline.add(ref);
+            }
+        }
+        return skyline.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
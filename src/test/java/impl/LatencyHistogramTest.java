@@ -0,0 +1,64 @@
+package impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final Random random = new Random();
+
+    @Test
+    void testBucketsCoverEveryValue() {
+        for (int index = 0; index < (Long.SIZE - 3) * 8; index++) {
+            long highest = LatencyHistogram.highestValue(index);
+            assertEquals(index, LatencyHistogram.index(highest));
+            if (index > 0) {
+                assertEquals(index, LatencyHistogram.index(LatencyHistogram.highestValue(index - 1) + 1));
+            }
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValue(LatencyHistogram.index(Long.MAX_VALUE)));
+    }
+
+    @Test
+    void testPercentilesWithinRelativeError() {
+        long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            // log-uniform from 1ns to about 1s
+            values[i] = (long) Math.exp(random.nextDouble() * Math.log(1e9));
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        assertEquals(values.length, histogram.count());
+        assertEquals(values[values.length - 1], histogram.max());
+        assertEquals(Arrays.stream(values).average().getAsDouble(), histogram.mean(), 1e-6);
+
+        for (double percentile : new double[] {0, 0.5, 0.9, 0.99, 0.999, 1}) {
+            long exact = values[Math.max((int) Math.ceil(percentile * values.length) - 1, 0)];
+            long reported = histogram.valueAt(percentile);
+            assertTrue(reported >= exact && reported <= exact + exact / 8, percentile + ": " + reported);
+        }
+    }
+
+    @Test
+    void testEmptyAndReset() {
+        assertEquals(0, histogram.valueAt(0.5));
+        assertEquals(0, histogram.mean());
+
+        histogram.record(-5);
+        histogram.record(1_000);
+        assertEquals(2, histogram.count());
+        assertEquals(0, histogram.valueAt(0.5));
+
+        histogram.reset();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.max());
+        assertThrows(IllegalArgumentException.class, () -> histogram.valueAt(1.5));
+    }
+}
@@ -0,0 +1,250 @@
+package impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class LongBTreeTest {
+
+    private LongBTree tree;
+    private final Random random = new Random();
+
+    @BeforeEach
+    void setUp() {
+        tree = new LongBTree();
+    }
+
+    @Test
+    void testEmpty() {
+        assertTrue(tree.isEmpty());
+        assertFalse(tree.contains(0));
+        assertFalse(tree.remove(0));
+        assertFalse(tree.iterator(Long.MIN_VALUE).hasNext());
+        assertFalse(tree.descendingIterator().hasNext());
+    }
+
+    @Test
+    void testAddRemoveContains() {
+        assertTrue(tree.add(5));
+        assertFalse(tree.add(5));
+        assertTrue(tree.add(-5));
+        assertTrue(tree.add(Long.MAX_VALUE));
+        assertTrue(tree.add(Long.MIN_VALUE));
+
+        assertEquals(4, tree.size());
+        assertEquals(Long.MIN_VALUE, tree.first());
+        assertEquals(Long.MAX_VALUE, tree.last());
+        assertTrue(tree.contains(-5));
+
+        assertTrue(tree.remove(-5));
+        assertFalse(tree.remove(-5));
+        assertFalse(tree.contains(-5));
+        assertEquals(3, tree.size());
+    }
+
+    @Test
+    void testMatchesTreeSetUnderRandomUpdates() {
+        NavigableSet<Long> expected = new TreeSet<>();
+
+        for (int i = 0; i < 200_000; i++) {
+            long key = random.nextInt(20_000) - 10_000;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), tree.remove(key));
+            } else {
+                assertEquals(expected.add(key), tree.add(key));
+            }
+        }
+
+        assertEquals(expected.size(), tree.size());
+        assertEquals(expected.first(), tree.first());
+        assertEquals(expected.last(), tree.last());
+
+        for (long from = -10_100; from <= 10_100; from += 997) {
+            assertEquals(new ArrayList<>(expected.tailSet(from, true)), toList(tree.iterator(from)));
+        }
+        assertEquals(new ArrayList<>(expected.descendingSet()), toList(tree.descendingIterator()));
+
+        for (Long key : new ArrayList<>(expected)) {
+            assertTrue(tree.remove(key));
+        }
+        assertTrue(tree.isEmpty());
+        assertFalse(tree.iterator(Long.MIN_VALUE).hasNext());
+    }
+
+    @Test
+    void testRankAndSelectMatchTreeSet() {
+        NavigableSet<Long> expected = new TreeSet<>();
+
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 10_000; i++) {
+                long key = random.nextInt(50_000);
+                if (random.nextInt(3) == 0) {
+                    expected.remove(key);
+                    tree.remove(key);
+                } else {
+                    expected.add(key);
+                    tree.add(key);
+                }
+            }
+
+            for (int i = 0; i < 200; i++) {
+                long key = random.nextInt(52_000) - 1_000;
+                assertEquals(expected.headSet(key, false).size(), tree.rank(key));
+            }
+
+            List<Long> sorted = new ArrayList<>(expected);
+            for (int rank = 0; rank < sorted.size(); rank += 1 + random.nextInt(50)) {
+                assertEquals(sorted.get(rank), tree.select(rank));
+            }
+            assertEquals(sorted.get(sorted.size() - 1), tree.select(sorted.size() - 1));
+        }
+
+        assertThrows(IndexOutOfBoundsException.class, () -> tree.select(tree.size()));
+        assertThrows(IndexOutOfBoundsException.class, () -> tree.select(-1));
+    }
+
+    @Test
+    void testSequentialInsertAndRemove() {
+        int count = LongBTree.MAX * LongBTree.MAX * 3;
+        for (long key = 0; key < count; key++) {
+            tree.add(key);
+        }
+
+        PrimitiveIterator.OfLong iterator = tree.iterator(0);
+        for (long key = 0; key < count; key++) {
+            assertEquals(key, iterator.nextLong());
+        }
+        assertFalse(iterator.hasNext());
+
+        for (long key = count - 1; key >= 0; key -= 2) {
+            assertTrue(tree.remove(key));
+        }
+        assertEquals(count / 2, tree.size());
+        assertEquals(0, tree.first());
+        assertEquals(count - 2, tree.last());
+    }
+
+    @Test
+    void testBuildMatchesSortedInput() {
+        int[] counts = {0, 1, LongBTree.MAX, LongBTree.MAX + 1, LongBTree.MAX * LongBTree.MAX + 1, 300_000};
+
+        for (int count : counts) {
+            long[] keys = new long[count + 10];
+            for (int i = 0; i < count; i++) {
+                keys[i] = i * 3L - 1_000;
+            }
+            tree.build(keys, count);
+
+            assertEquals(count, tree.size());
+            PrimitiveIterator.OfLong iterator = tree.iterator(Long.MIN_VALUE);
+            for (int i = 0; i < count; i++) {
+                assertEquals(keys[i], iterator.nextLong());
+            }
+            assertFalse(iterator.hasNext());
+
+            for (int i = 0; i < count; i += 1 + random.nextInt(1_000)) {
+                assertEquals(keys[i], tree.select(i));
+                assertEquals(i, tree.rank(keys[i]));
+            }
+
+            // the built tree keeps working under updates, which needs every node at least half full
+            for (int i = 0; i < count; i += 2) {
+                assertTrue(tree.remove(keys[i]));
+                assertTrue(tree.add(keys[i] + 1));
+            }
+            for (int i = 0; i < count; i++) {
+                assertTrue(tree.remove(i % 2 == 0 ? keys[i] + 1 : keys[i]));
+            }
+            assertTrue(tree.isEmpty());
+        }
+    }
+
+    @Test
+    void testSnapshotIsUnaffectedByLaterUpdates() {
+        NavigableSet<Long> expected = new TreeSet<>();
+        for (long key = 0; key < 100_000; key += 2) {
+            tree.add(key);
+            expected.add(key);
+        }
+
+        List<LongBTree> snapshots = new ArrayList<>();
+        List<List<Long>> contents = new ArrayList<>();
+        for (int round = 0; round < 5; round++) {
+            snapshots.add(tree.snapshot());
+            contents.add(new ArrayList<>(expected));
+
+            // splits, borrows and merges all run on nodes shared with the snapshots
+            for (int i = 0; i < 30_000; i++) {
+                long key = random.nextInt(110_000);
+                if (random.nextBoolean()) {
+                    assertEquals(expected.remove(key), tree.remove(key));
+                } else {
+                    assertEquals(expected.add(key), tree.add(key));
+                }
+            }
+        }
+
+        assertEquals(new ArrayList<>(expected), toList(tree.iterator(Long.MIN_VALUE)));
+        for (int i = 0; i < snapshots.size(); i++) {
+            LongBTree snapshot = snapshots.get(i);
+            List<Long> keys = contents.get(i);
+
+            assertEquals(keys, toList(snapshot.iterator(Long.MIN_VALUE)));
+            assertEquals(keys.size(), snapshot.size());
+            assertEquals(keys.get(keys.size() / 2), snapshot.select(keys.size() / 2));
+            assertEquals(keys.size() / 2, snapshot.rank(keys.get(keys.size() / 2)));
+        }
+    }
+
+    @Test
+    void testForkLeavesTheTreeUnchanged() {
+        for (long key = 0; key < 10_000; key++) {
+            tree.add(key);
+        }
+
+        LongBTree fork = tree.fork();
+        for (long key = 0; key < 10_000; key += 3) {
+            assertTrue(fork.remove(key));
+            assertTrue(fork.add(key + 20_000));
+        }
+
+        assertEquals(10_000, tree.size());
+        assertEquals(LongStream.range(0, 10_000).boxed().collect(Collectors.toList()),
+            toList(tree.iterator(Long.MIN_VALUE)));
+        assertEquals(10_000, fork.size());
+        assertEquals(20_000, fork.select(fork.rank(20_000)));
+        assertFalse(fork.contains(9_999));
+    }
+
+    @Test
+    void testIteratorIsFailFast() {
+        tree.add(1);
+        tree.add(2);
+
+        PrimitiveIterator.OfLong iterator = tree.iterator(0);
+        iterator.nextLong();
+        tree.add(3);
+
+        assertThrows(ConcurrentModificationException.class, iterator::nextLong);
+    }
+
+    private static List<Long> toList(Iterator<Long> iterator) {
+        List<Long> keys = new ArrayList<>();
+        iterator.forEachRemaining(keys::add);
+        return keys;
+    }
+}
@@ -0,0 +1,105 @@
+package impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class OwnerRegistryTest {
+
+    private final OwnerRegistry<String> registry = new OwnerRegistry<>();
+    private final Random random = new Random();
+
+    @Test
+    void testAddGetReplaceRemove() {
+        assertTrue(registry.add(5, "five"));
+        assertFalse(registry.add(5, "other"));
+        assertEquals("five", registry.get(5));
+        assertNull(registry.get(6));
+
+        assertTrue(registry.replace(5, "FIVE"));
+        assertEquals("FIVE", registry.get(5));
+        assertFalse(registry.replace(6, "six"));
+
+        assertTrue(registry.remove(5));
+        assertFalse(registry.remove(5));
+        assertNull(registry.get(5));
+        assertTrue(registry.isEmpty());
+    }
+
+    @Test
+    void testRemoveMovesLastEntryIntoTheHole() {
+        for (long id = 0; id < 100; id++) {
+            registry.add(id * 1_000, "owner-" + id);
+        }
+
+        registry.remove(0);
+        registry.remove(50_000);
+
+        assertEquals(98, registry.size());
+        Set<String> entries = new HashSet<>();
+        for (int i = 0; i < registry.size(); i++) {
+            entries.add(registry.entry(i));
+        }
+        assertEquals(98, entries.size());
+        assertEquals("owner-99", registry.get(99_000));
+        assertEquals("owner-1", registry.get(1_000));
+    }
+
+    @Test
+    void testMatchesHashMapUnderChurn() {
+        Map<Long, String> expected = new HashMap<>();
+
+        for (int i = 0; i < 200_000; i++) {
+            long id = random.nextInt(2_000) * 1_024L;
+            switch (random.nextInt(3)) {
+                case 0:
+                    assertEquals(expected.putIfAbsent(id, "a" + i) == null, registry.add(id, "a" + i));
+                    break;
+                case 1:
+                    assertEquals(expected.replace(id, "r" + i) != null, registry.replace(id, "r" + i));
+                    break;
+                default:
+                    assertEquals(expected.remove(id) != null, registry.remove(id));
+            }
+        }
+
+        assertEquals(expected.size(), registry.size());
+        for (int i = 0; i < registry.size(); i++) {
+            assertTrue(expected.containsValue(registry.entry(i)));
+        }
+        expected.forEach((id, entry) -> assertEquals(entry, registry.get(id)));
+    }
+
+    @Test
+    void testSnapshotIsIsolatedFromWrites() {
+        for (long id = 0; id < 10; id++) {
+            registry.add(id, "v1-" + id);
+        }
+
+        OwnerRegistry<String> snapshot = registry.snapshot();
+        registry.replace(3, "v2-3");
+        registry.remove(0);
+        for (long id = 10; id < 100; id++) {
+            registry.add(id, "v2-" + id);
+        }
+
+        assertEquals(10, snapshot.size());
+        for (long id = 0; id < 10; id++) {
+            assertEquals("v1-" + id, snapshot.get(id));
+        }
+        assertNull(snapshot.get(50));
+
+        assertEquals(99, registry.size());
+        assertNull(registry.get(0));
+        assertEquals("v2-3", registry.get(3));
+        assertEquals("v2-50", registry.get(50));
+    }
+}
@@ -0,0 +1,630 @@
+package impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import domain.Car;
+import domain.Owner;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PersistentGarageTest {
+
+    private static final String[] BRANDS = {"A", "B", "C", null};
+
+    @TempDir
+    Path directory;
+
+    private final Random random = new Random();
+    private final Owner[] owners = new Owner[30];
+    private final List<PersistentGarage> opened = new ArrayList<>();
+
+    private GarageImpl expected;
+    private int nextCarId;
+
+    @BeforeEach
+    void setUp() {
+        for (int i = 0; i < owners.length; i++) {
+            owners[i] = new Owner(i, "name-" + i, i % 5 == 0 ? null : "last", 18 + random.nextInt(70));
+        }
+        expected = new GarageImpl();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (PersistentGarage garage : opened) {
+            garage.close();
+        }
+    }
+
+    @Test
+    void testReopenRestoresState() throws IOException {
+        PersistentGarage garage = open(directory, Integer.MAX_VALUE);
+        mutate(garage, 3_000);
+        garage.close();
+
+        assertSameState(expected, open(directory, Integer.MAX_VALUE).getGarage());
+    }
+
+    @Test
+    void testTransferToOwnerIdOutsideIntRangeIsNotLogged() throws IOException {
+        PersistentGarage garage = open(directory, Integer.MAX_VALUE);
+        garage.addCar(new Car(1, "A", "", 10, 10, 1), owners[1]);
+
+        Owner outside = new Owner(1L << 32, "", "", 30);
+        assertThrows(IllegalArgumentException.class, () -> garage.transferOwnership(1, outside));
+        garage.close();
+
+        assertEquals(1, open(directory, Integer.MAX_VALUE).getGarage().removeCar(1).getOwnerId());
+    }
+
+    @Test
+    void testRecoversFromSnapshotAndLogTail() throws IOException {
+        PersistentGarage garage = open(directory, 250);
+        mutate(garage, 2_000);
+        List<Car> batch = newCars(1_000);
+        garage.addCars(batch, car -> owners[car.getOwnerId()]);
+        expected.addCars(batch, car -> owners[car.getOwnerId()]);
+        mutate(garage, 1_100);
+        garage.sync();
+
+        // old segments and snapshots are gone, only the newest snapshot and its log remain
+        assertEquals(1, files("snapshot-").size());
+        assertEquals(1, files("log-").size());
+
+        PersistentGarage recovered = open(crash(), 250);
+        assertSameState(expected, recovered.getGarage());
+
+        // removed ids stay registered through the snapshot
+        Car removed = expected.getCarTrack().car(firstRemovedRef(expected));
+        recovered.addCar(removed, owners[removed.getOwnerId()]);
+        assertNull(recovered.getGarage().getCarTrack().get(removed.getCarId()));
+    }
+
+    @Test
+    void testOwnerChangesSurviveLogAndSnapshot() throws IOException {
+        PersistentGarage garage = open(directory, Integer.MAX_VALUE);
+        Owner carless = new Owner(1_000, "carless", null, 33);
+        assertTrue(garage.addOwner(carless));
+        expected.addOwner(carless);
+        mutate(garage, 500);
+
+        Owner older = new Owner(3, "older", "", owners[3].getAge() + 10);
+        assertTrue(garage.updateOwner(older));
+        expected.updateOwner(older);
+        owners[3] = older;
+        assertFalse(garage.updateOwner(new Owner(2_000, "", "", 1)));
+        garage.close();
+
+        // replayed from the log
+        PersistentGarage reopened = open(directory, Integer.MAX_VALUE);
+        assertSameState(expected, reopened.getGarage());
+        assertFalse(reopened.addOwner(carless));
+
+        // written to and loaded from a snapshot
+        reopened.checkpoint();
+        reopened.close();
+        assertSameState(expected, open(directory, Integer.MAX_VALUE).getGarage());
+    }
+
+    @Test
+    void testCarUpdatesSurviveLogAndSnapshot() throws IOException {
+        PersistentGarage garage = open(directory, Integer.MAX_VALUE);
+        mutate(garage, 1_000);
+
+        for (int i = 0; i < 300; i++) {
+            int carId = random.nextInt(nextCarId);
+            Car old = expected.getCarTrack().get(carId);
+            if (old == null) {
+                assertNull(garage.updateCar(newCar()));
+            } else if (random.nextBoolean()) {
+                Car car = new Car(carId, BRANDS[random.nextInt(BRANDS.length)], "updated", random.nextInt(300),
+                    random.nextInt(500), old.getOwnerId());
+                assertEquals(expected.updateCar(car), garage.updateCar(car));
+            } else {
+                Owner owner = owners[random.nextInt(owners.length)];
+                assertEquals(expected.transferOwnership(carId, owner), garage.transferOwnership(carId, owner));
+            }
+        }
+        Car car = expected.getCarTrack().get(firstLiveId(expected));
+        assertThrows(IllegalArgumentException.class,
+            () -> garage.updateCar(new Car(car.getCarId(), "", "", 1, 1, car.getOwnerId() + 1)));
+        garage.close();
+
+        // replayed from the log
+        PersistentGarage reopened = open(directory, Integer.MAX_VALUE);
+        assertSameState(expected, reopened.getGarage());
+
+        // written to and loaded from a snapshot
+        reopened.checkpoint();
+        reopened.close();
+        assertSameState(expected, open(directory, Integer.MAX_VALUE).getGarage());
+    }
+
+    @Test
+    void testCrashLosesOnlyUnsyncedMutations() throws IOException {
+        PersistentGarage garage = open(directory, Integer.MAX_VALUE);
+        mutate(garage, 1_000);
+        garage.sync();
+
+        // still in the write buffer when the process dies
+        garage.addCar(new Car(1_000_000, "A", "", 1, 1, 0), owners[0]);
+        garage.removeCar(firstLiveId(expected));
+
+        assertSameState(expected, open(crash(), Integer.MAX_VALUE).getGarage());
+    }
+
+    @Test
+    void testTornRecordIsCutOff() throws IOException {
+        PersistentGarage garage = open(directory, Integer.MAX_VALUE);
+        mutate(garage, 500);
+        Car last = new Car(2_000_000, "B", "model", 10, 10, 1);
+        garage.addCar(last, owners[1]);
+        garage.close();
+
+        Path log = files("log-").get(0);
+        long length = Files.size(log);
+        try (var channel = Files.newByteChannel(log, StandardOpenOption.WRITE)) {
+            channel.truncate(length - 3);
+        }
+
+        PersistentGarage recovered = open(directory, Integer.MAX_VALUE);
+        assertNull(recovered.getGarage().getCarTrack().get(last.getCarId()));
+        assertSameState(expected, recovered.getGarage());
+
+        // the log continues after the cut
+        mutate(recovered, 200);
+        recovered.close();
+        assertSameState(expected, open(directory, Integer.MAX_VALUE).getGarage());
+    }
+
+    @Test
+    void testChecksumMismatchIsCutOff() throws IOException {
+        PersistentGarage garage = open(directory, Integer.MAX_VALUE);
+        mutate(garage, 500);
+        garage.addCar(new Car(3_000_000, "C", "model", 10, 10, 2), owners[2]);
+        garage.close();
+
+        Path log = files("log-").get(0);
+        byte[] bytes = Files.readAllBytes(log);
+        bytes[bytes.length - 2] ^= 0x7F;
+        Files.write(log, bytes);
+
+        assertSameState(expected, open(directory, Integer.MAX_VALUE).getGarage());
+    }
+
+    @Test
+    void testUnreadableSnapshotFailsTheOpen() throws IOException {
+        PersistentGarage garage = open(directory, Integer.MAX_VALUE);
+        mutate(garage, 1_000);
+        garage.checkpoint();
+        mutate(garage, 100);
+        garage.close();
+
+        // the segments it replaced are gone, the garage can not be rebuilt without it
+        Path snapshot = files("snapshot-").get(0);
+        long length = Files.size(snapshot);
+        try (var channel = Files.newByteChannel(snapshot, StandardOpenOption.WRITE)) {
+            channel.truncate(length / 2);
+        }
+
+        assertThrows(IOException.class, () -> open(directory, Integer.MAX_VALUE));
+    }
+
+    @Test
+    void testOnlyTheLastSegmentMayBeTorn() throws IOException {
+        PersistentGarage garage = open(directory, Integer.MAX_VALUE);
+        mutate(garage, 500);
+        garage.sync();
+        Path crashed = crash();
+
+        // the checkpoint deletes log-0, the copy keeps it next to log-1 as a crash before the cleanup would
+        garage.checkpoint();
+        mutate(garage, 300);
+        garage.sync();
+        Path segment = files("log-").get(0);
+        Files.copy(segment, crashed.resolve(segment.getFileName()));
+        Path copy = Files.createDirectory(directory.resolve("copy"));
+        for (Path file : List.of(crashed.resolve("log-0.wal"), crashed.resolve("log-1.wal"))) {
+            Files.copy(file, copy.resolve(file.getFileName()));
+        }
+
+        assertSameState(expected, open(crashed, Integer.MAX_VALUE).getGarage());
+
+        Path first = copy.resolve("log-0.wal");
+        try (var channel = Files.newByteChannel(first, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(first) - 3);
+        }
+        assertThrows(IOException.class, () -> open(copy, Integer.MAX_VALUE));
+    }
+
+    @Test
+    void testMissingSegmentFailsTheOpen() throws IOException {
+        PersistentGarage garage = open(directory, Integer.MAX_VALUE);
+        mutate(garage, 500);
+        garage.close();
+
+        Files.move(files("log-").get(0), directory.resolve("log-1.wal"));
+
+        assertThrows(IOException.class, () -> open(directory, Integer.MAX_VALUE));
+    }
+
+    @Test
+    void testFailedAutomaticCheckpointKeepsTheMutation() throws IOException {
+        PersistentGarage garage = open(directory, 100);
+        // the snapshot can not be written over a directory
+        Path blocked = Files.createDirectory(directory.resolve("snapshot-1.snap.tmp"));
+
+        mutate(garage, 150);
+        assertNotNull(garage.checkpointFailure());
+        assertSameState(expected, garage.getGarage());
+
+        Files.delete(blocked);
+        mutate(garage, 100);
+        assertNull(garage.checkpointFailure());
+        assertEquals(1, files("snapshot-").size());
+        garage.close();
+
+        assertSameState(expected, open(directory, Integer.MAX_VALUE).getGarage());
+    }
+
+    @Test
+    void testCloseWaitsForTheFlusherWithoutInterruptingIt() throws Exception {
+        Path file = directory.resolve("log-0.wal");
+        FailingForceChannel channel = new FailingForceChannel(
+            FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+        WriteAheadLog log = new WriteAheadLog(channel, Integer.MAX_VALUE, 1);
+        long header = Files.size(file);
+
+        // the flusher is held inside its fsync while the log is closed
+        CountDownLatch release = new CountDownLatch(1);
+        channel.held = new CountDownLatch(1);
+        channel.release = release;
+        log.addOwner(owners[0]);
+        assertTrue(channel.held.await(10, TimeUnit.SECONDS));
+
+        CompletableFuture<Void> closed = CompletableFuture.runAsync(() -> {
+            try {
+                log.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        Thread.sleep(100);
+        release.countDown();
+
+        closed.get(10, TimeUnit.SECONDS);
+        assertTrue(Files.size(file) > header);
+        assertThrows(IOException.class, () -> log.addOwner(owners[1]));
+    }
+
+    @Test
+    void testInterruptedSnapshotIsIgnored() throws IOException {
+        PersistentGarage garage = open(directory, Integer.MAX_VALUE);
+        mutate(garage, 1_000);
+        garage.checkpoint();
+        mutate(garage, 300);
+        garage.close();
+
+        Path tmp = directory.resolve("snapshot-2.snap.tmp");
+        Files.write(tmp, new byte[] {1, 2, 3});
+
+        assertSameState(expected, open(directory, Integer.MAX_VALUE).getGarage());
+        assertFalse(Files.exists(tmp));
+    }
+
+    @Test
+    void testGroupCommitSyncsOnInterval() throws Exception {
+        PersistentGarage garage = PersistentGarage.open(directory, Integer.MAX_VALUE, 5, Integer.MAX_VALUE);
+        opened.add(garage);
+        mutate(garage, 100);
+
+        // nothing forces the log but the flusher, wait until the file stops growing
+        Path log = files("log-").get(0);
+        long deadline = System.currentTimeMillis() + 5_000;
+        long size = -1;
+        while ((size != Files.size(log) || size <= RecordWriter.HEADER_SIZE)
+            && System.currentTimeMillis() < deadline) {
+            size = Files.size(log);
+            Thread.sleep(50);
+        }
+
+        assertSameState(expected, open(crash(), Integer.MAX_VALUE).getGarage());
+    }
+
+    @Test
+    void testFailedSyncBreaksTheLog() throws IOException {
+        Path file = directory.resolve("log-0.wal");
+        FailingForceChannel channel = new FailingForceChannel(
+            FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+        WriteAheadLog log = new WriteAheadLog(channel, 2, 0);
+        log.addOwner(owners[0]);
+        log.sync();
+        long synced = Files.size(file);
+
+        channel.failing = true;
+        log.addOwner(owners[1]);
+        assertThrows(IOException.class, () -> log.addOwner(owners[2]));
+
+        // the fsync works again, but nothing is appended after the records it failed for
+        channel.failing = false;
+        assertThrows(IOException.class, () -> log.addOwner(owners[3]));
+        assertThrows(IOException.class, () -> log.removeCar(1));
+        assertThrows(IOException.class, log::sync);
+        long failed = Files.size(file);
+        assertTrue(failed >= synced);
+
+        assertThrows(IOException.class, log::close);
+        assertFalse(channel.isOpen());
+        assertEquals(failed, Files.size(file));
+    }
+
+    private PersistentGarage open(Path directory, int snapshotEvery) throws IOException {
+        PersistentGarage garage = PersistentGarage.open(directory, 64, 0, snapshotEvery);
+        opened.add(garage);
+        return garage;
+    }
+
+    /**
+     * Random adds and removes applied to the garage and to the in-memory reference
+     */
+    private void mutate(PersistentGarage garage, int count) {
+        for (int i = 0; i < count; i++) {
+            if (random.nextInt(4) == 0 && nextCarId > 0) {
+                int carId = random.nextInt(nextCarId);
+                assertEquals(expected.removeCar(carId), garage.removeCar(carId));
+            } else {
+                Car car = newCar();
+                expected.addCar(car, owners[car.getOwnerId()]);
+                garage.addCar(car, owners[car.getOwnerId()]);
+            }
+        }
+    }
+
+    private List<Car> newCars(int count) {
+        List<Car> cars = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            cars.add(newCar());
+        }
+        return cars;
+    }
+
+    private Car newCar() {
+        return new Car(nextCarId++, BRANDS[random.nextInt(BRANDS.length)], "model-" + random.nextInt(10),
+            random.nextInt(300), random.nextInt(500), random.nextInt(owners.length));
+    }
+
+    /**
+     * @return copy of the files as the process left them, without closing the garage
+     */
+    private Path crash() throws IOException {
+        Path copy = Files.createDirectory(directory.resolve("crash-" + opened.size()));
+        for (Path file : files("")) {
+            Files.copy(file, copy.resolve(file.getFileName()));
+        }
+        return copy;
+    }
+
+    private List<Path> files(String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                .filter(Files::isRegularFile)
+                .filter(it -> it.getFileName().toString().startsWith(prefix))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+    }
+
+    private static int firstRemovedRef(GarageImpl garage) {
+        for (int ref = 0; ; ref++) {
+            if (!garage.getCarTrack().isLive(ref)) {
+                return ref;
+            }
+        }
+    }
+
+    private static int firstLiveId(GarageImpl garage) {
+        for (int ref = 0; ; ref++) {
+            if (garage.getCarTrack().isLive(ref)) {
+                return (int) garage.getCarTrack().car(ref).getCarId();
+            }
+        }
+    }
+
+    private static void assertSameState(GarageImpl expected, GarageImpl actual) {
+        CarRegistry expectedCars = expected.getCarTrack();
+        CarRegistry actualCars = actual.getCarTrack();
+
+        assertEquals(expectedCars.size(), actualCars.size());
+        assertEquals(expectedCars.removed(), actualCars.removed());
+        for (int ref = 0; ref < expectedCars.registered(); ref++) {
+            Car car = expectedCars.car(ref);
+            assertEquals(expectedCars.state(car.getCarId()), actualCars.state(car.getCarId()));
+            assertSameCar(car, actualCars.car(actualCars.ref(car.getCarId())));
+        }
+
+        assertEquals(expected.getCarOwner(), actual.getCarOwner());
+        assertEquals(expected.getCarBrand(), actual.getCarBrand());
+        for (Owner owner : expected.allCarsUniqueOwners()) {
+            Owner restored = actual.allCarsUniqueOwners().stream().filter(owner::equals).findFirst().orElseThrow();
+            assertEquals(owner.getName(), restored.getName());
+            assertEquals(owner.getLastName(), restored.getLastName());
+            assertEquals(owner.getAge(), restored.getAge());
+        }
+        for (String brand : BRANDS) {
+            assertEquals(expected.meanOwnersAgeOfCarBrand(brand), actual.meanOwnersAgeOfCarBrand(brand));
+        }
+        assertEquals(expected.meanCarNumberForEachOwner(), actual.meanCarNumberForEachOwner());
+
+        // same refs give the same order among cars with equal attributes
+        assertEquals(expected.topCarsByPower(50), actual.topCarsByPower(50));
+        assertEquals(expected.topCarsByMaxVelocity(50), actual.topCarsByMaxVelocity(50));
+        assertEquals(new ArrayList<>(expected.carsWithPowerMoreThan(0)),
+            new ArrayList<>(actual.carsWithPowerMoreThan(0)));
+        assertEquals(new ArrayList<>(expected.carsWithVelocityBetween(0, 300)),
+            new ArrayList<>(actual.carsWithVelocityBetween(0, 300)));
+    }
+
+    private static void assertSameCar(Car expected, Car actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getCarId(), actual.getCarId());
+        assertEquals(expected.getBrand(), actual.getBrand());
+        assertEquals(expected.getModelName(), actual.getModelName());
+        assertEquals(expected.getMaxVelocity(), actual.getMaxVelocity());
+        assertEquals(expected.getPower(), actual.getPower());
+        assertEquals(expected.getOwnerId(), actual.getOwnerId());
+    }
+
+    /**
+     * File channel whose force fails while {@code failing} is set, or is held once while {@code held} is set
+     */
+    private static final class FailingForceChannel extends FileChannel {
+
+        private final FileChannel channel;
+
+        private volatile boolean failing;
+
+        // counted down by the next force, which then waits for release without giving up on an interrupt
+        private volatile CountDownLatch held;
+        private volatile CountDownLatch release;
+
+        private FailingForceChannel(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            if (failing) {
+                throw new IOException("force failed");
+            }
+            CountDownLatch hold = held;
+            if (hold != null && hold.getCount() > 0) {
+                hold.countDown();
+                awaitUninterruptibly(release);
+            }
+            channel.force(metaData);
+        }
+
+        private static void awaitUninterruptibly(CountDownLatch latch) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    latch.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return channel.read(dsts, offset, length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return channel.write(src);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return channel.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return channel.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return channel.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return channel.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return channel.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return channel.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return channel.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return channel.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            channel.close();
+        }
+    }
+}
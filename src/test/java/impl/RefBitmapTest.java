@@ -0,0 +1,144 @@
+package impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.jupiter.api.Test;
+
+class RefBitmapTest {
+
+    private final RefBitmap bitmap = new RefBitmap();
+    private final Random random = new Random();
+
+    @Test
+    void testAddRemoveContains() {
+        assertTrue(bitmap.add(3));
+        assertFalse(bitmap.add(3));
+        assertTrue(bitmap.add(1 << 20));
+        assertTrue(bitmap.contains(3));
+        assertFalse(bitmap.contains(4));
+        assertEquals(2, bitmap.cardinality());
+
+        assertTrue(bitmap.remove(3));
+        assertFalse(bitmap.remove(3));
+        assertTrue(bitmap.remove(1 << 20));
+        assertTrue(bitmap.isEmpty());
+        assertFalse(bitmap.iterator().hasNext());
+    }
+
+    @Test
+    void testExhaustedIteratorStaysExhausted() {
+        // past the array limit the refs are held in a bitset container
+        for (int ref = 0; ref < 5_000; ref++) {
+            bitmap.add(ref);
+        }
+
+        PrimitiveIterator.OfInt refs = bitmap.iterator();
+        for (int ref = 0; ref < 5_000; ref++) {
+            assertEquals(ref, refs.nextInt());
+        }
+        assertFalse(refs.hasNext());
+        assertFalse(refs.hasNext());
+        assertThrows(NoSuchElementException.class, refs::nextInt);
+    }
+
+    @Test
+    void testMatchesTreeSetAcrossContainerKinds() {
+        TreeSet<Integer> expected = new TreeSet<>();
+
+        // grows one container past the array limit and back, others stay sparse
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 200_000; i++) {
+                int ref = random.nextBoolean() ? random.nextInt(10_000) : random.nextInt(1 << 22);
+                if (round == 0 ? random.nextInt(4) != 0 : random.nextInt(4) == 0) {
+                    assertEquals(expected.add(ref), bitmap.add(ref));
+                } else {
+                    assertEquals(expected.remove(ref), bitmap.remove(ref));
+                }
+            }
+
+            assertEquals(expected.size(), bitmap.cardinality());
+            assertEquals(new ArrayList<>(expected), toList(bitmap.iterator()));
+            for (int i = 0; i < 10_000; i++) {
+                assertEquals(expected.contains(i), bitmap.contains(i));
+            }
+        }
+    }
+
+    @Test
+    void testIntersection() {
+        RefBitmap other = new RefBitmap();
+        TreeSet<Integer> left = new TreeSet<>();
+        TreeSet<Integer> right = new TreeSet<>();
+
+        // dense and sparse on both sides, so every pair of container kinds meets
+        for (int i = 0; i < 50_000; i++) {
+            int dense = random.nextInt(1 << 16);
+            int sparse = (1 << 16) + random.nextInt(1 << 20);
+            left.add(dense);
+            bitmap.add(dense);
+            if (i % 3 == 0) {
+                right.add(sparse);
+                other.add(sparse);
+                left.add(sparse + 1);
+                bitmap.add(sparse + 1);
+            }
+            if (i % 2 == 0) {
+                int ref = random.nextInt(1 << 16);
+                right.add(ref);
+                other.add(ref);
+            }
+        }
+
+        TreeSet<Integer> expected = new TreeSet<>(left);
+        expected.retainAll(right);
+
+        List<Integer> actual = new ArrayList<>();
+        bitmap.forEachAnd(other, actual::add);
+        assertEquals(new ArrayList<>(expected), actual);
+        assertEquals(expected.size(), bitmap.andCardinality(other));
+        assertEquals(expected.size(), other.andCardinality(bitmap));
+    }
+
+    @Test
+    void testCopiesDoNotSeeEachOthersWrites() {
+        TreeSet<Integer> expected = new TreeSet<>();
+        for (int i = 0; i < 20_000; i++) {
+            int ref = random.nextInt(1 << 18);
+            bitmap.add(ref);
+            expected.add(ref);
+        }
+
+        RefBitmap copy = bitmap.copy();
+        TreeSet<Integer> copied = new TreeSet<>(expected);
+
+        // flips containers between the two kinds on both sides
+        for (int i = 0; i < 20_000; i++) {
+            int ref = random.nextInt(1 << 18);
+            if (random.nextBoolean()) {
+                assertEquals(expected.remove(ref), bitmap.remove(ref));
+            } else {
+                assertEquals(copied.add(ref), copy.add(ref));
+            }
+        }
+
+        assertEquals(new ArrayList<>(expected), toList(bitmap.iterator()));
+        assertEquals(new ArrayList<>(copied), toList(copy.iterator()));
+        assertEquals(expected.size(), bitmap.cardinality());
+        assertEquals(copied.size(), copy.cardinality());
+    }
+
+    private static List<Integer> toList(PrimitiveIterator.OfInt iterator) {
+        List<Integer> refs = new ArrayList<>();
+        iterator.forEachRemaining((int ref) -> refs.add(ref));
+        return refs;
+    }
+}
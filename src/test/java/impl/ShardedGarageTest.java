@@ -0,0 +1,326 @@
+package impl;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import domain.Car;
+import domain.CarQuery;
+import domain.Garage;
+import domain.Owner;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ShardedGarageTest {
+
+    private static final String[] BRANDS = {"A", "B", "C", "D", "E"};
+
+    private final Random random = new Random();
+    private Owner[] owners;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        owners = new Owner[20];
+        for (int i = 0; i < owners.length; i++) {
+            owners[i] = new Owner(i, "", "", 20 + i * 3);
+        }
+        executor = Executors.newFixedThreadPool(8);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void testQueriesMatchGarageImpl() {
+        ShardedGarage garage = new ShardedGarage(5);
+        GarageImpl reference = new GarageImpl();
+        for (int i = 0; i < 3_000; i++) {
+            int carId = random.nextInt(2_000);
+            if (random.nextInt(4) == 0) {
+                assertEquals(reference.removeCar(carId), garage.removeCar(carId));
+            } else {
+                Car car = randomCar(carId);
+                garage.addCar(car, owners[car.getOwnerId()]);
+                reference.addCar(car, owners[car.getOwnerId()]);
+            }
+        }
+
+        assertSameAnswers(reference, garage);
+    }
+
+    @Test
+    void testUpdatesMatchGarageImpl() {
+        ShardedGarage garage = new ShardedGarage(5);
+        GarageImpl reference = new GarageImpl();
+        for (int i = 0; i < 5_000; i++) {
+            int carId = random.nextInt(2_000);
+            Car old = reference.getCarTrack().get(carId);
+            Owner owner = owners[random.nextInt(owners.length)];
+            if (old == null) {
+                Car car = randomCar(carId);
+                garage.addCar(car, owners[car.getOwnerId()]);
+                reference.addCar(car, owners[car.getOwnerId()]);
+            } else if (random.nextInt(3) == 0) {
+                Car car = randomCar(carId);
+                car = new Car(carId, car.getBrand(), "", car.getMaxVelocity(), car.getPower(), old.getOwnerId());
+                assertEquals(reference.updateCar(car), garage.updateCar(car));
+            } else if (random.nextInt(2) == 0) {
+                assertEquals(reference.transferOwnership(carId, owner), garage.transferOwnership(carId, owner));
+            } else {
+                assertEquals(reference.removeCar(carId), garage.removeCar(carId));
+            }
+        }
+
+        assertSameAnswers(reference, garage);
+    }
+
+    @Test
+    void testAddCarsMatchesAddCar() {
+        List<Car> cars = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            cars.add(randomCar(random.nextInt(4_000)));
+        }
+        cars.add(null);
+        Function<Car, Owner> ownerOf = car -> car.getCarId() % 10 == 0 ? null : owners[car.getOwnerId()];
+
+        ShardedGarage garage = new ShardedGarage(3, RetentionPolicy.keepLast(100), IndexMode.BITMAPS,
+            ForkJoinPool.commonPool());
+        garage.addCars(cars, ownerOf);
+        GarageImpl reference = new GarageImpl(RetentionPolicy.keepLast(100), IndexMode.BITMAPS);
+        reference.addCars(cars, ownerOf);
+
+        assertSameAnswers(reference, garage);
+    }
+
+    @Test
+    void testOwnerSpanningShards() {
+        ShardedGarage garage = new ShardedGarage(4, RetentionPolicy.none(), IndexMode.HASH_SETS,
+            ForkJoinPool.commonPool());
+        Owner owner = owners[1];
+        for (int carId = 0; carId < 8; carId++) {
+            garage.addCar(new Car(carId, "A", "", carId, carId, 1), owner);
+        }
+        garage.addCar(new Car(8, "A", "", 8, 8, 2), owners[2]);
+
+        assertEquals(8, garage.allCarsOfOwner(owner).size());
+        assertEquals(8, garage.carsOfOwnerAndBrand(owner, "A").size());
+        assertEquals(8, garage.countCarsOfOwnerAndBrand(owner, "A"));
+        assertEquals(2, garage.allCarsUniqueOwners().size());
+        assertEquals(4, garage.meanCarNumberForEachOwner());
+        assertEquals((8 * owner.getAge() + owners[2].getAge()) / 9, garage.meanOwnersAgeOfCarBrand("A"));
+
+        for (int carId = 0; carId < 7; carId++) {
+            garage.removeCar(carId);
+        }
+        assertEquals(1, garage.allCarsOfOwner(owner).size());
+        assertEquals(2, garage.allCarsUniqueOwners().size());
+
+        garage.removeCar(7);
+        assertNull(garage.allCarsOfOwner(owner));
+        assertEquals(List.of(owners[2]), garage.allCarsUniqueOwners());
+        assertEquals(1, garage.meanCarNumberForEachOwner());
+    }
+
+    @Test
+    void testOwnerUpdateReachesEveryShard() {
+        ShardedGarage garage = new ShardedGarage(4);
+        GarageImpl reference = new GarageImpl();
+        Owner carless = new Owner(100, "", "", 50);
+        assertTrue(garage.addOwner(carless));
+        reference.addOwner(carless);
+        assertEquals(List.of(), garage.allCarsOfOwner(carless));
+
+        for (int carId = 0; carId < 1_000; carId++) {
+            Car car = randomCar(carId);
+            garage.addCar(car, owners[car.getOwnerId()]);
+            reference.addCar(car, owners[car.getOwnerId()]);
+        }
+        for (int i = 0; i < owners.length; i += 3) {
+            owners[i] = new Owner(i, "updated", "", owners[i].getAge() * 2);
+            assertTrue(garage.updateOwner(owners[i]));
+            reference.updateOwner(owners[i]);
+        }
+        assertFalse(garage.updateOwner(new Owner(-5, "", "", 1)));
+
+        assertSameAnswers(reference, garage);
+        assertEquals(reference.meanCarNumberForEachOwner(), garage.meanCarNumberForEachOwner());
+    }
+
+    @Test
+    void testConcurrentWritesAndReads() throws Exception {
+        ShardedGarage garage = new ShardedGarage(4);
+        List<Future<Void>> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int thread = t;
+            writers.add(executor.submit(() -> {
+                for (int i = 0; i < 2_000; i++) {
+                    Car car = randomCar(thread * 2_000 + i);
+                    garage.addCar(car, owners[car.getOwnerId()]);
+                    if (i % 4 == 0) {
+                        garage.removeCar((int) car.getCarId());
+                    }
+                }
+                return null;
+            }));
+        }
+
+        while (!writers.stream().allMatch(Future::isDone)) {
+            Garage snapshot = garage.snapshot();
+            int size = snapshot.countCarsWithPowerBetween(Integer.MIN_VALUE, Integer.MAX_VALUE);
+            assertEquals(size, snapshot.carsWithPowerMoreThan(Integer.MIN_VALUE).size());
+            assertEquals(size, snapshot.countCarsWithVelocityBetween(Integer.MIN_VALUE, Integer.MAX_VALUE));
+            garage.topThreeCarsByMaxVelocity();
+            garage.carAtPowerPercentile(0.5);
+        }
+        for (Future<Void> writer : writers) {
+            writer.get(60, TimeUnit.SECONDS);
+        }
+
+        assertEquals(6_000, garage.countCarsWithPowerBetween(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        int byOwner = 0;
+        for (Owner owner : garage.allCarsUniqueOwners()) {
+            byOwner += garage.allCarsOfOwner(owner).size();
+        }
+        assertEquals(6_000, byOwner);
+    }
+
+    @Test
+    void testSnapshotIsReadOnlyPointInTime() {
+        ShardedGarage garage = new ShardedGarage(3);
+        for (int carId = 0; carId < 30; carId++) {
+            garage.addCar(new Car(carId, "A", "", carId, carId, carId % 2), owners[carId % 2]);
+        }
+
+        ShardedGarage snapshot = garage.snapshot();
+        garage.removeCar(0);
+        garage.addCar(new Car(100, "A", "", 1, 1, 0), owners[0]);
+
+        assertEquals(30, snapshot.carsWithPowerMoreThan(Integer.MIN_VALUE).size());
+        assertEquals(30, garage.carsWithPowerMoreThan(Integer.MIN_VALUE).size());
+        assertTrue(snapshot.allCarsOfOwner(owners[0]).stream().anyMatch(car -> car.getCarId() == 0));
+        assertTrue(snapshot == snapshot.snapshot());
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.removeCar(1));
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.addCar(new Car(200, "A", "", 1, 1, 0), owners[0]));
+    }
+
+    private void assertSameAnswers(GarageImpl reference, ShardedGarage garage) {
+        assertEquals(new HashSet<>(reference.allCarsUniqueOwners()), new HashSet<>(garage.allCarsUniqueOwners()));
+        assertEquals(reference.meanCarNumberForEachOwner(), garage.meanCarNumberForEachOwner());
+        for (Owner owner : owners) {
+            assertEquals(asSet(reference.allCarsOfOwner(owner)), asSet(garage.allCarsOfOwner(owner)));
+            for (String brand : BRANDS) {
+                assertEquals(asSet(reference.carsOfOwnerAndBrand(owner, brand)),
+                    asSet(garage.carsOfOwnerAndBrand(owner, brand)));
+                assertEquals(reference.countCarsOfOwnerAndBrand(owner, brand),
+                    garage.countCarsOfOwnerAndBrand(owner, brand));
+            }
+        }
+        for (String brand : BRANDS) {
+            assertEquals(asSet(reference.allCarsOfBrand(brand)), asSet(garage.allCarsOfBrand(brand)));
+            assertEquals(reference.meanOwnersAgeOfCarBrand(brand), garage.meanOwnersAgeOfCarBrand(brand));
+            assertEquals(asSet(reference.carsOfBrandWithPowerBetween(brand, 100, 300)),
+                asSet(garage.carsOfBrandWithPowerBetween(brand, 100, 300)));
+            assertEquals(reference.countCarsOfBrandWithPowerBetween(brand, 100, 300),
+                garage.countCarsOfBrandWithPowerBetween(brand, 100, 300));
+            assertEquals(asSet(reference.skylineOfBrand(brand)), asSet(garage.skylineOfBrand(brand)));
+            assertEquals(powers(reference.skylineOfBrand(brand)), powers(garage.skylineOfBrand(brand)));
+            for (double percentile : new double[] {0, 0.5, 0.9, 0.99, 1}) {
+                assertEquals(power(reference.carOfBrandAtPowerPercentile(brand, percentile)),
+                    power(garage.carOfBrandAtPowerPercentile(brand, percentile)));
+                assertEquals(velocity(reference.carOfBrandAtVelocityPercentile(brand, percentile)),
+                    velocity(garage.carOfBrandAtVelocityPercentile(brand, percentile)));
+            }
+            int[] bounds = {0, 100, 200, 500};
+            assertArrayEquals(reference.powerHistogramOfBrand(brand, bounds),
+                garage.powerHistogramOfBrand(brand, bounds));
+            assertArrayEquals(reference.velocityHistogramOfBrand(brand, bounds),
+                garage.velocityHistogramOfBrand(brand, bounds));
+        }
+        assertNull(garage.carOfBrandAtPowerPercentile("unknown", 0.5));
+        assertArrayEquals(reference.powerHistogram(new int[] {-1, 300}), garage.powerHistogram(new int[] {-1, 300}));
+        assertArrayEquals(reference.velocityHistogram(new int[] {50}), garage.velocityHistogram(new int[] {50}));
+        assertNull(garage.allCarsOfBrand("unknown"));
+        assertNull(garage.allCarsOfOwner(new Owner(-1, "", "", 1)));
+
+        // ordered results: same attribute sequence, ties may come in another order
+        assertEquals(velocities(reference.topThreeCarsByMaxVelocity()), velocities(garage.topThreeCarsByMaxVelocity()));
+        assertEquals(velocities(reference.topCarsByMaxVelocity(50)), velocities(garage.topCarsByMaxVelocity(50)));
+        assertEquals(powers(reference.topCarsByPower(40)), powers(garage.topCarsByPower(40)));
+        assertEquals(powers(reference.carsWithPowerMoreThan(700)), powers(garage.carsWithPowerMoreThan(700)));
+        assertEquals(asSet(reference.carsWithPowerMoreThan(700)), asSet(garage.carsWithPowerMoreThan(700)));
+        assertEquals(powers(reference.carsWithPowerBetween(100, 200)), powers(garage.carsWithPowerBetween(100, 200)));
+        assertEquals(velocities(reference.carsWithVelocityBetween(50, 90)),
+            velocities(garage.carsWithVelocityBetween(50, 90)));
+
+        assertEquals(reference.countCarsWithPowerBetween(100, 500), garage.countCarsWithPowerBetween(100, 500));
+        assertEquals(reference.countCarsWithVelocityBetween(10, 20), garage.countCarsWithVelocityBetween(10, 20));
+        assertEquals(asSet(reference.carsWithPowerAndVelocityBetween(100, 500, 10, 60)),
+            asSet(garage.carsWithPowerAndVelocityBetween(100, 500, 10, 60)));
+        assertEquals(reference.countCarsWithPowerAndVelocityBetween(100, 500, 10, 60),
+            garage.countCarsWithPowerAndVelocityBetween(100, 500, 10, 60));
+        assertEquals(asSet(reference.carsWithPowerAndVelocityAtLeast(300, 50)),
+            asSet(garage.carsWithPowerAndVelocityAtLeast(300, 50)));
+        for (int value : new int[] {Integer.MIN_VALUE, 0, 17, 150, 399, 999, Integer.MAX_VALUE}) {
+            assertEquals(reference.powerPercentileRank(value), garage.powerPercentileRank(value), 1e-12);
+            assertEquals(reference.velocityPercentileRank(value), garage.velocityPercentileRank(value), 1e-12);
+        }
+        for (double percentile : new double[] {0, 0.001, 0.1, 0.25, 0.5, 0.77, 0.99, 1}) {
+            assertEquals(reference.carAtPowerPercentile(percentile).getPower(),
+                garage.carAtPowerPercentile(percentile).getPower());
+            assertEquals(reference.carAtVelocityPercentile(percentile).getMaxVelocity(),
+                garage.carAtVelocityPercentile(percentile).getMaxVelocity());
+        }
+
+        CarQuery query = CarQuery.builder().brand("B").minPower(200).maxVelocity(300).build();
+        assertEquals(asSet(reference.query(query)), asSet(garage.query(query)));
+        CarQuery limited = CarQuery.builder().minPower(500).limit(7).build();
+        assertEquals(7, garage.query(limited).size());
+        assertTrue(garage.query(limited).stream().allMatch(limited::matches));
+    }
+
+    private Car randomCar(int carId) {
+        return new Car(carId, BRANDS[random.nextInt(BRANDS.length)], "", random.nextInt(400), random.nextInt(1_000),
+            random.nextInt(owners.length));
+    }
+
+    private static Set<Car> asSet(Collection<Car> cars) {
+        return cars == null ? null : new HashSet<>(cars);
+    }
+
+    private static List<Integer> velocities(Collection<Car> cars) {
+        return cars.stream().map(Car::getMaxVelocity).collect(Collectors.toList());
+    }
+
+    private static List<Integer> powers(Collection<Car> cars) {
+        return cars.stream().map(Car::getPower).collect(Collectors.toList());
+    }
+
+    private static Integer velocity(Car car) {
+        return car == null ? null : car.getMaxVelocity();
+    }
+
+    private static Integer power(Car car) {
+        return car == null ? null : car.getPower();
+    }
+}